@@ -0,0 +1,116 @@
+// This file is part of the ATMOSPHERE mobile testing framework.
+// Copyright (C) 2016 MusalaSoft
+//
+// ATMOSPHERE is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// ATMOSPHERE is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with ATMOSPHERE.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.musala.atmosphere.server.eventservice;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.musala.atmosphere.commons.util.Pair;
+import com.musala.atmosphere.server.eventservice.event.Event;
+import com.musala.atmosphere.server.eventservice.subscriber.Subscriber;
+
+/**
+ * Compares informing a subscriber through a {@link SubscriberInvoker compiled invoker} against the reflective path
+ * used before - a method cache in a synchronized map keyed by a new {@link Pair} per event, followed by
+ * {@link Method#invoke(Object, Object...)}.
+ *
+ * @author filareta.yordanova
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SubscriberInvokerBenchmark {
+    private final Map<Entry<Class<?>, Class<?>>, Method> subscribersMethodsCache =
+            Collections.synchronizedMap(new HashMap<Entry<Class<?>, Class<?>>, Method>());
+
+    private final BenchmarkEvent event = new BenchmarkEvent();
+
+    private BenchmarkSubscriber subscriber;
+
+    private SubscriberInvoker subscriberInvoker;
+
+    /**
+     * An event published in the benchmark.
+     */
+    public static class BenchmarkEvent implements Event {
+    }
+
+    /**
+     * A subscriber that counts the received events, so the receiver method can not be eliminated.
+     */
+    public static class BenchmarkSubscriber implements Subscriber {
+        private long receivedEvents;
+
+        public void inform(BenchmarkEvent event) {
+            receivedEvents++;
+        }
+
+        public long getReceivedEvents() {
+            return receivedEvents;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        subscriber = new BenchmarkSubscriber();
+        subscriberInvoker = SubscriberInvoker.compile(subscriber, BenchmarkEvent.class);
+    }
+
+    @Benchmark
+    public long reflectiveInvocation() throws Exception {
+        Class<?> eventClass = event.getClass();
+        Class<?> subscriberClass = subscriber.getClass();
+
+        Entry<Class<?>, Class<?>> methodIdentifiers = new Pair<Class<?>, Class<?>>(subscriberClass, eventClass);
+        Method method = subscribersMethodsCache.get(methodIdentifiers);
+
+        if (method == null) {
+            method = subscriberClass.getDeclaredMethod(SubscriberInvoker.RECEIVER_METHOD_NAME, eventClass);
+            subscribersMethodsCache.put(methodIdentifiers, method);
+        }
+
+        method.invoke(subscriber, event);
+
+        return subscriber.getReceivedEvents();
+    }
+
+    @Benchmark
+    public long compiledInvocation() {
+        subscriberInvoker.invoke(event);
+
+        return subscriber.getReceivedEvents();
+    }
+}
@@ -0,0 +1,92 @@
+// This file is part of the ATMOSPHERE mobile testing framework.
+// Copyright (C) 2016 MusalaSoft
+//
+// ATMOSPHERE is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// ATMOSPHERE is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with ATMOSPHERE.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.musala.atmosphere.server.websocket;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.musala.atmosphere.commons.websocket.message.MessageAction;
+import com.musala.atmosphere.commons.websocket.util.GsonUtil;
+import com.musala.atmosphere.commons.websocket.util.IJsonUtil;
+import com.musala.atmosphere.commons.websocket.util.JsonConst;
+
+/**
+ * Compares reading the routing envelope of a message with the {@link MessageEnvelopeReader streaming reader} against
+ * parsing the message once per envelope field with {@link GsonUtil#getProperty(String, String, Class)}, as it was done
+ * on the routing path, for payloads with different sizes. The envelope fields are placed after the payload, the same
+ * way they are serialized in the routed messages.
+ *
+ * @author dimcho.nedev
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageEnvelopeBenchmark {
+    private static final String ROUTED_MESSAGE_FORMAT = "{\"arguments\":[\"%s\"],\"messageAction\":\"ROUTING_ACTION\","
+            + "\"deviceId\":\"agent_id_device_id\",\"passkey\":1234567890123,\"sessionId\":\"session_id\"}";
+
+    private static final String BASE64_ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+
+    private final IJsonUtil jsonUtil = new GsonUtil();
+
+    /**
+     * The size of the payload in characters, from a small UI action result to a large screenshot.
+     */
+    @Param({"256", "16384", "1048576"})
+    private int payloadSize;
+
+    private String jsonMessage;
+
+    @Setup
+    public void setUp() {
+        StringBuilder payload = new StringBuilder(payloadSize);
+
+        for (int index = 0; index < payloadSize; index++) {
+            payload.append(BASE64_ALPHABET.charAt(index % BASE64_ALPHABET.length()));
+        }
+
+        jsonMessage = String.format(ROUTED_MESSAGE_FORMAT, payload);
+    }
+
+    @Benchmark
+    public void propertyParsing(Blackhole blackhole) {
+        blackhole.consume(jsonUtil.getProperty(jsonMessage, JsonConst.MESSAGE_ACTION, MessageAction.class));
+        blackhole.consume(jsonUtil.getProperty(jsonMessage, JsonConst.DEVICE_ID, String.class));
+        blackhole.consume(jsonUtil.getProperty(jsonMessage, JsonConst.DEVICE_PASSKEY, Long.class));
+    }
+
+    @Benchmark
+    public MessageEnvelope streamingEnvelope() {
+        return MessageEnvelopeReader.read(jsonMessage);
+    }
+}
@@ -0,0 +1,172 @@
+// This file is part of the ATMOSPHERE mobile testing framework.
+// Copyright (C) 2016 MusalaSoft
+//
+// ATMOSPHERE is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// ATMOSPHERE is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with ATMOSPHERE.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.musala.atmosphere.server.websocket;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of compressing and decompressing typical routed messages with the
+ * {@link PerMessageDeflateExtension permessage-deflate extension} at different compression levels. The sizes of every
+ * payload before and after the compression are reported as auxiliary counters of the deflate benchmark, so the
+ * compression ratio can be weighed against the measured time.
+ *
+ * @author dimcho.nedev
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PerMessageDeflateBenchmark {
+    private static final String BASE64_ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+
+    private static final String UI_NODE_FORMAT = "<node index=\"%d\" text=\"Item %d\" "
+            + "resource-id=\"com.example:id/item\" class=\"android.widget.TextView\" package=\"com.example\" "
+            + "checkable=\"false\" clickable=\"true\" enabled=\"true\" bounds=\"[0,%d][1080,%d]\" />";
+
+    private static final String LOG_LINE_FORMAT = "10-17 04:%02d:%02d.%03d  %d  %d D ActivityManager: Displayed "
+            + "com.example/.MainActivity: +%dms%n";
+
+    private static final int UI_NODE_COUNT = 400;
+
+    private static final int LOG_LINE_COUNT = 1000;
+
+    private static final int SCREENSHOT_SIZE = 256 * 1024;
+
+    /**
+     * The kind of the routed payload.
+     */
+    public enum PayloadKind {
+        UI_DUMP,
+        LOG,
+        SCREENSHOT;
+    }
+
+    /**
+     * The sizes of the payload before and after it is compressed, reported next to the time of the deflate benchmark.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class CompressedSize {
+        public long uncompressedBytes;
+
+        public long compressedBytes;
+    }
+
+    @Param({"1", "6", "9"})
+    private int compressionLevel;
+
+    @Param({"UI_DUMP", "LOG", "SCREENSHOT"})
+    private PayloadKind payloadKind;
+
+    private byte[] payload;
+
+    private byte[] compressedPayload;
+
+    private Deflater deflater;
+
+    private Inflater inflater;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        payload = createPayload(payloadKind).getBytes(StandardCharsets.UTF_8);
+        deflater = new Deflater(compressionLevel, true);
+        inflater = new Inflater(true);
+
+        compressedPayload = PerMessageDeflateExtension.deflate(deflater, payload, true);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        deflater.end();
+        inflater.end();
+    }
+
+    @Benchmark
+    public byte[] deflate(CompressedSize compressedSize) {
+        byte[] deflatedPayload = PerMessageDeflateExtension.deflate(deflater, payload, true);
+
+        compressedSize.uncompressedBytes = payload.length;
+        compressedSize.compressedBytes = deflatedPayload.length;
+
+        return deflatedPayload;
+    }
+
+    @Benchmark
+    public byte[] inflate() {
+        return PerMessageDeflateExtension.inflate(inflater, compressedPayload, true);
+    }
+
+    private static String createPayload(PayloadKind payloadKind) {
+        StringBuilder payload = new StringBuilder();
+
+        switch (payloadKind) {
+            case UI_DUMP:
+                payload.append("<?xml version='1.0' encoding='UTF-8' standalone='yes' ?><hierarchy rotation=\"0\">");
+                for (int index = 0; index < UI_NODE_COUNT; index++) {
+                    payload.append(String.format(UI_NODE_FORMAT,
+                                                 index,
+                                                 index,
+                                                 index * 48,
+                                                 (index + 1) * 48));
+                }
+                payload.append("</hierarchy>");
+                break;
+            case LOG:
+                for (int index = 0; index < LOG_LINE_COUNT; index++) {
+                    payload.append(String.format(LOG_LINE_FORMAT,
+                                                 index / 60 % 60,
+                                                 index % 60,
+                                                 index % 1000,
+                                                 1200 + index % 7,
+                                                 1300 + index % 13,
+                                                 index % 500));
+                }
+                break;
+            case SCREENSHOT:
+                // an encoded PNG is already compressed, so its base64 form is close to random characters
+                Random random = new Random(SCREENSHOT_SIZE);
+                for (int index = 0; index < SCREENSHOT_SIZE; index++) {
+                    payload.append(BASE64_ALPHABET.charAt(random.nextInt(BASE64_ALPHABET.length())));
+                }
+                break;
+        }
+
+        return payload.toString();
+    }
+}
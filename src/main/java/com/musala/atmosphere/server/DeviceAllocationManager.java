@@ -18,33 +18,49 @@ package com.musala.atmosphere.server;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CountDownLatch;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 
 import org.apache.log4j.Logger;
 
-import com.musala.atmosphere.commons.DeviceInformation;
 import com.musala.atmosphere.commons.cs.clientbuilder.DeviceAllocationInformation;
 import com.musala.atmosphere.commons.cs.deviceselection.DeviceSelector;
 import com.musala.atmosphere.commons.cs.exception.NoDeviceMatchingTheGivenSelectorException;
 import com.musala.atmosphere.commons.exceptions.NoAvailableDeviceFoundException;
-import com.musala.atmosphere.commons.util.Pair;
+import com.musala.atmosphere.server.allocation.AllocationPriority;
+import com.musala.atmosphere.server.allocation.AllocationQueue;
+import com.musala.atmosphere.server.allocation.AllocationRequest;
+import com.musala.atmosphere.server.allocation.DeviceAllocationStrategy;
+import com.musala.atmosphere.server.allocation.GangAllocationRequest;
+import com.musala.atmosphere.server.allocation.IDeviceAllocator;
+import com.musala.atmosphere.server.allocation.IDeviceScorer;
 import com.musala.atmosphere.server.dao.IDevicePoolDao;
 import com.musala.atmosphere.server.dao.exception.DevicePoolDaoException;
 import com.musala.atmosphere.server.data.model.IDevice;
 import com.musala.atmosphere.server.eventservice.event.device.allocate.DeviceReleasedEvent;
 import com.musala.atmosphere.server.eventservice.event.device.publish.DevicePublishedEvent;
 import com.musala.atmosphere.server.eventservice.event.device.publish.DeviceUnpublishedEvent;
+import com.musala.atmosphere.server.eventservice.event.device.publish.DevicesPublishedEvent;
 import com.musala.atmosphere.server.eventservice.subscriber.Subscriber;
 import com.musala.atmosphere.server.pool.ClientRequestMonitor;
+import com.musala.atmosphere.server.pool.DeviceAllocationEngine;
 import com.musala.atmosphere.server.pool.PoolManager;
+import com.musala.atmosphere.server.util.ServerPropertiesLoader;
 
 /**
- * Manages all device allocations. If a certain device is not available the client will wait for an appropriate device.
+ * Manages all device allocations. If a certain device is not available the client will wait for an appropriate device
+ * in the {@link AllocationQueue allocation queue}.
  *
  * @author dimcho.nedev
  *
@@ -52,119 +68,281 @@ import com.musala.atmosphere.server.pool.PoolManager;
 public final class DeviceAllocationManager implements Subscriber {
     private static Logger LOGGER = Logger.getLogger(DeviceAllocationManager.class.getCanonicalName());
 
-    private static final int WAIT_FOR_OTHER_CLIENTS_TIMEOUT = 10_000; // milliseconds
-
-    private static final int COUNTDOWN_NUMBER = 1;
+    private static final String TIMEOUT_THREAD_NAME = "allocation-timeout";
 
     private IDevicePoolDao devicePoolDao;
 
-    private List<Pair<DeviceSelector, String>> waitingClients = Collections.synchronizedList(new ArrayList<>());
-
-    private Map<String, CountDownLatch> clientIdForLatch = new ConcurrentHashMap<>();
-
-    private Map<String, DeviceAllocationInformation> clientIdForDeviceAllocationInformation = new ConcurrentHashMap<>();
+    private final AllocationQueue allocationQueue;
 
-    private DeviceSelectorApplicabilityChecker slectorResolver;
+    private final ScheduledThreadPoolExecutor timeoutScheduler;
 
-    private CountDownLatch availableDeviceLatch;
+    private final DeviceAllocationStrategy allocationStrategy;
 
     public DeviceAllocationManager(IDevicePoolDao devicePoolDao) {
         this.devicePoolDao = devicePoolDao;
-        slectorResolver = new DeviceSelectorApplicabilityChecker();
+        this.allocationStrategy = ServerPropertiesLoader.getDeviceAllocationStrategy();
+        timeoutScheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread timeoutThread = new Thread(runnable, TIMEOUT_THREAD_NAME);
+                timeoutThread.setDaemon(true);
+
+                return timeoutThread;
+            }
+        });
+        // the timeouts of the served requests are cancelled and should not be kept until they expire
+        timeoutScheduler.setRemoveOnCancelPolicy(true);
+
+        allocationQueue = new AllocationQueue(new IDeviceAllocator() {
+            @Override
+            public DeviceAllocationInformation allocate(DeviceSelector deviceSelector) {
+                return DeviceAllocationManager.this.allocate(deviceSelector);
+            }
+
+            @Override
+            public List<DeviceAllocationInformation> allocateAll(List<DeviceSelector> deviceSelectors) {
+                return DeviceAllocationManager.this.allocateAll(deviceSelectors);
+            }
+        });
     }
 
     /**
-     * Allocates a device matched by a given selector.
+     * Allocates a device matched by a given selector with {@link AllocationPriority#NORMAL normal} priority.
      *
      * @param deviceSelector
      *        - a {@link DeviceSelector selector} that match a specific device.
      * @param clientId
      *        - a unique identifier of the client session
      * @param waitForDeviceTimeout
-     *        - the maximum time the client will wait for an appropriate device     
+     *        - the maximum time the client will wait for an appropriate device
      * @return an {@link DeviceAllocationInformation information} for the allocated device
      */
     public DeviceAllocationInformation allocateDevice(DeviceSelector deviceSelector, String clientId, final int waitForDeviceTimeout) {
-        // the client will wait for the other allocation requests if a new device is available for use or till the
-        // timeout period expired.
-        if (availableDeviceLatch != null && availableDeviceLatch.getCount() > 0) {
-            // there is a new available device(published or released)
-            try {
-                availableDeviceLatch.await(WAIT_FOR_OTHER_CLIENTS_TIMEOUT, TimeUnit.MILLISECONDS);
-            } catch (InterruptedException e) {
-                LOGGER.error("Waiting for action is interrupted.", e);
+        return allocateDevice(deviceSelector, clientId, waitForDeviceTimeout, AllocationPriority.NORMAL);
+    }
+
+    /**
+     * Allocates a device matched by a given selector. If all matching devices are allocated, the client waits in the
+     * allocation queue after all clients with the same or higher priority. The calling thread is blocked until a device
+     * is allocated or the timeout expires, so the {@link #allocateDeviceAsync asynchronous allocation} should be
+     * preferred on threads which must not be parked.
+     *
+     * @param deviceSelector
+     *        - a {@link DeviceSelector selector} that match a specific device.
+     * @param clientId
+     *        - a unique identifier of the client session
+     * @param waitForDeviceTimeout
+     *        - the maximum time the client will wait for an appropriate device
+     * @param priority
+     *        - the {@link AllocationPriority priority} of the request
+     * @return an {@link DeviceAllocationInformation information} for the allocated device or <code>null</code> if no
+     *         device was available within the timeout
+     */
+    public DeviceAllocationInformation allocateDevice(DeviceSelector deviceSelector,
+                                                      String clientId,
+                                                      int waitForDeviceTimeout,
+                                                      AllocationPriority priority) {
+        CompletableFuture<DeviceAllocationInformation> allocationFuture = allocateDeviceAsync(deviceSelector,
+                                                                                              clientId,
+                                                                                              waitForDeviceTimeout,
+                                                                                              priority);
+
+        try {
+            return allocationFuture.get();
+        } catch (InterruptedException e) {
+            LOGGER.error("Waiting for an available device is interrupted.", e);
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
             }
+
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+
+            throw new IllegalStateException("Allocating a device failed.", cause);
         }
 
-        DeviceAllocationInformation dAllocInfo = allocate(deviceSelector);
+        return null;
+    }
 
-        if (dAllocInfo == null) {
+    /**
+     * Allocates a device matched by a given selector without blocking the calling thread. If all matching devices are
+     * allocated, the request waits in the allocation queue after all requests with the same or higher priority and the
+     * returned future is completed when a device is handed off to it. The future is completed with <code>null</code> if
+     * no device was available within the timeout and it is completed exceptionally with
+     * {@link NoDeviceMatchingTheGivenSelectorException} if no device in the pool matches the selector.
+     * <p>
+     * The future may be completed on a thread which publishes pool events, so the dependent actions which are not
+     * trivial should be executed asynchronously.
+     * </p>
+     *
+     * @param deviceSelector
+     *        - a {@link DeviceSelector selector} that match a specific device.
+     * @param clientId
+     *        - a unique identifier of the client session
+     * @param waitForDeviceTimeout
+     *        - the maximum time the client will wait for an appropriate device
+     * @param priority
+     *        - the {@link AllocationPriority priority} of the request
+     * @return a {@link CompletableFuture future} of the {@link DeviceAllocationInformation information} for the
+     *         allocated device
+     */
+    public CompletableFuture<DeviceAllocationInformation> allocateDeviceAsync(DeviceSelector deviceSelector,
+                                                                              String clientId,
+                                                                              int waitForDeviceTimeout,
+                                                                              AllocationPriority priority) {
+        // the client is not allowed to overtake the clients already waiting for the same devices
+        if (!allocationQueue.hasWaitingRequests(deviceSelector, priority)) {
             try {
-                CountDownLatch newLatch = new CountDownLatch(COUNTDOWN_NUMBER);
-                Pair<DeviceSelector, String> waitingClient = new Pair<DeviceSelector, String>(deviceSelector, clientId);
-                waitingClients.add(waitingClient);
-                clientIdForLatch.put(clientId, newLatch);
+                IDevice device = claimDevice(deviceSelector);
 
-                LOGGER.info("Client with id " + clientId + " waitnig for a device." + " Size: " + waitingClients.size());
-                newLatch.await(waitForDeviceTimeout, TimeUnit.MILLISECONDS);
+                if (device != null) {
+                    DeviceAllocationInformation dAllocInfo = startLease(device);
 
-                clientIdForLatch.remove(clientId);
-                waitingClients.remove(waitingClient);
-                LOGGER.info("Client with id " + clientId + " removed from the queue.");
-            } catch (InterruptedException e) {
-                LOGGER.error("Waiting for an available device is interrupted.", e);
-            }
+                    // the device may be released before the event, which hands it off to the waiting requests, is
+                    // delivered, so a request with another selector applicable to it could be overtaken
+                    if (!allocationQueue.handOff(device.getInformation(), dAllocInfo, priority)) {
+                        return CompletableFuture.completedFuture(dAllocInfo);
+                    }
+                }
+            } catch (NoDeviceMatchingTheGivenSelectorException e) {
+                CompletableFuture<DeviceAllocationInformation> failedAllocation = new CompletableFuture<>();
+                failedAllocation.completeExceptionally(e);
 
-            return clientIdForDeviceAllocationInformation.remove(clientId);
+                return failedAllocation;
+            }
         }
 
-        return dAllocInfo;
+        AllocationRequest request = allocationQueue.enqueue(deviceSelector, clientId, priority);
+        LOGGER.info("Client with id " + clientId + " waiting for a device." + " Size: " + allocationQueue.size());
+
+        // a device released after the allocation attempt above must not be missed
+        allocationQueue.serve(request);
+        scheduleTimeout(request, waitForDeviceTimeout);
+
+        return request.getAllocationFuture();
     }
 
     /**
-     * Checks whether a client {@link DeviceSelector selector} is applicable to the newly available device(published or
-     * released).
+     * Allocates a gang of devices - a device for each of the given selectors - without blocking the calling thread. The
+     * devices are allocated all together or none of them is, so clients which need several devices do not hold some of
+     * them while waiting for the rest. If not all of the devices are free, the whole gang waits in the allocation queue
+     * without holding any device and the returned future is completed when all of its devices are allocated. The future
+     * is completed with <code>null</code> if the devices were not available within the timeout and it is completed
+     * exceptionally with {@link NoDeviceMatchingTheGivenSelectorException} if the pool can never satisfy the gang.
+     * <p>
+     * The future may be completed on a thread which publishes pool events, so the dependent actions which are not
+     * trivial should be executed asynchronously.
+     * </p>
      *
-     * @param deviceInformation
-     *        - information about the {@link IDevice device}
+     * @param deviceSelectors
+     *        - the {@link DeviceSelector selectors} of the devices in the gang; the same selector is repeated for
+     *        every device when several devices of a kind are needed
+     * @param clientId
+     *        - a unique identifier of the client session
+     * @param waitForDeviceTimeout
+     *        - the maximum time the client will wait for all of the devices
+     * @param priority
+     *        - the {@link AllocationPriority priority} of the request
+     * @return a {@link CompletableFuture future} of the {@link DeviceAllocationInformation information} for the
+     *         allocated devices, in the order of the selectors
      */
-    private void checkClients(DeviceInformation deviceInformation) {
-        synchronized (waitingClients) {
-            availableDeviceLatch = new CountDownLatch(COUNTDOWN_NUMBER);
-
-            ListIterator<Pair<DeviceSelector, String>> li = waitingClients.listIterator(waitingClients.size());
-            while (li.hasPrevious()) {
-                Pair<DeviceSelector, String> clientInfo = li.previous();
-                DeviceSelector deviceSelector = clientInfo.getKey();
-                String clientId = clientInfo.getValue();
-
-                boolean isApplicable = slectorResolver.isApplicable(deviceSelector, deviceInformation);
-
-                if (isApplicable) {
-                    DeviceAllocationInformation dAlloc = allocate(deviceSelector);
-
-                    if (dAlloc != null) {
-                        li.remove();
-                        clientIdForDeviceAllocationInformation.put(clientId, dAlloc);
-                        clientIdForLatch.get(clientId).countDown();
-                        break;
-                    }
+    public CompletableFuture<List<DeviceAllocationInformation>> allocateDevicesAsync(List<DeviceSelector> deviceSelectors,
+                                                                                     String clientId,
+                                                                                     int waitForDeviceTimeout,
+                                                                                     AllocationPriority priority) {
+        // the gang is always allocated by the queue, so it is never interleaved with a hand off of released devices
+        GangAllocationRequest request = allocationQueue.enqueueGang(deviceSelectors, clientId, priority);
+        allocationQueue.serve(request);
+
+        if (!request.getAllocationFuture().isDone()) {
+            LOGGER.info(String.format("Client with id %s waiting for a gang of %d devices. Size: %d",
+                                      clientId,
+                                      deviceSelectors.size(),
+                                      allocationQueue.size()));
+            scheduleTimeout(request, waitForDeviceTimeout);
+        }
+
+        return request.getAllocationFuture();
+    }
+
+    private void scheduleTimeout(final AllocationRequest request, int waitForDeviceTimeout) {
+        final CompletableFuture<DeviceAllocationInformation> allocationFuture = request.getAllocationFuture();
+
+        scheduleTimeout(allocationFuture, new Runnable() {
+            @Override
+            public void run() {
+                // the request is removed only if no device was handed off to it in the meantime
+                if (allocationQueue.remove(request)) {
+                    LOGGER.info("Client with id " + request.getClientId() + " removed from the queue.");
+                    allocationFuture.complete(null);
                 }
             }
+        }, waitForDeviceTimeout);
+    }
 
-            availableDeviceLatch.countDown();
+    private void scheduleTimeout(final GangAllocationRequest request, int waitForDeviceTimeout) {
+        final CompletableFuture<List<DeviceAllocationInformation>> allocationFuture = request.getAllocationFuture();
+
+        scheduleTimeout(allocationFuture, new Runnable() {
+            @Override
+            public void run() {
+                // the request is removed only if the gang was not allocated in the meantime
+                if (allocationQueue.remove(request)) {
+                    LOGGER.info("Client with id " + request.getClientId() + " removed from the queue.");
+                    allocationFuture.complete(null);
+                }
+            }
+        }, waitForDeviceTimeout);
+    }
+
+    private <T> void scheduleTimeout(CompletableFuture<T> allocationFuture,
+                                     Runnable timeoutAction,
+                                     int waitForDeviceTimeout) {
+        if (allocationFuture.isDone()) {
+            return;
         }
+
+        final ScheduledFuture<?> timeout = timeoutScheduler.schedule(timeoutAction,
+                                                                     waitForDeviceTimeout,
+                                                                     TimeUnit.MILLISECONDS);
+
+        allocationFuture.whenComplete(new BiConsumer<T, Throwable>() {
+            @Override
+            public void accept(T allocationResult, Throwable failure) {
+                timeout.cancel(false);
+            }
+        });
     }
 
-    private synchronized DeviceAllocationInformation allocate(DeviceSelector deviceSelector)
+    private DeviceAllocationInformation allocate(DeviceSelector deviceSelector)
         throws NoDeviceMatchingTheGivenSelectorException,
             NoAvailableDeviceFoundException {
-        List<IDevice> availableDevicesList = new ArrayList<>();
+        IDevice device = claimDevice(deviceSelector);
+
+        return device != null ? startLease(device) : null;
+    }
+
+    /**
+     * Marks a free device matching the given selector as allocated.
+     *
+     * @return the allocated {@link IDevice device} or <code>null</code> if all matching devices are busy
+     */
+    private IDevice claimDevice(DeviceSelector deviceSelector)
+        throws NoDeviceMatchingTheGivenSelectorException,
+            NoAvailableDeviceFoundException {
+        IDevice device = null;
 
         try {
             devicePoolDao = PoolManager.getInstance().getDevicePoolDao();
-            availableDevicesList = devicePoolDao.getDevices(deviceSelector, false);
-            if (availableDevicesList.isEmpty()) {
+            // the demand of the waiting requests is considered, so a device other requests wait for is not taken
+            IDeviceScorer deviceScorer = allocationStrategy.createScorer(devicePoolDao, allocationQueue);
+            device = new DeviceAllocationEngine(devicePoolDao, deviceScorer).allocate(deviceSelector);
+            if (device == null) {
                 List<IDevice> notAvailableDeviceList = devicePoolDao.getDevices(deviceSelector, true);
 
                 if (notAvailableDeviceList.isEmpty()) {
@@ -176,29 +354,176 @@ public final class DeviceAllocationManager implements Subscriber {
             throw new NoDeviceMatchingTheGivenSelectorException();
         }
 
-        IDevice device = availableDevicesList.get(0);
-
-        DeviceInformation deviceInformation = device.getInformation();
-        device.allocate();
-
-        try {
-            devicePoolDao.update(device);
-        } catch (DevicePoolDaoException e) {
-            String message = String.format("Allocating device with serial number %s failed.",
-                                           deviceInformation.getSerialNumber());
-            LOGGER.error(message, e);
-        }
+        return device;
+    }
 
+    private DeviceAllocationInformation startLease(IDevice device) {
         final String bestMatchDeviceId = device.getDeviceId();
         long devicePasskey = device.getPasskey();
         DeviceAllocationInformation allocatedDeviceDescriptor = new DeviceAllocationInformation(devicePasskey,
                                                                                                 bestMatchDeviceId);
-        ClientRequestMonitor deviceMonitor = new ClientRequestMonitor();
-        deviceMonitor.restartTimerForDevice(bestMatchDeviceId);
+        ClientRequestMonitor.getInstance().restartTimerForDevice(bestMatchDeviceId);
 
         return allocatedDeviceDescriptor;
     }
 
+    /**
+     * Allocates a free device for each of the given selectors, all together or none of them. The selectors matching
+     * the fewest free devices are served first, so a selector which accepts any device does not take the only device
+     * matching another selector of the gang. Invoked only by the allocation queue, which serializes the gangs.
+     */
+    private List<DeviceAllocationInformation> allocateAll(List<DeviceSelector> deviceSelectors)
+        throws NoDeviceMatchingTheGivenSelectorException {
+        IDevice[] gangDevices = new IDevice[deviceSelectors.size()];
+        List<IDevice> allocatedDevices = new ArrayList<>();
+
+        try {
+            devicePoolDao = PoolManager.getInstance().getDevicePoolDao();
+            IDeviceScorer deviceScorer = allocationStrategy.createScorer(devicePoolDao, allocationQueue);
+            DeviceAllocationEngine allocationEngine = new DeviceAllocationEngine(devicePoolDao, deviceScorer);
+
+            for (int index : getGangAllocationOrder(deviceSelectors)) {
+                IDevice device = allocationEngine.allocate(deviceSelectors.get(index));
+
+                if (device == null) {
+                    releaseGangDevices(allocatedDevices);
+                    return null;
+                }
+
+                gangDevices[index] = device;
+                allocatedDevices.add(device);
+            }
+        } catch (DevicePoolDaoException e) {
+            releaseGangDevices(allocatedDevices);
+            throw new NoDeviceMatchingTheGivenSelectorException();
+        }
+
+        List<DeviceAllocationInformation> allocationInformation = new ArrayList<>(gangDevices.length);
+
+        for (IDevice device : gangDevices) {
+            String deviceId = device.getDeviceId();
+            allocationInformation.add(new DeviceAllocationInformation(device.getPasskey(), deviceId));
+            ClientRequestMonitor.getInstance().restartTimerForDevice(deviceId);
+        }
+
+        return allocationInformation;
+    }
+
+    /**
+     * Gets the indexes of the given selectors, ordered by the count of the free devices matching them.
+     *
+     * @throws NoDeviceMatchingTheGivenSelectorException
+     *         if the pool can never satisfy the gang, i.e. there is no way to assign a distinct device from the pool to
+     *         every selector
+     */
+    private List<Integer> getGangAllocationOrder(List<DeviceSelector> deviceSelectors)
+        throws DevicePoolDaoException,
+            NoDeviceMatchingTheGivenSelectorException {
+        final int[] freeDevicesCounts = new int[deviceSelectors.size()];
+        List<List<String>> matchingDeviceIds = new ArrayList<>();
+        List<Integer> allocationOrder = new ArrayList<>();
+
+        for (int index = 0; index < deviceSelectors.size(); index++) {
+            DeviceSelector deviceSelector = deviceSelectors.get(index);
+            List<IDevice> freeDevices = devicePoolDao.getDevices(deviceSelector, false);
+            List<IDevice> allocatedDevices = devicePoolDao.getDevices(deviceSelector, true);
+
+            if (freeDevices.isEmpty() && allocatedDevices.isEmpty()) {
+                throw new NoDeviceMatchingTheGivenSelectorException();
+            }
+
+            List<String> selectorDeviceIds = new ArrayList<>();
+
+            for (IDevice device : freeDevices) {
+                selectorDeviceIds.add(device.getDeviceId());
+            }
+
+            for (IDevice device : allocatedDevices) {
+                selectorDeviceIds.add(device.getDeviceId());
+            }
+
+            matchingDeviceIds.add(selectorDeviceIds);
+            freeDevicesCounts[index] = freeDevices.size();
+            allocationOrder.add(index);
+        }
+
+        // enough matching devices are not enough, e.g. when several selectors match only the same device
+        if (!hasCompleteAssignment(matchingDeviceIds)) {
+            throw new NoDeviceMatchingTheGivenSelectorException();
+        }
+
+        Collections.sort(allocationOrder, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer first, Integer second) {
+                return Integer.compare(freeDevicesCounts[first], freeDevicesCounts[second]);
+            }
+        });
+
+        return allocationOrder;
+    }
+
+    /**
+     * Checks whether a distinct device can be assigned to every selector of a gang, by finding a maximum bipartite
+     * matching between the selectors and the devices with augmenting paths.
+     *
+     * @param matchingDeviceIds
+     *        - the IDs of the devices matching each of the selectors
+     * @return <code>true</code> if every selector can get a device of its own, <code>false</code> otherwise
+     */
+    private static boolean hasCompleteAssignment(List<List<String>> matchingDeviceIds) {
+        Map<String, Integer> deviceIdToSelector = new HashMap<>();
+
+        for (int selector = 0; selector < matchingDeviceIds.size(); selector++) {
+            if (!assignDevice(selector, matchingDeviceIds, deviceIdToSelector, new HashSet<String>())) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Assigns a device to the given selector, reassigning the devices of the other selectors along an augmenting path
+     * if needed. The recursion is at most as deep as the gang is large.
+     */
+    private static boolean assignDevice(int selector,
+                                        List<List<String>> matchingDeviceIds,
+                                        Map<String, Integer> deviceIdToSelector,
+                                        Set<String> visitedDeviceIds) {
+        for (String deviceId : matchingDeviceIds.get(selector)) {
+            if (!visitedDeviceIds.add(deviceId)) {
+                continue;
+            }
+
+            Integer assignedSelector = deviceIdToSelector.get(deviceId);
+
+            if (assignedSelector == null
+                    || assignDevice(assignedSelector, matchingDeviceIds, deviceIdToSelector, visitedDeviceIds)) {
+                deviceIdToSelector.put(deviceId, selector);
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Releases the devices claimed for a gang which could not be allocated completely. The devices were free before
+     * the gang was tried and the hand offs of the queue are serialized meanwhile, so a request which missed them
+     * retries when it enters the queue and they are not handed off here.
+     */
+    private void releaseGangDevices(List<IDevice> allocatedDevices) {
+        for (IDevice device : allocatedDevices) {
+            device.release();
+
+            try {
+                devicePoolDao.update(device);
+            } catch (DevicePoolDaoException e) {
+                LOGGER.error(String.format("Failed to release device with ID %s.", device.getDeviceId()), e);
+            }
+        }
+    }
+
     /**
      * Called when device is published and is available for use.
      *
@@ -206,7 +531,17 @@ public final class DeviceAllocationManager implements Subscriber {
      *        - {@link DevicePublishedEvent event} that contains an information about published device
      */
     public void inform(DevicePublishedEvent event) {
-        checkClients(event.getDeviceInformation());
+        allocationQueue.deviceAvailable(event.getDeviceInformation());
+    }
+
+    /**
+     * Called when all devices of an agent are published together and are available for use.
+     *
+     * @param event
+     *        - {@link DevicesPublishedEvent event} that contains an information about the published devices
+     */
+    public void inform(DevicesPublishedEvent event) {
+        allocationQueue.devicesAvailable(event.getDevicesInformation());
     }
 
     /**
@@ -216,7 +551,7 @@ public final class DeviceAllocationManager implements Subscriber {
      *        - {@link DeviceUnpublishedEvent event} that contains an information about released device.
      */
     public void inform(DeviceReleasedEvent event) {
-        checkClients(event.getDeviceInformation());
+        allocationQueue.deviceAvailable(event.getDeviceInformation());
     }
 
 }
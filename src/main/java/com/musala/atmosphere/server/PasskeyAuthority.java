@@ -17,17 +17,16 @@
 package com.musala.atmosphere.server;
 
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import com.musala.atmosphere.commons.cs.exception.InvalidPasskeyException;
 import com.musala.atmosphere.commons.exceptions.DeviceNotFoundException;
-import com.musala.atmosphere.server.dao.IDevicePoolDao;
-import com.musala.atmosphere.server.dao.exception.DevicePoolDaoException;
-import com.musala.atmosphere.server.data.model.IDevice;
-import com.musala.atmosphere.server.data.provider.IDataSourceProvider;
-import com.musala.atmosphere.server.data.provider.ormlite.DataSourceProvider;
 
 /**
- * Class whose purpose is to generate and validate passkeys.
+ * Class whose purpose is to generate and validate passkeys. The current passkey of every device in the pool is kept in
+ * an in-memory table, which is updated by the pool when a device is published, released or unpublished, so validating
+ * a passkey does not require a query to the data source.
  *
  * @author yavor.stankov
  *
@@ -35,7 +34,7 @@ import com.musala.atmosphere.server.data.provider.ormlite.DataSourceProvider;
 public class PasskeyAuthority {
     private static final Random generator = new Random();
 
-    private static IDataSourceProvider dataSourceProvider = new DataSourceProvider();
+    private static final ConcurrentMap<String, Long> devicePasskeys = new ConcurrentHashMap<>();
 
     /**
      * Generates new passkey.
@@ -65,6 +64,46 @@ public class PasskeyAuthority {
         return newPasskey;
     }
 
+    /**
+     * Sets the passkey that is valid for the device with the given ID. The previous passkey of the device, if any, is
+     * no longer valid once this method returns.
+     *
+     * @param deviceId
+     *        - the unique identifier of the device
+     * @param passkey
+     *        - the current passkey of the device
+     */
+    public static void registerPasskey(String deviceId, long passkey) {
+        devicePasskeys.put(deviceId, passkey);
+    }
+
+    /**
+     * Atomically replaces the passkey of the device with the given ID, if the given old passkey is still its current
+     * one. Of several concurrent replacements of the same passkey only one succeeds.
+     *
+     * @param deviceId
+     *        - the unique identifier of the device
+     * @param oldPasskey
+     *        - the expected current passkey of the device
+     * @param newPasskey
+     *        - the passkey that should be valid for the device
+     * @return <code>true</code> if the passkey is replaced, <code>false</code> if the current passkey of the device is
+     *         not the expected one
+     */
+    public static boolean replacePasskey(String deviceId, long oldPasskey, long newPasskey) {
+        return devicePasskeys.replace(deviceId, oldPasskey, newPasskey);
+    }
+
+    /**
+     * Removes the passkey of the device with the given ID, so no passkey is valid for it anymore.
+     *
+     * @param deviceId
+     *        - the unique identifier of the device
+     */
+    public static void revokePasskey(String deviceId) {
+        devicePasskeys.remove(deviceId);
+    }
+
     /**
      * Validates the passkey for the given device.
      *
@@ -80,18 +119,13 @@ public class PasskeyAuthority {
     public static void validatePasskey(long invocationPasskey, String deviceId)
         throws InvalidPasskeyException,
             DeviceNotFoundException {
-        IDevicePoolDao devicePoolDao = dataSourceProvider.getDevicePoolDao();
-        IDevice device = null;
+        Long passkey = devicePasskeys.get(deviceId);
 
-        try {
-            device = devicePoolDao.getDevice(deviceId);
-        } catch (DevicePoolDaoException e) {
+        if (passkey == null) {
             String message = "Failed to find the requested device for validation.";
             throw new DeviceNotFoundException(message);
         }
 
-        long passkey = device.getPasskey();
-
         if (passkey != invocationPasskey) {
             throw new InvalidPasskeyException("The passkey is not valid for the specified device.");
         }
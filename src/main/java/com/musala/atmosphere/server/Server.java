@@ -31,13 +31,18 @@ import com.musala.atmosphere.server.data.db.flyway.DataSourceCallback;
 import com.musala.atmosphere.server.data.db.flyway.DataSourceManager;
 import com.musala.atmosphere.server.data.provider.IDataSourceProvider;
 import com.musala.atmosphere.server.data.provider.ormlite.DataSourceProvider;
+import com.musala.atmosphere.server.eventservice.DeliveryMode;
 import com.musala.atmosphere.server.eventservice.ServerEventService;
 import com.musala.atmosphere.server.eventservice.event.agent.AgentEvent;
 import com.musala.atmosphere.server.eventservice.event.datasource.create.DataSourceInitializedEvent;
 import com.musala.atmosphere.server.eventservice.event.datasource.create.dao.DevicePoolDaoCreatedEvent;
+import com.musala.atmosphere.server.eventservice.event.device.allocate.DeviceLeaseExpiredEvent;
 import com.musala.atmosphere.server.eventservice.event.device.allocate.DeviceReleasedEvent;
 import com.musala.atmosphere.server.eventservice.event.device.publish.DevicePublishedEvent;
 import com.musala.atmosphere.server.eventservice.event.device.publish.DeviceUnpublishedEvent;
+import com.musala.atmosphere.server.eventservice.event.device.publish.DevicesUnpublishedEvent;
+import com.musala.atmosphere.server.eventservice.event.device.publish.DevicesPublishedEvent;
+import com.musala.atmosphere.server.monitor.AgentHealthMetrics;
 import com.musala.atmosphere.server.monitor.AgentMonitor;
 import com.musala.atmosphere.server.pool.ClientRequestMonitor;
 import com.musala.atmosphere.server.state.ServerState;
@@ -112,6 +117,8 @@ public class Server {
         eventService.subscribe(AgentEvent.class, agentMonitor);
 
         eventService.subscribe(DeviceUnpublishedEvent.class, serverManager);
+        eventService.subscribe(DevicesUnpublishedEvent.class, serverManager);
+        eventService.subscribe(DeviceLeaseExpiredEvent.class, serverManager);
         eventService.subscribe(DevicePoolDaoCreatedEvent.class, serverManager);
 
         dataSourceManager = new DataSourceManager(new DataSourceCallback());
@@ -121,11 +128,14 @@ public class Server {
 
         allocationManager = new DeviceAllocationManager(dataSourceProvider.getDevicePoolDao());
 
-        eventService.subscribe(DeviceReleasedEvent.class, allocationManager);
-        eventService.subscribe(DevicePublishedEvent.class, allocationManager);
+        // the waiting allocation requests are served after the release or publishing of a device completes
+        eventService.subscribe(DeviceReleasedEvent.class, null, allocationManager, DeliveryMode.ASYNCHRONOUS);
+        eventService.subscribe(DevicePublishedEvent.class, null, allocationManager, DeliveryMode.ASYNCHRONOUS);
+        eventService.subscribe(DevicesPublishedEvent.class, null, allocationManager, DeliveryMode.ASYNCHRONOUS);
 
         dispatcher.setServerManager(serverManager);
         dispatcher.setAllocationManager(allocationManager);
+        dispatcher.setAgentMonitor(agentMonitor);
 
         isConnected = false;
         LOGGER.info("Server instance created succesfully.");
@@ -165,8 +175,7 @@ public class Server {
      */
     public void exit() {
         stop();
-        ClientRequestMonitor deviceMonitor = new ClientRequestMonitor();
-        deviceMonitor.stop();
+        ClientRequestMonitor.getInstance().stop();
 
         // Remove subscribers from event service.
         eventService.unsubscribe(AgentEvent.class, null, agentMonitor);
@@ -280,6 +289,13 @@ public class Server {
         return !serverManager.getAllConnectedAgentIds().isEmpty();
     }
 
+    /**
+     * @return - the health metrics of all connected agents, including their round-trip times.
+     */
+    public List<AgentHealthMetrics> getAgentHealthMetrics() {
+        return agentMonitor.getHealthMetrics();
+    }
+
     /**
      * Waits for any agent to connect to the server.
      */
@@ -16,9 +16,17 @@
 
 package com.musala.atmosphere.server;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.log4j.Logger;
 
@@ -27,6 +35,8 @@ import com.musala.atmosphere.commons.exceptions.CommandFailedException;
 import com.musala.atmosphere.server.dao.IDevicePoolDao;
 import com.musala.atmosphere.server.dao.exception.AgentDaoException;
 import com.musala.atmosphere.server.dao.exception.DevicePoolDaoException;
+import com.musala.atmosphere.server.data.memory.InMemoryDevicePoolDao;
+import com.musala.atmosphere.server.data.model.IDevice;
 import com.musala.atmosphere.server.data.provider.IDataSourceProvider;
 import com.musala.atmosphere.server.data.provider.ormlite.DataSourceProvider;
 import com.musala.atmosphere.server.eventservice.ServerEventService;
@@ -34,9 +44,12 @@ import com.musala.atmosphere.server.eventservice.event.agent.AgentConnectedEvent
 import com.musala.atmosphere.server.eventservice.event.agent.AgentDisconnectedEvent;
 import com.musala.atmosphere.server.eventservice.event.datasource.create.dao.AgentDaoCreatedEvent;
 import com.musala.atmosphere.server.eventservice.event.datasource.create.dao.DevicePoolDaoCreatedEvent;
+import com.musala.atmosphere.server.eventservice.event.device.allocate.DeviceLeaseExpiredEvent;
 import com.musala.atmosphere.server.eventservice.event.device.publish.DeviceUnpublishedEvent;
+import com.musala.atmosphere.server.eventservice.event.device.publish.DevicesUnpublishedEvent;
 import com.musala.atmosphere.server.eventservice.subscriber.Subscriber;
 import com.musala.atmosphere.server.pool.PoolManager;
+import com.musala.atmosphere.server.util.ServerPropertiesLoader;
 import com.musala.atmosphere.server.websocket.ServerDispatcher;
 
 /**
@@ -48,8 +61,12 @@ import com.musala.atmosphere.server.websocket.ServerDispatcher;
 public class ServerManager implements Subscriber {
     private static Logger LOGGER = Logger.getLogger(ServerManager.class.getCanonicalName());
 
+    private static final String RECONNECT_GRACE_THREAD_NAME = "agent-reconnect-grace";
+
     private Map<String, String> deviceSerialToDeviceId = new HashMap<>();
 
+    private final Set<String> restoredAgentIds = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
     private AgentAllocator agentAllocator = new AgentAllocator();
 
     private IDevicePoolDao devicePoolDao;
@@ -149,10 +166,17 @@ public class ServerManager implements Subscriber {
      *
      */
     public void close() {
-        try {
-            poolManager.removeAllDevices();
-        } catch (DevicePoolDaoException | CommandFailedException e) {
-            LOGGER.error("Failed to close a ServerManager instance.", e);
+        if (ServerPropertiesLoader.isDatabasePersistent()) {
+            // the devices are kept in the persistent data source and restored on the next start
+            if (devicePoolDao instanceof InMemoryDevicePoolDao) {
+                ((InMemoryDevicePoolDao) devicePoolDao).flushMirror();
+            }
+        } else {
+            try {
+                poolManager.removeAllDevices();
+            } catch (DevicePoolDaoException | CommandFailedException e) {
+                LOGGER.error("Failed to close a ServerManager instance.", e);
+            }
         }
 
         LOGGER.info("ServerManager instance closed.");
@@ -168,6 +192,10 @@ public class ServerManager implements Subscriber {
         try {
             agentAllocator.registerAgent(agentId);
 
+            if (restoredAgentIds.remove(agentId)) {
+                LOGGER.info(String.format("Agent with ID %s reconnected after a restart of the server.", agentId));
+            }
+
             // Publish agent connected event to the event service.
             ServerEventService eventService = new ServerEventService();
             eventService.publish(new AgentConnectedEvent(agentId));
@@ -181,7 +209,7 @@ public class ServerManager implements Subscriber {
     }
 
     /**
-     * Publishes all devices for the connected agent.
+     * Publishes all devices for the connected agent in a single batch.
      *
      * @param devicesInformation
      *        - the information for all agent's devices
@@ -193,9 +221,9 @@ public class ServerManager implements Subscriber {
             String deviceSerial = deviceInformation.getSerialNumber();
             String deviceId = PoolManager.buildDeviceIdentifier(agentId, deviceSerial);
             deviceSerialToDeviceId.put(deviceSerial, deviceId);
-
-            poolManager.addDevice(deviceInformation, agentId);
         }
+
+        poolManager.reconcileDevices(Arrays.asList(devicesInformation), agentId);
     }
 
     /**
@@ -219,7 +247,10 @@ public class ServerManager implements Subscriber {
      */
     public void inform(AgentDisconnectedEvent event) throws DevicePoolDaoException, AgentDaoException {
         String agentId = event.getAgentId();
-        devicePoolDao.removeDevices(agentId);
+
+        List<String> removedDeviceIds = poolManager.removeAgentDevices(agentId);
+        deviceSerialToDeviceId.values().removeAll(new HashSet<String>(removedDeviceIds));
+
         agentAllocator.unregisterAgent(agentId);
         dispatcher.removeAgentSessionById(agentId);
 
@@ -243,6 +274,10 @@ public class ServerManager implements Subscriber {
     public void inform(DevicePoolDaoCreatedEvent event) {
         IDataSourceProvider dataSoureceProvider = new DataSourceProvider();
         devicePoolDao = dataSoureceProvider.getDevicePoolDao();
+
+        if (ServerPropertiesLoader.isDatabasePersistent()) {
+            restorePool();
+        }
     }
 
     public void inform(DeviceUnpublishedEvent event) {
@@ -251,4 +286,68 @@ public class ServerManager implements Subscriber {
         dispatcher.removeCachedSessionByDeviceId(deviceId);
     }
 
+    public void inform(DevicesUnpublishedEvent event) {
+        dispatcher.removeCachedSessionsByDeviceIds(event.getDeviceIds());
+    }
+
+    public void inform(DeviceLeaseExpiredEvent event) {
+        dispatcher.removeExpiredLease(event.getDeviceId());
+    }
+
+    /**
+     * Restores the devices and the agents kept in the persistent data source from before the restart of the server. The
+     * restored agents are expected to reconnect and publish their devices again, so the pool is reconciled with them,
+     * and the agents that do not reconnect in the grace period are unregistered with all of their devices.
+     */
+    private void restorePool() {
+        for (IDevice device : poolManager.restoreDevices()) {
+            deviceSerialToDeviceId.put(device.getInformation().getSerialNumber(), device.getDeviceId());
+        }
+
+        restoredAgentIds.addAll(agentAllocator.getAllConnectedAgentsIds());
+
+        if (restoredAgentIds.isEmpty()) {
+            return;
+        }
+
+        long gracePeriod = ServerPropertiesLoader.getAgentReconnectGracePeriod();
+        ScheduledThreadPoolExecutor graceScheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread graceThread = new Thread(runnable, RECONNECT_GRACE_THREAD_NAME);
+                graceThread.setDaemon(true);
+
+                return graceThread;
+            }
+        });
+
+        graceScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                unregisterRestoredAgents();
+            }
+        }, gracePeriod, TimeUnit.MILLISECONDS);
+        // the scheduled check is still executed, after which the thread is terminated
+        graceScheduler.shutdown();
+
+        String message = String.format("%d agents restored, waiting %d ms for them to reconnect.",
+                                       restoredAgentIds.size(),
+                                       gracePeriod);
+        LOGGER.info(message);
+    }
+
+    /**
+     * Unregisters the restored agents, which did not reconnect after the restart of the server.
+     */
+    void unregisterRestoredAgents() {
+        for (String agentId : restoredAgentIds) {
+            if (restoredAgentIds.remove(agentId)) {
+                String message = String.format("Agent with ID %s did not reconnect after a restart of the server.",
+                                               agentId);
+                LOGGER.warn(message);
+
+                eventService.publish(new AgentDisconnectedEvent(agentId));
+            }
+        }
+    }
 }
@@ -0,0 +1,850 @@
+// This file is part of the ATMOSPHERE mobile testing framework.
+// Copyright (C) 2016 MusalaSoft
+//
+// ATMOSPHERE is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// ATMOSPHERE is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with ATMOSPHERE.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.musala.atmosphere.server.allocation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+import com.musala.atmosphere.commons.DeviceInformation;
+import com.musala.atmosphere.commons.cs.clientbuilder.DeviceAllocationInformation;
+import com.musala.atmosphere.commons.cs.deviceselection.ApiLevel;
+import com.musala.atmosphere.commons.cs.deviceselection.CameraAvailable;
+import com.musala.atmosphere.commons.cs.deviceselection.DeviceModel;
+import com.musala.atmosphere.commons.cs.deviceselection.DeviceOs;
+import com.musala.atmosphere.commons.cs.deviceselection.DeviceParameter;
+import com.musala.atmosphere.commons.cs.deviceselection.DeviceSelector;
+import com.musala.atmosphere.commons.cs.deviceselection.RamCapacity;
+import com.musala.atmosphere.commons.cs.deviceselection.ScreenParameter;
+import com.musala.atmosphere.commons.cs.deviceselection.SerialNumber;
+import com.musala.atmosphere.commons.cs.exception.NoDeviceMatchingTheGivenSelectorException;
+import com.musala.atmosphere.server.DeviceSelectorApplicabilityChecker;
+
+/**
+ * Queue of the allocation requests waiting for a device. The requests are served in FIFO order within their
+ * {@link AllocationPriority priority class}. Requests with the same selector shape share a {@link SelectorBucket
+ * bucket} and the buckets are indexed by the exact device attribute their selector requires, so a device that becomes
+ * available is checked only against the buckets which could possibly apply to it, instead of against every waiting
+ * request.
+ * <p>
+ * Requests for a {@link GangAllocationRequest gang} of devices wait in the same order as the single device requests.
+ * When its turn comes, a gang is allocated only if all of its devices are free, otherwise the available device is
+ * offered to the next waiting request, so a waiting gang never holds devices which it can not use yet.
+ * </p>
+ * <p>
+ * The request to be served is taken out of the queue under its lock, but the devices are allocated and the future of
+ * the request is completed without holding it, so the requests may enter and leave the queue meanwhile. The hand offs
+ * themselves are serialized and a request which is not served is put back in its place.
+ * </p>
+ *
+ * @author dimcho.nedev
+ *
+ */
+public class AllocationQueue {
+    private static final Logger LOGGER = Logger.getLogger(AllocationQueue.class.getCanonicalName());
+
+    private static final String SERIAL_NUMBER_ATTRIBUTE = "serialNumber";
+
+    private static final String MODEL_ATTRIBUTE = "model";
+
+    private static final String OS_ATTRIBUTE = "os";
+
+    private static final String API_LEVEL_ATTRIBUTE = "apiLevel";
+
+    private static final String ATTRIBUTE_KEY_FORMAT = "%s=%s";
+
+    private final Map<String, SelectorBucket> bucketsByShape = new HashMap<>();
+
+    private final Map<String, Set<SelectorBucket>> bucketsByAttribute = new HashMap<>();
+
+    private final Set<SelectorBucket> unindexedBuckets = new LinkedHashSet<>();
+
+    private final Set<GangAllocationRequest> gangRequests = new LinkedHashSet<>();
+
+    private final DeviceSelectorApplicabilityChecker applicabilityChecker = new DeviceSelectorApplicabilityChecker();
+
+    private final IDeviceAllocator deviceAllocator;
+
+    // read without the lock by the device scorers, so it is replaced with a new snapshot on every change of the buckets
+    private volatile Map<String, List<SelectorDemand>> demandSnapshot = Collections.emptyMap();
+
+    // serializes the hand offs, which allocate devices without holding the lock of the queue
+    private final Object handOffLock = new Object();
+
+    // the request taken out of the queue while devices are allocated for it, guarded by the lock of the queue
+    private Object handedOffRequest;
+
+    private boolean isHandedOffRequestRemoved;
+
+    private long requestSequence;
+
+    private int size;
+
+    /**
+     * Creates an empty allocation queue.
+     *
+     * @param deviceAllocator
+     *        - allocates the devices handed off to the waiting requests
+     */
+    public AllocationQueue(IDeviceAllocator deviceAllocator) {
+        this.deviceAllocator = deviceAllocator;
+    }
+
+    /**
+     * Adds a new request at the end of its priority class.
+     *
+     * @param deviceSelector
+     *        - a {@link DeviceSelector selector} that match a specific device
+     * @param clientId
+     *        - a unique identifier of the client session
+     * @param priority
+     *        - the priority of the request
+     * @return the {@link AllocationRequest request} added to the queue
+     */
+    public synchronized AllocationRequest enqueue(DeviceSelector deviceSelector,
+                                                  String clientId,
+                                                  AllocationPriority priority) {
+        AllocationRequest request = new AllocationRequest(deviceSelector, clientId, priority, ++requestSequence);
+        addRequest(request);
+        size++;
+
+        return request;
+    }
+
+    /**
+     * Adds a new request for a gang of devices at the end of its priority class.
+     *
+     * @param deviceSelectors
+     *        - the {@link DeviceSelector selectors} of the devices in the gang
+     * @param clientId
+     *        - a unique identifier of the client session
+     * @param priority
+     *        - the priority of the request
+     * @return the {@link GangAllocationRequest request} added to the queue
+     */
+    public synchronized GangAllocationRequest enqueueGang(List<DeviceSelector> deviceSelectors,
+                                                          String clientId,
+                                                          AllocationPriority priority) {
+        GangAllocationRequest request = new GangAllocationRequest(new ArrayList<>(deviceSelectors),
+                                                                  clientId,
+                                                                  priority,
+                                                                  ++requestSequence);
+        gangRequests.add(request);
+        size++;
+        updateDemandSnapshot();
+
+        return request;
+    }
+
+    /**
+     * Removes a request, which is no longer waiting for a device.
+     *
+     * @param request
+     *        - the request to be removed
+     * @return <code>true</code> if the request was still waiting, <code>false</code> if it was already served
+     */
+    public synchronized boolean remove(AllocationRequest request) {
+        if (request == handedOffRequest) {
+            // the request is removed when its hand off ends, unless it gets a device meanwhile
+            isHandedOffRequestRemoved = true;
+            return false;
+        }
+
+        SelectorBucket bucket = bucketsByShape.get(getShapeKey(request.getDeviceSelector()));
+
+        if (bucket == null || !bucket.remove(request)) {
+            return false;
+        }
+
+        size--;
+
+        if (bucket.isEmpty()) {
+            removeBucket(bucket);
+        }
+
+        updateDemandSnapshot();
+
+        return true;
+    }
+
+    /**
+     * Removes a request for a gang of devices, which is no longer waiting.
+     *
+     * @param request
+     *        - the request to be removed
+     * @return <code>true</code> if the request was still waiting, <code>false</code> if it was already served
+     */
+    public synchronized boolean remove(GangAllocationRequest request) {
+        if (request == handedOffRequest) {
+            // the request is removed when its hand off ends, unless it gets its devices meanwhile
+            isHandedOffRequestRemoved = true;
+            return false;
+        }
+
+        if (!gangRequests.remove(request)) {
+            return false;
+        }
+
+        size--;
+        updateDemandSnapshot();
+
+        return true;
+    }
+
+    /**
+     * Checks whether there are requests waiting for the same devices as the given selector with the same or higher
+     * priority. A new request should not overtake such requests.
+     *
+     * @param deviceSelector
+     *        - a {@link DeviceSelector selector} that match a specific device
+     * @param priority
+     *        - the priority of the new request
+     * @return <code>true</code> if such requests are waiting, <code>false</code> otherwise
+     */
+    public synchronized boolean hasWaitingRequests(DeviceSelector deviceSelector, AllocationPriority priority) {
+        String shapeKey = getShapeKey(deviceSelector);
+        SelectorBucket bucket = bucketsByShape.get(shapeKey);
+
+        if (bucket != null && bucket.hasRequests(priority)) {
+            return true;
+        }
+
+        if (!(handedOffRequest instanceof AllocationRequest)) {
+            return false;
+        }
+
+        AllocationRequest request = (AllocationRequest) handedOffRequest;
+
+        return request.getPriority().compareTo(priority) <= 0
+                && shapeKey.equals(getShapeKey(request.getDeviceSelector()));
+    }
+
+    /**
+     * Hands off free devices to the requests waiting with the same selector as the given request, in the order they
+     * should be served. Used right after a request is enqueued, so a device released while the request was being
+     * enqueued is not missed.
+     *
+     * @param request
+     *        - the newly enqueued request
+     */
+    public void serve(AllocationRequest request) {
+        String shapeKey = getShapeKey(request.getDeviceSelector());
+
+        synchronized (handOffLock) {
+            AllocationRequest firstRequest = takeFirstRequest(shapeKey);
+
+            while (firstRequest != null && handOff(firstRequest)) {
+                firstRequest = takeFirstRequest(shapeKey);
+            }
+        }
+    }
+
+    /**
+     * Allocates the devices of a newly enqueued gang, if all of them are free and no other gang is waiting before it.
+     * Used right after the request is enqueued, so devices released while the request was being enqueued are not
+     * missed.
+     *
+     * @param request
+     *        - the newly enqueued request
+     */
+    public void serve(GangAllocationRequest request) {
+        synchronized (handOffLock) {
+            synchronized (this) {
+                for (GangAllocationRequest gangRequest : gangRequests) {
+                    // the gangs waiting before this one are tried first when devices are released
+                    if (gangRequest.precedes(request)) {
+                        return;
+                    }
+                }
+
+                if (!gangRequests.contains(request)) {
+                    return;
+                }
+
+                take(request);
+            }
+
+            handOff(request);
+        }
+    }
+
+    /**
+     * Hands off a device, which became available, to the first waiting request it is applicable to. A gang which can
+     * not be allocated yet is skipped, so the device is offered to the requests waiting after it. The request is
+     * chosen under the lock of the queue, but the device is allocated without holding it.
+     *
+     * @param deviceInformation
+     *        - information about the available device
+     */
+    public void deviceAvailable(DeviceInformation deviceInformation) {
+        Set<GangAllocationRequest> triedGangs = new HashSet<>();
+
+        synchronized (handOffLock) {
+            // the allocated device may be another free device, so continue while there are free devices for requests
+            while (true) {
+                AllocationRequest request;
+                GangAllocationRequest gangRequest;
+
+                synchronized (this) {
+                    request = getFirstApplicableRequest(deviceInformation);
+                    gangRequest = getFirstApplicableGang(deviceInformation, request, triedGangs);
+
+                    if (gangRequest != null) {
+                        take(gangRequest);
+                    } else if (request != null) {
+                        take(request);
+                    }
+                }
+
+                if (gangRequest != null) {
+                    triedGangs.add(gangRequest);
+                    handOff(gangRequest);
+                } else if (request == null || !handOff(request)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Hands off a device, which was just allocated for a new request, to the first waiting request it is applicable to,
+     * if that request has the same or higher priority. The waiting requests are offered the released devices
+     * asynchronously, so a new request with another selector could otherwise take a device they are waiting for.
+     *
+     * @param deviceInformation
+     *        - information about the allocated device
+     * @param allocationInformation
+     *        - the {@link DeviceAllocationInformation allocation information} of the device
+     * @param priority
+     *        - the priority of the new request
+     * @return <code>true</code> if the device is handed off to a waiting request, <code>false</code> if no such request
+     *         is waiting
+     */
+    public boolean handOff(DeviceInformation deviceInformation,
+                           DeviceAllocationInformation allocationInformation,
+                           AllocationPriority priority) {
+        AllocationRequest request;
+
+        synchronized (this) {
+            request = getFirstApplicableRequest(deviceInformation);
+
+            if (request == null || request.getPriority().compareTo(priority) > 0 || !remove(request)) {
+                return false;
+            }
+        }
+
+        request.getAllocationFuture().complete(allocationInformation);
+
+        LOGGER.info(String.format("Device with ID %s handed off to client with ID %s.",
+                                  allocationInformation.getDeviceId(),
+                                  request.getClientId()));
+
+        return true;
+    }
+
+    /**
+     * Hands off the devices, which became available together, to the waiting requests they are applicable to. The
+     * devices are matched one by one, which stops as soon as no request is waiting.
+     *
+     * @param devicesInformation
+     *        - information about the available devices
+     */
+    public void devicesAvailable(List<DeviceInformation> devicesInformation) {
+        for (DeviceInformation deviceInformation : devicesInformation) {
+            if (size() == 0) {
+                return;
+            }
+
+            deviceAvailable(deviceInformation);
+        }
+    }
+
+    /**
+     * Gets the count of the waiting requests.
+     *
+     * @return the count of the requests in the queue
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Counts the waiting requests which the given device is applicable to, i.e. how much the device is in demand. A
+     * waiting gang counts once for every selector the device is applicable to. Only the selectors which could possibly
+     * apply to the device are checked. The count is taken from a snapshot of the
+     * queue without locking it, so ranking the devices does not contend with the requests entering the queue.
+     *
+     * @param deviceInformation
+     *        - information about the device
+     * @return the count of the waiting requests the device could be handed off to
+     */
+    public int getDemand(DeviceInformation deviceInformation) {
+        Map<String, List<SelectorDemand>> snapshot = demandSnapshot;
+        int demand = getDemand(snapshot.get(null), deviceInformation);
+
+        for (String attributeKey : getAttributeKeys(deviceInformation)) {
+            demand += getDemand(snapshot.get(attributeKey), deviceInformation);
+        }
+
+        return demand;
+    }
+
+    private int getDemand(List<SelectorDemand> selectorDemands, DeviceInformation deviceInformation) {
+        int demand = 0;
+
+        if (selectorDemands == null) {
+            return demand;
+        }
+
+        for (SelectorDemand selectorDemand : selectorDemands) {
+            if (applicabilityChecker.isApplicable(selectorDemand.deviceSelector, deviceInformation)) {
+                demand += selectorDemand.requestsCount;
+            }
+        }
+
+        return demand;
+    }
+
+    /**
+     * Replaces the demand snapshot with the current state of the buckets and the gangs. Every selector of a waiting
+     * gang counts as one request. The selectors which can not be indexed are kept under the <code>null</code> key.
+     */
+    private void updateDemandSnapshot() {
+        Map<String, List<SelectorDemand>> snapshot = new HashMap<>();
+
+        for (SelectorBucket bucket : bucketsByShape.values()) {
+            addSelectorDemand(snapshot, bucket.getAttributeKey(), bucket.getDeviceSelector(), bucket.size());
+        }
+
+        for (GangAllocationRequest gangRequest : gangRequests) {
+            for (DeviceSelector deviceSelector : gangRequest.getDeviceSelectors()) {
+                addSelectorDemand(snapshot, getAttributeKey(deviceSelector), deviceSelector, 1);
+            }
+        }
+
+        demandSnapshot = snapshot;
+    }
+
+    private static void addSelectorDemand(Map<String, List<SelectorDemand>> snapshot,
+                                          String attributeKey,
+                                          DeviceSelector deviceSelector,
+                                          int requestsCount) {
+        List<SelectorDemand> selectorDemands = snapshot.get(attributeKey);
+
+        if (selectorDemands == null) {
+            selectorDemands = new ArrayList<>();
+            snapshot.put(attributeKey, selectorDemands);
+        }
+
+        selectorDemands.add(new SelectorDemand(deviceSelector, requestsCount));
+    }
+
+    private List<SelectorBucket> getCandidateBuckets(DeviceInformation deviceInformation) {
+        List<SelectorBucket> candidateBuckets = new ArrayList<>(unindexedBuckets);
+
+        for (String attributeKey : getAttributeKeys(deviceInformation)) {
+            Set<SelectorBucket> buckets = bucketsByAttribute.get(attributeKey);
+
+            if (buckets != null) {
+                candidateBuckets.addAll(buckets);
+            }
+        }
+
+        return candidateBuckets;
+    }
+
+    private AllocationRequest getFirstApplicableRequest(DeviceInformation deviceInformation) {
+        AllocationRequest firstRequest = null;
+
+        for (SelectorBucket bucket : getCandidateBuckets(deviceInformation)) {
+            AllocationRequest request = bucket.peek();
+
+            if (firstRequest != null && !request.precedes(firstRequest)) {
+                continue;
+            }
+
+            if (applicabilityChecker.isApplicable(bucket.getDeviceSelector(), deviceInformation)) {
+                firstRequest = request;
+            }
+        }
+
+        return firstRequest;
+    }
+
+    /**
+     * Gets the first waiting gang, which the given device is applicable to, if it has to be served before the given
+     * single device request and it was not tried yet.
+     */
+    private GangAllocationRequest getFirstApplicableGang(DeviceInformation deviceInformation,
+                                                         AllocationRequest firstRequest,
+                                                         Set<GangAllocationRequest> triedGangs) {
+        GangAllocationRequest firstGang = null;
+
+        for (GangAllocationRequest gangRequest : gangRequests) {
+            if (triedGangs.contains(gangRequest) || firstRequest != null && !gangRequest.precedes(firstRequest)
+                    || firstGang != null && !gangRequest.precedes(firstGang)) {
+                continue;
+            }
+
+            for (DeviceSelector deviceSelector : gangRequest.getDeviceSelectors()) {
+                if (applicabilityChecker.isApplicable(deviceSelector, deviceInformation)) {
+                    firstGang = gangRequest;
+                    break;
+                }
+            }
+        }
+
+        return firstGang;
+    }
+
+    private synchronized AllocationRequest takeFirstRequest(String shapeKey) {
+        SelectorBucket bucket = bucketsByShape.get(shapeKey);
+
+        if (bucket == null || bucket.isEmpty()) {
+            return null;
+        }
+
+        AllocationRequest request = bucket.peek();
+        take(request);
+
+        return request;
+    }
+
+    /**
+     * Takes the given request out of the queue for the time its device is allocated. Must be called under the lock of
+     * the queue.
+     */
+    private void take(AllocationRequest request) {
+        SelectorBucket bucket = bucketsByShape.get(getShapeKey(request.getDeviceSelector()));
+        bucket.remove(request);
+
+        if (bucket.isEmpty()) {
+            removeBucket(bucket);
+        }
+
+        handedOffRequest = request;
+        updateDemandSnapshot();
+    }
+
+    /**
+     * Takes the given gang out of the queue for the time its devices are allocated. Must be called under the lock of
+     * the queue.
+     */
+    private void take(GangAllocationRequest request) {
+        gangRequests.remove(request);
+        handedOffRequest = request;
+        updateDemandSnapshot();
+    }
+
+    /**
+     * Ends the hand off of the given request. A request which is not served is put back in its place in the queue,
+     * unless it was removed meanwhile.
+     *
+     * @return <code>true</code> if the request is waiting in the queue again, <code>false</code> otherwise
+     */
+    private synchronized boolean endHandOff(AllocationRequest request, boolean isServed) {
+        if (endHandOff(isServed)) {
+            return false;
+        }
+
+        addRequest(request);
+
+        return true;
+    }
+
+    /**
+     * Ends the hand off of the given gang. A gang which is not allocated is put back in the queue, unless it was
+     * removed meanwhile.
+     *
+     * @return <code>true</code> if the gang is waiting in the queue again, <code>false</code> otherwise
+     */
+    private synchronized boolean endHandOff(GangAllocationRequest request, boolean isServed) {
+        if (endHandOff(isServed)) {
+            return false;
+        }
+
+        gangRequests.add(request);
+        updateDemandSnapshot();
+
+        return true;
+    }
+
+    /**
+     * Clears the request which is handed off. Must be called under the lock of the queue.
+     *
+     * @return <code>true</code> if the request leaves the queue, <code>false</code> if it should wait again
+     */
+    private boolean endHandOff(boolean isServed) {
+        boolean isRemoved = isServed || isHandedOffRequestRemoved;
+
+        handedOffRequest = null;
+        isHandedOffRequestRemoved = false;
+
+        if (isRemoved) {
+            size--;
+        }
+
+        return isRemoved;
+    }
+
+    private boolean handOff(GangAllocationRequest request) {
+        List<DeviceAllocationInformation> allocationInformation;
+
+        try {
+            allocationInformation = deviceAllocator.allocateAll(request.getDeviceSelectors());
+        } catch (NoDeviceMatchingTheGivenSelectorException e) {
+            // the matching devices were removed from the pool, so the request can never be served
+            endHandOff(request, true);
+            request.getAllocationFuture().completeExceptionally(e);
+
+            return true;
+        } catch (RuntimeException e) {
+            returnToQueue(request);
+            throw e;
+        }
+
+        if (allocationInformation == null) {
+            returnToQueue(request);
+            return false;
+        }
+
+        endHandOff(request, true);
+        request.getAllocationFuture().complete(allocationInformation);
+
+        LOGGER.info(String.format("Gang of %d devices handed off to client with ID %s.",
+                                  allocationInformation.size(),
+                                  request.getClientId()));
+
+        return true;
+    }
+
+    private boolean handOff(AllocationRequest request) {
+        DeviceAllocationInformation allocationInformation;
+
+        try {
+            allocationInformation = deviceAllocator.allocate(request.getDeviceSelector());
+        } catch (NoDeviceMatchingTheGivenSelectorException e) {
+            // the matching devices were removed from the pool, so the request can never be served
+            endHandOff(request, true);
+            request.getAllocationFuture().completeExceptionally(e);
+
+            return true;
+        } catch (RuntimeException e) {
+            returnToQueue(request);
+            throw e;
+        }
+
+        if (allocationInformation == null) {
+            returnToQueue(request);
+            return false;
+        }
+
+        endHandOff(request, true);
+        request.getAllocationFuture().complete(allocationInformation);
+
+        LOGGER.info(String.format("Device with ID %s handed off to client with ID %s.",
+                                  allocationInformation.getDeviceId(),
+                                  request.getClientId()));
+
+        return true;
+    }
+
+    private void returnToQueue(GangAllocationRequest request) {
+        // a gang which timed out while it was handed off is completed the way the timeout would complete it
+        if (!endHandOff(request, false)) {
+            request.getAllocationFuture().complete(null);
+        }
+    }
+
+    private void returnToQueue(AllocationRequest request) {
+        // a request which timed out while it was handed off is completed the way the timeout would complete it
+        if (!endHandOff(request, false)) {
+            request.getAllocationFuture().complete(null);
+        }
+    }
+
+    /**
+     * Adds the given request to the bucket of its selector shape. Must be called under the lock of the queue.
+     */
+    private void addRequest(AllocationRequest request) {
+        DeviceSelector deviceSelector = request.getDeviceSelector();
+        String shapeKey = getShapeKey(deviceSelector);
+        SelectorBucket bucket = bucketsByShape.get(shapeKey);
+
+        if (bucket == null) {
+            bucket = new SelectorBucket(shapeKey, getAttributeKey(deviceSelector), deviceSelector);
+            addBucket(bucket);
+        }
+
+        bucket.add(request);
+        updateDemandSnapshot();
+    }
+
+    private void addBucket(SelectorBucket bucket) {
+        bucketsByShape.put(bucket.getShapeKey(), bucket);
+
+        String attributeKey = bucket.getAttributeKey();
+
+        if (attributeKey == null) {
+            unindexedBuckets.add(bucket);
+            return;
+        }
+
+        Set<SelectorBucket> buckets = bucketsByAttribute.get(attributeKey);
+
+        if (buckets == null) {
+            buckets = new LinkedHashSet<>();
+            bucketsByAttribute.put(attributeKey, buckets);
+        }
+
+        buckets.add(bucket);
+    }
+
+    private void removeBucket(SelectorBucket bucket) {
+        bucketsByShape.remove(bucket.getShapeKey());
+
+        String attributeKey = bucket.getAttributeKey();
+
+        if (attributeKey == null) {
+            unindexedBuckets.remove(bucket);
+            return;
+        }
+
+        Set<SelectorBucket> buckets = bucketsByAttribute.get(attributeKey);
+        buckets.remove(bucket);
+
+        if (buckets.isEmpty()) {
+            bucketsByAttribute.remove(attributeKey);
+        }
+    }
+
+    /**
+     * Builds a key which is the same for all selectors with the same device parameters.
+     */
+    private static String getShapeKey(DeviceSelector deviceSelector) {
+        List<String> parameters = new ArrayList<>();
+
+        for (DeviceParameter parameter : deviceSelector.getParameters().values()) {
+            parameters.add(String.format(ATTRIBUTE_KEY_FORMAT, parameter.getClass().getName(), getValue(parameter)));
+        }
+
+        Collections.sort(parameters);
+
+        return parameters.toString();
+    }
+
+    /**
+     * Gets the key of the most selective device attribute, which must have an exact value in order the given selector
+     * to be applicable to a device. The values are taken the same way the device pool queries take them, so the key is
+     * equal to the one built from the {@link #getAttributeKeys(DeviceInformation) information} of a matching device.
+     */
+    private static String getAttributeKey(DeviceSelector deviceSelector) {
+        Map<Class<? extends DeviceParameter>, DeviceParameter> parameters = deviceSelector.getParameters();
+
+        if (parameters.containsKey(SerialNumber.class)) {
+            SerialNumber serialNumber = (SerialNumber) parameters.get(SerialNumber.class);
+            return String.format(ATTRIBUTE_KEY_FORMAT, SERIAL_NUMBER_ATTRIBUTE, serialNumber.getValue());
+        }
+
+        if (parameters.containsKey(DeviceModel.class)) {
+            DeviceModel deviceModel = (DeviceModel) parameters.get(DeviceModel.class);
+            return String.format(ATTRIBUTE_KEY_FORMAT, MODEL_ATTRIBUTE, deviceModel.getValue());
+        }
+
+        if (parameters.containsKey(DeviceOs.class)) {
+            DeviceOs deviceOs = (DeviceOs) parameters.get(DeviceOs.class);
+            return String.format(ATTRIBUTE_KEY_FORMAT, OS_ATTRIBUTE, deviceOs);
+        }
+
+        ApiLevel targetApiLevel = (ApiLevel) parameters.get(ApiLevel.Target.class);
+        ApiLevel minApiLevel = (ApiLevel) parameters.get(ApiLevel.Minimum.class);
+        ApiLevel maxApiLevel = (ApiLevel) parameters.get(ApiLevel.Maximum.class);
+
+        // the API level is exact only if the range is a single level, which is also the target, if such is set
+        if (minApiLevel != null && maxApiLevel != null && minApiLevel.getValue().equals(maxApiLevel.getValue())
+                && (targetApiLevel == null || targetApiLevel.getValue().equals(minApiLevel.getValue()))) {
+            return String.format(ATTRIBUTE_KEY_FORMAT, API_LEVEL_ATTRIBUTE, minApiLevel.getValue());
+        }
+
+        return null;
+    }
+
+    /**
+     * Gets the value of the given selector parameter. The enumerated parameters, e.g. the {@link DeviceOs OS}, are
+     * values themselves.
+     */
+    private static Object getValue(DeviceParameter parameter) {
+        if (parameter instanceof SerialNumber) {
+            return ((SerialNumber) parameter).getValue();
+        }
+
+        if (parameter instanceof DeviceModel) {
+            return ((DeviceModel) parameter).getValue();
+        }
+
+        if (parameter instanceof ApiLevel) {
+            return ((ApiLevel) parameter).getValue();
+        }
+
+        if (parameter instanceof RamCapacity) {
+            return ((RamCapacity) parameter).getValue();
+        }
+
+        if (parameter instanceof ScreenParameter) {
+            return ((ScreenParameter) parameter).getValue();
+        }
+
+        if (parameter instanceof CameraAvailable) {
+            return ((CameraAvailable) parameter).getValue();
+        }
+
+        return parameter;
+    }
+
+    private static List<String> getAttributeKeys(DeviceInformation deviceInformation) {
+        String serialNumber = deviceInformation.getSerialNumber();
+
+        List<String> attributeKeys = new ArrayList<>();
+        attributeKeys.add(String.format(ATTRIBUTE_KEY_FORMAT, SERIAL_NUMBER_ATTRIBUTE, serialNumber));
+        attributeKeys.add(String.format(ATTRIBUTE_KEY_FORMAT, MODEL_ATTRIBUTE, deviceInformation.getModel()));
+        attributeKeys.add(String.format(ATTRIBUTE_KEY_FORMAT, OS_ATTRIBUTE, deviceInformation.getOS()));
+        attributeKeys.add(String.format(ATTRIBUTE_KEY_FORMAT, API_LEVEL_ATTRIBUTE, deviceInformation.getApiLevel()));
+
+        return attributeKeys;
+    }
+
+    /**
+     * The count of the requests waiting with the same selector at the time the demand snapshot was taken.
+     */
+    private static class SelectorDemand {
+        private final DeviceSelector deviceSelector;
+
+        private final int requestsCount;
+
+        private SelectorDemand(DeviceSelector deviceSelector, int requestsCount) {
+            this.deviceSelector = deviceSelector;
+            this.requestsCount = requestsCount;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+// This file is part of the ATMOSPHERE mobile testing framework.
+// Copyright (C) 2016 MusalaSoft
+//
+// ATMOSPHERE is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// ATMOSPHERE is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with ATMOSPHERE.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.musala.atmosphere.server.allocation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.musala.atmosphere.commons.DeviceInformation;
+import com.musala.atmosphere.server.dao.IDevicePoolDao;
+import com.musala.atmosphere.server.dao.exception.DevicePoolDaoException;
+import com.musala.atmosphere.server.data.model.IDevice;
+
+/**
+ * Ranks the matching devices so a request takes the device it is the least harmful to take. A device is preferred when
+ * fewer waiting requests could be served by it and when more free devices of the same kind are left in the pool, so a
+ * request satisfied by any device does not take the only device other requests are waiting for. The ties are broken
+ * by the count of the allocated devices on the agent of the device, so the load is spread among the agents. The
+ * scores are computed from the candidates and the devices of their agents only, so ranking does not scan the pool.
+ *
+ * @author dimcho.nedev
+ *
+ */
+public class BestFitDeviceScorer implements IDeviceScorer {
+    private static final String DEVICE_KIND_FORMAT = "%s|%s|%d|%b";
+
+    private static final Comparator<ScoredDevice> BEST_FIT_ORDER = new Comparator<ScoredDevice>() {
+        @Override
+        public int compare(ScoredDevice first, ScoredDevice second) {
+            if (first.demand != second.demand) {
+                return Integer.compare(first.demand, second.demand);
+            }
+
+            if (first.abundance != second.abundance) {
+                return Integer.compare(second.abundance, first.abundance);
+            }
+
+            return Integer.compare(first.agentLoad, second.agentLoad);
+        }
+    };
+
+    private final IDevicePoolDao devicePoolDao;
+
+    private final AllocationQueue allocationQueue;
+
+    /**
+     * Creates a scorer, which considers the abundance of the devices and the load of their agents, but not the demand.
+     *
+     * @param devicePoolDao
+     *        - the data access object of the device pool
+     */
+    public BestFitDeviceScorer(IDevicePoolDao devicePoolDao) {
+        this(devicePoolDao, null);
+    }
+
+    /**
+     * Creates a scorer, which considers the demand of the requests waiting in the given queue, the abundance of the
+     * devices and the load of their agents.
+     *
+     * @param devicePoolDao
+     *        - the data access object of the device pool
+     * @param allocationQueue
+     *        - the queue of the waiting requests or <code>null</code> if the demand should not be considered
+     */
+    public BestFitDeviceScorer(IDevicePoolDao devicePoolDao, AllocationQueue allocationQueue) {
+        this.devicePoolDao = devicePoolDao;
+        this.allocationQueue = allocationQueue;
+    }
+
+    @Override
+    public List<IDevice> rank(List<IDevice> candidates) throws DevicePoolDaoException {
+        if (candidates.size() < 2) {
+            return candidates;
+        }
+
+        // the candidates are the free matching devices, so the abundance is counted among them instead of in the pool
+        Map<String, Integer> kindToFreeDevices = new HashMap<>();
+        Map<String, Integer> agentToAllocatedDevices = new HashMap<>();
+
+        for (IDevice device : candidates) {
+            increment(kindToFreeDevices, getKind(device.getInformation()));
+
+            String agentId = device.getAgentId();
+
+            if (!agentToAllocatedDevices.containsKey(agentId)) {
+                agentToAllocatedDevices.put(agentId, getAllocatedDevicesCount(agentId));
+            }
+        }
+
+        List<ScoredDevice> scoredDevices = new ArrayList<>(candidates.size());
+
+        for (IDevice device : candidates) {
+            DeviceInformation deviceInformation = device.getInformation();
+            int demand = allocationQueue != null ? allocationQueue.getDemand(deviceInformation) : 0;
+            int abundance = getCount(kindToFreeDevices, getKind(deviceInformation));
+            int agentLoad = getCount(agentToAllocatedDevices, device.getAgentId());
+
+            scoredDevices.add(new ScoredDevice(device, demand, abundance, agentLoad));
+        }
+
+        // the sort is stable, so the order of the pool is kept among the devices with equal scores
+        Collections.sort(scoredDevices, BEST_FIT_ORDER);
+
+        List<IDevice> rankedDevices = new ArrayList<>(scoredDevices.size());
+
+        for (ScoredDevice scoredDevice : scoredDevices) {
+            rankedDevices.add(scoredDevice.device);
+        }
+
+        return rankedDevices;
+    }
+
+    private int getAllocatedDevicesCount(String agentId) throws DevicePoolDaoException {
+        int allocatedDevicesCount = 0;
+
+        for (IDevice device : devicePoolDao.getAgentDevices(agentId)) {
+            if (device.isAllocated()) {
+                allocatedDevicesCount++;
+            }
+        }
+
+        return allocatedDevicesCount;
+    }
+
+    /**
+     * Gets a key which is the same for all devices, which are interchangeable for the usual selectors.
+     */
+    private static String getKind(DeviceInformation deviceInformation) {
+        return String.format(DEVICE_KIND_FORMAT,
+                             deviceInformation.getModel(),
+                             deviceInformation.getOS(),
+                             deviceInformation.getApiLevel(),
+                             deviceInformation.isEmulator());
+    }
+
+    private static void increment(Map<String, Integer> counts, String key) {
+        counts.put(key, getCount(counts, key) + 1);
+    }
+
+    private static int getCount(Map<String, Integer> counts, String key) {
+        Integer count = counts.get(key);
+
+        return count != null ? count : 0;
+    }
+
+    private static class ScoredDevice {
+        private final IDevice device;
+
+        private final int demand;
+
+        private final int abundance;
+
+        private final int agentLoad;
+
+        private ScoredDevice(IDevice device, int demand, int abundance, int agentLoad) {
+            this.device = device;
+            this.demand = demand;
+            this.abundance = abundance;
+            this.agentLoad = agentLoad;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+// This file is part of the ATMOSPHERE mobile testing framework.
+// Copyright (C) 2016 MusalaSoft
+//
+// ATMOSPHERE is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// ATMOSPHERE is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with ATMOSPHERE.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.musala.atmosphere.server.allocation;
+
+import com.musala.atmosphere.server.dao.IDevicePoolDao;
+
+/**
+ * Enumerates the possible strategies for choosing which of the free devices matching a selector is allocated.
+ *
+ * @author dimcho.nedev
+ *
+ */
+public enum DeviceAllocationStrategy {
+    /**
+     * The first matching device returned by the device pool is allocated.
+     */
+    FIRST_MATCH,
+    /**
+     * The matching device which is least in demand by the waiting requests and most abundant in the pool is allocated.
+     */
+    BEST_FIT;
+
+    /**
+     * Creates the scorer which ranks the matching devices according to this strategy.
+     *
+     * @param devicePoolDao
+     *        - the data access object of the device pool
+     * @param allocationQueue
+     *        - the queue of the waiting requests or <code>null</code> if the demand should not be considered
+     * @return the {@link IDeviceScorer scorer} of the devices
+     */
+    public IDeviceScorer createScorer(IDevicePoolDao devicePoolDao, AllocationQueue allocationQueue) {
+        if (this == FIRST_MATCH) {
+            return new FirstMatchDeviceScorer();
+        }
+
+        return new BestFitDeviceScorer(devicePoolDao, allocationQueue);
+    }
+}
@@ -0,0 +1,108 @@
+// This file is part of the ATMOSPHERE mobile testing framework.
+// Copyright (C) 2016 MusalaSoft
+//
+// ATMOSPHERE is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// ATMOSPHERE is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with ATMOSPHERE.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.musala.atmosphere.server.allocation;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import com.musala.atmosphere.commons.cs.clientbuilder.DeviceAllocationInformation;
+import com.musala.atmosphere.commons.cs.deviceselection.DeviceSelector;
+
+/**
+ * A client request waiting in the {@link AllocationQueue allocation queue} for a gang of devices - one device for each
+ * of its selectors. The devices of a gang are allocated all together or none of them is, so the request is completed
+ * with the information for all allocated devices at once.
+ *
+ * @author dimcho.nedev
+ *
+ */
+public class GangAllocationRequest {
+    private final List<DeviceSelector> deviceSelectors;
+
+    private final String clientId;
+
+    private final AllocationPriority priority;
+
+    private final long sequence;
+
+    private final CompletableFuture<List<DeviceAllocationInformation>> allocationFuture = new CompletableFuture<>();
+
+    GangAllocationRequest(List<DeviceSelector> deviceSelectors,
+                          String clientId,
+                          AllocationPriority priority,
+                          long sequence) {
+        this.deviceSelectors = Collections.unmodifiableList(deviceSelectors);
+        this.clientId = clientId;
+        this.priority = priority;
+        this.sequence = sequence;
+    }
+
+    public List<DeviceSelector> getDeviceSelectors() {
+        return deviceSelectors;
+    }
+
+    public String getClientId() {
+        return clientId;
+    }
+
+    public AllocationPriority getPriority() {
+        return priority;
+    }
+
+    /**
+     * Gets the future which is completed with the information for the devices allocated for this request, in the order
+     * of the selectors.
+     *
+     * @return the {@link CompletableFuture future} result of this request
+     */
+    public CompletableFuture<List<DeviceAllocationInformation>> getAllocationFuture() {
+        return allocationFuture;
+    }
+
+    /**
+     * Checks whether this request has to be served before the given single device request.
+     *
+     * @param request
+     *        - the request to compare with
+     * @return <code>true</code> if this request has higher priority or it has the same priority and it was made
+     *         earlier, <code>false</code> otherwise
+     */
+    boolean precedes(AllocationRequest request) {
+        if (priority != request.getPriority()) {
+            return priority.compareTo(request.getPriority()) < 0;
+        }
+
+        return sequence < request.getSequence();
+    }
+
+    /**
+     * Checks whether this request has to be served before the given gang request.
+     *
+     * @param request
+     *        - the request to compare with
+     * @return <code>true</code> if this request has higher priority or it has the same priority and it was made
+     *         earlier, <code>false</code> otherwise
+     */
+    boolean precedes(GangAllocationRequest request) {
+        if (priority != request.priority) {
+            return priority.compareTo(request.priority) < 0;
+        }
+
+        return sequence < request.sequence;
+    }
+}
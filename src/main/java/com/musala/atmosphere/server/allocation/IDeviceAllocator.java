@@ -0,0 +1,50 @@
+// This file is part of the ATMOSPHERE mobile testing framework.
+// Copyright (C) 2016 MusalaSoft
+//
+// ATMOSPHERE is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// ATMOSPHERE is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with ATMOSPHERE.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.musala.atmosphere.server.allocation;
+
+import java.util.List;
+
+import com.musala.atmosphere.commons.cs.clientbuilder.DeviceAllocationInformation;
+import com.musala.atmosphere.commons.cs.deviceselection.DeviceSelector;
+
+/**
+ * Allocates devices on behalf of the requests waiting in the {@link AllocationQueue allocation queue}.
+ *
+ * @author dimcho.nedev
+ *
+ */
+public interface IDeviceAllocator {
+    /**
+     * Allocates a free device matching the given selector.
+     *
+     * @param deviceSelector
+     *        - a {@link DeviceSelector selector} that match a specific device
+     * @return an {@link DeviceAllocationInformation information} for the allocated device or <code>null</code> if all
+     *         matching devices are allocated
+     */
+    public DeviceAllocationInformation allocate(DeviceSelector deviceSelector);
+
+    /**
+     * Allocates a free device for each of the given selectors, all together or none of them.
+     *
+     * @param deviceSelectors
+     *        - the {@link DeviceSelector selectors} of the devices in the gang
+     * @return the {@link DeviceAllocationInformation information} for the allocated devices, in the order of the
+     *         selectors, or <code>null</code> if not all of the devices are free at the moment
+     */
+    public List<DeviceAllocationInformation> allocateAll(List<DeviceSelector> deviceSelectors);
+}
@@ -0,0 +1,42 @@
+// This file is part of the ATMOSPHERE mobile testing framework.
+// Copyright (C) 2016 MusalaSoft
+//
+// ATMOSPHERE is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// ATMOSPHERE is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with ATMOSPHERE.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.musala.atmosphere.server.allocation;
+
+import java.util.List;
+
+import com.musala.atmosphere.server.dao.exception.DevicePoolDaoException;
+import com.musala.atmosphere.server.data.model.IDevice;
+
+/**
+ * Decides which of the free devices matching a selector should be allocated. The devices are claimed in the order
+ * they are ranked, so the first one that is still free is allocated.
+ *
+ * @author dimcho.nedev
+ *
+ */
+public interface IDeviceScorer {
+    /**
+     * Orders the given free devices from the most to the least suitable one for allocation.
+     *
+     * @param candidates
+     *        - the free devices matching the selector of the allocation
+     * @return the candidates in the order they should be claimed
+     * @throws DevicePoolDaoException
+     *         - thrown when fetching the devices needed for the ranking fails
+     */
+    public List<IDevice> rank(List<IDevice> candidates) throws DevicePoolDaoException;
+}
@@ -0,0 +1,135 @@
+// This file is part of the ATMOSPHERE mobile testing framework.
+// Copyright (C) 2016 MusalaSoft
+//
+// ATMOSPHERE is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// ATMOSPHERE is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with ATMOSPHERE.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.musala.atmosphere.server.allocation;
+
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import com.musala.atmosphere.commons.cs.deviceselection.DeviceSelector;
+
+/**
+ * Holds the waiting requests which have the same selector shape, i.e. the same device parameters. Since all requests
+ * in a bucket are applicable to the same devices, only the first request from the highest priority class has to be
+ * considered when a device becomes available. Not thread-safe, guarded by the owning {@link AllocationQueue queue}.
+ *
+ * @author dimcho.nedev
+ *
+ */
+class SelectorBucket {
+    // a request which is put back after a failed hand off takes its original place in the bucket
+    private static final Comparator<AllocationRequest> SEQUENCE_ORDER = new Comparator<AllocationRequest>() {
+        @Override
+        public int compare(AllocationRequest first, AllocationRequest second) {
+            return Long.compare(first.getSequence(), second.getSequence());
+        }
+    };
+
+    private final String shapeKey;
+
+    private final String attributeKey;
+
+    private final DeviceSelector deviceSelector;
+
+    private final Map<AllocationPriority, Set<AllocationRequest>> requestsByPriority;
+
+    private int size;
+
+    SelectorBucket(String shapeKey, String attributeKey, DeviceSelector deviceSelector) {
+        this.shapeKey = shapeKey;
+        this.attributeKey = attributeKey;
+        this.deviceSelector = deviceSelector;
+        this.requestsByPriority = new EnumMap<>(AllocationPriority.class);
+
+        for (AllocationPriority priority : AllocationPriority.values()) {
+            requestsByPriority.put(priority, new TreeSet<AllocationRequest>(SEQUENCE_ORDER));
+        }
+    }
+
+    String getShapeKey() {
+        return shapeKey;
+    }
+
+    /**
+     * Gets the key of the device attribute, which any device applicable to the selector of this bucket must have.
+     *
+     * @return the attribute key or <code>null</code> if the selector does not require an exact attribute value
+     */
+    String getAttributeKey() {
+        return attributeKey;
+    }
+
+    DeviceSelector getDeviceSelector() {
+        return deviceSelector;
+    }
+
+    void add(AllocationRequest request) {
+        requestsByPriority.get(request.getPriority()).add(request);
+        size++;
+    }
+
+    boolean remove(AllocationRequest request) {
+        if (!requestsByPriority.get(request.getPriority()).remove(request)) {
+            return false;
+        }
+
+        size--;
+
+        return true;
+    }
+
+    /**
+     * Gets the request which should be served first from this bucket.
+     *
+     * @return the first request from the highest priority class or <code>null</code> if the bucket is empty
+     */
+    AllocationRequest peek() {
+        for (Set<AllocationRequest> requests : requestsByPriority.values()) {
+            Iterator<AllocationRequest> iterator = requests.iterator();
+
+            if (iterator.hasNext()) {
+                return iterator.next();
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Checks whether there are requests in this bucket with the same or higher priority than the given one.
+     *
+     * @param priority
+     *        - the priority to check for
+     * @return <code>true</code> if such requests are waiting, <code>false</code> otherwise
+     */
+    boolean hasRequests(AllocationPriority priority) {
+        AllocationRequest firstRequest = peek();
+
+        return firstRequest != null && firstRequest.getPriority().compareTo(priority) <= 0;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int size() {
+        return size;
+    }
+}
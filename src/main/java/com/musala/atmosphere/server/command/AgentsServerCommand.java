@@ -0,0 +1,73 @@
+// This file is part of the ATMOSPHERE mobile testing framework.
+// Copyright (C) 2016 MusalaSoft
+//
+// ATMOSPHERE is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// ATMOSPHERE is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with ATMOSPHERE.  If not, see <http://www.gnu.org/licenses/>.
+package com.musala.atmosphere.server.command;
+
+import java.util.List;
+
+import com.musala.atmosphere.commons.sa.ConsoleControl;
+import com.musala.atmosphere.commons.sa.Table;
+import com.musala.atmosphere.server.Server;
+import com.musala.atmosphere.server.monitor.AgentHealthMetrics;
+
+/**
+ * Prints the health metrics of all connected agents in a table format.
+ *
+ * @author dimcho.nedev
+ *
+ */
+public class AgentsServerCommand extends NoParamsServerCommand {
+    private static final double MICROS_IN_MILLISECOND = 1000.0;
+
+    public AgentsServerCommand(Server server) {
+        super(server);
+    }
+
+    @Override
+    protected void executeCommand(String[] params) {
+        List<AgentHealthMetrics> agentsMetrics = server.getAgentHealthMetrics();
+
+        if (agentsMetrics.isEmpty()) {
+            server.writeLineToConsole("No connected agents.");
+            return;
+        }
+
+        String[] columnNames = new String[] {"AgentId", "State", "Phi", "Pings", "Pongs", "Avg RTT (ms)",
+                "Median RTT (ms)", "99% RTT (ms)", "Max RTT (ms)"};
+
+        String[][] data = new String[agentsMetrics.size()][columnNames.length];
+        for (int i = 0; i < agentsMetrics.size(); i++) {
+            AgentHealthMetrics metrics = agentsMetrics.get(i);
+
+            data[i][0] = metrics.getAgentId();
+            data[i][1] = String.valueOf(metrics.getState());
+            data[i][2] = String.format("%.2f", metrics.getPhi());
+            data[i][3] = String.valueOf(metrics.getSentPings());
+            data[i][4] = String.valueOf(metrics.getReceivedPongs());
+            data[i][5] = toMillis(metrics.getMeanRoundTripTime());
+            data[i][6] = toMillis(metrics.getMedianRoundTripTime());
+            data[i][7] = toMillis(metrics.getP99RoundTripTime());
+            data[i][8] = toMillis(metrics.getMaxRoundTripTime());
+        }
+
+        Table table = new Table(columnNames, data);
+
+        table.printTable(new ConsoleControl());
+    }
+
+    private String toMillis(double micros) {
+        return String.format("%.2f", micros / MICROS_IN_MILLISECOND);
+    }
+}
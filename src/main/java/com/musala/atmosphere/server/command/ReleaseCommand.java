@@ -40,7 +40,7 @@ public class ReleaseCommand extends ParamsServerCommand {
     public ReleaseCommand(Server server) {
         super(server);
         this.poolManager = PoolManager.getInstance();
-        this.monitor = new ClientRequestMonitor();
+        this.monitor = ClientRequestMonitor.getInstance();
     }
 
     @Override
@@ -59,6 +59,15 @@ public class ServerCommandFactory {
             }
             case DEVICES: {
                 resultCommand = new DevicesServerCommand(server);
+                break;
+            }
+            case SESSIONS: {
+                resultCommand = new SessionsServerCommand(server);
+                break;
+            }
+            case AGENTS: {
+                resultCommand = new AgentsServerCommand(server);
+                break;
             }
         }
 
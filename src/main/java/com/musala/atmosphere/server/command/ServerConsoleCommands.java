@@ -30,7 +30,9 @@ public enum ServerConsoleCommands {
     SERVER_HELP("help", "help", "Prints all available commands."),
     SERVER_EXIT("exit", "exit", "Stops and closes the currently running Server component."),
     RELEASE("release", "release", "Release all devices with \"release all\" or release a specific device with \"release <deviceSerial>\"."),
-    DEVICES("devices", "devces", "Prints all devices that are registered to the Server");
+    DEVICES("devices", "devces", "Prints all devices that are registered to the Server"),
+    SESSIONS("sessions", "sessions", "Prints the outbound message queue metrics of all client and agent sessions."),
+    AGENTS("agents", "agents", "Prints the state and the ping round-trip times of all connected agents.");
 
     private String command;
 
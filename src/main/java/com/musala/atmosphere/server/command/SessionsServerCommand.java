@@ -0,0 +1,71 @@
+// This file is part of the ATMOSPHERE mobile testing framework.
+// Copyright (C) 2016 MusalaSoft
+//
+// ATMOSPHERE is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// ATMOSPHERE is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with ATMOSPHERE.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.musala.atmosphere.server.command;
+
+import java.util.List;
+
+import com.musala.atmosphere.commons.sa.ConsoleControl;
+import com.musala.atmosphere.commons.sa.Table;
+import com.musala.atmosphere.server.Server;
+import com.musala.atmosphere.server.websocket.ServerDispatcher;
+import com.musala.atmosphere.server.websocket.SessionOutboundMetrics;
+
+/**
+ * Prints the outbound queue metrics of all open WebSocket sessions in a table format.
+ *
+ * @author dimcho.nedev
+ *
+ */
+public class SessionsServerCommand extends NoParamsServerCommand {
+    private ServerDispatcher dispatcher;
+
+    public SessionsServerCommand(Server server) {
+        super(server);
+        this.dispatcher = ServerDispatcher.getInstance();
+    }
+
+    @Override
+    protected void executeCommand(String[] params) {
+        List<SessionOutboundMetrics> sessionsMetrics = dispatcher.getOutboundMetrics();
+
+        if (sessionsMetrics.isEmpty()) {
+            server.writeLineToConsole("No open sessions.");
+            return;
+        }
+
+        String[] columnNames = new String[] {"Session", "Queued", "Max Queued", "Sent", "Failed", "Dropped",
+                "Avg Latency (ms)", "Max Latency (ms)"};
+
+        String[][] data = new String[sessionsMetrics.size()][columnNames.length];
+        for (int i = 0; i < sessionsMetrics.size(); i++) {
+            SessionOutboundMetrics metrics = sessionsMetrics.get(i);
+
+            data[i][0] = metrics.getSessionId();
+            data[i][1] = String.valueOf(metrics.getQueueDepth());
+            data[i][2] = String.valueOf(metrics.getMaxQueueDepth());
+            data[i][3] = String.valueOf(metrics.getSentMessages());
+            data[i][4] = String.valueOf(metrics.getFailedMessages());
+            data[i][5] = String.valueOf(metrics.getDroppedMessages());
+            data[i][6] = String.format("%.2f", metrics.getAverageSendLatency());
+            data[i][7] = String.valueOf(metrics.getMaxSendLatency());
+        }
+
+        Table table = new Table(columnNames, data);
+
+        table.printTable(new ConsoleControl());
+    }
+}
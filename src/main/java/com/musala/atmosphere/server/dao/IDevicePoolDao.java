@@ -49,6 +49,28 @@ public interface IDevicePoolDao {
     public IDevice addDevice(DeviceInformation device, String deviceId, String agentId, long passkey)
         throws DevicePoolDaoException;
 
+    /**
+     * Adds entries for all given devices of an agent in the data source, either all of them or none.
+     *
+     * @param devicesInformation
+     *        - the information about the devices
+     * @param deviceIds
+     *        - the IDs of the devices, in the order of their information
+     * @param agentId
+     *        - the ID of the agent that the devices are connected to
+     * @param passkeys
+     *        - passkeys for validating authority, in the order of the devices information
+     * @return a {@link List list} of {@link IDevice data access objects} for interacting with the newly created device
+     *         entries in the data source, in the order of the devices information
+     * @throws DevicePoolDaoException
+     *         - thrown when adding any of the devices fails
+     */
+    public List<IDevice> addDevices(List<DeviceInformation> devicesInformation,
+                                    List<String> deviceIds,
+                                    String agentId,
+                                    List<Long> passkeys)
+        throws DevicePoolDaoException;
+
     /**
      * Gets a device by its ID.
      *
@@ -71,15 +93,26 @@ public interface IDevicePoolDao {
     public boolean hasDevice(String id);
 
     /**
-     * Removes the devices connected to the agent with the given ID from the data source.
+     * Removes all devices connected to the agent with the given ID from the data source at once.
      *
      * @param agentId
      *        - the ID of the agent whose devices should be removed
-     * @return the number of the devices which are removed successfully
+     * @return a {@link List list} with the IDs of the removed devices
      * @throws DevicePoolDaoException
      *         - thrown when removing devices on the agent with the given ID fails
      */
-    public int removeDevices(String agentId) throws DevicePoolDaoException;
+    public List<String> removeDevices(String agentId) throws DevicePoolDaoException;
+
+    /**
+     * Gets all devices connected to the agent with the given ID.
+     *
+     * @param agentId
+     *        - the ID of the agent whose devices are requested
+     * @return a {@link List list} of the {@link IDevice devices} on the given agent
+     * @throws DevicePoolDaoException
+     *         - thrown when getting the devices on the agent with the given ID fails
+     */
+    public List<IDevice> getAgentDevices(String agentId) throws DevicePoolDaoException;
 
     /**
      * Removes the device with the given ID from the data source.
@@ -92,16 +125,48 @@ public interface IDevicePoolDao {
     public void remove(String deviceId) throws DevicePoolDaoException;
 
     /**
-     * Updates the given {@link IDevice device} the device pool.
+     * Updates the given {@link IDevice device} the device pool. The update is applied only if the device has not been
+     * changed in the data source since it was fetched, i.e. its {@link IDevice#getVersion() version stamp} is the same,
+     * so a stale copy of the device can not overwrite a newer state.
      *
      * @param device
      *        - device that will be updated in pool
      * @throws DevicePoolDaoException
-     *         - thrown when updating device fails
+     *         - thrown when updating device fails or the device has been changed since it was fetched
      *
      */
     public void update(IDevice device) throws DevicePoolDaoException;
 
+    /**
+     * Atomically allocates the given device, if it is still free and it has not been changed in the data source since
+     * it was fetched, i.e. its {@link IDevice#getVersion() version stamp} is the same. On success the given device is
+     * marked as allocated, so it reflects the stored state.
+     *
+     * @param device
+     *        - the device that should be allocated
+     * @return <code>true</code> if the device is allocated by this call, <code>false</code> if it is already allocated,
+     *         removed or changed
+     * @throws DevicePoolDaoException
+     *         - thrown when allocating the device fails
+     */
+    public boolean tryAllocate(IDevice device) throws DevicePoolDaoException;
+
+    /**
+     * Atomically releases the given device and sets its new passkey, if it is still allocated and it has not been
+     * changed in the data source since it was fetched, i.e. its {@link IDevice#getVersion() version stamp} is the same.
+     * On success the given device is marked as free, so it reflects the stored state.
+     *
+     * @param device
+     *        - the device that should be released
+     * @param passkey
+     *        - the passkey that is valid for the device once it is released
+     * @return <code>true</code> if the device is released by this call, <code>false</code> if it is already free,
+     *         removed or changed
+     * @throws DevicePoolDaoException
+     *         - thrown when releasing the device fails
+     */
+    public boolean tryRelease(IDevice device, long passkey) throws DevicePoolDaoException;
+
     /**
      * Gets all devices that match the given selector and allocation criterion.
      *
@@ -52,4 +52,6 @@ public class DeviceColumnName {
     public static final String DEVICE_ID = "device_id";
 
     public static final String PASSKEY = "passkey";
+
+    public static final String VERSION = "version";
 }
@@ -19,6 +19,8 @@ package com.musala.atmosphere.server.data.db.constant;
 public class Property {
     public static final String DATABASE_URL_FORMAT = "jdbc:h2:mem:%s;DB_CLOSE_DELAY=%d";
 
+    public static final String FILE_DATABASE_URL_FORMAT = "jdbc:h2:file:%s";
+
     public static final String DATABASE_NAME = "device_pool";
 
     public static final int DB_CLOSE_DELAY = 10;
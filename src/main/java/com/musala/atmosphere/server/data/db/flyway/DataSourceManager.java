@@ -18,10 +18,11 @@ package com.musala.atmosphere.server.data.db.flyway;
 
 import java.io.File;
 
+import org.apache.log4j.Logger;
 import org.flywaydb.core.Flyway;
 
 import com.musala.atmosphere.server.data.IDataSourceManager;
-import com.musala.atmosphere.server.data.db.constant.Property;
+import com.musala.atmosphere.server.util.ServerPropertiesLoader;
 
 /**
  * Class that manages operation with the data source, such as initializing and migrating data, creating objects for data
@@ -31,6 +32,8 @@ import com.musala.atmosphere.server.data.db.constant.Property;
  *
  */
 public class DataSourceManager implements IDataSourceManager {
+    private static final Logger LOGGER = Logger.getLogger(DataSourceManager.class.getCanonicalName());
+
     private static final String MIGRATIONS_LOCATION_PATTERN = "classpath:db/migration";
 
     private DataSourceCallback dataSourceCallback;
@@ -44,10 +47,16 @@ public class DataSourceManager implements IDataSourceManager {
 
     @Override
     public void initialize() {
-        flywayDataHandler.setDataSource(Property.DATABASE_URL, null, null);
+        flywayDataHandler.setDataSource(ServerPropertiesLoader.getDatabaseUrl(), null, null);
+
+        if (ServerPropertiesLoader.isDatabasePersistent()) {
+            // Keeps the device pool from before the restart, only the missing migrations are applied to it.
+            LOGGER.info("Restoring the persistent data source.");
+        } else {
+            // Drops the database if it already exists.
+            flywayDataHandler.clean();
+        }
 
-        // Drops the database if it already exists.
-        flywayDataHandler.clean();
         flywayDataHandler.setCallbacks(dataSourceCallback);
 
         String migrationsLocation = String.format(MIGRATIONS_LOCATION_PATTERN, File.separator, File.separator);
@@ -19,15 +19,27 @@ package com.musala.atmosphere.server.data.db.ormlite;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
 
 import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.misc.TransactionManager;
+import com.j256.ormlite.stmt.DeleteBuilder;
+import com.j256.ormlite.stmt.PreparedQuery;
 import com.j256.ormlite.stmt.QueryBuilder;
+import com.j256.ormlite.stmt.UpdateBuilder;
 import com.musala.atmosphere.commons.DeviceInformation;
 import com.musala.atmosphere.commons.cs.deviceselection.ApiLevel;
 import com.musala.atmosphere.commons.cs.deviceselection.DeviceParameter;
 import com.musala.atmosphere.commons.cs.deviceselection.DeviceSelector;
+import com.musala.atmosphere.commons.cs.deviceselection.DeviceType;
 import com.musala.atmosphere.commons.cs.exception.DeviceSelectionFailedException;
 import com.musala.atmosphere.server.dao.exception.DeviceDaoException;
 import com.musala.atmosphere.server.dao.exception.DeviceDaoRuntimeException;
@@ -35,10 +47,14 @@ import com.musala.atmosphere.server.data.db.constant.DeviceColumnName;
 import com.musala.atmosphere.server.data.db.ormlite.querybuilder.DeviceQueryBuilder;
 import com.musala.atmosphere.server.data.db.ormlite.querybuilder.DeviceRangeQueryBuilder;
 import com.musala.atmosphere.server.data.model.IDevice;
+import com.musala.atmosphere.server.data.model.ormilite.Agent;
 import com.musala.atmosphere.server.data.model.ormilite.Device;
 
 /**
  * Common class that provides data access object for executing operations with devices from the data source.
+ * <p>
+ * The queries filtering devices by a selector are prepared once for every shape of selector - its parameters and
+ * device type - and are reused with the values of the next selectors of the same shape bound to them.
  *
  * @author filareta.yordanova
  *
@@ -46,6 +62,60 @@ import com.musala.atmosphere.server.data.model.ormilite.Device;
 public class DeviceDao {
     private Dao<Device, String> deviceDao;
 
+    private final ConcurrentMap<SelectorShape, Queue<PreparedDeviceQuery>> shapeToPreparedQueries =
+            new ConcurrentHashMap<>();
+
+    /**
+     * The parameters and the device type of a selector, which determine the SQL of the device selection query.
+     */
+    private static class SelectorShape {
+        private final boolean isRangeQuery;
+
+        private final Set<Class<? extends DeviceParameter>> parameterTypes;
+
+        private final DeviceParameter deviceType;
+
+        private SelectorShape(boolean isRangeQuery, Map<Class<? extends DeviceParameter>, DeviceParameter> parameters) {
+            this.isRangeQuery = isRangeQuery;
+            this.parameterTypes = new HashSet<>(parameters.keySet());
+            this.deviceType = parameters.get(DeviceType.class);
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (!(object instanceof SelectorShape)) {
+                return false;
+            }
+
+            SelectorShape shape = (SelectorShape) object;
+
+            return isRangeQuery == shape.isRangeQuery && parameterTypes.equals(shape.parameterTypes)
+                    && deviceType == shape.deviceType;
+        }
+
+        @Override
+        public int hashCode() {
+            int hashCode = parameterTypes.hashCode() * 31 + (deviceType == null ? 0 : deviceType.hashCode());
+
+            return hashCode * 31 + (isRangeQuery ? 1 : 0);
+        }
+    }
+
+    /**
+     * A prepared device selection query with the builder that binds the values of a selector to it. A prepared query is
+     * used by a single thread at a time.
+     */
+    private static class PreparedDeviceQuery {
+        private final DeviceQueryBuilder deviceQueryBuilder;
+
+        private final PreparedQuery<Device> preparedQuery;
+
+        private PreparedDeviceQuery(DeviceQueryBuilder deviceQueryBuilder, PreparedQuery<Device> preparedQuery) {
+            this.deviceQueryBuilder = deviceQueryBuilder;
+            this.preparedQuery = preparedQuery;
+        }
+    }
+
     /**
      * Creates new DeviceDao with the given data access object.
      *
@@ -59,12 +129,13 @@ public class DeviceDao {
     }
 
     /**
-     * Updates device properties in the data source.
+     * Updates device properties in the data source. The update succeeds only if the version of the device in the data
+     * source is still the version of the given device, which is increased on success.
      *
      * @param device
      *        - device that will be updated in the data source
      * @throws DeviceDaoException
-     *         thrown when updating device fails
+     *         thrown when updating device fails or the device has been changed in the data source meanwhile
      *
      */
     public void update(IDevice device) throws DeviceDaoException {
@@ -72,14 +143,89 @@ public class DeviceDao {
             throw new DeviceDaoRuntimeException("You are trying to update device that is not present.");
         }
 
+        DeviceInformation deviceInformation = device.getInformation();
+        int updatedRows;
+
         try {
-            deviceDao.update((Device) device);
+            updatedRows = deviceDao.update((Device) device);
         } catch (SQLException e) {
-            DeviceInformation deviceInformation = device.getInformation();
             String message = String.format("Updating device with serial number %s failed, because data source failed.",
                                            deviceInformation.getSerialNumber());
             throw new DeviceDaoException(message, e);
         }
+
+        if (updatedRows != 1) {
+            String message = String.format("Updating device with serial number %s failed, because it was changed.",
+                                           deviceInformation.getSerialNumber());
+            throw new DeviceDaoException(message);
+        }
+    }
+
+    /**
+     * Marks the device with the given ID as allocated with a single conditional update, which succeeds only if the
+     * device is free and its version is still the given one.
+     *
+     * @param deviceId
+     *        - the ID of the device to be allocated
+     * @param version
+     *        - the expected version of the device
+     * @return <code>true</code> if the device is allocated, <code>false</code> otherwise
+     * @throws DeviceDaoException
+     *         thrown when updating the device in the data source fails
+     */
+    public boolean allocate(String deviceId, long version) throws DeviceDaoException {
+        try {
+            UpdateBuilder<Device, String> updateBuilder = deviceDao.updateBuilder();
+            updateBuilder.updateColumnValue(DeviceColumnName.IS_ALLOCATED, true);
+            updateBuilder.updateColumnExpression(DeviceColumnName.VERSION,
+                                                 String.format("%s + 1", DeviceColumnName.VERSION));
+            updateBuilder.where()
+                         .eq(DeviceColumnName.DEVICE_ID, deviceId)
+                         .and()
+                         .eq(DeviceColumnName.IS_ALLOCATED, false)
+                         .and()
+                         .eq(DeviceColumnName.VERSION, version);
+
+            return updateBuilder.update() == 1;
+        } catch (SQLException e) {
+            String message = String.format("Allocating device with ID %s failed, because data source failed.", deviceId);
+            throw new DeviceDaoException(message, e);
+        }
+    }
+
+    /**
+     * Marks the device with the given ID as free and sets its passkey with a single conditional update, which succeeds
+     * only if the device is allocated and its version is still the given one.
+     *
+     * @param deviceId
+     *        - the ID of the device to be released
+     * @param version
+     *        - the expected version of the device
+     * @param passkey
+     *        - the new passkey of the device
+     * @return <code>true</code> if the device is released, <code>false</code> otherwise
+     * @throws DeviceDaoException
+     *         thrown when updating the device in the data source fails
+     */
+    public boolean release(String deviceId, long version, long passkey) throws DeviceDaoException {
+        try {
+            UpdateBuilder<Device, String> updateBuilder = deviceDao.updateBuilder();
+            updateBuilder.updateColumnValue(DeviceColumnName.IS_ALLOCATED, false);
+            updateBuilder.updateColumnValue(DeviceColumnName.PASSKEY, passkey);
+            updateBuilder.updateColumnExpression(DeviceColumnName.VERSION,
+                                                 String.format("%s + 1", DeviceColumnName.VERSION));
+            updateBuilder.where()
+                         .eq(DeviceColumnName.DEVICE_ID, deviceId)
+                         .and()
+                         .eq(DeviceColumnName.IS_ALLOCATED, true)
+                         .and()
+                         .eq(DeviceColumnName.VERSION, version);
+
+            return updateBuilder.update() == 1;
+        } catch (SQLException e) {
+            String message = String.format("Releasing device with ID %s failed, because data source failed.", deviceId);
+            throw new DeviceDaoException(message, e);
+        }
     }
 
     /**
@@ -105,6 +251,36 @@ public class DeviceDao {
         }
     }
 
+    /**
+     * Adds the given devices in the data source in a single transaction, so either all of them are added or none.
+     *
+     * @param devices
+     *        - devices to be added in the data source
+     * @throws DeviceDaoException
+     *         thrown when adding any of the devices fails
+     */
+    public void addAll(final List<? extends IDevice> devices) throws DeviceDaoException {
+        if (devices == null || devices.contains(null)) {
+            throw new DeviceDaoRuntimeException("The devices you are trying to add are null.");
+        }
+
+        try {
+            TransactionManager.callInTransaction(deviceDao.getConnectionSource(), new Callable<Void>() {
+                @Override
+                public Void call() throws SQLException {
+                    for (IDevice device : devices) {
+                        deviceDao.create((Device) device);
+                    }
+
+                    return null;
+                }
+            });
+        } catch (SQLException e) {
+            String message = String.format("Adding %d devices failed, because data source failed.", devices.size());
+            throw new DeviceDaoException(message, e);
+        }
+    }
+
     /**
      * Removes a device with the given ID from the data source.
      *
@@ -128,6 +304,52 @@ public class DeviceDao {
         }
     }
 
+    /**
+     * Removes all devices on the given agent from the data source. The IDs of the devices are selected and the devices
+     * are deleted by their agent in a single transaction, instead of selecting and deleting every device on its own.
+     *
+     * @param agent
+     *        - the agent whose devices are removed
+     * @return a {@link List list} with the IDs of the removed devices
+     * @throws DeviceDaoException
+     *         thrown when removing the devices fails
+     */
+    public List<String> removeByAgent(final Agent agent) throws DeviceDaoException {
+        if (agent == null) {
+            throw new DeviceDaoRuntimeException("The agent whose devices you are trying to remove is null.");
+        }
+
+        try {
+            return TransactionManager.callInTransaction(deviceDao.getConnectionSource(), new Callable<List<String>>() {
+                @Override
+                public List<String> call() throws SQLException {
+                    QueryBuilder<Device, String> queryBuilder = deviceDao.queryBuilder();
+                    queryBuilder.selectColumns(DeviceColumnName.DEVICE_ID)
+                                .where()
+                                .eq(DeviceColumnName.AGENT, agent.getId());
+
+                    List<String> removedDeviceIds = new ArrayList<>();
+
+                    for (Device device : queryBuilder.query()) {
+                        removedDeviceIds.add(device.getDeviceId());
+                    }
+
+                    if (!removedDeviceIds.isEmpty()) {
+                        DeleteBuilder<Device, String> deleteBuilder = deviceDao.deleteBuilder();
+                        deleteBuilder.where().eq(DeviceColumnName.AGENT, agent.getId());
+                        deleteBuilder.delete();
+                    }
+
+                    return removedDeviceIds;
+                }
+            });
+        } catch (SQLException e) {
+            String message = String.format("Removing devices on agent with ID %s failed, because data source failed.",
+                                           agent.getAgentId());
+            throw new DeviceDaoException(message, e);
+        }
+    }
+
     /**
      * Selects device by its unique ID.
      *
@@ -173,22 +395,19 @@ public class DeviceDao {
      *         thrown when retrieving devices from the data source fails
      */
     public List<IDevice> filterDevices(DeviceSelector deviceSelector, boolean isAllocated) throws DeviceDaoException {
-        DeviceQueryBuilder deviceQueryBuilder;
         List<IDevice> devices = new ArrayList<IDevice>();
         Map<Class<? extends DeviceParameter>, DeviceParameter> deviceParameters = deviceSelector.getParameters();
 
         try {
             // Target is with priority, if both target and range are set from the client.
             if (deviceParameters.containsKey(ApiLevel.Target.class)) {
-                deviceQueryBuilder = new DeviceQueryBuilder(deviceDao, deviceSelector);
-                devices = queryDevices(deviceQueryBuilder, isAllocated);
+                devices = queryDevices(deviceSelector, false, isAllocated);
             }
 
             // If there are no results for the given target, try to find matching devices in the given API levels
             // range.
             if (devices.isEmpty()) {
-                deviceQueryBuilder = new DeviceRangeQueryBuilder(deviceDao, deviceSelector);
-                devices = queryDevices(deviceQueryBuilder, isAllocated);
+                devices = queryDevices(deviceSelector, true, isAllocated);
             }
 
             return devices;
@@ -198,10 +417,36 @@ public class DeviceDao {
         }
     }
 
-    private List<IDevice> queryDevices(DeviceQueryBuilder deviceQueryBuilder, boolean isAllocated) throws SQLException {
-        deviceQueryBuilder.setAllocationCriterion(isAllocated);
-        QueryBuilder<Device, String> queryBuilder = deviceQueryBuilder.prepareQuery();
+    private List<IDevice> queryDevices(DeviceSelector deviceSelector, boolean isRangeQuery, boolean isAllocated)
+        throws SQLException {
+        SelectorShape shape = new SelectorShape(isRangeQuery, deviceSelector.getParameters());
+        Queue<PreparedDeviceQuery> preparedQueries = shapeToPreparedQueries.get(shape);
+
+        if (preparedQueries == null) {
+            Queue<PreparedDeviceQuery> newPreparedQueries = new ConcurrentLinkedQueue<>();
+            preparedQueries = shapeToPreparedQueries.putIfAbsent(shape, newPreparedQueries);
+
+            if (preparedQueries == null) {
+                preparedQueries = newPreparedQueries;
+            }
+        }
 
-        return new ArrayList<IDevice>(queryBuilder.query());
+        // a query prepared for the shape is reused if no other thread is executing it, otherwise a new one is prepared
+        PreparedDeviceQuery preparedDeviceQuery = preparedQueries.poll();
+
+        if (preparedDeviceQuery == null) {
+            DeviceQueryBuilder deviceQueryBuilder = isRangeQuery
+                    ? new DeviceRangeQueryBuilder(deviceDao, deviceSelector)
+                    : new DeviceQueryBuilder(deviceDao, deviceSelector);
+            preparedDeviceQuery = new PreparedDeviceQuery(deviceQueryBuilder, deviceQueryBuilder.prepare(isAllocated));
+        } else {
+            preparedDeviceQuery.deviceQueryBuilder.bind(deviceSelector, isAllocated);
+        }
+
+        try {
+            return new ArrayList<IDevice>(deviceDao.query(preparedDeviceQuery.preparedQuery));
+        } finally {
+            preparedQueries.offer(preparedDeviceQuery);
+        }
     }
 }
@@ -16,6 +16,7 @@
 
 package com.musala.atmosphere.server.data.db.ormlite;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import org.apache.log4j.Logger;
@@ -67,6 +68,34 @@ public class DevicePoolDao implements IDevicePoolDao {
         }
     }
 
+    @Override
+    public List<IDevice> addDevices(List<DeviceInformation> devicesInformation,
+                                    List<String> deviceIds,
+                                    String agentId,
+                                    List<Long> passkeys)
+        throws DevicePoolDaoException {
+        List<IDevice> devices = new ArrayList<IDevice>();
+
+        try {
+            // the agent is resolved once for all of its devices
+            Agent agent = (Agent) agentDao.selectByAgentId(agentId);
+
+            for (int index = 0; index < devicesInformation.size(); index++) {
+                Device device = new Device(devicesInformation.get(index), deviceIds.get(index), passkeys.get(index));
+                device.setAgent(agent);
+
+                devices.add(device);
+            }
+
+            deviceDao.addAll(devices);
+
+            return devices;
+        } catch (AgentDaoException | DeviceDaoException e) {
+            String message = String.format("Adding %d devices on agent %s failed.", devices.size(), agentId);
+            throw new DevicePoolDaoException(message, e);
+        }
+    }
+
     @Override
     public IDevice getDevice(String id) throws DevicePoolDaoException {
         try {
@@ -92,9 +121,7 @@ public class DevicePoolDao implements IDevicePoolDao {
     }
 
     @Override
-    public int removeDevices(String agentId) throws DevicePoolDaoException {
-        int removedCount = 0;
-
+    public List<String> removeDevices(String agentId) throws DevicePoolDaoException {
         Agent agent;
 
         try {
@@ -108,19 +135,32 @@ public class DevicePoolDao implements IDevicePoolDao {
             throw new DevicePoolDaoRuntimeException("You are trying to remove devices on agent, which is actually missing.");
         }
 
-        for (Device device : agent.getDevices()) {
-            String deviceId = device.getDeviceId();
+        try {
+            return deviceDao.removeByAgent(agent);
+        } catch (DeviceDaoException e) {
+            String message = String.format("Failed to remove devices on agent with ID %s.", agentId);
+            throw new DevicePoolDaoException(message, e);
+        }
+    }
 
-            try {
-                deviceDao.remove(deviceId);
-                removedCount++;
-            } catch (DeviceDaoException e) {
-                String message = String.format("Failed to remove device with ID %s.", deviceId);
-                LOGGER.error(message, e);
-            }
+    @Override
+    public List<IDevice> getAgentDevices(String agentId) throws DevicePoolDaoException {
+        Agent agent;
+
+        try {
+            agent = (Agent) agentDao.selectByAgentId(agentId);
+        } catch (AgentDaoException e) {
+            String message = String.format("Failed to fetch devices on agent with ID %s.", agentId);
+            throw new DevicePoolDaoException(message, e);
         }
 
-        return removedCount;
+        List<IDevice> devices = new ArrayList<IDevice>();
+
+        if (agent != null) {
+            devices.addAll(agent.getDevices());
+        }
+
+        return devices;
     }
 
     @Override
@@ -136,6 +176,7 @@ public class DevicePoolDao implements IDevicePoolDao {
     @Override
     public void update(IDevice device) throws DevicePoolDaoException {
         try {
+            // the version of the device is checked and increased by the data source
             deviceDao.update(device);
         } catch (DeviceDaoException e) {
             DeviceInformation deviceInformation = device.getInformation();
@@ -145,6 +186,55 @@ public class DevicePoolDao implements IDevicePoolDao {
         }
     }
 
+    @Override
+    public boolean tryAllocate(IDevice device) throws DevicePoolDaoException {
+        String deviceId = device.getDeviceId();
+
+        try {
+            long version = device.getVersion();
+
+            if (!deviceDao.allocate(deviceId, version)) {
+                return false;
+            }
+
+            if (device instanceof Device) {
+                Device deviceEntry = (Device) device;
+                deviceEntry.setAllocated(true);
+                deviceEntry.setVersion(version + 1);
+            }
+
+            return true;
+        } catch (DeviceDaoException e) {
+            String message = String.format("Failed to allocate device with ID %s.", deviceId);
+            throw new DevicePoolDaoException(message, e);
+        }
+    }
+
+    @Override
+    public boolean tryRelease(IDevice device, long passkey) throws DevicePoolDaoException {
+        String deviceId = device.getDeviceId();
+
+        try {
+            long version = device.getVersion();
+
+            if (!deviceDao.release(deviceId, version, passkey)) {
+                return false;
+            }
+
+            if (device instanceof Device) {
+                Device deviceEntry = (Device) device;
+                deviceEntry.setAllocated(false);
+                deviceEntry.setPasskey(passkey);
+                deviceEntry.setVersion(version + 1);
+            }
+
+            return true;
+        } catch (DeviceDaoException e) {
+            String message = String.format("Failed to release device with ID %s.", deviceId);
+            throw new DevicePoolDaoException(message, e);
+        }
+    }
+
     @Override
     public List<IDevice> getDevices(DeviceSelector deviceSelector, boolean isAllocated) throws DevicePoolDaoException {
         try {
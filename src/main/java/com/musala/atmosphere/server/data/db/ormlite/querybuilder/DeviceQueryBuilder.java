@@ -17,9 +17,13 @@
 package com.musala.atmosphere.server.data.db.ormlite.querybuilder;
 
 import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
 
 import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.stmt.PreparedQuery;
 import com.j256.ormlite.stmt.QueryBuilder;
+import com.j256.ormlite.stmt.SelectArg;
 import com.j256.ormlite.stmt.Where;
 import com.musala.atmosphere.commons.cs.deviceselection.ApiLevel;
 import com.musala.atmosphere.commons.cs.deviceselection.ApiLevel.Maximum;
@@ -44,6 +48,9 @@ import com.musala.atmosphere.server.data.model.ormilite.Device;
  * Class responsible for building query for filtering devices by a given selector. This query builder gives priority to
  * the {@link ApiLevel.Target target API level} if such criterion for selection is set, without looking the
  * {@link ApiLevel.Minimum minimum} and {@link ApiLevel.Maximum maximum} API levels.
+ * <p>
+ * All criteria values are bound through {@link SelectArg select arguments}, so a prepared query can be reused for every
+ * selector with the same parameters, after its values are {@link #bind(DeviceSelector, boolean) bound} again.
  * 
  * @author filareta.yordanova
  * 
@@ -57,10 +64,23 @@ public class DeviceQueryBuilder implements Visitor {
 
     protected int criteriaCount;
 
+    private final Map<String, SelectArg> criteriaArguments = new HashMap<>();
+
+    private boolean isBinding;
+
     private boolean isEmulator;
 
     private boolean withPreference;
 
+    /**
+     * The comparisons used in the criteria of the query.
+     */
+    protected enum Comparison {
+        EQUAL,
+        GREATER_OR_EQUAL,
+        LESS_OR_EQUAL;
+    }
+
     /**
      * Creates builder for device selection query by a given device data access object and {@link DeviceSelector
      * selector}.
@@ -93,7 +113,7 @@ public class DeviceQueryBuilder implements Visitor {
 
     @Override
     public void visit(DeviceOs deviceOs) {
-        appendWhereClause(DeviceColumnName.OS, deviceOs);
+        appendWhereClause(DeviceColumnName.OS, deviceOs.toString());
     }
 
     @Override
@@ -163,6 +183,38 @@ public class DeviceQueryBuilder implements Visitor {
         appendWhereClause(DeviceColumnName.IS_ALLOCATED, isAllocated);
     }
 
+    /**
+     * Prepares the device selection query and the allocation criterion for execution.
+     * 
+     * @param isAllocated
+     *        - if <code>true</code> only allocated devices are selected, otherwise only the free ones
+     * @return the {@link PreparedQuery prepared query}, whose criteria values can be {@link #bind(DeviceSelector,
+     *         boolean) bound} again
+     * @throws SQLException
+     *         if one of the operations with the query fails
+     */
+    public PreparedQuery<Device> prepare(boolean isAllocated) throws SQLException {
+        setAllocationCriterion(isAllocated);
+
+        return prepareQuery().prepare();
+    }
+
+    /**
+     * Binds the values of the given selector to the criteria of the already {@link #prepare(boolean) prepared} query.
+     * The selector must have the same parameters and device type as the one the query is built for.
+     * 
+     * @param selector
+     *        - contains all device parameters used for device matching
+     * @param isAllocated
+     *        - if <code>true</code> only allocated devices are selected, otherwise only the free ones
+     */
+    public void bind(DeviceSelector selector, boolean isAllocated) {
+        isBinding = true;
+
+        selector.visitAll(this);
+        setAllocationCriterion(isAllocated);
+    }
+
     public void setDeviceTypeCriterion(Boolean isEmulator) {
         appendWhereClause(DeviceColumnName.IS_EMULATOR, isEmulator);
     }
@@ -184,13 +236,50 @@ public class DeviceQueryBuilder implements Visitor {
         return deviceQueryBuilder;
     }
 
-    private void appendWhereClause(String columnName, Object criterion) {
+    /**
+     * Appends a criterion comparing the given column with the given value to the query, or binds the value to the
+     * criterion if the query is already prepared.
+     * 
+     * @param comparison
+     *        - the comparison of the column with the value
+     * @param columnName
+     *        - the name of the compared column
+     * @param criterion
+     *        - the value the column is compared with
+     */
+    protected void appendWhereClause(Comparison comparison, String columnName, Object criterion) {
+        String argumentKey = String.format("%s %s", columnName, comparison);
+
+        if (isBinding) {
+            criteriaArguments.get(argumentKey).setValue(criterion);
+            return;
+        }
+
+        SelectArg argument = new SelectArg(criterion);
+
         try {
-            deviceWhereClause.eq(columnName, criterion);
+            switch (comparison) {
+                case GREATER_OR_EQUAL:
+                    deviceWhereClause.ge(columnName, argument);
+                    break;
+                case LESS_OR_EQUAL:
+                    deviceWhereClause.le(columnName, argument);
+                    break;
+                case EQUAL:
+                default:
+                    deviceWhereClause.eq(columnName, argument);
+                    break;
+            }
+
+            criteriaArguments.put(argumentKey, argument);
             criteriaCount++;
         } catch (SQLException e) {
             String errorMessage = String.format(ERROR_MESSAGE_PATTERN, columnName, criterion);
             throw new DeviceSelectionFailedException(errorMessage, e);
         }
     }
+
+    private void appendWhereClause(String columnName, Object criterion) {
+        appendWhereClause(Comparison.EQUAL, columnName, criterion);
+    }
 }
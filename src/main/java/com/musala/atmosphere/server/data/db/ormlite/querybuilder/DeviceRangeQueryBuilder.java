@@ -16,15 +16,12 @@
 
 package com.musala.atmosphere.server.data.db.ormlite.querybuilder;
 
-import java.sql.SQLException;
-
 import com.j256.ormlite.dao.Dao;
 import com.musala.atmosphere.commons.cs.deviceselection.ApiLevel;
 import com.musala.atmosphere.commons.cs.deviceselection.ApiLevel.Maximum;
 import com.musala.atmosphere.commons.cs.deviceselection.ApiLevel.Minimum;
 import com.musala.atmosphere.commons.cs.deviceselection.ApiLevel.Target;
 import com.musala.atmosphere.commons.cs.deviceselection.DeviceSelector;
-import com.musala.atmosphere.commons.cs.exception.DeviceSelectionFailedException;
 import com.musala.atmosphere.server.data.db.constant.DeviceColumnName;
 import com.musala.atmosphere.server.data.model.ormilite.Device;
 
@@ -53,28 +50,12 @@ public class DeviceRangeQueryBuilder extends DeviceQueryBuilder {
 
     @Override
     public void visit(Minimum minApiLevel) {
-        try {
-            deviceWhereClause.ge(DeviceColumnName.API_LEVEL, minApiLevel.getValue());
-            criteriaCount++;
-        } catch (SQLException e) {
-            String errorMessage = String.format(ERROR_MESSAGE_PATTERN,
-                                                DeviceColumnName.API_LEVEL,
-                                                minApiLevel.getValue());
-            throw new DeviceSelectionFailedException(errorMessage, e);
-        }
+        appendWhereClause(Comparison.GREATER_OR_EQUAL, DeviceColumnName.API_LEVEL, minApiLevel.getValue());
     }
 
     @Override
     public void visit(Maximum maxApiLevel) {
-        try {
-            deviceWhereClause.le(DeviceColumnName.API_LEVEL, maxApiLevel.getValue());
-            criteriaCount++;
-        } catch (SQLException e) {
-            String errorMessage = String.format(ERROR_MESSAGE_PATTERN,
-                                                DeviceColumnName.API_LEVEL,
-                                                maxApiLevel.getValue());
-            throw new DeviceSelectionFailedException(errorMessage, e);
-        }
+        appendWhereClause(Comparison.LESS_OR_EQUAL, DeviceColumnName.API_LEVEL, maxApiLevel.getValue());
     }
 
     @Override
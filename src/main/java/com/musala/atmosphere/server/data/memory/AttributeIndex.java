@@ -0,0 +1,130 @@
+// This file is part of the ATMOSPHERE mobile testing framework.
+// Copyright (C) 2016 MusalaSoft
+//
+// ATMOSPHERE is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// ATMOSPHERE is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with ATMOSPHERE.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.musala.atmosphere.server.data.memory;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiFunction;
+
+/**
+ * Thread-safe index mapping a value of a single device attribute to the IDs of the devices having this value. Devices
+ * with <code>null</code> value for the attribute are not indexed, the same way they are never matched by an equality
+ * criterion in the data source. A value is dropped from the index with its last device, so the values of unique
+ * attributes like the serial number do not pile up as devices come and go.
+ *
+ * @param <K>
+ *        - the type of the indexed attribute
+ *
+ * @author filareta.yordanova
+ *
+ */
+public class AttributeIndex<K> {
+    private final ConcurrentMap<K, Set<String>> deviceIdsByValue = new ConcurrentHashMap<>();
+
+    /**
+     * Adds the device with the given ID to the entries for the given attribute value.
+     *
+     * @param value
+     *        - the value of the attribute
+     * @param deviceId
+     *        - the ID of the device
+     */
+    public void add(K value, final String deviceId) {
+        if (value == null) {
+            return;
+        }
+
+        // the set is changed atomically with the mapping, so it is never added to after its removal for being empty
+        deviceIdsByValue.compute(value, new BiFunction<K, Set<String>, Set<String>>() {
+            @Override
+            public Set<String> apply(K indexedValue, Set<String> deviceIds) {
+                if (deviceIds == null) {
+                    deviceIds = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+                }
+
+                deviceIds.add(deviceId);
+
+                return deviceIds;
+            }
+        });
+    }
+
+    /**
+     * Removes the device with the given ID from the entries for the given attribute value.
+     *
+     * @param value
+     *        - the value of the attribute
+     * @param deviceId
+     *        - the ID of the device
+     */
+    public void remove(K value, final String deviceId) {
+        if (value == null) {
+            return;
+        }
+
+        deviceIdsByValue.computeIfPresent(value, new BiFunction<K, Set<String>, Set<String>>() {
+            @Override
+            public Set<String> apply(K indexedValue, Set<String> deviceIds) {
+                deviceIds.remove(deviceId);
+
+                // the value is dropped with its last device
+                return deviceIds.isEmpty() ? null : deviceIds;
+            }
+        });
+    }
+
+    /**
+     * Moves the device with the given ID from the entries for the old attribute value to the entries for the new one.
+     * The device is added for the new value before it is removed for the old one, so concurrent readers always find it
+     * under at least one of the values.
+     *
+     * @param oldValue
+     *        - the previous value of the attribute
+     * @param newValue
+     *        - the current value of the attribute
+     * @param deviceId
+     *        - the ID of the device
+     */
+    public void replace(K oldValue, K newValue, String deviceId) {
+        if (oldValue == null ? newValue == null : oldValue.equals(newValue)) {
+            return;
+        }
+
+        add(newValue, deviceId);
+        remove(oldValue, deviceId);
+    }
+
+    /**
+     * Gets a live, unmodifiable view of the IDs of the devices having the given attribute value. The view is not
+     * updated any more once the last of these devices is removed.
+     *
+     * @param value
+     *        - the value of the attribute
+     * @return the IDs of the devices with the given value or an empty set if there are no such devices
+     */
+    public Set<String> get(K value) {
+        Set<String> deviceIds = value != null ? deviceIdsByValue.get(value) : null;
+
+        if (deviceIds == null) {
+            return Collections.emptySet();
+        }
+
+        return Collections.unmodifiableSet(deviceIds);
+    }
+}
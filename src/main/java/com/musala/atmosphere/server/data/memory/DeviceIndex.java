@@ -0,0 +1,182 @@
+// This file is part of the ATMOSPHERE mobile testing framework.
+// Copyright (C) 2016 MusalaSoft
+//
+// ATMOSPHERE is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// ATMOSPHERE is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with ATMOSPHERE.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.musala.atmosphere.server.data.memory;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.musala.atmosphere.server.data.model.ormilite.Device;
+
+/**
+ * Holds the per-attribute indexes of the devices stored in the {@link InMemoryDevicePoolDao in-memory device pool}.
+ * The indexes cover every attribute of the device information that can be used as an equality criterion in a device
+ * selector. The allocation state is not indexed, because it changes on every allocation and it is checked against the
+ * current state of each candidate device anyway.
+ *
+ * @author filareta.yordanova
+ *
+ */
+public class DeviceIndex {
+    private final Set<String> deviceIds = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private final AttributeIndex<String> agentIndex = new AttributeIndex<>();
+
+    private final AttributeIndex<Integer> apiLevelIndex = new AttributeIndex<>();
+
+    private final AttributeIndex<String> osIndex = new AttributeIndex<>();
+
+    private final AttributeIndex<Boolean> emulatorIndex = new AttributeIndex<>();
+
+    private final AttributeIndex<String> serialNumberIndex = new AttributeIndex<>();
+
+    private final AttributeIndex<String> modelIndex = new AttributeIndex<>();
+
+    private final AttributeIndex<Integer> resolutionWidthIndex = new AttributeIndex<>();
+
+    private final AttributeIndex<Integer> resolutionHeightIndex = new AttributeIndex<>();
+
+    private final AttributeIndex<Integer> dpiIndex = new AttributeIndex<>();
+
+    private final AttributeIndex<Integer> ramIndex = new AttributeIndex<>();
+
+    private final AttributeIndex<Boolean> cameraIndex = new AttributeIndex<>();
+
+    /**
+     * Adds the given device to all indexes.
+     *
+     * @param device
+     *        - the device to be indexed
+     */
+    public void add(Device device) {
+        String deviceId = device.getDeviceId();
+
+        deviceIds.add(deviceId);
+        agentIndex.add(device.getAgentId(), deviceId);
+        apiLevelIndex.add(device.getApiLevel(), deviceId);
+        osIndex.add(device.getOs(), deviceId);
+        emulatorIndex.add(device.isEmulator(), deviceId);
+        serialNumberIndex.add(device.getSerialNumber(), deviceId);
+        modelIndex.add(device.getModel(), deviceId);
+        resolutionWidthIndex.add(device.getResolutionWidth(), deviceId);
+        resolutionHeightIndex.add(device.getResolutionHeight(), deviceId);
+        dpiIndex.add(device.getDpi(), deviceId);
+        ramIndex.add(device.getRam(), deviceId);
+        cameraIndex.add(device.hasCamera(), deviceId);
+    }
+
+    /**
+     * Updates the indexes of a device, whose state has changed. Only the indexes of the changed attributes are touched
+     * and the device never disappears from the index of an attribute while it is being moved to a new value.
+     *
+     * @param indexedDevice
+     *        - the state of the device, which is currently indexed
+     * @param device
+     *        - the current state of the same device
+     */
+    public void update(Device indexedDevice, Device device) {
+        String deviceId = device.getDeviceId();
+
+        agentIndex.replace(indexedDevice.getAgentId(), device.getAgentId(), deviceId);
+        apiLevelIndex.replace(indexedDevice.getApiLevel(), device.getApiLevel(), deviceId);
+        osIndex.replace(indexedDevice.getOs(), device.getOs(), deviceId);
+        emulatorIndex.replace(indexedDevice.isEmulator(), device.isEmulator(), deviceId);
+        serialNumberIndex.replace(indexedDevice.getSerialNumber(), device.getSerialNumber(), deviceId);
+        modelIndex.replace(indexedDevice.getModel(), device.getModel(), deviceId);
+        resolutionWidthIndex.replace(indexedDevice.getResolutionWidth(), device.getResolutionWidth(), deviceId);
+        resolutionHeightIndex.replace(indexedDevice.getResolutionHeight(), device.getResolutionHeight(), deviceId);
+        dpiIndex.replace(indexedDevice.getDpi(), device.getDpi(), deviceId);
+        ramIndex.replace(indexedDevice.getRam(), device.getRam(), deviceId);
+        cameraIndex.replace(indexedDevice.hasCamera(), device.hasCamera(), deviceId);
+    }
+
+    /**
+     * Removes the given device from all indexes.
+     *
+     * @param device
+     *        - the device to be removed from the indexes
+     */
+    public void remove(Device device) {
+        String deviceId = device.getDeviceId();
+
+        agentIndex.remove(device.getAgentId(), deviceId);
+        apiLevelIndex.remove(device.getApiLevel(), deviceId);
+        osIndex.remove(device.getOs(), deviceId);
+        emulatorIndex.remove(device.isEmulator(), deviceId);
+        serialNumberIndex.remove(device.getSerialNumber(), deviceId);
+        modelIndex.remove(device.getModel(), deviceId);
+        resolutionWidthIndex.remove(device.getResolutionWidth(), deviceId);
+        resolutionHeightIndex.remove(device.getResolutionHeight(), deviceId);
+        dpiIndex.remove(device.getDpi(), deviceId);
+        ramIndex.remove(device.getRam(), deviceId);
+        cameraIndex.remove(device.hasCamera(), deviceId);
+        deviceIds.remove(deviceId);
+    }
+
+    /**
+     * Gets a live, unmodifiable view of the IDs of all indexed devices.
+     *
+     * @return the IDs of all indexed devices
+     */
+    public Set<String> getDeviceIds() {
+        return Collections.unmodifiableSet(deviceIds);
+    }
+
+    public AttributeIndex<String> getAgentIndex() {
+        return agentIndex;
+    }
+
+    public AttributeIndex<Integer> getApiLevelIndex() {
+        return apiLevelIndex;
+    }
+
+    public AttributeIndex<String> getOsIndex() {
+        return osIndex;
+    }
+
+    public AttributeIndex<Boolean> getEmulatorIndex() {
+        return emulatorIndex;
+    }
+
+    public AttributeIndex<String> getSerialNumberIndex() {
+        return serialNumberIndex;
+    }
+
+    public AttributeIndex<String> getModelIndex() {
+        return modelIndex;
+    }
+
+    public AttributeIndex<Integer> getResolutionWidthIndex() {
+        return resolutionWidthIndex;
+    }
+
+    public AttributeIndex<Integer> getResolutionHeightIndex() {
+        return resolutionHeightIndex;
+    }
+
+    public AttributeIndex<Integer> getDpiIndex() {
+        return dpiIndex;
+    }
+
+    public AttributeIndex<Integer> getRamIndex() {
+        return ramIndex;
+    }
+
+    public AttributeIndex<Boolean> getCameraIndex() {
+        return cameraIndex;
+    }
+}
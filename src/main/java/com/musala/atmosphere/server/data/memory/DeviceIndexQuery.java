@@ -0,0 +1,252 @@
+// This file is part of the ATMOSPHERE mobile testing framework.
+// Copyright (C) 2016 MusalaSoft
+//
+// ATMOSPHERE is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// ATMOSPHERE is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with ATMOSPHERE.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.musala.atmosphere.server.data.memory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import com.musala.atmosphere.commons.cs.deviceselection.ApiLevel;
+import com.musala.atmosphere.commons.cs.deviceselection.ApiLevel.Maximum;
+import com.musala.atmosphere.commons.cs.deviceselection.ApiLevel.Minimum;
+import com.musala.atmosphere.commons.cs.deviceselection.ApiLevel.Target;
+import com.musala.atmosphere.commons.cs.deviceselection.CameraAvailable;
+import com.musala.atmosphere.commons.cs.deviceselection.DeviceModel;
+import com.musala.atmosphere.commons.cs.deviceselection.DeviceOs;
+import com.musala.atmosphere.commons.cs.deviceselection.DeviceParameter.Visitor;
+import com.musala.atmosphere.commons.cs.deviceselection.DeviceSelector;
+import com.musala.atmosphere.commons.cs.deviceselection.DeviceType;
+import com.musala.atmosphere.commons.cs.deviceselection.RamCapacity;
+import com.musala.atmosphere.commons.cs.deviceselection.ScreenParameter.DPI;
+import com.musala.atmosphere.commons.cs.deviceselection.ScreenParameter.Height;
+import com.musala.atmosphere.commons.cs.deviceselection.ScreenParameter.Width;
+import com.musala.atmosphere.commons.cs.deviceselection.SerialNumber;
+import com.musala.atmosphere.server.data.model.ormilite.Device;
+
+/**
+ * Matches devices from the {@link DeviceIndex device index} against a given selector. This query gives priority to the
+ * {@link ApiLevel.Target target API level} if such criterion for selection is set, without looking the
+ * {@link ApiLevel.Minimum minimum} and {@link ApiLevel.Maximum maximum} API levels. The semantics are the same as the
+ * ones of the data source query builders.
+ *
+ * @author filareta.yordanova
+ *
+ */
+public class DeviceIndexQuery implements Visitor {
+    protected final DeviceIndex deviceIndex;
+
+    protected Integer minApiLevel;
+
+    protected Integer maxApiLevel;
+
+    private final List<Set<String>> candidateSets = new ArrayList<>();
+
+    private Integer apiLevel;
+
+    private String os;
+
+    private Boolean emulatorCriterion;
+
+    private String serialNumber;
+
+    private String model;
+
+    private Integer resolutionWidth;
+
+    private Integer resolutionHeight;
+
+    private Integer dpi;
+
+    private Boolean hasCamera;
+
+    private Integer ram;
+
+    private Boolean isAllocated;
+
+    private boolean isEmulator;
+
+    /**
+     * Creates a query matching devices from the given index by a given {@link DeviceSelector selector}.
+     *
+     * @param deviceIndex
+     *        - the index of the stored devices
+     * @param selector
+     *        - contains all device parameters used for device matching
+     */
+    public DeviceIndexQuery(DeviceIndex deviceIndex, DeviceSelector selector) {
+        this.deviceIndex = deviceIndex;
+
+        selector.visitAll(this);
+    }
+
+    @Override
+    public void visit(Minimum minApiLevel) {
+    }
+
+    @Override
+    public void visit(Maximum maxApiLevel) {
+    }
+
+    @Override
+    public void visit(Target targetApiLevel) {
+        apiLevel = targetApiLevel.getValue();
+        candidateSets.add(deviceIndex.getApiLevelIndex().get(apiLevel));
+    }
+
+    @Override
+    public void visit(DeviceOs deviceOs) {
+        os = deviceOs.toString();
+        candidateSets.add(deviceIndex.getOsIndex().get(os));
+    }
+
+    @Override
+    public void visit(DeviceType deviceType) {
+        boolean withPreference;
+
+        switch (deviceType) {
+            case DEVICE_ONLY:
+                isEmulator = false;
+                withPreference = false;
+                break;
+            case EMULATOR_ONLY:
+                isEmulator = true;
+                withPreference = false;
+                break;
+            case DEVICE_PREFERRED:
+                isEmulator = false;
+                withPreference = true;
+                break;
+            case EMULATOR_PREFERRED:
+                isEmulator = true;
+                withPreference = true;
+                break;
+            default:
+                withPreference = true;
+                break;
+        }
+
+        if (!withPreference) {
+            emulatorCriterion = isEmulator;
+            candidateSets.add(deviceIndex.getEmulatorIndex().get(emulatorCriterion));
+        }
+    }
+
+    @Override
+    public void visit(SerialNumber serialNumber) {
+        this.serialNumber = serialNumber.getValue();
+        candidateSets.add(deviceIndex.getSerialNumberIndex().get(this.serialNumber));
+    }
+
+    @Override
+    public void visit(DeviceModel deviceModel) {
+        model = deviceModel.getValue();
+        candidateSets.add(deviceIndex.getModelIndex().get(model));
+    }
+
+    @Override
+    public void visit(Width screenWidth) {
+        resolutionWidth = screenWidth.getValue();
+        candidateSets.add(deviceIndex.getResolutionWidthIndex().get(resolutionWidth));
+    }
+
+    @Override
+    public void visit(Height screenHeight) {
+        resolutionHeight = screenHeight.getValue();
+        candidateSets.add(deviceIndex.getResolutionHeightIndex().get(resolutionHeight));
+    }
+
+    @Override
+    public void visit(DPI screenDpi) {
+        dpi = screenDpi.getValue();
+        candidateSets.add(deviceIndex.getDpiIndex().get(dpi));
+    }
+
+    @Override
+    public void visit(CameraAvailable cameraAvailable) {
+        hasCamera = cameraAvailable.getValue();
+        candidateSets.add(deviceIndex.getCameraIndex().get(hasCamera));
+    }
+
+    @Override
+    public void visit(RamCapacity ramCapacity) {
+        ram = ramCapacity.getValue();
+        candidateSets.add(deviceIndex.getRamIndex().get(ram));
+    }
+
+    public void setAllocationCriterion(boolean isAllocated) {
+        this.isAllocated = isAllocated;
+    }
+
+    /**
+     * Gets the smallest set of device IDs that has to be scanned in order to find all matching devices. The returned
+     * set may also contain devices which are not matching all the criteria, so every candidate must be checked with
+     * {@link #matches(Device)}. All devices are candidates if the query has no indexed criteria.
+     *
+     * @return the IDs of the devices that are candidates for this query
+     */
+    public Set<String> getCandidates() {
+        Set<String> candidates = null;
+
+        for (Set<String> candidateSet : candidateSets) {
+            if (candidates == null || candidateSet.size() < candidates.size()) {
+                candidates = candidateSet;
+            }
+        }
+
+        return candidates != null ? candidates : deviceIndex.getDeviceIds();
+    }
+
+    /**
+     * Checks whether the given device matches all criteria of this query.
+     *
+     * @param device
+     *        - the device to be checked
+     * @return <code>true</code> if the device matches the query, <code>false</code> otherwise
+     */
+    public boolean matches(Device device) {
+        Integer deviceApiLevel = device.getApiLevel();
+
+        if (minApiLevel != null && (deviceApiLevel == null || deviceApiLevel < minApiLevel)) {
+            return false;
+        }
+
+        if (maxApiLevel != null && (deviceApiLevel == null || deviceApiLevel > maxApiLevel)) {
+            return false;
+        }
+
+        return isMatching(apiLevel, deviceApiLevel) && isMatching(os, device.getOs())
+                && isMatching(emulatorCriterion, device.isEmulator())
+                && isMatching(serialNumber, device.getSerialNumber()) && isMatching(model, device.getModel())
+                && isMatching(resolutionWidth, device.getResolutionWidth())
+                && isMatching(resolutionHeight, device.getResolutionHeight()) && isMatching(dpi, device.getDpi())
+                && isMatching(hasCamera, device.hasCamera()) && isMatching(ram, device.getRam())
+                && isMatching(isAllocated, device.isAllocated());
+    }
+
+    /**
+     * Checks whether emulators should be returned before the real devices in the result of this query.
+     *
+     * @return <code>true</code> if emulators are with priority, <code>false</code> otherwise
+     */
+    public boolean isEmulatorPreferred() {
+        return isEmulator;
+    }
+
+    private static boolean isMatching(Object criterion, Object value) {
+        return criterion == null || criterion.equals(value);
+    }
+}
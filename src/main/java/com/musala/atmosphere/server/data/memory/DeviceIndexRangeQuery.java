@@ -0,0 +1,60 @@
+// This file is part of the ATMOSPHERE mobile testing framework.
+// Copyright (C) 2016 MusalaSoft
+//
+// ATMOSPHERE is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// ATMOSPHERE is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with ATMOSPHERE.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.musala.atmosphere.server.data.memory;
+
+import com.musala.atmosphere.commons.cs.deviceselection.ApiLevel;
+import com.musala.atmosphere.commons.cs.deviceselection.ApiLevel.Maximum;
+import com.musala.atmosphere.commons.cs.deviceselection.ApiLevel.Minimum;
+import com.musala.atmosphere.commons.cs.deviceselection.ApiLevel.Target;
+import com.musala.atmosphere.commons.cs.deviceselection.DeviceSelector;
+
+/**
+ * Matches devices from the {@link DeviceIndex device index} against a given selector. This query gives priority to the
+ * {@link ApiLevel.Minimum minimum} and {@link ApiLevel.Maximum maximum} API levels if such criterion for selection is
+ * set.
+ *
+ * @author filareta.yordanova
+ *
+ */
+public class DeviceIndexRangeQuery extends DeviceIndexQuery {
+
+    /**
+     * Creates a query matching devices from the given index by a given {@link DeviceSelector selector}.
+     *
+     * @param deviceIndex
+     *        - the index of the stored devices
+     * @param selector
+     *        - contains all device parameters used for device matching
+     */
+    public DeviceIndexRangeQuery(DeviceIndex deviceIndex, DeviceSelector selector) {
+        super(deviceIndex, selector);
+    }
+
+    @Override
+    public void visit(Minimum minApiLevel) {
+        this.minApiLevel = minApiLevel.getValue();
+    }
+
+    @Override
+    public void visit(Maximum maxApiLevel) {
+        this.maxApiLevel = maxApiLevel.getValue();
+    }
+
+    @Override
+    public void visit(Target targetApiLevel) {
+    }
+}
@@ -0,0 +1,223 @@
+// This file is part of the ATMOSPHERE mobile testing framework.
+// Copyright (C) 2016 MusalaSoft
+//
+// ATMOSPHERE is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// ATMOSPHERE is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with ATMOSPHERE.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.musala.atmosphere.server.data.memory;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.log4j.Logger;
+
+import com.musala.atmosphere.commons.DeviceInformation;
+import com.musala.atmosphere.server.dao.IDevicePoolDao;
+import com.musala.atmosphere.server.dao.exception.DevicePoolDaoException;
+import com.musala.atmosphere.server.data.model.ormilite.Device;
+
+/**
+ * Write-behind mirror of the {@link InMemoryDevicePoolDao in-memory device pool} to a device pool stored in the data
+ * source. All changes are applied in the order they are submitted on a single background thread, so the callers never
+ * wait for the data source, except when {@link #flush() explicitly requested}.
+ *
+ * @author filareta.yordanova
+ *
+ */
+public class DevicePoolMirror {
+    private static final Logger LOGGER = Logger.getLogger(DevicePoolMirror.class.getCanonicalName());
+
+    private static final String MIRROR_THREAD_NAME = "device-pool-mirror";
+
+    private final IDevicePoolDao mirroredDevicePoolDao;
+
+    private final ExecutorService mirrorExecutor;
+
+    /**
+     * Creates a mirror, which writes all changes to the given device pool data access object.
+     *
+     * @param mirroredDevicePoolDao
+     *        - the data access object of the device pool stored in the data source
+     */
+    public DevicePoolMirror(IDevicePoolDao mirroredDevicePoolDao) {
+        this.mirroredDevicePoolDao = mirroredDevicePoolDao;
+        this.mirrorExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread mirrorThread = new Thread(runnable, MIRROR_THREAD_NAME);
+                mirrorThread.setDaemon(true);
+
+                return mirrorThread;
+            }
+        });
+    }
+
+    /**
+     * Schedules adding of a device entry in the mirrored device pool.
+     *
+     * @param deviceInformation
+     *        - the information about the device
+     * @param deviceId
+     *        - the ID of the device
+     * @param agentId
+     *        - the ID of the agent that the device is connected to
+     * @param passkey
+     *        - passkey for validating authority
+     */
+    public void addDevice(final DeviceInformation deviceInformation,
+                          final String deviceId,
+                          final String agentId,
+                          final long passkey) {
+        mirrorExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mirroredDevicePoolDao.addDevice(deviceInformation, deviceId, agentId, passkey);
+                } catch (DevicePoolDaoException e) {
+                    LOGGER.error(String.format("Mirroring device with ID %s failed.", deviceId), e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Schedules adding of the entries of all given devices of an agent in the mirrored device pool, as a single batch.
+     *
+     * @param devicesInformation
+     *        - the information about the devices
+     * @param deviceIds
+     *        - the IDs of the devices, in the order of their information
+     * @param agentId
+     *        - the ID of the agent that the devices are connected to
+     * @param passkeys
+     *        - passkeys for validating authority, in the order of the devices information
+     */
+    public void addDevices(final List<DeviceInformation> devicesInformation,
+                           final List<String> deviceIds,
+                           final String agentId,
+                           final List<Long> passkeys) {
+        mirrorExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mirroredDevicePoolDao.addDevices(devicesInformation, deviceIds, agentId, passkeys);
+                } catch (DevicePoolDaoException e) {
+                    LOGGER.error(String.format("Mirroring the devices on agent %s failed.", agentId), e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Schedules update of the mirrored device entry with the state of the given device.
+     *
+     * @param device
+     *        - a snapshot of the device, which must not be modified after it is passed to the mirror
+     */
+    public void update(final Device device) {
+        mirrorExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                String deviceId = device.getDeviceId();
+
+                try {
+                    Device mirroredDevice = (Device) mirroredDevicePoolDao.getDevice(deviceId);
+
+                    if (mirroredDevice == null) {
+                        return;
+                    }
+
+                    Device updatedDevice = new Device(device);
+                    updatedDevice.setId(mirroredDevice.getId());
+                    updatedDevice.setAgent(mirroredDevice.getAgent());
+                    // the in-memory pool is the authoritative one, so its state overwrites the mirrored version
+                    updatedDevice.setVersion(mirroredDevice.getVersion());
+
+                    mirroredDevicePoolDao.update(updatedDevice);
+                } catch (DevicePoolDaoException e) {
+                    LOGGER.error(String.format("Mirroring the state of device with ID %s failed.", deviceId), e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Schedules removal of the device with the given ID from the mirrored device pool.
+     *
+     * @param deviceId
+     *        - the ID of the device that should be removed
+     */
+    public void remove(final String deviceId) {
+        mirrorExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mirroredDevicePoolDao.remove(deviceId);
+                } catch (DevicePoolDaoException e) {
+                    LOGGER.error(String.format("Removing mirrored device with ID %s failed.", deviceId), e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Removes the devices on the agent with the given ID from the mirrored device pool. Unlike the other operations of
+     * the mirror, this method waits for the removal to complete, because the agent entry in the data source can not be
+     * removed while any of its devices is still present.
+     *
+     * @param agentId
+     *        - the ID of the agent whose devices should be removed
+     */
+    public void removeDevices(final String agentId) {
+        Future<?> removal = mirrorExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mirroredDevicePoolDao.removeDevices(agentId);
+                } catch (DevicePoolDaoException | RuntimeException e) {
+                    LOGGER.error(String.format("Removing mirrored devices on agent with ID %s failed.", agentId), e);
+                }
+            }
+        });
+
+        await(removal);
+    }
+
+    /**
+     * Waits until all changes submitted so far are written to the mirrored device pool.
+     */
+    public void flush() {
+        Future<?> flush = mirrorExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                // all changes submitted before are completed at this point
+            }
+        });
+
+        await(flush);
+    }
+
+    private void await(Future<?> task) {
+        try {
+            task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            LOGGER.error("Writing to the mirrored device pool failed.", e);
+        }
+    }
+}
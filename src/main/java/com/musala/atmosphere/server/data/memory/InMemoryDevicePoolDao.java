@@ -0,0 +1,507 @@
+// This file is part of the ATMOSPHERE mobile testing framework.
+// Copyright (C) 2016 MusalaSoft
+//
+// ATMOSPHERE is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// ATMOSPHERE is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with ATMOSPHERE.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.musala.atmosphere.server.data.memory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.musala.atmosphere.commons.DeviceInformation;
+import com.musala.atmosphere.commons.cs.deviceselection.ApiLevel;
+import com.musala.atmosphere.commons.cs.deviceselection.DeviceParameter;
+import com.musala.atmosphere.commons.cs.deviceselection.DeviceSelector;
+import com.musala.atmosphere.server.dao.IAgentDao;
+import com.musala.atmosphere.server.dao.IDevicePoolDao;
+import com.musala.atmosphere.server.dao.exception.DevicePoolDaoException;
+import com.musala.atmosphere.server.dao.exception.DevicePoolDaoRuntimeException;
+import com.musala.atmosphere.server.data.model.IDevice;
+import com.musala.atmosphere.server.data.model.ormilite.Agent;
+import com.musala.atmosphere.server.data.model.ormilite.Device;
+
+/**
+ * Device pool data access object which keeps all devices in memory and matches device selectors against per-attribute
+ * {@link DeviceIndex indexes}, so no data source round-trip is made when devices are selected. Changes can optionally
+ * be written behind to a device pool in the data source through a {@link DevicePoolMirror mirror}.
+ * <p>
+ * The devices returned by this data access object are detached copies, so changes on them take effect only after they
+ * are passed to {@link #update(IDevice)}. Devices are identified by their device ID, which can not be changed by an
+ * update.
+ * </p>
+ *
+ * @author filareta.yordanova
+ *
+ */
+public class InMemoryDevicePoolDao implements IDevicePoolDao {
+    private final ConcurrentMap<String, DeviceEntry> deviceEntries = new ConcurrentHashMap<>();
+
+    private final DeviceIndex deviceIndex = new DeviceIndex();
+
+    private final AtomicLong entrySequence = new AtomicLong();
+
+    private final IAgentDao agentDao;
+
+    private final DevicePoolMirror mirror;
+
+    /**
+     * Creates an in-memory device pool, which is not mirrored to the data source.
+     *
+     * @param agentDao
+     *        - data access object for the agents, used to validate the agents of the added devices
+     */
+    public InMemoryDevicePoolDao(IAgentDao agentDao) {
+        this(agentDao, null);
+    }
+
+    /**
+     * Creates an in-memory device pool, which writes all changes behind to the given mirror.
+     *
+     * @param agentDao
+     *        - data access object for the agents, used to validate the agents of the added devices
+     * @param mirror
+     *        - the mirror of the device pool in the data source or <code>null</code> if mirroring is not required
+     */
+    public InMemoryDevicePoolDao(IAgentDao agentDao, DevicePoolMirror mirror) {
+        this.agentDao = agentDao;
+        this.mirror = mirror;
+    }
+
+    @Override
+    public IDevice addDevice(DeviceInformation deviceInformation, String deviceId, String agentId, long passkey)
+        throws DevicePoolDaoException {
+        if (!agentDao.hasAgent(agentId)) {
+            String message = String.format("Adding device with ID %s on agent %s failed, because the agent is missing.",
+                                           deviceId,
+                                           agentId);
+            throw new DevicePoolDaoException(message);
+        }
+
+        IDevice device = addEntry(deviceInformation, deviceId, agentId, passkey);
+
+        if (mirror != null) {
+            mirror.addDevice(deviceInformation, deviceId, agentId, passkey);
+        }
+
+        return device;
+    }
+
+    @Override
+    public List<IDevice> addDevices(List<DeviceInformation> devicesInformation,
+                                    List<String> deviceIds,
+                                    String agentId,
+                                    List<Long> passkeys)
+        throws DevicePoolDaoException {
+        if (!agentDao.hasAgent(agentId)) {
+            String message = String.format("Adding %d devices on agent %s failed, because the agent is missing.",
+                                           devicesInformation.size(),
+                                           agentId);
+            throw new DevicePoolDaoException(message);
+        }
+
+        List<IDevice> devices = new ArrayList<IDevice>();
+
+        try {
+            for (int index = 0; index < devicesInformation.size(); index++) {
+                DeviceInformation deviceInformation = devicesInformation.get(index);
+                devices.add(addEntry(deviceInformation, deviceIds.get(index), agentId, passkeys.get(index)));
+            }
+        } catch (DevicePoolDaoException e) {
+            // the devices are added either all or none, as in the data source
+            for (IDevice device : devices) {
+                removeEntry(device.getDeviceId());
+            }
+
+            throw e;
+        }
+
+        if (mirror != null) {
+            mirror.addDevices(devicesInformation, deviceIds, agentId, passkeys);
+        }
+
+        return devices;
+    }
+
+    @Override
+    public IDevice getDevice(String id) throws DevicePoolDaoException {
+        DeviceEntry deviceEntry = deviceEntries.get(id);
+
+        return deviceEntry != null ? new Device(deviceEntry.device.get()) : null;
+    }
+
+    @Override
+    public boolean hasDevice(String id) {
+        return deviceEntries.containsKey(id);
+    }
+
+    @Override
+    public List<String> removeDevices(String agentId) throws DevicePoolDaoException {
+        if (!agentDao.hasAgent(agentId)) {
+            throw new DevicePoolDaoRuntimeException("You are trying to remove devices on agent, which is actually missing.");
+        }
+
+        List<String> removedDeviceIds = new ArrayList<String>();
+
+        for (String deviceId : new ArrayList<String>(deviceIndex.getAgentIndex().get(agentId))) {
+            if (removeEntry(deviceId)) {
+                removedDeviceIds.add(deviceId);
+            }
+        }
+
+        if (mirror != null) {
+            mirror.removeDevices(agentId);
+        }
+
+        return removedDeviceIds;
+    }
+
+    @Override
+    public List<IDevice> getAgentDevices(String agentId) throws DevicePoolDaoException {
+        List<IDevice> devices = new ArrayList<IDevice>();
+
+        for (String deviceId : deviceIndex.getAgentIndex().get(agentId)) {
+            DeviceEntry deviceEntry = deviceEntries.get(deviceId);
+
+            if (deviceEntry != null) {
+                devices.add(new Device(deviceEntry.device.get()));
+            }
+        }
+
+        return devices;
+    }
+
+    @Override
+    public void remove(String deviceId) throws DevicePoolDaoException {
+        if (removeEntry(deviceId) && mirror != null) {
+            mirror.remove(deviceId);
+        }
+    }
+
+    @Override
+    public void update(IDevice device) throws DevicePoolDaoException {
+        DeviceEntry deviceEntry = deviceEntries.get(device.getDeviceId());
+
+        if (deviceEntry == null) {
+            return;
+        }
+
+        Device currentDevice = deviceEntry.device.get();
+        Device updatedDevice = createUpdatedDevice(currentDevice, device);
+
+        // a stale copy of the device must not overwrite a change made since it was fetched, e.g. a concurrent release
+        if (currentDevice.getVersion() != device.getVersion()
+                || !deviceEntry.device.compareAndSet(currentDevice, updatedDevice)) {
+            String message = String.format("Failed to update device with ID %s, because it was changed.",
+                                           device.getDeviceId());
+            throw new DevicePoolDaoException(message);
+        }
+
+        publishState(deviceEntry);
+
+        if (device instanceof Device) {
+            ((Device) device).setVersion(updatedDevice.getVersion());
+        }
+    }
+
+    @Override
+    public boolean tryAllocate(IDevice device) throws DevicePoolDaoException {
+        DeviceEntry deviceEntry = deviceEntries.get(device.getDeviceId());
+
+        if (deviceEntry == null) {
+            return false;
+        }
+
+        Device currentDevice = deviceEntry.device.get();
+
+        if (currentDevice.isAllocated() || currentDevice.getVersion() != device.getVersion()) {
+            return false;
+        }
+
+        Device allocatedDevice = new Device(currentDevice);
+        allocatedDevice.allocate();
+        allocatedDevice.setVersion(currentDevice.getVersion() + 1);
+
+        if (!deviceEntry.device.compareAndSet(currentDevice, allocatedDevice)) {
+            return false;
+        }
+
+        publishState(deviceEntry);
+
+        if (device instanceof Device) {
+            ((Device) device).setAllocated(true);
+            ((Device) device).setVersion(allocatedDevice.getVersion());
+        }
+
+        return true;
+    }
+
+    @Override
+    public boolean tryRelease(IDevice device, long passkey) throws DevicePoolDaoException {
+        DeviceEntry deviceEntry = deviceEntries.get(device.getDeviceId());
+
+        if (deviceEntry == null) {
+            return false;
+        }
+
+        Device currentDevice = deviceEntry.device.get();
+
+        if (!currentDevice.isAllocated() || currentDevice.getVersion() != device.getVersion()) {
+            return false;
+        }
+
+        Device releasedDevice = new Device(currentDevice);
+        releasedDevice.release();
+        releasedDevice.setPasskey(passkey);
+        releasedDevice.setVersion(currentDevice.getVersion() + 1);
+
+        if (!deviceEntry.device.compareAndSet(currentDevice, releasedDevice)) {
+            return false;
+        }
+
+        publishState(deviceEntry);
+
+        if (device instanceof Device) {
+            ((Device) device).setAllocated(false);
+            ((Device) device).setPasskey(passkey);
+            ((Device) device).setVersion(releasedDevice.getVersion());
+        }
+
+        return true;
+    }
+
+    @Override
+    public List<IDevice> getDevices(DeviceSelector deviceSelector, boolean isAllocated) throws DevicePoolDaoException {
+        List<IDevice> devices = Collections.emptyList();
+        Map<Class<? extends DeviceParameter>, DeviceParameter> deviceParameters = deviceSelector.getParameters();
+
+        // Target is with priority, if both target and range are set from the client.
+        if (deviceParameters.containsKey(ApiLevel.Target.class)) {
+            devices = queryDevices(new DeviceIndexQuery(deviceIndex, deviceSelector), isAllocated);
+        }
+
+        // If there are no results for the given target, try to find matching devices in the given API levels range.
+        if (devices.isEmpty()) {
+            devices = queryDevices(new DeviceIndexRangeQuery(deviceIndex, deviceSelector), isAllocated);
+        }
+
+        return devices;
+    }
+
+    @Override
+    public boolean hasDevice(DeviceSelector selector, boolean isAllocated) throws DevicePoolDaoException {
+        return !getDevices(selector, isAllocated).isEmpty();
+    }
+
+    /**
+     * Loads the given devices, which are already stored in the mirrored data source, e.g. when the server is restarted.
+     * The devices are restored with their current state, including their passkeys and allocation, and are not written
+     * back to the mirror.
+     *
+     * @param devices
+     *        - the stored devices
+     */
+    public void restoreDevices(List<IDevice> devices) {
+        for (IDevice storedDevice : devices) {
+            Device device = copyDevice(storedDevice);
+            device.setAgent(new Agent(storedDevice.getAgentId()));
+
+            DeviceEntry deviceEntry = new DeviceEntry(entrySequence.incrementAndGet(), device);
+
+            synchronized (deviceEntry) {
+                if (deviceEntries.putIfAbsent(device.getDeviceId(), deviceEntry) == null) {
+                    deviceIndex.add(device);
+                    deviceEntry.indexedDevice = device;
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits until all changes made so far are written to the mirror of this device pool. Returns immediately if the
+     * device pool is not mirrored.
+     */
+    public void flushMirror() {
+        if (mirror != null) {
+            mirror.flush();
+        }
+    }
+
+    private IDevice addEntry(DeviceInformation deviceInformation, String deviceId, String agentId, long passkey)
+        throws DevicePoolDaoException {
+        Device device = new Device(deviceInformation, deviceId, passkey);
+        device.setAgent(new Agent(agentId));
+
+        DeviceEntry deviceEntry = new DeviceEntry(entrySequence.incrementAndGet(), device);
+
+        synchronized (deviceEntry) {
+            if (deviceEntries.putIfAbsent(deviceId, deviceEntry) != null) {
+                String message = String.format("Adding device with ID %s on agent %s failed, because such device already exists.",
+                                               deviceId,
+                                               agentId);
+                throw new DevicePoolDaoException(message);
+            }
+
+            deviceIndex.add(device);
+            deviceEntry.indexedDevice = device;
+        }
+
+        return new Device(device);
+    }
+
+    private boolean removeEntry(String deviceId) {
+        DeviceEntry deviceEntry = deviceEntries.get(deviceId);
+
+        if (deviceEntry == null) {
+            return false;
+        }
+
+        synchronized (deviceEntry) {
+            if (!deviceEntries.remove(deviceId, deviceEntry)) {
+                return false;
+            }
+
+            deviceIndex.remove(deviceEntry.indexedDevice);
+        }
+
+        return true;
+    }
+
+    /**
+     * Brings the indexes and the mirror up to date with the current state of the given entry. The state itself is
+     * changed without locking, but the index maintenance is serialized per device, so the indexes always converge to
+     * the latest state, regardless of the order in which the concurrent changes are published.
+     */
+    private void publishState(DeviceEntry deviceEntry) {
+        synchronized (deviceEntry) {
+            Device currentDevice = deviceEntry.device.get();
+            String deviceId = currentDevice.getDeviceId();
+
+            if (deviceEntries.get(deviceId) != deviceEntry || deviceEntry.indexedDevice == currentDevice) {
+                return;
+            }
+
+            deviceIndex.update(deviceEntry.indexedDevice, currentDevice);
+            deviceEntry.indexedDevice = currentDevice;
+
+            if (mirror != null) {
+                mirror.update(currentDevice);
+            }
+        }
+    }
+
+    private List<IDevice> queryDevices(DeviceIndexQuery query, boolean isAllocated) {
+        query.setAllocationCriterion(isAllocated);
+
+        List<DeviceEntry> matchingEntries = new ArrayList<>();
+
+        for (String deviceId : query.getCandidates()) {
+            DeviceEntry deviceEntry = deviceEntries.get(deviceId);
+
+            if (deviceEntry == null) {
+                continue;
+            }
+
+            // The indexes may be updated concurrently, so the candidate is checked against a consistent snapshot.
+            Device device = deviceEntry.device.get();
+
+            if (query.matches(device)) {
+                matchingEntries.add(new DeviceEntry(deviceEntry.sequence, device));
+            }
+        }
+
+        Collections.sort(matchingEntries, new DeviceEntryComparator(query.isEmulatorPreferred()));
+
+        List<IDevice> devices = new ArrayList<IDevice>(matchingEntries.size());
+
+        for (DeviceEntry deviceEntry : matchingEntries) {
+            devices.add(new Device(deviceEntry.device.get()));
+        }
+
+        return devices;
+    }
+
+    /**
+     * Creates a detached copy of the given device, which may be of any {@link IDevice} implementation. Only a
+     * {@link Device} has an identifier and an agent, which are copied as well.
+     */
+    private static Device copyDevice(IDevice device) {
+        if (device instanceof Device) {
+            return new Device((Device) device);
+        }
+
+        Device copiedDevice = new Device(device.getInformation(), device.getDeviceId(), device.getPasskey());
+        copiedDevice.setAllocated(device.isAllocated());
+        copiedDevice.setVersion(device.getVersion());
+
+        return copiedDevice;
+    }
+
+    private static Device createUpdatedDevice(Device currentDevice, IDevice device) {
+        Device updatedDevice = copyDevice(device);
+        updatedDevice.setId(currentDevice.getId());
+        updatedDevice.setAgent(currentDevice.getAgent());
+        updatedDevice.setVersion(currentDevice.getVersion() + 1);
+
+        return updatedDevice;
+    }
+
+    /**
+     * Holds the current state of a device in the pool, together with the order in which the device was added. The
+     * state is an immutable {@link Device device} snapshot, which is replaced with compare-and-set on every change.
+     */
+    private static class DeviceEntry {
+        private final long sequence;
+
+        private final AtomicReference<Device> device;
+
+        // the snapshot which is currently reflected in the indexes, guarded by the entry monitor
+        private Device indexedDevice;
+
+        public DeviceEntry(long sequence, Device device) {
+            this.sequence = sequence;
+            this.device = new AtomicReference<>(device);
+        }
+    }
+
+    /**
+     * Orders the devices the same way as the data source does - real devices or emulators first, depending on the
+     * query, and then in the order they were added to the pool.
+     */
+    private static class DeviceEntryComparator implements Comparator<DeviceEntry> {
+        private final boolean isEmulatorPreferred;
+
+        public DeviceEntryComparator(boolean isEmulatorPreferred) {
+            this.isEmulatorPreferred = isEmulatorPreferred;
+        }
+
+        @Override
+        public int compare(DeviceEntry first, DeviceEntry second) {
+            boolean isFirstPreferred = first.device.get().isEmulator() == isEmulatorPreferred;
+            boolean isSecondPreferred = second.device.get().isEmulator() == isEmulatorPreferred;
+
+            if (isFirstPreferred != isSecondPreferred) {
+                return isFirstPreferred ? -1 : 1;
+            }
+
+            return Long.compare(first.sequence, second.sequence);
+        }
+    }
+}
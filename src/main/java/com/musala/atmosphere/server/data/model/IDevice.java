@@ -72,6 +72,14 @@ public interface IDevice {
      */
     public void setPasskey(long passkey);
 
+    /**
+     * Gets the version stamp of this device. The version is increased on every change of the device in the pool and is
+     * used to detect concurrent modifications.
+     *
+     * @return the version of the device
+     */
+    public long getVersion();
+
     /**
      * Sets the information of the device in the data source.
      *
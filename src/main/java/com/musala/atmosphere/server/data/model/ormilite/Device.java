@@ -90,6 +90,9 @@ public class Device implements IDevice {
     @DatabaseField(columnName = DeviceColumnName.PASSKEY, canBeNull = false)
     private long passkey;
 
+    @DatabaseField(columnName = DeviceColumnName.VERSION, canBeNull = false, defaultValue = "0", version = true)
+    private long version;
+
     public Device() {
         // all persisted classes must define a no-arg constructor, used when an object is returned from a query
     }
@@ -136,6 +139,35 @@ public class Device implements IDevice {
         passkey = passkeyAuthority;
     }
 
+    /**
+     * Creates a detached copy of the given device. The copy shares the {@link Agent agent} reference, but changes on
+     * any of the other properties of the copy are not reflected in the original device.
+     *
+     * @param device
+     *        - the device to be copied
+     */
+    public Device(Device device) {
+        id = device.id;
+        serialNumber = device.serialNumber;
+        isEmulator = device.isEmulator;
+        isTablet = device.isTablet;
+        resolutionHeight = device.resolutionHeight;
+        resolutionWidth = device.resolutionWidth;
+        os = device.os;
+        model = device.model;
+        dpi = device.dpi;
+        ram = device.ram;
+        cpu = device.cpu;
+        apiLevel = device.apiLevel;
+        manufacturer = device.manufacturer;
+        hasCamera = device.hasCamera;
+        isAllocated = device.isAllocated;
+        agent = device.agent;
+        deviceId = device.deviceId;
+        passkey = device.passkey;
+        version = device.version;
+    }
+
     /**
      * Gets the agent responsible for this device.
      *
@@ -472,6 +504,21 @@ public class Device implements IDevice {
         this.passkey = passkey;
     }
 
+    @Override
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Sets the version stamp of this device.
+     *
+     * @param version
+     *        - the version of this device
+     */
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
     @Override
     public int hashCode() {
         return new HashCodeBuilder(17, 31).append(agent).append(deviceId).append(serialNumber).toHashCode();
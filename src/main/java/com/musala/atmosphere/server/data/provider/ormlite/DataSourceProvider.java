@@ -17,20 +17,29 @@
 package com.musala.atmosphere.server.data.provider.ormlite;
 
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.log4j.Logger;
 
 import com.j256.ormlite.dao.Dao;
 import com.j256.ormlite.dao.DaoManager;
-import com.j256.ormlite.jdbc.JdbcConnectionSource;
+import com.j256.ormlite.jdbc.JdbcPooledConnectionSource;
 import com.j256.ormlite.support.ConnectionSource;
 import com.j256.ormlite.support.DatabaseConnection;
-import com.musala.atmosphere.server.data.db.constant.Property;
+import com.musala.atmosphere.commons.cs.deviceselection.DeviceSelector;
+import com.musala.atmosphere.commons.cs.deviceselection.DeviceSelectorBuilder;
+import com.musala.atmosphere.server.dao.IDevicePoolDao;
+import com.musala.atmosphere.server.dao.exception.DevicePoolDaoException;
 import com.musala.atmosphere.server.data.db.ormlite.AgentDao;
 import com.musala.atmosphere.server.data.db.ormlite.DeviceDao;
 import com.musala.atmosphere.server.data.db.ormlite.DevicePoolDao;
+import com.musala.atmosphere.server.data.memory.DevicePoolMirror;
+import com.musala.atmosphere.server.data.memory.InMemoryDevicePoolDao;
+import com.musala.atmosphere.server.data.model.IDevice;
 import com.musala.atmosphere.server.data.model.ormilite.Agent;
 import com.musala.atmosphere.server.data.model.ormilite.Device;
+import com.musala.atmosphere.server.data.provider.DevicePoolStorage;
 import com.musala.atmosphere.server.data.provider.IDataSourceProvider;
 import com.musala.atmosphere.server.eventservice.ServerEventService;
 import com.musala.atmosphere.server.eventservice.event.datasource.create.DataSourceCreatedEvent;
@@ -38,6 +47,7 @@ import com.musala.atmosphere.server.eventservice.event.datasource.create.DataSou
 import com.musala.atmosphere.server.eventservice.event.datasource.create.dao.AgentDaoCreatedEvent;
 import com.musala.atmosphere.server.eventservice.event.datasource.create.dao.DeviceDaoCreatedEvent;
 import com.musala.atmosphere.server.eventservice.event.datasource.create.dao.DevicePoolDaoCreatedEvent;
+import com.musala.atmosphere.server.util.ServerPropertiesLoader;
 
 /**
  * Class which creates data access objects for agent, device and device pool and publishes events to the
@@ -53,15 +63,13 @@ public class DataSourceProvider implements IDataSourceProvider {
 
     private static DeviceDao wrappedDeviceDao = null;
 
-    private static DevicePoolDao devicePoolDao = null;
+    private static IDevicePoolDao devicePoolDao = null;
 
     private static ServerEventService eventService = new ServerEventService();
 
     private static ConnectionSource connectionSource = null;
 
-    // TODO: Use a better fix in the future.
-    @SuppressWarnings("unused")
-    private static DatabaseConnection keepAliveConnection = null;
+    private static DatabaseConnection pinnedConnection = null;
 
     @Override
     public AgentDao getAgentDao() {
@@ -69,7 +77,7 @@ public class DataSourceProvider implements IDataSourceProvider {
     }
 
     @Override
-    public DevicePoolDao getDevicePoolDao() {
+    public IDevicePoolDao getDevicePoolDao() {
         return devicePoolDao;
     }
 
@@ -96,8 +104,7 @@ public class DataSourceProvider implements IDataSourceProvider {
         // initialized correctly because the events were not send as expected. See #231
         try {
             // if (connectionSource == null) {
-            connectionSource = new JdbcConnectionSource(Property.DATABASE_URL);
-            keepAliveConnection = connectionSource.getReadOnlyConnection();
+            connectionSource = createConnectionSource();
             // }
 
             // if (wrappedAgentDao == null) {
@@ -115,7 +122,7 @@ public class DataSourceProvider implements IDataSourceProvider {
             // }
 
             // if (devicePoolDao == null) {
-            devicePoolDao = new DevicePoolDao(wrappedDeviceDao, wrappedAgentDao);
+            devicePoolDao = createDevicePoolDao(new DevicePoolDao(wrappedDeviceDao, wrappedAgentDao));
 
             publishDataSourceCreatedEvent(new DevicePoolDaoCreatedEvent());
             // }
@@ -124,6 +131,89 @@ public class DataSourceProvider implements IDataSourceProvider {
         }
     }
 
+    /**
+     * Creates a pool of connections to the data source, sized as configured in the server config file. The data source
+     * is stored in a file, if a database file is configured. Otherwise the in-memory database would be dropped once
+     * its last connection is closed, so one connection to it is pinned for the lifetime of the server and the pooled
+     * connections are not closed because of their age.
+     *
+     * @return the pooled {@link ConnectionSource connection source}
+     * @throws SQLException
+     *         if opening a connection to the data source fails
+     */
+    private ConnectionSource createConnectionSource() throws SQLException {
+        String databaseUrl = ServerPropertiesLoader.getDatabaseUrl();
+        JdbcPooledConnectionSource pooledConnectionSource = new JdbcPooledConnectionSource(databaseUrl);
+        pooledConnectionSource.setMaxConnectionsFree(ServerPropertiesLoader.getDatabasePoolSize());
+
+        if (ServerPropertiesLoader.isDatabasePersistent()) {
+            pooledConnectionSource.setMaxConnectionAgeMillis(ServerPropertiesLoader.getDatabaseConnectionMaxAge());
+            // the first connection is opened in advance and kept in the pool
+            pooledConnectionSource.releaseConnection(pooledConnectionSource.getReadWriteConnection());
+        } else {
+            // never released, so neither the pool size nor the connection age can close the in-memory database
+            DatabaseConnection previousPinnedConnection = pinnedConnection;
+            pinnedConnection = pooledConnectionSource.getReadWriteConnection();
+
+            // the database is pinned by the new connection, before the one of a recreated data source is closed
+            if (previousPinnedConnection != null) {
+                closePinnedConnection(previousPinnedConnection);
+            }
+        }
+
+        return pooledConnectionSource;
+    }
+
+    private void closePinnedConnection(DatabaseConnection connection) {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            LOGGER.warn("Closing the pinned connection to the data source failed.", e);
+        }
+    }
+
+    private IDevicePoolDao createDevicePoolDao(DevicePoolDao dataSourceDevicePoolDao) {
+        DevicePoolStorage devicePoolStorage = ServerPropertiesLoader.getDevicePoolStorage();
+
+        switch (devicePoolStorage) {
+            case DATABASE:
+                return dataSourceDevicePoolDao;
+            case MEMORY:
+            default:
+                boolean isPersistent = ServerPropertiesLoader.isDatabasePersistent();
+                DevicePoolMirror mirror = null;
+
+                // the persistent data source is kept up to date through the mirror, so it is always mirrored
+                if (isPersistent || ServerPropertiesLoader.isDevicePoolMirrorEnabled()) {
+                    mirror = new DevicePoolMirror(dataSourceDevicePoolDao);
+                }
+
+                InMemoryDevicePoolDao inMemoryDevicePoolDao = new InMemoryDevicePoolDao(wrappedAgentDao, mirror);
+
+                if (isPersistent) {
+                    restoreDevicePool(inMemoryDevicePoolDao, dataSourceDevicePoolDao);
+                }
+
+                return inMemoryDevicePoolDao;
+        }
+    }
+
+    private void restoreDevicePool(InMemoryDevicePoolDao inMemoryDevicePoolDao, DevicePoolDao dataSourceDevicePoolDao) {
+        DeviceSelector allDevicesSelector = new DeviceSelectorBuilder().build();
+
+        try {
+            List<IDevice> storedDevices = new ArrayList<>();
+            storedDevices.addAll(dataSourceDevicePoolDao.getDevices(allDevicesSelector, false));
+            storedDevices.addAll(dataSourceDevicePoolDao.getDevices(allDevicesSelector, true));
+
+            inMemoryDevicePoolDao.restoreDevices(storedDevices);
+
+            LOGGER.info(String.format("%d devices restored in the device pool.", storedDevices.size()));
+        } catch (DevicePoolDaoException e) {
+            LOGGER.error("Restoring the device pool from the data source failed.", e);
+        }
+    }
+
     private void publishDataSourceCreatedEvent(DataSourceCreatedEvent dataSourceCreatedEvent) {
         eventService.publish(dataSourceCreatedEvent);
     }
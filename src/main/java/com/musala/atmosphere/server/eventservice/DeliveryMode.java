@@ -0,0 +1,36 @@
+// This file is part of the ATMOSPHERE mobile testing framework.
+// Copyright (C) 2016 MusalaSoft
+//
+// ATMOSPHERE is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// ATMOSPHERE is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with ATMOSPHERE.  If not, see <http://www.gnu.org/licenses/>.
+package com.musala.atmosphere.server.eventservice;
+
+import com.musala.atmosphere.server.eventservice.event.PartitionedEvent;
+
+/**
+ * Defines how the events are delivered to a subscriber.
+ *
+ * @author filareta.yordanova
+ *
+ */
+public enum DeliveryMode {
+    /**
+     * The subscriber is informed on the thread that publishes the event, before the publishing completes.
+     */
+    SYNCHRONOUS,
+    /**
+     * The subscriber is informed on a thread of the event service, after the publishing completes. The events of the
+     * same {@link PartitionedEvent partition} are delivered in the order they are published.
+     */
+    ASYNCHRONOUS;
+}
@@ -0,0 +1,153 @@
+// This file is part of the ATMOSPHERE mobile testing framework.
+// Copyright (C) 2016 MusalaSoft
+//
+// ATMOSPHERE is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// ATMOSPHERE is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with ATMOSPHERE.  If not, see <http://www.gnu.org/licenses/>.
+package com.musala.atmosphere.server.eventservice;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Executes tasks on a bounded number of threads, keeping the order of the tasks submitted with the same partition key.
+ * Every partition with pending tasks has its own queue, which is drained by at most one thread at a time, so the
+ * partitions are processed in parallel without waiting for each other. A partition yields its thread after a batch of
+ * tasks, so a busy partition can not starve the others.
+ *
+ * @author filareta.yordanova
+ *
+ */
+class PartitionedEventExecutor {
+    private static final Logger LOGGER = Logger.getLogger(PartitionedEventExecutor.class.getCanonicalName());
+
+    private static final String THREAD_NAME_FORMAT = "event-delivery-%d";
+
+    private static final int BATCH_SIZE = 16;
+
+    private final ConcurrentMap<String, PartitionQueue> partitionKeyToQueue = new ConcurrentHashMap<>();
+
+    private final ExecutorService executor;
+
+    /**
+     * Creates an executor, which runs the tasks on the given number of threads.
+     *
+     * @param threadCount
+     *        - the maximum number of partitions processed in parallel
+     */
+    PartitionedEventExecutor(int threadCount) {
+        final AtomicInteger threadIndex = new AtomicInteger();
+
+        executor = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread deliveryThread = new Thread(runnable,
+                                                   String.format(THREAD_NAME_FORMAT, threadIndex.incrementAndGet()));
+                deliveryThread.setDaemon(true);
+
+                return deliveryThread;
+            }
+        });
+    }
+
+    /**
+     * Schedules a task, which is executed after all tasks submitted before with the same partition key.
+     *
+     * @param partitionKey
+     *        - the key of the partition of the task
+     * @param task
+     *        - the task to be executed
+     */
+    void execute(String partitionKey, Runnable task) {
+        while (true) {
+            PartitionQueue queue = partitionKeyToQueue.get(partitionKey);
+
+            if (queue == null) {
+                PartitionQueue newQueue = new PartitionQueue(partitionKey);
+                queue = partitionKeyToQueue.putIfAbsent(partitionKey, newQueue);
+
+                if (queue == null) {
+                    queue = newQueue;
+                }
+            }
+
+            // a queue is retired once it is drained, then the task goes to a new queue for the same partition
+            if (queue.offer(task)) {
+                return;
+            }
+        }
+    }
+
+    private class PartitionQueue implements Runnable {
+        private final String partitionKey;
+
+        private final Queue<Runnable> tasks = new ArrayDeque<>();
+
+        private boolean isScheduled;
+
+        private boolean isRetired;
+
+        PartitionQueue(String partitionKey) {
+            this.partitionKey = partitionKey;
+        }
+
+        synchronized boolean offer(Runnable task) {
+            if (isRetired) {
+                return false;
+            }
+
+            tasks.add(task);
+
+            if (!isScheduled) {
+                isScheduled = true;
+                executor.execute(this);
+            }
+
+            return true;
+        }
+
+        @Override
+        public void run() {
+            for (int executedTasks = 0; executedTasks < BATCH_SIZE; executedTasks++) {
+                Runnable task;
+
+                synchronized (this) {
+                    task = tasks.poll();
+
+                    if (task == null) {
+                        isRetired = true;
+                        partitionKeyToQueue.remove(partitionKey, this);
+                        return;
+                    }
+                }
+
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    String errorMessage = String.format("Delivering an event of partition %s failed.", partitionKey);
+                    LOGGER.error(errorMessage, e);
+                }
+            }
+
+            // the remaining tasks of the partition wait behind the other partitions
+            executor.execute(this);
+        }
+    }
+}
@@ -16,26 +16,20 @@
 
 package com.musala.atmosphere.server.eventservice;
 
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Set;
-
 import org.apache.log4j.Logger;
 
-import com.musala.atmosphere.commons.util.Pair;
+import com.musala.atmosphere.server.eventservice.SubscriptionTable.Registration;
 import com.musala.atmosphere.server.eventservice.event.Event;
-import com.musala.atmosphere.server.eventservice.exception.SubscriberMethodInvocationException;
+import com.musala.atmosphere.server.eventservice.event.PartitionedEvent;
 import com.musala.atmosphere.server.eventservice.filter.Filter;
 import com.musala.atmosphere.server.eventservice.subscriber.Subscriber;
+import com.musala.atmosphere.server.util.ServerPropertiesLoader;
 
 /**
  * Class, which brokers events between subscriber and publisher. The service manages events, received and published on
- * the server.
+ * the server. Events are published without locking and only the subscriptions matching the class of the event are
+ * visited. Subscribers can opt in to {@link DeliveryMode#ASYNCHRONOUS asynchronous delivery}, so the publisher does
+ * not wait for them.
  *
  * @author filareta.yordanova
  *
@@ -43,37 +37,49 @@ import com.musala.atmosphere.server.eventservice.subscriber.Subscriber;
 public class ServerEventService {
     private static Logger LOGGER = Logger.getLogger(ServerEventService.class);
 
-    private static final String RECEIVER_METHOD_NAME = "inform";
-
-    private static Set<Subscription> subscriptions = Collections.synchronizedSet(new HashSet<Subscription>());
+    private static final Object SUBSCRIPTIONS_LOCK = new Object();
 
-    private static Map<Entry<Class<?>, Class<?>>, Method> subscibersMethodsCache = Collections.synchronizedMap(new HashMap<Entry<Class<?>, Class<?>>, Method>());
+    /**
+     * Replaced on every change of the subscriptions, which are guarded by {@link #SUBSCRIPTIONS_LOCK}.
+     */
+    private static volatile SubscriptionTable subscriptions = SubscriptionTable.EMPTY;
 
     private static Class<?> eventClass = Event.class;
 
+    /**
+     * The partition of the events delivered asynchronously, which are not {@link PartitionedEvent partitioned}.
+     */
+    private static final String DEFAULT_PARTITION_KEY = "";
+
+    private static class DeliveryExecutorLoader {
+        private static final PartitionedEventExecutor INSTANCE =
+                new PartitionedEventExecutor(ServerPropertiesLoader.getEventDeliveryThreads());
+    }
+
     /**
      * Publishes an event to the server event service, that is managed and sent to the subscribers.
      *
      * @param event
      *        - event to be published
      */
-    public synchronized void publish(Event event) {
-        String publishMessage = String.format("Publishing event %s in thread %s.",
-                                              event.getClass().getSimpleName(),
-                                              Thread.currentThread().getName());
-        LOGGER.debug(publishMessage);
-
-        for (Subscription subscription : subscriptions) {
-            Filter subscriptionFilter = subscription.getFilter();
-            Class<?> subscriptionEventType = subscription.getEventType();
-
-            Class<?> publishedEventClass = event.getClass();
-            boolean isEventCompatible = subscriptionEventType.isAssignableFrom(publishedEventClass);
-            boolean isFilterApplicabale = subscriptionFilter == null || subscriptionFilter.apply(event);
-
-            if (isEventCompatible && isFilterApplicabale) {
-                Subscriber subscriber = subscription.getSubscriber();
-                invokeSubscriberMethod(subscriber, event);
+    public void publish(final Event event) {
+        if (LOGGER.isDebugEnabled()) {
+            String publishMessage = String.format("Publishing event %s in thread %s.",
+                                                  event.getClass().getSimpleName(),
+                                                  Thread.currentThread().getName());
+            LOGGER.debug(publishMessage);
+        }
+
+        for (final Registration registration : subscriptions.getRegistrations(event.getClass())) {
+            if (registration.getDeliveryMode() == DeliveryMode.ASYNCHRONOUS) {
+                DeliveryExecutorLoader.INSTANCE.execute(getPartitionKey(event), new Runnable() {
+                    @Override
+                    public void run() {
+                        registration.inform(event);
+                    }
+                });
+            } else {
+                registration.inform(event);
             }
         }
     }
@@ -90,6 +96,23 @@ public class ServerEventService {
      *        - object, subscribed for the given eventType and filter
      */
     public void subscribe(Class<?> eventType, Filter filter, Subscriber subscriber) {
+        subscribe(eventType, filter, subscriber, DeliveryMode.SYNCHRONOUS);
+    }
+
+    /**
+     * Adds a subscription on the event service for the requested subscriber for events from the given type and matching
+     * the filter, which are delivered to the subscriber in the given way.
+     *
+     * @param eventType
+     *        - type of the published event
+     * @param filter
+     *        - matching criteria for the corresponding eventType
+     * @param subscriber
+     *        - object, subscribed for the given eventType and filter
+     * @param deliveryMode
+     *        - whether the subscriber is informed on the publishing thread or asynchronously
+     */
+    public void subscribe(Class<?> eventType, Filter filter, Subscriber subscriber, DeliveryMode deliveryMode) {
         if (!eventClass.isAssignableFrom(eventType)) {
             return;
         }
@@ -100,9 +123,11 @@ public class ServerEventService {
         LOGGER.debug(subscribeMessage);
 
         Subscription subscription = new Subscription(eventType, filter, subscriber);
-        synchronized (subscriptions) {
+        synchronized (SUBSCRIPTIONS_LOCK) {
             if (!subscriptions.contains(subscription)) {
-                subscriptions.add(subscription);
+                // the receiver methods are resolved once here, instead of on every published event
+                SubscriberInvoker invoker = SubscriberInvoker.compile(subscriber, eventType);
+                subscriptions = subscriptions.with(new Registration(subscription, invoker, deliveryMode));
             }
         }
     }
@@ -141,30 +166,20 @@ public class ServerEventService {
                                                   eventType.getSimpleName());
         LOGGER.debug(unsubscribeMessage);
         Subscription subscription = new Subscription(eventType, filter, subscriber);
-        subscriptions.remove(subscription);
+        synchronized (SUBSCRIPTIONS_LOCK) {
+            subscriptions = subscriptions.without(subscription);
+        }
     }
 
-    // TODO: Implement logic for clear cache.
-    private void invokeSubscriberMethod(Subscriber subscriber, Event event) {
-        Class<?> eventClass = event.getClass();
-        Class<?> subscriberClass = subscriber.getClass();
+    private static String getPartitionKey(Event event) {
+        if (event instanceof PartitionedEvent) {
+            String partitionKey = ((PartitionedEvent) event).getPartitionKey();
 
-        try {
-            Entry<Class<?>, Class<?>> methodIdentifiers = new Pair<Class<?>, Class<?>>(subscriberClass, eventClass);
-            Method method = subscibersMethodsCache.get(methodIdentifiers);
-
-            if (method == null) {
-                method = subscriberClass.getDeclaredMethod(RECEIVER_METHOD_NAME, eventClass);
-                subscibersMethodsCache.put(methodIdentifiers, method);
+            if (partitionKey != null) {
+                return partitionKey;
             }
-
-            method.invoke(subscriber, event);
-        } catch (NoSuchMethodException | SecurityException | IllegalAccessException | IllegalArgumentException
-                | InvocationTargetException e) {
-            String errorMessage = String.format("Failed to invoke %s method with %s.",
-                                                RECEIVER_METHOD_NAME,
-                                                event.getClass().getSimpleName());
-            throw new SubscriberMethodInvocationException(errorMessage, e);
         }
+
+        return DEFAULT_PARTITION_KEY;
     }
 }
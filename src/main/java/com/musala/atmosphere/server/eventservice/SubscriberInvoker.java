@@ -0,0 +1,119 @@
+// This file is part of the ATMOSPHERE mobile testing framework.
+// Copyright (C) 2016 MusalaSoft
+//
+// ATMOSPHERE is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// ATMOSPHERE is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with ATMOSPHERE.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.musala.atmosphere.server.eventservice;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.musala.atmosphere.server.eventservice.event.Event;
+import com.musala.atmosphere.server.eventservice.exception.SubscriberMethodInvocationException;
+import com.musala.atmosphere.server.eventservice.subscriber.Subscriber;
+
+/**
+ * Invokes the receiver methods of a subscriber. The receiver methods are resolved once, when the subscription is
+ * created, to method handles with a common type, so informing the subscriber neither looks up nor reflectively invokes
+ * a method.
+ *
+ * @author filareta.yordanova
+ *
+ */
+class SubscriberInvoker {
+    static final String RECEIVER_METHOD_NAME = "inform";
+
+    private static final MethodType RECEIVER_TYPE = MethodType.methodType(void.class, Subscriber.class, Event.class);
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private final Subscriber subscriber;
+
+    private final Map<Class<?>, MethodHandle> eventClassToReceiver;
+
+    private SubscriberInvoker(Subscriber subscriber, Map<Class<?>, MethodHandle> eventClassToReceiver) {
+        this.subscriber = subscriber;
+        this.eventClassToReceiver = eventClassToReceiver;
+    }
+
+    /**
+     * Resolves the receiver methods of the given subscriber for all events of the given type. A receiver method is
+     * declared by the class of the subscriber and accepts a single argument of the exact class of the event.
+     *
+     * @param subscriber
+     *        - the subscriber whose receiver methods are resolved
+     * @param eventType
+     *        - the type of the events the subscriber is subscribed for
+     * @return invoker of the receiver methods of the subscriber
+     */
+    static SubscriberInvoker compile(Subscriber subscriber, Class<?> eventType) {
+        Map<Class<?>, MethodHandle> eventClassToReceiver = new HashMap<>();
+
+        for (Method method : subscriber.getClass().getDeclaredMethods()) {
+            Class<?>[] parameterTypes = method.getParameterTypes();
+
+            if (!RECEIVER_METHOD_NAME.equals(method.getName()) || method.isBridge() || parameterTypes.length != 1
+                    || !eventType.isAssignableFrom(parameterTypes[0])) {
+                continue;
+            }
+
+            try {
+                method.setAccessible(true);
+                MethodHandle receiver = LOOKUP.unreflect(method).asType(RECEIVER_TYPE);
+                eventClassToReceiver.put(parameterTypes[0], receiver);
+            } catch (IllegalAccessException | SecurityException e) {
+                String errorMessage = String.format("Failed to access %s method of %s.",
+                                                    RECEIVER_METHOD_NAME,
+                                                    subscriber.getClass().getSimpleName());
+                throw new SubscriberMethodInvocationException(errorMessage, e);
+            }
+        }
+
+        return new SubscriberInvoker(subscriber, eventClassToReceiver);
+    }
+
+    /**
+     * Informs the subscriber for the given event.
+     *
+     * @param event
+     *        - the published event
+     * @throws SubscriberMethodInvocationException
+     *         if the subscriber has no receiver method for the event or the receiver method fails
+     */
+    void invoke(Event event) {
+        MethodHandle receiver = eventClassToReceiver.get(event.getClass());
+
+        if (receiver == null) {
+            String errorMessage = String.format("Failed to invoke %s method with %s.",
+                                                RECEIVER_METHOD_NAME,
+                                                event.getClass().getSimpleName());
+            throw new SubscriberMethodInvocationException(errorMessage);
+        }
+
+        try {
+            receiver.invokeExact(subscriber, event);
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable e) {
+            String errorMessage = String.format("Failed to invoke %s method with %s.",
+                                                RECEIVER_METHOD_NAME,
+                                                event.getClass().getSimpleName());
+            throw new SubscriberMethodInvocationException(errorMessage, e);
+        }
+    }
+}
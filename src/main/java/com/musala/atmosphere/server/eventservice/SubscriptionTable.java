@@ -0,0 +1,184 @@
+// This file is part of the ATMOSPHERE mobile testing framework.
+// Copyright (C) 2016 MusalaSoft
+//
+// ATMOSPHERE is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// ATMOSPHERE is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with ATMOSPHERE.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.musala.atmosphere.server.eventservice;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.musala.atmosphere.server.eventservice.event.Event;
+import com.musala.atmosphere.server.eventservice.filter.Filter;
+
+/**
+ * Immutable table of the subscriptions on the event service, indexed by the class of the published events. Every
+ * change of the subscriptions creates a new table, so the events can be published without locking. The subscriptions
+ * matching a class of events, including the ones for its supertypes, are computed once per table - in advance for the
+ * classes of the events published so far and on the first published event for any other class.
+ *
+ * @author filareta.yordanova
+ *
+ */
+class SubscriptionTable {
+    /**
+     * The table without any subscriptions.
+     */
+    static final SubscriptionTable EMPTY = new SubscriptionTable(new Registration[0], new ArrayList<Class<?>>());
+
+    private final Registration[] registrations;
+
+    private final ConcurrentMap<Class<?>, Registration[]> eventClassToRegistrations = new ConcurrentHashMap<>();
+
+    /**
+     * A subscription with the invoker of the receiver methods of its subscriber and the way events are delivered to it.
+     */
+    static class Registration {
+        private final Subscription subscription;
+
+        private final SubscriberInvoker invoker;
+
+        private final DeliveryMode deliveryMode;
+
+        Registration(Subscription subscription, SubscriberInvoker invoker, DeliveryMode deliveryMode) {
+            this.subscription = subscription;
+            this.invoker = invoker;
+            this.deliveryMode = deliveryMode;
+        }
+
+        Subscription getSubscription() {
+            return subscription;
+        }
+
+        DeliveryMode getDeliveryMode() {
+            return deliveryMode;
+        }
+
+        /**
+         * Informs the subscriber for the given event, if the event matches the filter of the subscription.
+         *
+         * @param event
+         *        - the published event
+         */
+        void inform(Event event) {
+            Filter filter = subscription.getFilter();
+
+            if (filter == null || filter.apply(event)) {
+                invoker.invoke(event);
+            }
+        }
+    }
+
+    private SubscriptionTable(Registration[] registrations, List<Class<?>> knownEventClasses) {
+        this.registrations = registrations;
+
+        for (Class<?> eventClass : knownEventClasses) {
+            eventClassToRegistrations.put(eventClass, findRegistrations(eventClass));
+        }
+    }
+
+    /**
+     * Gets the registrations of the subscriptions for events from the given class or any of its supertypes, in the
+     * order of subscribing.
+     *
+     * @param eventClass
+     *        - the class of the published event
+     * @return the matching registrations, which must not be modified
+     */
+    Registration[] getRegistrations(Class<?> eventClass) {
+        Registration[] matchingRegistrations = eventClassToRegistrations.get(eventClass);
+
+        if (matchingRegistrations == null) {
+            matchingRegistrations = findRegistrations(eventClass);
+            eventClassToRegistrations.putIfAbsent(eventClass, matchingRegistrations);
+        }
+
+        return matchingRegistrations;
+    }
+
+    /**
+     * Checks whether the table contains the given subscription.
+     *
+     * @param subscription
+     *        - the subscription to be checked
+     * @return <code>true</code> if the subscription is in the table, <code>false</code> otherwise
+     */
+    boolean contains(Subscription subscription) {
+        return indexOf(subscription) >= 0;
+    }
+
+    /**
+     * Creates a table with the subscriptions of this table and the given one.
+     *
+     * @param registration
+     *        - the registration of the added subscription
+     * @return the new table
+     */
+    SubscriptionTable with(Registration registration) {
+        Registration[] newRegistrations = new Registration[registrations.length + 1];
+        System.arraycopy(registrations, 0, newRegistrations, 0, registrations.length);
+        newRegistrations[registrations.length] = registration;
+
+        return new SubscriptionTable(newRegistrations, getKnownEventClasses());
+    }
+
+    /**
+     * Creates a table with the subscriptions of this table, without the given one.
+     *
+     * @param subscription
+     *        - the removed subscription
+     * @return the new table, or this table if it does not contain the subscription
+     */
+    SubscriptionTable without(Subscription subscription) {
+        int index = indexOf(subscription);
+
+        if (index < 0) {
+            return this;
+        }
+
+        Registration[] newRegistrations = new Registration[registrations.length - 1];
+        System.arraycopy(registrations, 0, newRegistrations, 0, index);
+        System.arraycopy(registrations, index + 1, newRegistrations, index, newRegistrations.length - index);
+
+        return new SubscriptionTable(newRegistrations, getKnownEventClasses());
+    }
+
+    private List<Class<?>> getKnownEventClasses() {
+        return new ArrayList<>(eventClassToRegistrations.keySet());
+    }
+
+    private int indexOf(Subscription subscription) {
+        for (int index = 0; index < registrations.length; index++) {
+            if (registrations[index].getSubscription().equals(subscription)) {
+                return index;
+            }
+        }
+
+        return -1;
+    }
+
+    private Registration[] findRegistrations(Class<?> eventClass) {
+        List<Registration> matchingRegistrations = new ArrayList<>();
+
+        for (Registration registration : registrations) {
+            if (registration.getSubscription().getEventType().isAssignableFrom(eventClass)) {
+                matchingRegistrations.add(registration);
+            }
+        }
+
+        return matchingRegistrations.toArray(new Registration[matchingRegistrations.size()]);
+    }
+}
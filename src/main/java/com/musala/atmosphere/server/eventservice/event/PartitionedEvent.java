@@ -0,0 +1,35 @@
+// This file is part of the ATMOSPHERE mobile testing framework.
+// Copyright (C) 2016 MusalaSoft
+//
+// ATMOSPHERE is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// ATMOSPHERE is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with ATMOSPHERE.  If not, see <http://www.gnu.org/licenses/>.
+package com.musala.atmosphere.server.eventservice.event;
+
+import com.musala.atmosphere.server.eventservice.DeliveryMode;
+
+/**
+ * An event, which belongs to a partition of related events. The events with the same partition key are delivered to
+ * the {@link DeliveryMode#ASYNCHRONOUS asynchronous} subscribers in the order they are published, while events from
+ * different partitions may be delivered in parallel.
+ *
+ * @author filareta.yordanova
+ *
+ */
+public interface PartitionedEvent extends Event {
+    /**
+     * Gets the key of the partition of this event.
+     *
+     * @return the partition key
+     */
+    String getPartitionKey();
+}
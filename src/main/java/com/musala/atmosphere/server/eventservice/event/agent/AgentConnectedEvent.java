@@ -16,13 +16,15 @@
 
 package com.musala.atmosphere.server.eventservice.event.agent;
 
+import com.musala.atmosphere.server.eventservice.event.PartitionedEvent;
+
 /**
  * This event is published when an agent is connected to inform all subscribers that requests can be sent to the agent.
  * 
  * @author filareta.yordanova
  * 
  */
-public class AgentConnectedEvent implements AgentEvent {
+public class AgentConnectedEvent implements AgentEvent, PartitionedEvent {
     private String agentId;
 
     /**
@@ -44,4 +46,8 @@ public class AgentConnectedEvent implements AgentEvent {
         return agentId;
     }
 
+    @Override
+    public String getPartitionKey() {
+        return agentId;
+    }
 }
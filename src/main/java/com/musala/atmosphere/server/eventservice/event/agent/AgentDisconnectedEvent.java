@@ -16,13 +16,15 @@
 
 package com.musala.atmosphere.server.eventservice.event.agent;
 
+import com.musala.atmosphere.server.eventservice.event.PartitionedEvent;
+
 /**
  * This event is published when an agent is disconnected to inform all subscribers that the agent is not available.
  * 
  * @author filareta.yordanova
  * 
  */
-public class AgentDisconnectedEvent implements AgentEvent {
+public class AgentDisconnectedEvent implements AgentEvent, PartitionedEvent {
     private String agentId;
 
     /**
@@ -44,4 +46,8 @@ public class AgentDisconnectedEvent implements AgentEvent {
         return agentId;
     }
 
+    @Override
+    public String getPartitionKey() {
+        return agentId;
+    }
 }
@@ -0,0 +1,47 @@
+// This file is part of the ATMOSPHERE mobile testing framework.
+// Copyright (C) 2016 MusalaSoft
+//
+// ATMOSPHERE is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// ATMOSPHERE is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with ATMOSPHERE.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.musala.atmosphere.server.eventservice.event.device.allocate;
+
+/**
+ * This event is published when the lease of an allocated device expires, before the device is released, so the routes
+ * of the client which held the device are dropped before the device is allocated to another client.
+ *
+ * @author yavor.stankov
+ *
+ */
+public class DeviceLeaseExpiredEvent implements DeviceAllocateEvent {
+    private String deviceId;
+
+    /**
+     * Creates new event, which is holding the device with the expired lease.
+     *
+     * @param deviceId
+     *        - the identifier of the device, whose lease has expired
+     */
+    public DeviceLeaseExpiredEvent(String deviceId) {
+        this.deviceId = deviceId;
+    }
+
+    /**
+     * Gets the identifier of the device, whose lease has expired.
+     *
+     * @return the identifier of the device
+     */
+    public String getDeviceId() {
+        return deviceId;
+    }
+}
@@ -17,6 +17,7 @@
 package com.musala.atmosphere.server.eventservice.event.device.allocate;
 
 import com.musala.atmosphere.commons.DeviceInformation;
+import com.musala.atmosphere.server.eventservice.event.PartitionedEvent;
 
 /**
  * This event is published when a device is released.
@@ -24,14 +25,26 @@ import com.musala.atmosphere.commons.DeviceInformation;
  * @author yavor.stankov
  *
  */
-public class DeviceReleasedEvent implements DeviceAllocateEvent {
+public class DeviceReleasedEvent implements DeviceAllocateEvent, PartitionedEvent {
+    private String onAgentId;
+
     private DeviceInformation deviceInformation;
 
-    public DeviceReleasedEvent(DeviceInformation deviceInformation) {
+    public DeviceReleasedEvent(String onAgentId, DeviceInformation deviceInformation) {
+        this.onAgentId = onAgentId;
         this.deviceInformation = deviceInformation;
     }
 
+    public String getAgentId() {
+        return onAgentId;
+    }
+
     public DeviceInformation getDeviceInformation() {
         return deviceInformation;
     }
+
+    @Override
+    public String getPartitionKey() {
+        return onAgentId;
+    }
 }
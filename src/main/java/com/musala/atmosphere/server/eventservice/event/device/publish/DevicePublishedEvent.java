@@ -17,6 +17,7 @@
 package com.musala.atmosphere.server.eventservice.event.device.publish;
 
 import com.musala.atmosphere.commons.DeviceInformation;
+import com.musala.atmosphere.server.eventservice.event.PartitionedEvent;
 
 /**
  * This event is published when a device is published to the Server.
@@ -24,7 +25,7 @@ import com.musala.atmosphere.commons.DeviceInformation;
  * @author yavor.stankov
  *
  */
-public class DevicePublishedEvent implements DevicePublishEvent {
+public class DevicePublishedEvent implements DevicePublishEvent, PartitionedEvent {
 
     private String onAgentId;
 
@@ -60,4 +61,9 @@ public class DevicePublishedEvent implements DevicePublishEvent {
     public DeviceInformation getDeviceInformation() {
         return deviceInformation;
     }
+
+    @Override
+    public String getPartitionKey() {
+        return onAgentId;
+    }
 }
@@ -16,13 +16,15 @@
 
 package com.musala.atmosphere.server.eventservice.event.device.publish;
 
+import com.musala.atmosphere.server.eventservice.event.PartitionedEvent;
+
 /**
  * This event is published when a device is unpublished from the Server.
  *
  * @author yavor.stankov
  *
  */
-public class DeviceUnpublishedEvent implements DevicePublishEvent {
+public class DeviceUnpublishedEvent implements DevicePublishEvent, PartitionedEvent {
     private String onAgentId;
 
     private String deviceSerialNumber;
@@ -57,4 +59,9 @@ public class DeviceUnpublishedEvent implements DevicePublishEvent {
     public String getUnpublishedDeviceSerialNumber() {
         return deviceSerialNumber;
     }
+
+    @Override
+    public String getPartitionKey() {
+        return onAgentId;
+    }
 }
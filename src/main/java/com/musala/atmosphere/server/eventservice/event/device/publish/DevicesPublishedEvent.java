@@ -0,0 +1,72 @@
+// This file is part of the ATMOSPHERE mobile testing framework.
+// Copyright (C) 2016 MusalaSoft
+//
+// ATMOSPHERE is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// ATMOSPHERE is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with ATMOSPHERE.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.musala.atmosphere.server.eventservice.event.device.publish;
+
+import java.util.List;
+
+import com.musala.atmosphere.commons.DeviceInformation;
+import com.musala.atmosphere.server.eventservice.event.PartitionedEvent;
+
+/**
+ * This event is published once when all devices of an agent are published to the Server together, instead of a
+ * {@link DevicePublishedEvent} for every device.
+ *
+ * @author yavor.stankov
+ *
+ */
+public class DevicesPublishedEvent implements DevicePublishEvent, PartitionedEvent {
+
+    private String onAgentId;
+
+    private List<DeviceInformation> devicesInformation;
+
+    /**
+     * Creates new event, which is holding information about the published devices.
+     *
+     * @param onAgentId
+     *        - identifier of the agent on which the devices are registered
+     * @param devicesInformation
+     *        - {@link DeviceInformation information} about the published devices
+     */
+    public DevicesPublishedEvent(String onAgentId, List<DeviceInformation> devicesInformation) {
+        this.onAgentId = onAgentId;
+        this.devicesInformation = devicesInformation;
+    }
+
+    /**
+     * Gets the identifier of the agent on which the devices are registered.
+     *
+     * @return identifier of the agent
+     */
+    public String getAgentId() {
+        return onAgentId;
+    }
+
+    /**
+     * Gets {@link DeviceInformation information} about the published devices.
+     *
+     * @return a {@link List list} with the {@link DeviceInformation information} of every published device
+     */
+    public List<DeviceInformation> getDevicesInformation() {
+        return devicesInformation;
+    }
+
+    @Override
+    public String getPartitionKey() {
+        return onAgentId;
+    }
+}
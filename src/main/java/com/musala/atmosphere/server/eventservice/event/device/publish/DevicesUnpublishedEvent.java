@@ -0,0 +1,70 @@
+// This file is part of the ATMOSPHERE mobile testing framework.
+// Copyright (C) 2016 MusalaSoft
+//
+// ATMOSPHERE is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// ATMOSPHERE is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with ATMOSPHERE.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.musala.atmosphere.server.eventservice.event.device.publish;
+
+import java.util.List;
+
+import com.musala.atmosphere.server.eventservice.event.PartitionedEvent;
+
+/**
+ * This event is published once when all devices of an agent are unpublished from the Server together, e.g. when the
+ * agent disconnects, instead of a {@link DeviceUnpublishedEvent} for every device.
+ *
+ * @author yavor.stankov
+ *
+ */
+public class DevicesUnpublishedEvent implements DevicePublishEvent, PartitionedEvent {
+    private String onAgentId;
+
+    private List<String> deviceIds;
+
+    /**
+     * Creates new event, which is holding information about the unpublished devices.
+     *
+     * @param onAgentId
+     *        - identifier of the agent on which the devices were registered
+     * @param deviceIds
+     *        - the identifiers of the devices, that have been unpublished from the server
+     */
+    public DevicesUnpublishedEvent(String onAgentId, List<String> deviceIds) {
+        this.onAgentId = onAgentId;
+        this.deviceIds = deviceIds;
+    }
+
+    /**
+     * Gets the identifier of the agent on which the devices were registered.
+     *
+     * @return the identifier of the agent
+     */
+    public String getAgentId() {
+        return onAgentId;
+    }
+
+    /**
+     * Gets the identifiers of the unpublished devices.
+     *
+     * @return a {@link List list} with the identifier of every unpublished device
+     */
+    public List<String> getDeviceIds() {
+        return deviceIds;
+    }
+
+    @Override
+    public String getPartitionKey() {
+        return onAgentId;
+    }
+}
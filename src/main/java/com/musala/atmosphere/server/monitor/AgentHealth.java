@@ -0,0 +1,162 @@
+// This file is part of the ATMOSPHERE mobile testing framework.
+// Copyright (C) 2016 MusalaSoft
+//
+// ATMOSPHERE is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// ATMOSPHERE is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with ATMOSPHERE.  If not, see <http://www.gnu.org/licenses/>.
+package com.musala.atmosphere.server.monitor;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks the health of a connected agent. Every ping sent to the agent carries the time it was sent, so the pong
+ * echoing it gives the round-trip time, and every pong is a heartbeat for the failure detector of the agent.
+ *
+ * @author filareta.yordanova
+ *
+ */
+public class AgentHealth {
+    private static final int PING_PAYLOAD_SIZE = Long.SIZE / Byte.SIZE;
+
+    private final String agentId;
+
+    private final PhiAccrualFailureDetector failureDetector;
+
+    private final double suspectThreshold;
+
+    private final double deadThreshold;
+
+    private final RoundTripHistogram roundTripHistogram = new RoundTripHistogram();
+
+    private final AtomicLong sentPings = new AtomicLong();
+
+    private final AtomicLong receivedPongs = new AtomicLong();
+
+    private volatile AgentState state = AgentState.ALIVE;
+
+    private volatile double phi;
+
+    /**
+     * Creates the health tracker of an agent.
+     *
+     * @param agentId
+     *        - the identifier of the agent
+     * @param failureDetector
+     *        - the failure detector, which receives the heartbeats of the agent
+     * @param suspectThreshold
+     *        - the suspicion level from which the agent is {@link AgentState#SUSPECT suspected}
+     * @param deadThreshold
+     *        - the suspicion level from which the agent is considered {@link AgentState#DEAD dead}
+     */
+    public AgentHealth(String agentId,
+                       PhiAccrualFailureDetector failureDetector,
+                       double suspectThreshold,
+                       double deadThreshold) {
+        this.agentId = agentId;
+        this.failureDetector = failureDetector;
+        this.suspectThreshold = suspectThreshold;
+        this.deadThreshold = deadThreshold;
+    }
+
+    /**
+     * Creates the payload of a ping sent to the agent.
+     *
+     * @param now
+     *        - the current time in nanoseconds, as returned by {@link System#nanoTime()}
+     * @return the payload, which the agent echoes in its pong
+     */
+    public ByteBuffer createPingPayload(long now) {
+        sentPings.incrementAndGet();
+
+        ByteBuffer payload = ByteBuffer.allocate(PING_PAYLOAD_SIZE);
+        payload.putLong(now);
+        payload.flip();
+
+        return payload;
+    }
+
+    /**
+     * Records a pong received from the agent. Pongs, which do not echo a ping of the server, are still heartbeats, but
+     * do not give a round-trip time.
+     *
+     * @param payload
+     *        - the payload of the pong
+     * @param now
+     *        - the current time in nanoseconds, as returned by {@link System#nanoTime()}
+     */
+    public void onPong(ByteBuffer payload, long now) {
+        receivedPongs.incrementAndGet();
+        failureDetector.heartbeat(now);
+
+        if (payload != null && payload.remaining() == PING_PAYLOAD_SIZE) {
+            long roundTripTime = now - payload.getLong(payload.position());
+            roundTripHistogram.record(TimeUnit.NANOSECONDS.toMicros(roundTripTime));
+        }
+    }
+
+    /**
+     * Updates the state of the agent with its suspicion level at the given time. An agent considered
+     * {@link AgentState#DEAD dead} stays dead.
+     *
+     * @param now
+     *        - the current time in nanoseconds, as returned by {@link System#nanoTime()}
+     * @return the new state of the agent
+     */
+    public AgentState evaluate(long now) {
+        if (state == AgentState.DEAD) {
+            return state;
+        }
+
+        phi = failureDetector.phi(now);
+
+        if (phi >= deadThreshold) {
+            state = AgentState.DEAD;
+        } else if (phi >= suspectThreshold) {
+            state = AgentState.SUSPECT;
+        } else {
+            state = AgentState.ALIVE;
+        }
+
+        return state;
+    }
+
+    /**
+     * @return the identifier of the agent
+     */
+    public String getAgentId() {
+        return agentId;
+    }
+
+    /**
+     * @return the state of the agent from its last evaluation
+     */
+    public AgentState getState() {
+        return state;
+    }
+
+    /**
+     * @return a snapshot of the {@link AgentHealthMetrics health metrics} of the agent
+     */
+    public AgentHealthMetrics getMetrics() {
+        return new AgentHealthMetrics(agentId,
+                                      state,
+                                      phi,
+                                      sentPings.get(),
+                                      receivedPongs.get(),
+                                      roundTripHistogram.getMean(),
+                                      roundTripHistogram.getPercentile(0.5),
+                                      roundTripHistogram.getPercentile(0.99),
+                                      roundTripHistogram.getMax());
+    }
+}
@@ -0,0 +1,125 @@
+// This file is part of the ATMOSPHERE mobile testing framework.
+// Copyright (C) 2016 MusalaSoft
+//
+// ATMOSPHERE is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// ATMOSPHERE is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with ATMOSPHERE.  If not, see <http://www.gnu.org/licenses/>.
+package com.musala.atmosphere.server.monitor;
+
+/**
+ * A snapshot of the health metrics of a single connected agent. The round-trip times are in microseconds.
+ *
+ * @author filareta.yordanova
+ *
+ */
+public class AgentHealthMetrics {
+    private final String agentId;
+
+    private final AgentState state;
+
+    private final double phi;
+
+    private final long sentPings;
+
+    private final long receivedPongs;
+
+    private final double meanRoundTripTime;
+
+    private final long medianRoundTripTime;
+
+    private final long p99RoundTripTime;
+
+    private final long maxRoundTripTime;
+
+    AgentHealthMetrics(String agentId,
+                       AgentState state,
+                       double phi,
+                       long sentPings,
+                       long receivedPongs,
+                       double meanRoundTripTime,
+                       long medianRoundTripTime,
+                       long p99RoundTripTime,
+                       long maxRoundTripTime) {
+        this.agentId = agentId;
+        this.state = state;
+        this.phi = phi;
+        this.sentPings = sentPings;
+        this.receivedPongs = receivedPongs;
+        this.meanRoundTripTime = meanRoundTripTime;
+        this.medianRoundTripTime = medianRoundTripTime;
+        this.p99RoundTripTime = p99RoundTripTime;
+        this.maxRoundTripTime = maxRoundTripTime;
+    }
+
+    /**
+     * @return the identifier of the agent
+     */
+    public String getAgentId() {
+        return agentId;
+    }
+
+    /**
+     * @return the state of the agent from its last evaluation
+     */
+    public AgentState getState() {
+        return state;
+    }
+
+    /**
+     * @return the suspicion level of the agent from its last evaluation
+     */
+    public double getPhi() {
+        return phi;
+    }
+
+    /**
+     * @return the number of pings sent to the agent
+     */
+    public long getSentPings() {
+        return sentPings;
+    }
+
+    /**
+     * @return the number of pongs received from the agent
+     */
+    public long getReceivedPongs() {
+        return receivedPongs;
+    }
+
+    /**
+     * @return the average round-trip time
+     */
+    public double getMeanRoundTripTime() {
+        return meanRoundTripTime;
+    }
+
+    /**
+     * @return the round-trip time not exceeded by half of the pings
+     */
+    public long getMedianRoundTripTime() {
+        return medianRoundTripTime;
+    }
+
+    /**
+     * @return the round-trip time not exceeded by 99% of the pings
+     */
+    public long getP99RoundTripTime() {
+        return p99RoundTripTime;
+    }
+
+    /**
+     * @return the longest round-trip time
+     */
+    public long getMaxRoundTripTime() {
+        return maxRoundTripTime;
+    }
+}
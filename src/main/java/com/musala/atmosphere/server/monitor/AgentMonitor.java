@@ -16,19 +16,24 @@
 
 package com.musala.atmosphere.server.monitor;
 
-import java.util.Collections;
-import java.util.HashMap;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.log4j.Logger;
 
 import com.musala.atmosphere.server.eventservice.event.agent.AgentConnectedEvent;
 import com.musala.atmosphere.server.eventservice.event.agent.AgentDisconnectedEvent;
 import com.musala.atmosphere.server.eventservice.subscriber.Subscriber;
+import com.musala.atmosphere.server.monitor.HeartbeatScheduler.Heartbeat;
 import com.musala.atmosphere.server.monitor.ping.PingRequestHandler;
+import com.musala.atmosphere.server.util.ServerPropertiesLoader;
 
 /**
- * Common class responsible for monitoring agents. It listens for all agent related events.
+ * Common class responsible for monitoring agents. It listens for all agent related events, keeps the heartbeats of the
+ * connected agents on a shared {@link HeartbeatScheduler scheduler} and tracks their {@link AgentHealth health}.
  *
  * @author filareta.yordanova
  *
@@ -36,7 +41,78 @@ import com.musala.atmosphere.server.monitor.ping.PingRequestHandler;
 public class AgentMonitor implements Subscriber {
     private static final Logger LOGGER = Logger.getLogger(AgentMonitor.class);
 
-    private Map<String, PingRequestHandler> pingHandlers = Collections.synchronizedMap(new HashMap<String, PingRequestHandler>());
+    private static final int FAILURE_DETECTOR_WINDOW_SIZE = 100;
+
+    private final Map<String, AgentHeartbeat> agentHeartbeats = new ConcurrentHashMap<>();
+
+    private final HeartbeatScheduler heartbeatScheduler;
+
+    private final long heartbeatInterval;
+
+    private final long acceptablePause;
+
+    private final double suspectThreshold;
+
+    private final double deadThreshold;
+
+    private static class AgentHeartbeat {
+        private final PingRequestHandler pingRequestHandler;
+
+        private final Heartbeat heartbeat;
+
+        private final AgentHealth agentHealth;
+
+        private AgentHeartbeat(PingRequestHandler pingRequestHandler, Heartbeat heartbeat, AgentHealth agentHealth) {
+            this.pingRequestHandler = pingRequestHandler;
+            this.heartbeat = heartbeat;
+            this.agentHealth = agentHealth;
+        }
+
+        private void cancel() {
+            heartbeat.cancel();
+            pingRequestHandler.terminate();
+        }
+    }
+
+    /**
+     * Creates an agent monitor, which sends heartbeats to the agents and detects their failures as configured in the
+     * server config file.
+     */
+    public AgentMonitor() {
+        this(new HeartbeatScheduler(ServerPropertiesLoader.getAgentHeartbeatInterval(),
+                                    ServerPropertiesLoader.getAgentHeartbeatJitter(),
+                                    ServerPropertiesLoader.getAgentHeartbeatThreads()),
+             ServerPropertiesLoader.getAgentHeartbeatInterval(),
+             ServerPropertiesLoader.getAgentAcceptablePause(),
+             ServerPropertiesLoader.getAgentSuspectThreshold(),
+             ServerPropertiesLoader.getAgentDeadThreshold());
+    }
+
+    /**
+     * Creates an agent monitor, which sends heartbeats to the agents on the given scheduler.
+     *
+     * @param heartbeatScheduler
+     *        - the scheduler of the heartbeats
+     * @param heartbeatInterval
+     *        - the average time in milliseconds between two heartbeats of the scheduler
+     * @param acceptablePause
+     *        - the time in milliseconds a pong may be late without raising the suspicion in the agent much
+     * @param suspectThreshold
+     *        - the suspicion level from which an agent is {@link AgentState#SUSPECT suspected}
+     * @param deadThreshold
+     *        - the suspicion level from which an agent is considered {@link AgentState#DEAD dead}
+     */
+    public AgentMonitor(HeartbeatScheduler heartbeatScheduler,
+                        long heartbeatInterval,
+                        long acceptablePause,
+                        double suspectThreshold,
+                        double deadThreshold) {
+        this.heartbeatScheduler = heartbeatScheduler;
+        this.heartbeatInterval = heartbeatInterval;
+        this.acceptablePause = acceptablePause;
+        this.suspectThreshold = suspectThreshold;
+        this.deadThreshold = deadThreshold;
+    }
 
     /**
      * Informs agent monitor for {@link AgentConnectedEvent event} received when an agent connects.
@@ -45,11 +121,26 @@ public class AgentMonitor implements Subscriber {
      *        - event, which is received when an agent is connected.
      */
     public void inform(AgentConnectedEvent event) {
-        LOGGER.info("Start pinging...");
+        String agentId = event.getAgentId();
+        LOGGER.info(String.format("Start pinging agent %s...", agentId));
+
+        // the deviation of the pong intervals comes mostly from the heartbeat jitter, which may be very small
+        PhiAccrualFailureDetector failureDetector = new PhiAccrualFailureDetector(FAILURE_DETECTOR_WINDOW_SIZE,
+                                                                                  heartbeatInterval,
+                                                                                  acceptablePause,
+                                                                                  heartbeatInterval / 10 + 1,
+                                                                                  System.nanoTime());
+        AgentHealth agentHealth = new AgentHealth(agentId, failureDetector, suspectThreshold, deadThreshold);
 
-        PingRequestHandler pingRequestHandler = new PingRequestHandler(event.getAgentId());
-        pingHandlers.put(event.getAgentId(), pingRequestHandler);
-        pingRequestHandler.start();
+        PingRequestHandler pingRequestHandler = new PingRequestHandler(agentId, agentHealth);
+        Heartbeat heartbeat = heartbeatScheduler.schedule(pingRequestHandler);
+        AgentHeartbeat previousHeartbeat = agentHeartbeats.put(agentId, new AgentHeartbeat(pingRequestHandler,
+                                                                                           heartbeat,
+                                                                                           agentHealth));
+
+        if (previousHeartbeat != null) {
+            previousHeartbeat.cancel();
+        }
     }
 
     /**
@@ -60,26 +151,59 @@ public class AgentMonitor implements Subscriber {
      *
      */
     public void inform(AgentDisconnectedEvent event) {
-        PingRequestHandler agentPingHandler = pingHandlers.remove(event.getAgentId());
+        AgentHeartbeat agentHeartbeat = agentHeartbeats.remove(event.getAgentId());
+
+        if (agentHeartbeat != null) {
+            agentHeartbeat.cancel();
+        }
+    }
+
+    /**
+     * Records a pong received from an agent.
+     *
+     * @param agentId
+     *        - the identifier of the agent
+     * @param payload
+     *        - the payload of the pong
+     */
+    public void onPong(String agentId, ByteBuffer payload) {
+        long now = System.nanoTime();
+        AgentHeartbeat agentHeartbeat = agentHeartbeats.get(agentId);
+
+        if (agentHeartbeat != null) {
+            agentHeartbeat.agentHealth.onPong(payload, now);
+        }
+    }
 
-        if (agentPingHandler != null) {
-            agentPingHandler.terminate();
+    /**
+     * Gets the health metrics of all connected agents.
+     *
+     * @return a list with the {@link AgentHealthMetrics metrics} of every agent
+     */
+    public List<AgentHealthMetrics> getHealthMetrics() {
+        List<AgentHealthMetrics> metrics = new ArrayList<>();
+
+        for (AgentHeartbeat agentHeartbeat : agentHeartbeats.values()) {
+            metrics.add(agentHeartbeat.agentHealth.getMetrics());
         }
+
+        return metrics;
     }
 
     /**
-     * Terminates the ping request sending for all {@link PingRequestHandler ping request handlers}. The action is
-     * requested when the connection is closed from the server side.
+     * Stops sending heartbeats to all agents and the threads sending them. The action is requested when the
+     * connection is closed from the server side.
      *
      * @see com.musala.atmosphere.server.Server#stop()
      *
      */
     public void terminate() {
-        for (Map.Entry<String, PingRequestHandler> entry : pingHandlers.entrySet()) {
-            entry.getValue().terminate();
+        for (AgentHeartbeat agentHeartbeat : agentHeartbeats.values()) {
+            agentHeartbeat.cancel();
         }
 
-        pingHandlers = null;
+        agentHeartbeats.clear();
+        heartbeatScheduler.shutdown();
     }
 
 }
@@ -0,0 +1,37 @@
+// This file is part of the ATMOSPHERE mobile testing framework.
+// Copyright (C) 2016 MusalaSoft
+//
+// ATMOSPHERE is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// ATMOSPHERE is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with ATMOSPHERE.  If not, see <http://www.gnu.org/licenses/>.
+package com.musala.atmosphere.server.monitor;
+
+/**
+ * The health of a connected agent, as judged by its {@link PhiAccrualFailureDetector failure detector}.
+ *
+ * @author filareta.yordanova
+ *
+ */
+public enum AgentState {
+    /**
+     * The agent answers the heartbeats in time.
+     */
+    ALIVE,
+    /**
+     * The answers of the agent are late enough to suspect it has failed.
+     */
+    SUSPECT,
+    /**
+     * The agent is considered failed and is unregistered with all of its devices.
+     */
+    DEAD;
+}
@@ -0,0 +1,185 @@
+// This file is part of the ATMOSPHERE mobile testing framework.
+// Copyright (C) 2016 MusalaSoft
+//
+// ATMOSPHERE is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// ATMOSPHERE is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with ATMOSPHERE.  If not, see <http://www.gnu.org/licenses/>.
+package com.musala.atmosphere.server.monitor;
+
+import java.util.Random;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Runs the heartbeats of all agents on a few shared threads. Every heartbeat starts after a random part of the
+ * interval and each of its beats is shifted by a random jitter, so the beats of the agents connected at the same time
+ * do not fire together.
+ *
+ * @author filareta.yordanova
+ *
+ */
+public class HeartbeatScheduler {
+    private static final Logger LOGGER = Logger.getLogger(HeartbeatScheduler.class.getCanonicalName());
+
+    private static final String THREAD_NAME_FORMAT = "heartbeat-%d";
+
+    private final ScheduledThreadPoolExecutor executor;
+
+    private final long interval;
+
+    private final long jitter;
+
+    /**
+     * A scheduled heartbeat, which can be cancelled.
+     */
+    public interface Heartbeat {
+        /**
+         * Stops the heartbeat. A beat, which is already running, is completed.
+         */
+        void cancel();
+    }
+
+    /**
+     * Creates a scheduler of heartbeats with the given interval.
+     *
+     * @param interval
+     *        - the average time in milliseconds between two beats of a heartbeat
+     * @param jitter
+     *        - the maximum time in milliseconds a beat may be shifted with, in both directions
+     * @param threadCount
+     *        - the number of threads running the beats
+     */
+    public HeartbeatScheduler(long interval, long jitter, int threadCount) {
+        if (interval <= 0 || jitter < 0 || jitter >= interval) {
+            throw new IllegalArgumentException("The jitter must be shorter than the positive heartbeat interval.");
+        }
+
+        this.interval = interval;
+        this.jitter = jitter;
+
+        final AtomicInteger threadIndex = new AtomicInteger();
+        executor = new ScheduledThreadPoolExecutor(threadCount, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread heartbeatThread = new Thread(runnable,
+                                                    String.format(THREAD_NAME_FORMAT, threadIndex.incrementAndGet()));
+                heartbeatThread.setDaemon(true);
+
+                return heartbeatThread;
+            }
+        });
+        executor.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Starts running the given beat periodically.
+     *
+     * @param beat
+     *        - the action performed on every beat, which should not block for long
+     * @return the scheduled {@link Heartbeat heartbeat}
+     */
+    public Heartbeat schedule(Runnable beat) {
+        ScheduledHeartbeat heartbeat = new ScheduledHeartbeat(beat);
+        heartbeat.scheduleNext(getInitialDelay(ThreadLocalRandom.current()));
+
+        return heartbeat;
+    }
+
+    /**
+     * Stops all heartbeats and the threads running them.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Gets the delay before the first beat of a heartbeat, which is uniformly distributed in the interval.
+     *
+     * @param random
+     *        - the source of randomness
+     * @return the delay in milliseconds
+     */
+    long getInitialDelay(Random random) {
+        return (long) (random.nextDouble() * interval);
+    }
+
+    /**
+     * Gets the delay between two beats of a heartbeat, which is uniformly distributed around the interval.
+     *
+     * @param random
+     *        - the source of randomness
+     * @return the delay in milliseconds
+     */
+    long getNextDelay(Random random) {
+        if (jitter == 0) {
+            return interval;
+        }
+
+        return interval - jitter + (long) (random.nextDouble() * (2 * jitter + 1));
+    }
+
+    private class ScheduledHeartbeat implements Heartbeat, Runnable {
+        private final Runnable beat;
+
+        private volatile boolean isCancelled;
+
+        private volatile ScheduledFuture<?> nextBeat;
+
+        ScheduledHeartbeat(Runnable beat) {
+            this.beat = beat;
+        }
+
+        @Override
+        public void run() {
+            if (isCancelled) {
+                return;
+            }
+
+            try {
+                beat.run();
+            } catch (RuntimeException e) {
+                LOGGER.error("A heartbeat failed.", e);
+            }
+
+            scheduleNext(getNextDelay(ThreadLocalRandom.current()));
+        }
+
+        @Override
+        public void cancel() {
+            isCancelled = true;
+
+            ScheduledFuture<?> scheduledBeat = nextBeat;
+            if (scheduledBeat != null) {
+                scheduledBeat.cancel(false);
+            }
+        }
+
+        private void scheduleNext(long delay) {
+            if (isCancelled || executor.isShutdown()) {
+                return;
+            }
+
+            nextBeat = executor.schedule(this, delay, TimeUnit.MILLISECONDS);
+
+            // the heartbeat may be cancelled while the next beat is scheduled
+            if (isCancelled) {
+                nextBeat.cancel(false);
+            }
+        }
+    }
+}
@@ -0,0 +1,155 @@
+// This file is part of the ATMOSPHERE mobile testing framework.
+// Copyright (C) 2016 MusalaSoft
+//
+// ATMOSPHERE is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// ATMOSPHERE is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with ATMOSPHERE.  If not, see <http://www.gnu.org/licenses/>.
+package com.musala.atmosphere.server.monitor;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Failure detector that accrues the suspicion in a peer the longer its next heartbeat is overdue. The suspicion level
+ * phi is the negative decimal logarithm of the probability that a heartbeat arrives even later, assuming normally
+ * distributed intervals between the heartbeats with the mean and the standard deviation of the recent intervals. A phi
+ * of 1 means a 10% chance of a false suspicion, a phi of 3 - 0.1% and so on.
+ *
+ * @author filareta.yordanova
+ *
+ */
+public class PhiAccrualFailureDetector {
+    private final double[] intervals;
+
+    private final double acceptablePause;
+
+    private final double minStdDeviation;
+
+    private int intervalCount;
+
+    private int nextIntervalIndex;
+
+    private double intervalSum;
+
+    private double intervalSquaresSum;
+
+    private long lastHeartbeatTime;
+
+    /**
+     * Creates a failure detector, which considers the creation time as the first heartbeat.
+     *
+     * @param windowSize
+     *        - the number of the most recent intervals between heartbeats that are taken into account
+     * @param expectedInterval
+     *        - the interval in milliseconds between heartbeats assumed until enough heartbeats arrive
+     * @param acceptablePause
+     *        - the time in milliseconds a heartbeat may be late without raising the suspicion much
+     * @param minStdDeviation
+     *        - the minimum standard deviation in milliseconds, so regular heartbeats do not make the detector too
+     *        sensitive
+     * @param now
+     *        - the current time in nanoseconds, as returned by {@link System#nanoTime()}
+     */
+    public PhiAccrualFailureDetector(int windowSize,
+                                     long expectedInterval,
+                                     long acceptablePause,
+                                     long minStdDeviation,
+                                     long now) {
+        if (windowSize < 2 || expectedInterval <= 0 || acceptablePause < 0 || minStdDeviation <= 0) {
+            throw new IllegalArgumentException("Invalid failure detector parameters.");
+        }
+
+        this.intervals = new double[windowSize];
+        this.acceptablePause = acceptablePause;
+        this.minStdDeviation = minStdDeviation;
+        this.lastHeartbeatTime = now;
+
+        // the expected interval and its deviation are assumed until they are pushed out by the real intervals
+        double expectedDeviation = expectedInterval / 4.0;
+        addInterval(expectedInterval - expectedDeviation);
+        addInterval(expectedInterval + expectedDeviation);
+    }
+
+    /**
+     * Records a heartbeat from the peer.
+     *
+     * @param now
+     *        - the current time in nanoseconds, as returned by {@link System#nanoTime()}
+     */
+    public synchronized void heartbeat(long now) {
+        long interval = now - lastHeartbeatTime;
+
+        if (interval < 0) {
+            return;
+        }
+
+        addInterval(toMillis(interval));
+        lastHeartbeatTime = now;
+    }
+
+    /**
+     * Gets the suspicion level of the peer at the given time.
+     *
+     * @param now
+     *        - the current time in nanoseconds, as returned by {@link System#nanoTime()}
+     * @return the suspicion level, 0 if the next heartbeat is not overdue at all
+     */
+    public synchronized double phi(long now) {
+        double timeSinceHeartbeat = toMillis(Math.max(0, now - lastHeartbeatTime));
+
+        double mean = intervalSum / intervalCount;
+        double variance = Math.max(0, intervalSquaresSum / intervalCount - mean * mean);
+        double stdDeviation = Math.max(Math.sqrt(variance), minStdDeviation);
+
+        return phi(timeSinceHeartbeat, mean + acceptablePause, stdDeviation);
+    }
+
+    /**
+     * Computes the suspicion level with the logistic approximation of the cumulative normal distribution.
+     *
+     * @param timeSinceHeartbeat
+     *        - the time in milliseconds since the last heartbeat
+     * @param mean
+     *        - the mean interval between heartbeats in milliseconds
+     * @param stdDeviation
+     *        - the standard deviation of the intervals in milliseconds
+     * @return the suspicion level
+     */
+    static double phi(double timeSinceHeartbeat, double mean, double stdDeviation) {
+        double y = (timeSinceHeartbeat - mean) / stdDeviation;
+        double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+
+        if (timeSinceHeartbeat > mean) {
+            return -Math.log10(e / (1.0 + e));
+        }
+
+        return -Math.log10(1.0 - 1.0 / (1.0 + e));
+    }
+
+    private void addInterval(double interval) {
+        if (intervalCount == intervals.length) {
+            double oldestInterval = intervals[nextIntervalIndex];
+            intervalSum -= oldestInterval;
+            intervalSquaresSum -= oldestInterval * oldestInterval;
+        } else {
+            intervalCount++;
+        }
+
+        intervals[nextIntervalIndex] = interval;
+        nextIntervalIndex = (nextIntervalIndex + 1) % intervals.length;
+        intervalSum += interval;
+        intervalSquaresSum += interval * interval;
+    }
+
+    private static double toMillis(long nanos) {
+        return (double) nanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
@@ -18,26 +18,36 @@ package com.musala.atmosphere.server.monitor.ping;
 
 import java.io.IOException;
 
+import javax.websocket.CloseReason;
+import javax.websocket.CloseReason.CloseCodes;
+
 import org.apache.log4j.Logger;
 
 import com.musala.atmosphere.server.eventservice.ServerEventService;
 import com.musala.atmosphere.server.eventservice.event.agent.AgentDisconnectedEvent;
+import com.musala.atmosphere.server.monitor.AgentHealth;
+import com.musala.atmosphere.server.monitor.AgentState;
+import com.musala.atmosphere.server.monitor.HeartbeatScheduler;
 import com.musala.atmosphere.server.websocket.ServerDispatcher;
 
 /**
- * Class that periodically sends ping requests to an agent to determine whether an agent is still connected or must be
- * unregistered.
+ * Sends a ping request to an agent on every heartbeat to determine whether an agent is still connected or must be
+ * unregistered. Before every ping the {@link AgentHealth health} of the agent is evaluated, so an agent whose pongs
+ * stop arriving is unregistered and its connection is closed. The heartbeats of all agents are scheduled by a
+ * shared {@link HeartbeatScheduler scheduler}.
  *
  * @author filareta.yordanova
  *
  */
-public class PingRequestHandler extends Thread {
+public class PingRequestHandler implements Runnable {
     private static Logger LOGGER = Logger.getLogger(PingRequestHandler.class.getCanonicalName());
 
-    private static final long PING_INTERVAL = 5000;
+    private static final String DEAD_AGENT_CLOSE_REASON = "The agent stopped answering the heartbeats.";
 
     private String agentId;
 
+    private AgentHealth agentHealth;
+
     private ServerEventService eventService;
 
     private volatile boolean isRunning;
@@ -45,37 +55,56 @@ public class PingRequestHandler extends Thread {
     private ServerDispatcher dispatcher = ServerDispatcher.getInstance();
 
     /**
-     * Creates a new ping request handler for a specific agent in a separate thread.
+     * Creates a new ping request handler for a specific agent.
      *
      * @param agentId
      *        - the identifier of the agent
+     * @param agentHealth
+     *        - the health of the agent, which receives its pongs
      */
-    public PingRequestHandler(String agentId) {
+    public PingRequestHandler(String agentId, AgentHealth agentHealth) {
         eventService = new ServerEventService();
         isRunning = true;
         this.agentId = agentId;
+        this.agentHealth = agentHealth;
     }
 
     @Override
     public void run() {
-        while (isRunning) {
-            try {
-                dispatcher.sendPong(agentId);
-            } catch (IllegalStateException | IOException e) {
-                publishEventOnAgentDisconnected();
-            }
-
-            try {
-                Thread.sleep(PING_INTERVAL);
-            } catch (InterruptedException e) {
-                String message = String.format("Pinging agent with id %s was interrupted.", agentId);
-                LOGGER.warn(message);
-            }
+        // an agent registered without a session can neither be pinged nor answer, so its health is not evaluated
+        if (!isRunning || !dispatcher.hasAgentSession(agentId)) {
+            return;
+        }
+
+        AgentState previousState = agentHealth.getState();
+        AgentState state = agentHealth.evaluate(System.nanoTime());
+
+        if (state != previousState) {
+            String message = String.format("Agent with id %s changed its state from %s to %s.",
+                                           agentId,
+                                           previousState,
+                                           state);
+            LOGGER.warn(message);
+        }
+
+        if (state == AgentState.DEAD) {
+            // the agent may still hold its session open, although it stopped answering
+            dispatcher.closeAgentSession(agentId, new CloseReason(CloseCodes.TRY_AGAIN_LATER, DEAD_AGENT_CLOSE_REASON));
+            disconnect();
+            return;
+        }
+
+        try {
+            dispatcher.sendPing(agentId, agentHealth.createPingPayload(System.nanoTime()));
+        } catch (IllegalStateException | IOException e) {
+            String message = String.format("Pinging agent with id %s failed.", agentId);
+            LOGGER.warn(message, e);
+            disconnect();
         }
     }
 
     /**
-     * Terminates periodically sending ping requests to the agent.
+     * Terminates sending ping requests to the agent.
      */
     public synchronized void terminate() {
         isRunning = false;
@@ -83,6 +112,14 @@ public class PingRequestHandler extends Thread {
         LOGGER.debug(message);
     }
 
+    private void disconnect() {
+        // the agent is unregistered once, even if a later heartbeat runs before this one is cancelled
+        if (isRunning) {
+            terminate();
+            publishEventOnAgentDisconnected();
+        }
+    }
+
     private void publishEventOnAgentDisconnected() {
         AgentDisconnectedEvent agentDisconnectedEvent = new AgentDisconnectedEvent(agentId);
         eventService.publish(agentDisconnectedEvent);
@@ -16,19 +16,22 @@
 
 package com.musala.atmosphere.server.pool;
 
-import java.rmi.RemoteException;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map.Entry;
+import java.util.Collection;
 
 import org.apache.log4j.Logger;
 
 import com.musala.atmosphere.server.dao.exception.DevicePoolDaoException;
+import com.musala.atmosphere.server.eventservice.ServerEventService;
+import com.musala.atmosphere.server.eventservice.event.device.allocate.DeviceLeaseExpiredEvent;
 import com.musala.atmosphere.server.util.ServerPropertiesLoader;
+import com.musala.atmosphere.server.util.TimeoutWheel;
+import com.musala.atmosphere.server.util.TimeoutWheel.ExpirationListener;
 
 /**
- * Class that monitors the activity of all devices on the server. It tracks devices that are allocated to Client but are
- * not used, and releases them after some configurable time.
+ * Class that monitors the activity of all devices on the server. A device is allocated to a client for a lease, which
+ * the client renews explicitly or by sending requests to the device. When the lease is not renewed for its whole
+ * duration, e.g. because the client crashed, the device is released, its passkey is rotated and it is handed off to the
+ * waiting clients.
  *
  * @author vladimir.vladimirov
  *
@@ -36,22 +39,47 @@ import com.musala.atmosphere.server.util.ServerPropertiesLoader;
 public class ClientRequestMonitor {
     private static final Logger LOGGER = Logger.getLogger(ClientRequestMonitor.class.getCanonicalName());
 
-    private static final Long STARTING_TIMEOUT = 0L;
+    private static final String MONITOR_THREAD_NAME = "ClientRequestMonitor Thread";
 
-    private static HashMap<String, Long> deviceIdToTimeout = new HashMap<>();
+    private final TimeoutWheel<String> deviceTimeoutWheel;
 
-    private static Thread monitorThread;
+    private final long leaseDuration;
 
-    private static PoolManager poolManager = PoolManager.getInstance();
+    private final ServerEventService eventService = new ServerEventService();
 
-    static {
-        InnerRunnable innerThread = new InnerRunnable();
-        monitorThread = new Thread(innerThread, "ClientRequestMonitor Thread");
-        monitorThread.start();
+    private static class ClientRequestMonitorLoader {
+        private static final ClientRequestMonitor INSTANCE = new ClientRequestMonitor();
+    }
+
+    private ClientRequestMonitor() {
+        int deviceUpdateTime = ServerPropertiesLoader.getDeviceUpdateTime();
+        leaseDuration = ServerPropertiesLoader.getDeviceLeaseDuration();
+
+        // the lease is rounded up to whole ticks, so a device is never released before its lease ends
+        long leaseTicks = Math.max(1, (leaseDuration + deviceUpdateTime - 1) / deviceUpdateTime);
+
+        deviceTimeoutWheel = new TimeoutWheel<>(deviceUpdateTime,
+                                                leaseTicks,
+                                                new ExpirationListener<String>() {
+                                                    @Override
+                                                    public void onExpired(String deviceId) {
+                                                        releaseDevice(deviceId);
+                                                    }
+                                                });
+        deviceTimeoutWheel.start(MONITOR_THREAD_NAME);
 
         LOGGER.info("ClientRequestMonitor instance created successfully.");
     }
 
+    /**
+     * Gets the instance of the monitor, which is shared by the whole server.
+     *
+     * @return the {@link ClientRequestMonitor} instance
+     */
+    public static ClientRequestMonitor getInstance() {
+        return ClientRequestMonitorLoader.INSTANCE;
+    }
+
     /**
      * This method registers a device for monitoring when it is attached to an Agent.
      *
@@ -59,7 +87,7 @@ public class ClientRequestMonitor {
      *        - the device ID
      */
     void registerDevice(String deviceId) {
-        deviceIdToTimeout.put(deviceId, STARTING_TIMEOUT);
+        deviceTimeoutWheel.restart(deviceId);
 
         String message = String.format("ClientRequestMonitor registered new device with ID %s.", deviceId);
         LOGGER.info(message);
@@ -74,8 +102,7 @@ public class ClientRequestMonitor {
     public void unregisterDevice(String deviceId) {
         String message;
 
-        if (deviceIdToTimeout.containsKey(deviceId)) {
-            deviceIdToTimeout.remove(deviceId);
+        if (deviceTimeoutWheel.cancel(deviceId)) {
             message = String.format("ClientRequestMonitor unregistered device with ID %s", deviceId);
         } else {
             message = String.format("Trying to unregister device %s which was not registered for monitoring.",
@@ -86,100 +113,102 @@ public class ClientRequestMonitor {
     }
 
     /**
-     * Restarts timeout value for given device.
+     * Removes the given devices from the {@link ClientRequestMonitor ClientRequestMonitor} at once, e.g. when their
+     * agent disconnects.
+     *
+     * @param deviceIds
+     *        - the IDs of the devices
+     */
+    public void unregisterDevices(Collection<String> deviceIds) {
+        int unregisteredCount = 0;
+
+        for (String deviceId : deviceIds) {
+            if (deviceTimeoutWheel.cancel(deviceId)) {
+                unregisteredCount++;
+            }
+        }
+
+        String message = String.format("ClientRequestMonitor unregistered %d of %d devices.",
+                                       unregisteredCount,
+                                       deviceIds.size());
+        LOGGER.info(message);
+    }
+
+    /**
+     * Restarts timeout value for given device. Restarting the timeout of a monitored device is a constant time
+     * operation, which is safe to be called concurrently from the threads that handle the device requests.
      *
      * @param deviceId
      *        - the device ID
      */
     public void restartTimerForDevice(String deviceId) {
-        deviceIdToTimeout.put(deviceId, STARTING_TIMEOUT);
+        deviceTimeoutWheel.restart(deviceId);
     }
 
     /**
-     * Stops the ClientRequestMonitor. This method is invoked when the Server is stopped.
+     * Renews the lease of an allocated device, so it is kept for the whole lease duration from now. Renewing a lease is
+     * a constant time operation, which is safe to be called concurrently.
+     *
+     * @param deviceId
+     *        - the device ID
+     * @return <code>true</code> if the lease was renewed, <code>false</code> if the device has no active lease, e.g.
+     *         because its lease has already expired
      */
-    public void stop() {
-        try {
-            InnerRunnable.setTerminateFlag(true);
-            monitorThread.join();
-            LOGGER.info("ClientRequestMonitor stopped successfully.");
-        } catch (InterruptedException e) {
-            LOGGER.error("Monitoring could not be stopped.", e);
+    public boolean renewLease(String deviceId) {
+        if (!deviceTimeoutWheel.isScheduled(deviceId)) {
+            return false;
         }
+
+        deviceTimeoutWheel.restart(deviceId);
+
+        return true;
     }
 
     /**
-     * Inner runnable class for the ClientRequestMonitor. It holds all the necessary logic for regularly updating the
-     * timeout values of all registered devices.
-     *
-     * @author vladimir.vladimirov
+     * Ends the lease of a device, which was released by its client, so the device is not released again when the lease
+     * would expire.
      *
+     * @param deviceId
+     *        - the device ID
      */
-    private static class InnerRunnable implements Runnable {
-        private final int DEVICE_REQUEST_TIMEOUT = ServerPropertiesLoader.getDeviceRequestTimeout();
-
-        private final int DEVICE_UPDATE_SLEEP = ServerPropertiesLoader.getDeviceUpdateTime();
+    public void endLease(String deviceId) {
+        deviceTimeoutWheel.cancel(deviceId);
+    }
 
-        private static final long TIMEOUT_STEP = 1L;
+    /**
+     * Gets the time a device stays allocated to a client, which does not renew its lease.
+     *
+     * @return the lease duration in milliseconds
+     */
+    public long getLeaseDuration() {
+        return leaseDuration;
+    }
 
-        private static boolean terminateFlag = false;
+    /**
+     * Stops the ClientRequestMonitor. This method is invoked when the Server is stopped.
+     */
+    public void stop() {
+        deviceTimeoutWheel.stop();
+        LOGGER.info("ClientRequestMonitor stopped successfully.");
+    }
 
-        @Override
-        public void run() {
-            while (!terminateFlag) {
-                try {
-                    Thread.sleep(DEVICE_UPDATE_SLEEP);
-                    updateTimeoutValues();
-                } catch (InterruptedException | RemoteException e) {
-                    LOGGER.error("Monitor thread was interrupted.", e);
-                    throw new RuntimeException("ClientRequestMonitor thread was interrupted.");
-                }
-            }
-        }
+    private void releaseDevice(String deviceId) {
+        String message = String.format("Device with ID %s released due to an expired lease.", deviceId);
+        LOGGER.info(message);
 
-        /**
-         * Sets the termination flag on this runnable.
-         *
-         * @param terminate
-         *        - true if this runnable should exit, false otherwise.
-         */
-        public static void setTerminateFlag(boolean terminate) {
-            terminateFlag = terminate;
-        }
+        // the expired lease is published before the release, so the client routes of the device are dropped before the
+        // device can be allocated to another client
+        eventService.publish(new DeviceLeaseExpiredEvent(deviceId));
 
-        /**
-         * Checks out all devices for timeouts and updates the map with timeout values. If some device is timed out,
-         * it's been released.
-         *
-         * @throws RemoteException
-         *         - thrown when an error during the execution of a remote method call.
-         */
-        private void updateTimeoutValues() throws RemoteException {
-            Iterator<Entry<String, Long>> iterator = deviceIdToTimeout.entrySet().iterator();
-
-            while (iterator.hasNext()) {
-                Entry<String, Long> entry = iterator.next();
-                String deviceId = entry.getKey();
-                long timeout = entry.getValue();
-
-                if (timeout >= DEVICE_REQUEST_TIMEOUT) {
-                    String message = String.format("Device with ID %s released due to invocation timeout.",
-                                                   deviceId);
-                    LOGGER.info(message);
-
-                    try {
-                        poolManager.releaseDevice(deviceId);
-                        iterator.remove();
-                    } catch (DevicePoolDaoException e) {
-                        String errorMessage = String.format("Releasing device due to invocation timeout with ID %s failed.",
-                                                            deviceId);
-                        LOGGER.error(errorMessage);
-                    }
-                } else {
-                    long newTimeout = entry.getValue() + TIMEOUT_STEP;
-                    entry.setValue(newTimeout);
-                }
-            }
+        try {
+            PoolManager.getInstance().releaseDevice(deviceId);
+        } catch (DevicePoolDaoException e) {
+            String errorMessage = String.format("Releasing device due to invocation timeout with ID %s failed.",
+                                                deviceId);
+            LOGGER.error(errorMessage, e);
+
+            // the release is retried after another timeout, as the device would otherwise stay allocated forever
+            deviceTimeoutWheel.restart(deviceId);
         }
     }
 }
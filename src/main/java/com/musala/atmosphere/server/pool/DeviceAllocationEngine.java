@@ -0,0 +1,100 @@
+// This file is part of the ATMOSPHERE mobile testing framework.
+// Copyright (C) 2016 MusalaSoft
+//
+// ATMOSPHERE is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// ATMOSPHERE is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with ATMOSPHERE.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.musala.atmosphere.server.pool;
+
+import java.util.List;
+
+import com.musala.atmosphere.commons.cs.deviceselection.DeviceSelector;
+import com.musala.atmosphere.server.allocation.FirstMatchDeviceScorer;
+import com.musala.atmosphere.server.allocation.IDeviceScorer;
+import com.musala.atmosphere.server.dao.IDevicePoolDao;
+import com.musala.atmosphere.server.dao.exception.DevicePoolDaoException;
+import com.musala.atmosphere.server.data.model.IDevice;
+
+/**
+ * Allocates devices from the pool without global locking. The free devices matching a selector are fetched without any
+ * lock and then each of them is claimed with a {@link IDevicePoolDao#tryAllocate(IDevice) compare-and-set} on its own
+ * state, so concurrent allocations contend only when they try to claim the same device. A request which loses the race
+ * for a device moves to the next matching one. The matching devices are claimed in the order they are ranked by an
+ * {@link IDeviceScorer scorer}.
+ *
+ * @author yavor.stankov
+ *
+ */
+public class DeviceAllocationEngine {
+    private final IDevicePoolDao devicePoolDao;
+
+    private final IDeviceScorer deviceScorer;
+
+    /**
+     * Creates an allocation engine working over the given device pool, which allocates the first free matching device.
+     *
+     * @param devicePoolDao
+     *        - the data access object of the device pool
+     */
+    public DeviceAllocationEngine(IDevicePoolDao devicePoolDao) {
+        this(devicePoolDao, new FirstMatchDeviceScorer());
+    }
+
+    /**
+     * Creates an allocation engine working over the given device pool, which allocates the free matching device ranked
+     * first by the given scorer.
+     *
+     * @param devicePoolDao
+     *        - the data access object of the device pool
+     * @param deviceScorer
+     *        - ranks the free devices matching a selector
+     */
+    public DeviceAllocationEngine(IDevicePoolDao devicePoolDao, IDeviceScorer deviceScorer) {
+        this.devicePoolDao = devicePoolDao;
+        this.deviceScorer = deviceScorer;
+    }
+
+    /**
+     * Allocates the best matching free device for the given selector.
+     *
+     * @param deviceSelector
+     *        - a {@link DeviceSelector selector} that match a specific device
+     * @return the allocated {@link IDevice device} or <code>null</code> if there is no free device matching the
+     *         selector
+     * @throws DevicePoolDaoException
+     *         - thrown when fetching or allocating the devices fails
+     */
+    public IDevice allocate(DeviceSelector deviceSelector) throws DevicePoolDaoException {
+        while (true) {
+            List<IDevice> availableDevices = devicePoolDao.getDevices(deviceSelector, false);
+
+            if (availableDevices.isEmpty()) {
+                return null;
+            }
+
+            if (availableDevices.size() > 1) {
+                availableDevices = deviceScorer.rank(availableDevices);
+            }
+
+            for (IDevice device : availableDevices) {
+                if (devicePoolDao.tryAllocate(device)) {
+                    device.allocate();
+
+                    return device;
+                }
+            }
+
+            // all candidates were claimed or changed concurrently, so the free devices have to be fetched again
+        }
+    }
+}
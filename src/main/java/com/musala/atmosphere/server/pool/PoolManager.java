@@ -18,9 +18,11 @@ package com.musala.atmosphere.server.pool;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.log4j.Logger;
@@ -36,6 +38,8 @@ import com.musala.atmosphere.commons.exceptions.DeviceNotFoundException;
 import com.musala.atmosphere.commons.exceptions.NoAvailableDeviceFoundException;
 import com.musala.atmosphere.commons.util.Pair;
 import com.musala.atmosphere.server.PasskeyAuthority;
+import com.musala.atmosphere.server.allocation.DeviceAllocationStrategy;
+import com.musala.atmosphere.server.allocation.IDeviceScorer;
 import com.musala.atmosphere.server.dao.IDevicePoolDao;
 import com.musala.atmosphere.server.dao.exception.DevicePoolDaoException;
 import com.musala.atmosphere.server.data.model.IDevice;
@@ -47,7 +51,10 @@ import com.musala.atmosphere.server.eventservice.event.device.allocate.DeviceRel
 import com.musala.atmosphere.server.eventservice.event.device.publish.DevicePublishEvent;
 import com.musala.atmosphere.server.eventservice.event.device.publish.DevicePublishedEvent;
 import com.musala.atmosphere.server.eventservice.event.device.publish.DeviceUnpublishedEvent;
+import com.musala.atmosphere.server.eventservice.event.device.publish.DevicesPublishedEvent;
+import com.musala.atmosphere.server.eventservice.event.device.publish.DevicesUnpublishedEvent;
 import com.musala.atmosphere.server.eventservice.subscriber.Subscriber;
+import com.musala.atmosphere.server.util.ServerPropertiesLoader;
 
 /**
  * Class which is responsible for iterating with the devices in the pool.
@@ -66,6 +73,8 @@ public class PoolManager implements Subscriber {
 
     private Set<String> deviceIdsCache = Collections.synchronizedSet(new HashSet<String>());
 
+    private final DeviceAllocationStrategy allocationStrategy = ServerPropertiesLoader.getDeviceAllocationStrategy();
+
     private static class PoolManagerLoader {
         private static final PoolManager INSTANCE = new PoolManager();
     }
@@ -106,6 +115,7 @@ public class PoolManager implements Subscriber {
             DevicePublishEvent event = new DeviceUnpublishedEvent(deviceSerialNumber, agentId);
             eventService.publish(event);
 
+            PasskeyAuthority.revokePasskey(deviceId);
             devicePoolDao.remove(deviceId);
             if (removeFromCache) {
                 deviceIdsCache.remove(deviceId);
@@ -133,6 +143,8 @@ public class PoolManager implements Subscriber {
 
         try {
             devicePoolDao.addDevice(deviceInformation, deviceId, agentId, devicePasskey);
+            PasskeyAuthority.registerPasskey(deviceId, devicePasskey);
+
             DevicePublishEvent event = new DevicePublishedEvent(agentId, deviceInformation);
             eventService.publish(event);
 
@@ -147,6 +159,205 @@ public class PoolManager implements Subscriber {
         return deviceId;
     }
 
+    /**
+     * Adds all devices of an agent to the pool at once. The devices are stored in a single batch and one
+     * {@link DevicesPublishedEvent event} is published for all of them, so the clients waiting for a device are matched
+     * against the new devices in a single pass.
+     *
+     * @param devicesInformation
+     *        - an information about the devices
+     * @param agentId
+     *        - the ID of the agent on which the devices are attached
+     * @return the IDs of the devices in the pool which were successfully inserted
+     */
+    public List<String> addDevices(List<DeviceInformation> devicesInformation, String agentId) {
+        List<String> deviceIds = new ArrayList<>();
+        List<Long> devicePasskeys = new ArrayList<>();
+
+        for (DeviceInformation deviceInformation : devicesInformation) {
+            deviceIds.add(buildDeviceIdentifier(agentId, deviceInformation.getSerialNumber()));
+            devicePasskeys.add(PasskeyAuthority.generatePasskey());
+        }
+
+        try {
+            devicePoolDao.addDevices(devicesInformation, deviceIds, agentId, devicePasskeys);
+        } catch (DevicePoolDaoException e) {
+            String warningMessage = String.format("Failed to add %d devices on agent %s together.",
+                                                  deviceIds.size(),
+                                                  agentId);
+            LOGGER.warn(warningMessage, e);
+
+            // a single device that can not be added, e.g. because it is already in the pool, must not reject the rest
+            return addDevicesOneByOne(devicesInformation, agentId);
+        }
+
+        for (int index = 0; index < deviceIds.size(); index++) {
+            PasskeyAuthority.registerPasskey(deviceIds.get(index), devicePasskeys.get(index));
+        }
+
+        deviceIdsCache.addAll(deviceIds);
+
+        DevicePublishEvent event = new DevicesPublishedEvent(agentId, devicesInformation);
+        eventService.publish(event);
+
+        LOGGER.info(String.format("%d devices on agent %s added to the pool.", deviceIds.size(), agentId));
+
+        return deviceIds;
+    }
+
+    /**
+     * Brings the devices of an agent, which are already in the pool, in line with the devices the agent has published,
+     * e.g. when the agent reconnects after a restart of the server. Only the difference is applied - the devices that
+     * are still attached keep their passkeys and allocations and are updated only if their information has changed,
+     * the new devices are added and the devices that are not attached anymore are removed.
+     *
+     * @param devicesInformation
+     *        - an information about all devices attached on the agent
+     * @param agentId
+     *        - the ID of the agent
+     * @return the IDs of the devices of the agent in the pool
+     */
+    public List<String> reconcileDevices(List<DeviceInformation> devicesInformation, String agentId) {
+        Map<String, IDevice> deviceIdToPooledDevice = new HashMap<>();
+
+        try {
+            for (IDevice pooledDevice : devicePoolDao.getAgentDevices(agentId)) {
+                deviceIdToPooledDevice.put(pooledDevice.getDeviceId(), pooledDevice);
+            }
+        } catch (DevicePoolDaoException e) {
+            String errorMessage = String.format("Failed to get the pooled devices on agent %s.", agentId);
+            LOGGER.error(errorMessage, e);
+        }
+
+        if (deviceIdToPooledDevice.isEmpty()) {
+            return addDevices(devicesInformation, agentId);
+        }
+
+        List<String> deviceIds = new ArrayList<>();
+        List<DeviceInformation> newDevicesInformation = new ArrayList<>();
+
+        for (DeviceInformation deviceInformation : devicesInformation) {
+            String deviceId = buildDeviceIdentifier(agentId, deviceInformation.getSerialNumber());
+            IDevice pooledDevice = deviceIdToPooledDevice.remove(deviceId);
+
+            if (pooledDevice == null) {
+                newDevicesInformation.add(deviceInformation);
+            } else {
+                if (!deviceInformation.equals(pooledDevice.getInformation())) {
+                    updateDevice(deviceId, deviceInformation);
+                }
+
+                deviceIds.add(deviceId);
+            }
+        }
+
+        for (String detachedDeviceId : deviceIdToPooledDevice.keySet()) {
+            try {
+                removeDevice(detachedDeviceId);
+            } catch (DevicePoolDaoException | CommandFailedException e) {
+                String errorMessage = String.format("Failed to remove device with ID %s.", detachedDeviceId);
+                LOGGER.error(errorMessage, e);
+            }
+        }
+
+        if (!newDevicesInformation.isEmpty()) {
+            deviceIds.addAll(addDevices(newDevicesInformation, agentId));
+        }
+
+        String message = String.format("Devices on agent %s reconciled: %d kept, %d added and %d removed.",
+                                       agentId,
+                                       devicesInformation.size() - newDevicesInformation.size(),
+                                       newDevicesInformation.size(),
+                                       deviceIdToPooledDevice.size());
+        LOGGER.info(message);
+
+        return deviceIds;
+    }
+
+    /**
+     * Restores the state of the pool, which is kept in the persistent data source, after a restart of the server. The
+     * passkeys of all stored devices are registered again, and the timeouts of the allocated devices are restarted, so
+     * the devices that are not used by their clients anymore are released.
+     *
+     * @return the restored devices
+     */
+    public List<IDevice> restoreDevices() {
+        DeviceSelector allDevicesSelector = new DeviceSelectorBuilder().build();
+        List<IDevice> restoredDevices = new ArrayList<>();
+
+        try {
+            List<IDevice> allocatedDevices = devicePoolDao.getDevices(allDevicesSelector, true);
+
+            restoredDevices.addAll(devicePoolDao.getDevices(allDevicesSelector, false));
+            restoredDevices.addAll(allocatedDevices);
+
+            for (IDevice device : restoredDevices) {
+                PasskeyAuthority.registerPasskey(device.getDeviceId(), device.getPasskey());
+                deviceIdsCache.add(device.getDeviceId());
+            }
+
+            for (IDevice device : allocatedDevices) {
+                ClientRequestMonitor.getInstance().restartTimerForDevice(device.getDeviceId());
+            }
+
+            String message = String.format("%d devices restored in the pool, %d of them allocated.",
+                                           restoredDevices.size(),
+                                           allocatedDevices.size());
+            LOGGER.info(message);
+        } catch (DevicePoolDaoException e) {
+            LOGGER.error("Failed to restore the devices in the pool.", e);
+        }
+
+        return restoredDevices;
+    }
+
+    private List<String> addDevicesOneByOne(List<DeviceInformation> devicesInformation, String agentId) {
+        List<String> deviceIds = new ArrayList<>();
+
+        for (DeviceInformation deviceInformation : devicesInformation) {
+            String deviceId = addDevice(deviceInformation, agentId);
+
+            if (deviceId != null) {
+                deviceIds.add(deviceId);
+            }
+        }
+
+        return deviceIds;
+    }
+
+    /**
+     * Removes all devices on the given agent from the pool at once, e.g. when the agent disconnects. The devices are
+     * removed from the data source by their agent, their passkeys and timeouts are discarded, and one
+     * {@link DevicesUnpublishedEvent event} is published for all of them.
+     *
+     * @param agentId
+     *        - the ID of the agent whose devices are removed
+     * @return the IDs of the removed devices
+     * @throws DevicePoolDaoException
+     *         - if removing the devices from the data source fails
+     */
+    public List<String> removeAgentDevices(String agentId) throws DevicePoolDaoException {
+        List<String> removedDeviceIds = devicePoolDao.removeDevices(agentId);
+
+        if (removedDeviceIds.isEmpty()) {
+            return removedDeviceIds;
+        }
+
+        for (String deviceId : removedDeviceIds) {
+            PasskeyAuthority.revokePasskey(deviceId);
+        }
+
+        deviceIdsCache.removeAll(removedDeviceIds);
+        ClientRequestMonitor.getInstance().unregisterDevices(removedDeviceIds);
+
+        DevicePublishEvent event = new DevicesUnpublishedEvent(agentId, removedDeviceIds);
+        eventService.publish(event);
+
+        LOGGER.info(String.format("%d devices on agent %s removed from the pool.", removedDeviceIds.size(), agentId));
+
+        return removedDeviceIds;
+    }
+
     /**
      * Remove all devices from the pool.
      *
@@ -177,7 +388,11 @@ public class PoolManager implements Subscriber {
             IDevice device = devicePoolDao.getDevice(deviceId);
 
             if (device != null) {
-                releaseDevice(device, currentPasskey);
+                if (!releaseDevice(device, currentPasskey)) {
+                    throw new InvalidPasskeyException("The passkey is not valid for the specified device.");
+                }
+
+                ClientRequestMonitor.getInstance().endLease(deviceId);
             }
         } catch (DevicePoolDaoException e) {
             String errorMessage = String.format("Failed to release device with ID %s.", deviceId);
@@ -185,17 +400,18 @@ public class PoolManager implements Subscriber {
         }
     }
 
-    public synchronized DeviceAllocationInformation allocateDevice(DeviceSelector deviceSelector)
+    public DeviceAllocationInformation allocateDevice(DeviceSelector deviceSelector)
         throws NoDeviceMatchingTheGivenSelectorException,
             NoAvailableDeviceFoundException,
             DeviceNotFoundException {
-        List<IDevice> availableDevicesList = new ArrayList<>();
-        boolean isAllocated = false;
+        IDevice device = null;
 
         try {
-            availableDevicesList = devicePoolDao.getDevices(deviceSelector, isAllocated);
-            if (availableDevicesList.isEmpty()) {
-                List<IDevice> notAvailableDeviceList = devicePoolDao.getDevices(deviceSelector, !isAllocated);
+            // the direct allocations do not wait in the allocation queue, so only the pool itself is considered
+            IDeviceScorer deviceScorer = allocationStrategy.createScorer(devicePoolDao, null);
+            device = new DeviceAllocationEngine(devicePoolDao, deviceScorer).allocate(deviceSelector);
+            if (device == null) {
+                List<IDevice> notAvailableDeviceList = devicePoolDao.getDevices(deviceSelector, true);
                 if (notAvailableDeviceList.isEmpty()) {
                     throw new NoDeviceMatchingTheGivenSelectorException(String.format("No devices matching the requested parameters %s were found",
                                                                                       deviceSelector));
@@ -207,28 +423,13 @@ public class PoolManager implements Subscriber {
             throw new DeviceNotFoundException("Failed to find the requested device.");
         }
 
-        IDevice device = availableDevicesList.get(0);
-
-        DeviceInformation deviceInformation = device.getInformation();
-
-        device.allocate();
-
-        try {
-            devicePoolDao.update(device);
-        } catch (DevicePoolDaoException e) {
-            String message = String.format("Allocating device with serial number %s failed.",
-                                           deviceInformation.getSerialNumber());
-            LOGGER.error(message, e);
-        }
-
         final String bestMatchDeviceId = device.getDeviceId();
 
         long devicePasskey = device.getPasskey();
 
         DeviceAllocationInformation allocatedDeviceDescriptor = new DeviceAllocationInformation(devicePasskey,
                                                                                                 bestMatchDeviceId);
-        ClientRequestMonitor deviceMonitor = new ClientRequestMonitor();
-        deviceMonitor.restartTimerForDevice(bestMatchDeviceId);
+        ClientRequestMonitor.getInstance().restartTimerForDevice(bestMatchDeviceId);
 
         return allocatedDeviceDescriptor;
     }
@@ -238,7 +439,7 @@ public class PoolManager implements Subscriber {
      *
      * @return a {@link List} with {@link Pair pairs} of serial numbers and models of available devices
      */
-    public synchronized List<Pair<String, String>> getAllAvailableDevices() {
+    public List<Pair<String, String>> getAllAvailableDevices() {
         List<IDevice> availableDevicesList = getAllDevices(false);
 
         ArrayList<Pair<String, String>> serialNumberAndModelList = new ArrayList<>();
@@ -339,23 +540,50 @@ public class PoolManager implements Subscriber {
     }
 
     /**
-     * Releases {@link IDevice device instance} and updates its passkey used for requests validation.
+     * Releases {@link IDevice device instance} and updates its passkey used for requests validation. The same lease may
+     * be released concurrently, e.g. when it expires while the client releases the device, so only the release which
+     * replaces the current passkey frees the device and publishes the {@link DeviceReleasedEvent event}.
      *
      * @param device
      *        - {@link IDevice device instance} to be released
      * @param currentPasskey
      *        - currently used invocation passkey for this device
+     * @return <code>true</code> if the device is released by this call, <code>false</code> if the passkey is no longer
+     *         valid or the device is already free
      * @throws DevicePoolDaoException
      *         when data source for device retrieving is not available or operations with data source fails
      */
-    private void releaseDevice(IDevice device, long currentPasskey) throws DevicePoolDaoException {
+    private boolean releaseDevice(IDevice device, long currentPasskey) throws DevicePoolDaoException {
+        String deviceId = device.getDeviceId();
         long passkey = PasskeyAuthority.generatePasskey(currentPasskey);
 
-        device.setPasskey(passkey);
-        device.release();
+        // the current passkey is invalidated before the device becomes available for allocation
+        if (!PasskeyAuthority.replacePasskey(deviceId, currentPasskey, passkey)) {
+            return false;
+        }
+
+        boolean isReleased = false;
+
+        try {
+            // the device may still be changed by an update of its information, so it is fetched again until released
+            while (device != null && device.isAllocated() && !isReleased) {
+                isReleased = devicePoolDao.tryRelease(device, passkey);
+
+                if (!isReleased) {
+                    device = devicePoolDao.getDevice(deviceId);
+                }
+            }
+        } finally {
+            if (!isReleased) {
+                PasskeyAuthority.replacePasskey(deviceId, passkey, currentPasskey);
+            }
+        }
+
+        if (isReleased) {
+            eventService.publish(new DeviceReleasedEvent(device.getAgentId(), device.getInformation()));
+        }
 
-        devicePoolDao.update(device);
-        eventService.publish(new DeviceReleasedEvent(device.getInformation()));
+        return isReleased;
     }
 
     public IDevicePoolDao getDevicePoolDao() {
@@ -27,7 +27,32 @@ public enum ServerProperties {
     DEVICE_UPDATE_TIME("device.update.timeout"),
     EMULATOR_CREATION_TIMEOUT("emulator.creation.timeout"),
     WEBSOCKET_PORT("websocket.port"),
-    SERVER_IP("server.ip");
+    SERVER_IP("server.ip"),
+    DEVICE_POOL_STORAGE("device.pool.storage"),
+    DEVICE_POOL_MIRROR("device.pool.mirror"),
+    OUTBOUND_QUEUE_SIZE("websocket.outbound.queue.size"),
+    OUTBOUND_OVERFLOW_POLICY("websocket.outbound.overflow.policy"),
+    CLIENT_SERVER_DEFLATE("websocket.deflate.client_server"),
+    SERVER_AGENT_DEFLATE("websocket.deflate.server_agent"),
+    DEFLATE_THRESHOLD("websocket.deflate.threshold"),
+    DEFLATE_LEVEL("websocket.deflate.level"),
+    EVENT_DELIVERY_THREADS("eventservice.delivery.threads"),
+    AGENT_HEARTBEAT_INTERVAL("agent.heartbeat.interval"),
+    AGENT_HEARTBEAT_JITTER("agent.heartbeat.jitter"),
+    AGENT_HEARTBEAT_THREADS("agent.heartbeat.threads"),
+    AGENT_ACCEPTABLE_PAUSE("agent.failure.acceptable.pause"),
+    AGENT_SUSPECT_THRESHOLD("agent.failure.suspect.phi"),
+    AGENT_DEAD_THRESHOLD("agent.failure.dead.phi"),
+    DATABASE_POOL_SIZE("database.pool.size"),
+    DATABASE_CONNECTION_MAX_AGE("database.connection.max.age"),
+    DATABASE_FILE("database.file"),
+    AGENT_RECONNECT_GRACE_PERIOD("agent.reconnect.grace.period"),
+    DEVICE_ALLOCATION_STRATEGY("device.allocation.strategy"),
+    DEVICE_LEASE_DURATION("device.lease.duration"),
+    ALLOCATION_RESPONSE_THREADS("device.allocation.response.threads"),
+    ALLOCATION_RESPONSE_QUEUE_SIZE("device.allocation.response.queue.size"),
+    CLIENT_RECONNECT_GRACE_PERIOD("client.reconnect.grace.period"),
+    CLIENT_REPLAY_BUFFER_SIZE("client.session.replay.buffer.size");
 
     private String value;
 
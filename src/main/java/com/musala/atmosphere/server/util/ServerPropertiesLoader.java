@@ -16,7 +16,13 @@
 
 package com.musala.atmosphere.server.util;
 
+import java.util.zip.Deflater;
+
 import com.musala.atmosphere.commons.util.PropertiesLoader;
+import com.musala.atmosphere.server.allocation.DeviceAllocationStrategy;
+import com.musala.atmosphere.server.data.db.constant.Property;
+import com.musala.atmosphere.server.data.provider.DevicePoolStorage;
+import com.musala.atmosphere.server.websocket.OutboundOverflowPolicy;
 
 /**
  * Reads server properties from server properties config file.
@@ -27,6 +33,28 @@ import com.musala.atmosphere.commons.util.PropertiesLoader;
 public class ServerPropertiesLoader {
     private static final String SERVER_PROPERTIES_FILE = "./server.properties";
 
+    private static final int DEFAULT_OUTBOUND_QUEUE_SIZE = 256;
+
+    private static final int DEFAULT_DEFLATE_THRESHOLD = 1024;
+
+    private static final long DEFAULT_AGENT_HEARTBEAT_INTERVAL = 5000;
+
+    private static final double DEFAULT_AGENT_SUSPECT_THRESHOLD = 3;
+
+    private static final double DEFAULT_AGENT_DEAD_THRESHOLD = 8;
+
+    private static final int DEFAULT_DATABASE_POOL_SIZE = 4;
+
+    private static final long DEFAULT_AGENT_RECONNECT_GRACE_PERIOD = 60000;
+
+    private static final int DEFAULT_ALLOCATION_RESPONSE_THREADS = 4;
+
+    private static final int DEFAULT_ALLOCATION_RESPONSE_QUEUE_SIZE = 1024;
+
+    private static final long DEFAULT_CLIENT_RECONNECT_GRACE_PERIOD = 0;
+
+    private static final int DEFAULT_CLIENT_REPLAY_BUFFER_SIZE = 64;
+
     private synchronized static String getPropertyString(ServerProperties property) {
         PropertiesLoader propertiesLoader = PropertiesLoader.getInstance(SERVER_PROPERTIES_FILE);
 
@@ -93,4 +121,418 @@ public class ServerPropertiesLoader {
 
         return serverIp;
     }
+
+    /**
+     * Gets the storage of the device pool from the server config file. The in-memory storage is used by default.
+     *
+     * @return - the {@link DevicePoolStorage storage} of the device pool
+     */
+    public static DevicePoolStorage getDevicePoolStorage() {
+        String devicePoolStorageString = getPropertyString(ServerProperties.DEVICE_POOL_STORAGE);
+
+        if (devicePoolStorageString == null) {
+            return DevicePoolStorage.MEMORY;
+        }
+
+        return DevicePoolStorage.valueOf(devicePoolStorageString.trim().toUpperCase());
+    }
+
+    /**
+     * Checks in the server config file whether the in-memory device pool should be mirrored to the data source.
+     *
+     * @return - <code>true</code> if the device pool should be mirrored, <code>false</code> otherwise
+     */
+    public static boolean isDevicePoolMirrorEnabled() {
+        String devicePoolMirrorString = getPropertyString(ServerProperties.DEVICE_POOL_MIRROR);
+
+        return Boolean.parseBoolean(devicePoolMirrorString);
+    }
+
+    /**
+     * Gets the maximum number of messages waiting to be sent to a single WebSocket session from the server config
+     * file. 256 messages are allowed by default.
+     *
+     * @return - the capacity of the outbound queue of a session
+     */
+    public static int getOutboundQueueSize() {
+        String outboundQueueSizeString = getPropertyString(ServerProperties.OUTBOUND_QUEUE_SIZE);
+
+        if (outboundQueueSizeString == null) {
+            return DEFAULT_OUTBOUND_QUEUE_SIZE;
+        }
+
+        return Integer.parseInt(outboundQueueSizeString.trim());
+    }
+
+    /**
+     * Gets what should happen when the outbound queue of a WebSocket session is full from the server config file. The
+     * session is closed by default, so a slow peer can not hold up the sending threads.
+     *
+     * @return - the {@link OutboundOverflowPolicy overflow policy} of the outbound queues
+     */
+    public static OutboundOverflowPolicy getOutboundOverflowPolicy() {
+        String overflowPolicyString = getPropertyString(ServerProperties.OUTBOUND_OVERFLOW_POLICY);
+
+        if (overflowPolicyString == null) {
+            return OutboundOverflowPolicy.DISCONNECT;
+        }
+
+        return OutboundOverflowPolicy.valueOf(overflowPolicyString.trim().toUpperCase());
+    }
+
+    /**
+     * Checks in the server config file whether the messages between the server and the clients should be compressed.
+     *
+     * @return - <code>true</code> if the permessage-deflate extension is enabled on the client endpoint,
+     *         <code>false</code> otherwise
+     */
+    public static boolean isClientServerDeflateEnabled() {
+        String clientServerDeflateString = getPropertyString(ServerProperties.CLIENT_SERVER_DEFLATE);
+
+        return Boolean.parseBoolean(clientServerDeflateString);
+    }
+
+    /**
+     * Checks in the server config file whether the messages between the server and the agents should be compressed.
+     *
+     * @return - <code>true</code> if the permessage-deflate extension is enabled on the agent endpoint,
+     *         <code>false</code> otherwise
+     */
+    public static boolean isServerAgentDeflateEnabled() {
+        String serverAgentDeflateString = getPropertyString(ServerProperties.SERVER_AGENT_DEFLATE);
+
+        return Boolean.parseBoolean(serverAgentDeflateString);
+    }
+
+    /**
+     * Gets the size in bytes below which the outgoing messages are not compressed from the server config file. Messages
+     * smaller than 1024 bytes are not compressed by default.
+     *
+     * @return - the compression threshold in bytes
+     */
+    public static int getDeflateThreshold() {
+        String deflateThresholdString = getPropertyString(ServerProperties.DEFLATE_THRESHOLD);
+
+        if (deflateThresholdString == null) {
+            return DEFAULT_DEFLATE_THRESHOLD;
+        }
+
+        return Integer.parseInt(deflateThresholdString.trim());
+    }
+
+    /**
+     * Gets the compression level of the outgoing messages, from 0 to 9, from the server config file. The fastest
+     * compression is used by default.
+     *
+     * @return - the compression level
+     */
+    public static int getDeflateLevel() {
+        String deflateLevelString = getPropertyString(ServerProperties.DEFLATE_LEVEL);
+
+        if (deflateLevelString == null) {
+            return Deflater.BEST_SPEED;
+        }
+
+        return Integer.parseInt(deflateLevelString.trim());
+    }
+
+    /**
+     * Gets the number of threads delivering the events to the asynchronous subscribers of the event service from the
+     * server config file. The number of available processors is used by default.
+     *
+     * @return - the number of event delivery threads
+     */
+    public static int getEventDeliveryThreads() {
+        String eventDeliveryThreadsString = getPropertyString(ServerProperties.EVENT_DELIVERY_THREADS);
+
+        if (eventDeliveryThreadsString == null) {
+            return Runtime.getRuntime().availableProcessors();
+        }
+
+        return Integer.parseInt(eventDeliveryThreadsString.trim());
+    }
+
+    /**
+     * Gets the average time in milliseconds between two heartbeats sent to an agent from the server config file. Five
+     * seconds are used by default.
+     *
+     * @return - the heartbeat interval in milliseconds
+     */
+    public static long getAgentHeartbeatInterval() {
+        String heartbeatIntervalString = getPropertyString(ServerProperties.AGENT_HEARTBEAT_INTERVAL);
+
+        if (heartbeatIntervalString == null) {
+            return DEFAULT_AGENT_HEARTBEAT_INTERVAL;
+        }
+
+        return Long.parseLong(heartbeatIntervalString.trim());
+    }
+
+    /**
+     * Gets the maximum time in milliseconds a heartbeat sent to an agent may be shifted with from the server config
+     * file. A tenth of the heartbeat interval is used by default.
+     *
+     * @return - the heartbeat jitter in milliseconds
+     */
+    public static long getAgentHeartbeatJitter() {
+        String heartbeatJitterString = getPropertyString(ServerProperties.AGENT_HEARTBEAT_JITTER);
+
+        if (heartbeatJitterString == null) {
+            return getAgentHeartbeatInterval() / 10;
+        }
+
+        return Long.parseLong(heartbeatJitterString.trim());
+    }
+
+    /**
+     * Gets the number of threads sending the heartbeats to all agents from the server config file. A single thread is
+     * used by default.
+     *
+     * @return - the number of heartbeat threads
+     */
+    public static int getAgentHeartbeatThreads() {
+        String heartbeatThreadsString = getPropertyString(ServerProperties.AGENT_HEARTBEAT_THREADS);
+
+        if (heartbeatThreadsString == null) {
+            return 1;
+        }
+
+        return Integer.parseInt(heartbeatThreadsString.trim());
+    }
+
+    /**
+     * Gets the time in milliseconds a pong from an agent may be late without raising the suspicion in the agent much
+     * from the server config file. Half of the heartbeat interval is used by default.
+     *
+     * @return - the acceptable pause in milliseconds
+     */
+    public static long getAgentAcceptablePause() {
+        String acceptablePauseString = getPropertyString(ServerProperties.AGENT_ACCEPTABLE_PAUSE);
+
+        if (acceptablePauseString == null) {
+            return getAgentHeartbeatInterval() / 2;
+        }
+
+        return Long.parseLong(acceptablePauseString.trim());
+    }
+
+    /**
+     * Gets the suspicion level from which an agent is suspected to have failed from the server config file.
+     *
+     * @return - the suspicion level of the suspected agents
+     */
+    public static double getAgentSuspectThreshold() {
+        String suspectThresholdString = getPropertyString(ServerProperties.AGENT_SUSPECT_THRESHOLD);
+
+        if (suspectThresholdString == null) {
+            return DEFAULT_AGENT_SUSPECT_THRESHOLD;
+        }
+
+        return Double.parseDouble(suspectThresholdString.trim());
+    }
+
+    /**
+     * Gets the suspicion level from which an agent is considered dead and is unregistered from the server config file.
+     *
+     * @return - the suspicion level of the dead agents
+     */
+    public static double getAgentDeadThreshold() {
+        String deadThresholdString = getPropertyString(ServerProperties.AGENT_DEAD_THRESHOLD);
+
+        if (deadThresholdString == null) {
+            return DEFAULT_AGENT_DEAD_THRESHOLD;
+        }
+
+        return Double.parseDouble(deadThresholdString.trim());
+    }
+
+    /**
+     * Gets the maximum number of free connections to the data source, which are kept open for reuse, from the server
+     * config file.
+     *
+     * @return - the size of the connection pool
+     */
+    public static int getDatabasePoolSize() {
+        String databasePoolSizeString = getPropertyString(ServerProperties.DATABASE_POOL_SIZE);
+
+        if (databasePoolSizeString == null) {
+            return DEFAULT_DATABASE_POOL_SIZE;
+        }
+
+        return Integer.parseInt(databasePoolSizeString.trim());
+    }
+
+    /**
+     * Gets the time in milliseconds after which a pooled connection to the data source is closed from the server config
+     * file. The connections are not closed by default, or if the time is not positive. The age only applies to the
+     * connections to a database file, as the in-memory database is dropped with its last connection.
+     *
+     * @return - the maximum age of a pooled connection in milliseconds
+     */
+    public static long getDatabaseConnectionMaxAge() {
+        String connectionMaxAgeString = getPropertyString(ServerProperties.DATABASE_CONNECTION_MAX_AGE);
+
+        if (connectionMaxAgeString == null) {
+            return Long.MAX_VALUE;
+        }
+
+        long connectionMaxAge = Long.parseLong(connectionMaxAgeString.trim());
+
+        return connectionMaxAge > 0 ? connectionMaxAge : Long.MAX_VALUE;
+    }
+
+    /**
+     * Gets the path of the file in which the data source is stored from the server config file. The data source is
+     * kept in memory and dropped on every start by default, or if the path is empty.
+     *
+     * @return - the path of the database file or <code>null</code> if the data source is kept in memory
+     */
+    public static String getDatabaseFile() {
+        String databaseFileString = getPropertyString(ServerProperties.DATABASE_FILE);
+
+        if (databaseFileString == null || databaseFileString.trim().isEmpty()) {
+            return null;
+        }
+
+        return databaseFileString.trim();
+    }
+
+    /**
+     * Checks in the server config file whether the data source is stored in a file, so the device pool is kept when the
+     * server is restarted.
+     *
+     * @return - <code>true</code> if the data source is persistent, <code>false</code> otherwise
+     */
+    public static boolean isDatabasePersistent() {
+        return getDatabaseFile() != null;
+    }
+
+    /**
+     * Gets the URL of the data source, which is either stored in the file from the server config file, or kept in
+     * memory.
+     *
+     * @return - the URL of the data source
+     */
+    public static String getDatabaseUrl() {
+        String databaseFile = getDatabaseFile();
+
+        if (databaseFile == null) {
+            return Property.DATABASE_URL;
+        }
+
+        return String.format(Property.FILE_DATABASE_URL_FORMAT, databaseFile);
+    }
+
+    /**
+     * Gets the time in milliseconds, which an agent restored from the persistent data source has to reconnect after a
+     * restart of the server, from the server config file. One minute is given by default.
+     *
+     * @return - the grace period for reconnecting of the restored agents in milliseconds
+     */
+    public static long getAgentReconnectGracePeriod() {
+        String gracePeriodString = getPropertyString(ServerProperties.AGENT_RECONNECT_GRACE_PERIOD);
+
+        if (gracePeriodString == null) {
+            return DEFAULT_AGENT_RECONNECT_GRACE_PERIOD;
+        }
+
+        return Long.parseLong(gracePeriodString.trim());
+    }
+
+    /**
+     * Gets the strategy for choosing which of the free devices matching a selector is allocated from the server config
+     * file. The first matching device is allocated by default.
+     *
+     * @return - the {@link DeviceAllocationStrategy allocation strategy}
+     */
+    public static DeviceAllocationStrategy getDeviceAllocationStrategy() {
+        String allocationStrategyString = getPropertyString(ServerProperties.DEVICE_ALLOCATION_STRATEGY);
+
+        if (allocationStrategyString == null) {
+            return DeviceAllocationStrategy.FIRST_MATCH;
+        }
+
+        return DeviceAllocationStrategy.valueOf(allocationStrategyString.trim().toUpperCase());
+    }
+
+    /**
+     * Gets the time in milliseconds a device stays allocated to a client, which does not renew its lease, from the
+     * server config file. The time a device could stay inactive before the leases were introduced, i.e. the device
+     * request timeout multiplied by the device update time, is used by default.
+     *
+     * @return - the lease duration in milliseconds
+     */
+    public static long getDeviceLeaseDuration() {
+        String leaseDurationString = getPropertyString(ServerProperties.DEVICE_LEASE_DURATION);
+
+        if (leaseDurationString == null) {
+            return (long) getDeviceUpdateTime() * getDeviceRequestTimeout();
+        }
+
+        return Long.parseLong(leaseDurationString.trim());
+    }
+
+    /**
+     * Gets the number of threads sending the completed device allocations to the clients from the server config file.
+     * Four threads are used by default.
+     *
+     * @return - the number of allocation response threads
+     */
+    public static int getAllocationResponseThreads() {
+        String allocationResponseThreadsString = getPropertyString(ServerProperties.ALLOCATION_RESPONSE_THREADS);
+
+        if (allocationResponseThreadsString == null) {
+            return DEFAULT_ALLOCATION_RESPONSE_THREADS;
+        }
+
+        return Integer.parseInt(allocationResponseThreadsString.trim());
+    }
+
+    /**
+     * Gets the maximum number of completed device allocations waiting to be sent to the clients from the server config
+     * file. 1024 allocations are allowed by default.
+     *
+     * @return - the capacity of the allocation response queue
+     */
+    public static int getAllocationResponseQueueSize() {
+        String allocationResponseQueueSizeString = getPropertyString(ServerProperties.ALLOCATION_RESPONSE_QUEUE_SIZE);
+
+        if (allocationResponseQueueSizeString == null) {
+            return DEFAULT_ALLOCATION_RESPONSE_QUEUE_SIZE;
+        }
+
+        return Integer.parseInt(allocationResponseQueueSizeString.trim());
+    }
+
+    /**
+     * Gets the time in milliseconds the devices of a closed client session stay allocated, so a reconnected client can
+     * keep them, from the server config file. The devices are released as soon as the session is closed by default.
+     *
+     * @return - the grace period for reconnecting of the clients in milliseconds
+     */
+    public static long getClientReconnectGracePeriod() {
+        String gracePeriodString = getPropertyString(ServerProperties.CLIENT_RECONNECT_GRACE_PERIOD);
+
+        if (gracePeriodString == null) {
+            return DEFAULT_CLIENT_RECONNECT_GRACE_PERIOD;
+        }
+
+        return Long.parseLong(gracePeriodString.trim());
+    }
+
+    /**
+     * Gets the maximum number of messages kept for a client, whose connection was closed, until it resumes its session
+     * from the server config file. 64 messages are kept by default.
+     *
+     * @return - the capacity of the replay buffer of a closed client session
+     */
+    public static int getClientReplayBufferSize() {
+        String replayBufferSizeString = getPropertyString(ServerProperties.CLIENT_REPLAY_BUFFER_SIZE);
+
+        if (replayBufferSizeString == null) {
+            return DEFAULT_CLIENT_REPLAY_BUFFER_SIZE;
+        }
+
+        return Integer.parseInt(replayBufferSizeString.trim());
+    }
 }
@@ -0,0 +1,329 @@
+// This file is part of the ATMOSPHERE mobile testing framework.
+// Copyright (C) 2016 MusalaSoft
+//
+// ATMOSPHERE is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// ATMOSPHERE is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with ATMOSPHERE.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.musala.atmosphere.server.util;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Hashed timing wheel, which expires keys that were not restarted for a fixed number of ticks. Restarting the timeout
+ * of a key that is already scheduled only moves its deadline forward, without locking or allocating, and the timeout
+ * is moved to the right wheel bucket lazily, when its old deadline is reached. A key expires exactly on the tick of its
+ * deadline.
+ *
+ * @param <K>
+ *        - the type of the keys whose timeouts are tracked
+ *
+ * @author yavor.stankov
+ *
+ */
+public class TimeoutWheel<K> {
+    private static final Logger LOGGER = Logger.getLogger(TimeoutWheel.class.getCanonicalName());
+
+    private static final int WHEEL_SIZE = 512;
+
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+
+    private static final long EXPIRED = -1L;
+
+    private static final long CANCELLED = -2L;
+
+    /**
+     * Listener notified on the wheel thread when the timeout of a key expires.
+     *
+     * @param <K>
+     *        - the type of the keys whose timeouts are tracked
+     */
+    public interface ExpirationListener<K> {
+        /**
+         * Called when the given key was not restarted for the whole timeout.
+         *
+         * @param key
+         *        - the key whose timeout expired
+         */
+        void onExpired(K key);
+    }
+
+    private final ConcurrentMap<K, Timeout<K>> keyToTimeout = new ConcurrentHashMap<>();
+
+    private final ConcurrentLinkedQueue<Timeout<K>> pendingTimeouts = new ConcurrentLinkedQueue<>();
+
+    private final ArrayDeque<Timeout<K>>[] buckets;
+
+    private final long tickDuration;
+
+    private final long timeoutTicks;
+
+    private final ExpirationListener<K> expirationListener;
+
+    private volatile long currentTick;
+
+    private volatile boolean isRunning;
+
+    private Thread wheelThread;
+
+    /**
+     * Creates a wheel, which expires every key that is not restarted for the given number of ticks.
+     *
+     * @param tickDuration
+     *        - the duration of a tick in milliseconds
+     * @param timeoutTicks
+     *        - the number of ticks after which a key that is not restarted expires
+     * @param expirationListener
+     *        - notified when the timeout of a key expires
+     */
+    // a generic array can not be created, the array of wildcard deques only ever holds deques of the key timeouts
+    @SuppressWarnings("unchecked")
+    public TimeoutWheel(long tickDuration, long timeoutTicks, ExpirationListener<K> expirationListener) {
+        if (tickDuration <= 0 || timeoutTicks <= 0) {
+            throw new IllegalArgumentException("The tick duration and the timeout must be positive.");
+        }
+
+        this.tickDuration = tickDuration;
+        this.timeoutTicks = timeoutTicks;
+        this.expirationListener = expirationListener;
+        this.buckets = (ArrayDeque<Timeout<K>>[]) new ArrayDeque<?>[WHEEL_SIZE];
+
+        for (int index = 0; index < WHEEL_SIZE; index++) {
+            buckets[index] = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * Starts a thread, which advances the wheel once per tick.
+     *
+     * @param threadName
+     *        - the name of the wheel thread
+     */
+    public synchronized void start(String threadName) {
+        if (isRunning) {
+            return;
+        }
+
+        isRunning = true;
+        wheelThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long tickNanos = TimeUnit.MILLISECONDS.toNanos(tickDuration);
+                long startTime = System.nanoTime();
+                long elapsedTicks = 0;
+
+                while (isRunning) {
+                    // the ticks are counted from the start time, so the time spent in the listener does not add up
+                    long sleepNanos = startTime + (elapsedTicks + 1) * tickNanos - System.nanoTime();
+
+                    try {
+                        if (sleepNanos > 0) {
+                            TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                        }
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+
+                    elapsedTicks++;
+                    tick();
+                }
+            }
+        }, threadName);
+        wheelThread.start();
+    }
+
+    /**
+     * Stops the wheel thread and waits for it to finish. The scheduled timeouts are kept, but never expire.
+     */
+    public void stop() {
+        Thread thread;
+
+        synchronized (this) {
+            isRunning = false;
+            thread = wheelThread;
+            wheelThread = null;
+        }
+
+        if (thread != null && thread != Thread.currentThread()) {
+            thread.interrupt();
+
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Starts or restarts the timeout of the given key, so that it expires after the whole timeout passes from now.
+     *
+     * @param key
+     *        - the key whose timeout is restarted
+     * @return <code>true</code> if the deadline of an already scheduled timeout was moved, <code>false</code> if a new
+     *         timeout was scheduled
+     */
+    public boolean restart(K key) {
+        long deadline = currentTick + timeoutTicks;
+
+        while (true) {
+            Timeout<K> timeout = keyToTimeout.get(key);
+
+            if (timeout != null && timeout.moveDeadline(deadline)) {
+                return true;
+            }
+
+            // the timeout is new or has just expired, so a concurrent restart may try to replace it too
+            Timeout<K> newTimeout = new Timeout<>(key, deadline);
+            boolean isReplaced = timeout == null ? keyToTimeout.putIfAbsent(key, newTimeout) == null
+                    : keyToTimeout.replace(key, timeout, newTimeout);
+
+            if (isReplaced) {
+                pendingTimeouts.add(newTimeout);
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Cancels the timeout of the given key, so it does not expire.
+     *
+     * @param key
+     *        - the key whose timeout is cancelled
+     * @return <code>true</code> if a scheduled timeout was cancelled, <code>false</code> if the key had no timeout or
+     *         it has already expired
+     */
+    public boolean cancel(K key) {
+        Timeout<K> timeout = keyToTimeout.remove(key);
+
+        return timeout != null && timeout.cancel();
+    }
+
+    /**
+     * Checks whether the given key has a timeout, which has not expired yet.
+     *
+     * @param key
+     *        - the key to be checked
+     * @return <code>true</code> if the key has a scheduled timeout, <code>false</code> otherwise
+     */
+    public boolean isScheduled(K key) {
+        Timeout<K> timeout = keyToTimeout.get(key);
+
+        return timeout != null && timeout.deadline.get() >= 0;
+    }
+
+    /**
+     * Advances the wheel with one tick and expires the timeouts whose deadline is reached. Invoked only by the wheel
+     * thread, or by the tests instead of it.
+     */
+    void tick() {
+        long tick = currentTick + 1;
+        currentTick = tick;
+
+        Timeout<K> pendingTimeout;
+        while ((pendingTimeout = pendingTimeouts.poll()) != null) {
+            long deadline = pendingTimeout.deadline.get();
+
+            if (deadline >= 0) {
+                buckets[bucketIndex(Math.max(deadline, tick))].add(pendingTimeout);
+            }
+        }
+
+        ArrayDeque<Timeout<K>> bucket = buckets[bucketIndex(tick)];
+
+        // the timeouts are re-added to the same bucket when their deadline is in a later round of the wheel
+        for (int remaining = bucket.size(); remaining > 0; remaining--) {
+            Timeout<K> timeout = bucket.poll();
+            long deadline = timeout.deadline.get();
+
+            if (deadline < 0) {
+                continue;
+            }
+
+            if (deadline > tick) {
+                buckets[bucketIndex(deadline)].add(timeout);
+            } else if (timeout.expire(deadline)) {
+                keyToTimeout.remove(timeout.key, timeout);
+                notifyExpired(timeout.key);
+            } else {
+                // the timeout was restarted or cancelled after its deadline was read
+                long restartedDeadline = timeout.deadline.get();
+
+                if (restartedDeadline >= 0) {
+                    buckets[bucketIndex(restartedDeadline)].add(timeout);
+                }
+            }
+        }
+    }
+
+    private void notifyExpired(K key) {
+        try {
+            expirationListener.onExpired(key);
+        } catch (RuntimeException e) {
+            LOGGER.error(String.format("Handling the expired timeout of %s failed.", key), e);
+        }
+    }
+
+    private static int bucketIndex(long tick) {
+        return (int) (tick & WHEEL_MASK);
+    }
+
+    private static class Timeout<K> {
+        private final K key;
+
+        private final AtomicLong deadline;
+
+        private Timeout(K key, long deadline) {
+            this.key = key;
+            this.deadline = new AtomicLong(deadline);
+        }
+
+        private boolean moveDeadline(long newDeadline) {
+            long oldDeadline;
+
+            do {
+                oldDeadline = deadline.get();
+
+                if (oldDeadline < 0) {
+                    return false;
+                }
+            } while (!deadline.compareAndSet(oldDeadline, Math.max(oldDeadline, newDeadline)));
+
+            return true;
+        }
+
+        private boolean expire(long expectedDeadline) {
+            return deadline.compareAndSet(expectedDeadline, EXPIRED);
+        }
+
+        private boolean cancel() {
+            long oldDeadline;
+
+            do {
+                oldDeadline = deadline.get();
+
+                if (oldDeadline < 0) {
+                    return false;
+                }
+            } while (!deadline.compareAndSet(oldDeadline, CANCELLED));
+
+            return true;
+        }
+    }
+}
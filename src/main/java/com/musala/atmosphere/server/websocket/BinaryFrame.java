@@ -0,0 +1,91 @@
+// This file is part of the ATMOSPHERE mobile testing framework.
+// Copyright (C) 2016 MusalaSoft
+//
+// ATMOSPHERE is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// ATMOSPHERE is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with ATMOSPHERE.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.musala.atmosphere.server.websocket;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A message received in a binary WebSocket frame. Consists of the {@link MessageEnvelope envelope} decoded from the
+ * frame header and an opaque payload, which is forwarded to the other peer without being decoded.
+ *
+ * @author dimcho.nedev
+ *
+ */
+class BinaryFrame {
+    private final MessageEnvelope envelope;
+
+    private final ByteBuffer frame;
+
+    private final ByteBuffer payload;
+
+    private final boolean isTextPayload;
+
+    BinaryFrame(MessageEnvelope envelope, ByteBuffer frame, ByteBuffer payload, boolean isTextPayload) {
+        this.envelope = envelope;
+        this.frame = frame;
+        this.payload = payload;
+        this.isTextPayload = isTextPayload;
+    }
+
+    MessageEnvelope getEnvelope() {
+        return envelope;
+    }
+
+    /**
+     * Gets the whole frame, including the header, as it was received.
+     *
+     * @return a read-only buffer with the content of the frame
+     */
+    ByteBuffer getFrame() {
+        return frame.duplicate();
+    }
+
+    /**
+     * Gets the payload of the frame.
+     *
+     * @return a read-only buffer with the payload of the frame
+     */
+    ByteBuffer getPayload() {
+        return payload.duplicate();
+    }
+
+    /**
+     * Checks whether the payload is the UTF-8 encoded JSON message, so it can also be sent to peers working in text
+     * mode.
+     *
+     * @return <code>true</code> if the payload is a JSON message, <code>false</code> otherwise
+     */
+    boolean isTextPayload() {
+        return isTextPayload;
+    }
+
+    /**
+     * Decodes the payload of the frame to a JSON message.
+     *
+     * @return the JSON message carried by the frame
+     * @throws IllegalStateException
+     *         - thrown when the payload is not a JSON message
+     */
+    String getPayloadText() {
+        if (!isTextPayload) {
+            throw new IllegalStateException("The payload of the binary frame is not a JSON message.");
+        }
+
+        return StandardCharsets.UTF_8.decode(payload.duplicate()).toString();
+    }
+}
@@ -0,0 +1,182 @@
+// This file is part of the ATMOSPHERE mobile testing framework.
+// Copyright (C) 2016 MusalaSoft
+//
+// ATMOSPHERE is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// ATMOSPHERE is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with ATMOSPHERE.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.musala.atmosphere.server.websocket;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import com.musala.atmosphere.commons.websocket.message.MessageAction;
+
+/**
+ * Encodes and decodes the binary frames exchanged with the peers that negotiated the {@link #SUBPROTOCOL binary
+ * subprotocol}. A frame starts with a compact header followed by an opaque payload:
+ *
+ * <pre>
+ * byte     format version
+ * byte     flags (passkey present, JSON payload)
+ * string   message action
+ * string   device ID
+ * string   session ID
+ * long     passkey (only if the passkey flag is set)
+ * byte[]   payload (all remaining bytes)
+ * </pre>
+ *
+ * Every string is written as an unsigned 16-bit length followed by the UTF-8 bytes of the string, where the maximum
+ * length stands for a <code>null</code> value. All numbers are in network byte order.
+ *
+ * @author dimcho.nedev
+ *
+ */
+class BinaryFrameCodec {
+    /**
+     * The WebSocket subprotocol, which the peers request in order to exchange the routed messages in binary frames.
+     * Peers that do not request it keep working with JSON messages in text frames.
+     */
+    static final String SUBPROTOCOL = "atmosphere-binary-v1";
+
+    static final byte FORMAT_VERSION = 1;
+
+    private static final byte PASSKEY_FLAG = 1;
+
+    private static final byte TEXT_PAYLOAD_FLAG = 1 << 1;
+
+    private static final int NULL_STRING_LENGTH = 0xFFFF;
+
+    private BinaryFrameCodec() {
+    }
+
+    /**
+     * Decodes the header of the given binary frame. The payload is not copied or decoded.
+     *
+     * @param frame
+     *        - the content of the binary frame
+     * @return the decoded {@link BinaryFrame frame}
+     * @throws IllegalArgumentException
+     *         - thrown when the frame is malformed or has an unsupported format version
+     */
+    static BinaryFrame decode(ByteBuffer frame) {
+        ByteBuffer readOnlyFrame = frame.asReadOnlyBuffer();
+        ByteBuffer header = readOnlyFrame.duplicate();
+
+        try {
+            byte version = header.get();
+            if (version != FORMAT_VERSION) {
+                String message = String.format("Unsupported binary frame format version %d.", version);
+                throw new IllegalArgumentException(message);
+            }
+
+            byte flags = header.get();
+
+            MessageEnvelope envelope = new MessageEnvelope();
+            envelope.setMessageAction(getString(header));
+            envelope.setDeviceId(getString(header));
+            envelope.setSessionId(getString(header));
+            envelope.setPasskey((flags & PASSKEY_FLAG) != 0 ? header.getLong() : null);
+
+            ByteBuffer payload = header.slice();
+            boolean isTextPayload = (flags & TEXT_PAYLOAD_FLAG) != 0;
+
+            return new BinaryFrame(envelope, readOnlyFrame, payload, isTextPayload);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("The header of the binary frame is incomplete.", e);
+        }
+    }
+
+    /**
+     * Encodes a binary frame with the given envelope and payload.
+     *
+     * @param envelope
+     *        - the {@link MessageEnvelope envelope} written in the frame header
+     * @param payload
+     *        - the payload of the frame, its remaining bytes are copied without being modified
+     * @param isTextPayload
+     *        - whether the payload is the UTF-8 encoded JSON message
+     * @return a buffer with the content of the frame, ready to be sent
+     */
+    static ByteBuffer encode(MessageEnvelope envelope, ByteBuffer payload, boolean isTextPayload) {
+        MessageAction action = envelope.getMessageAction();
+        byte[] messageAction = getBytes(action != null ? action.name() : null);
+        byte[] deviceId = getBytes(envelope.getDeviceId());
+        byte[] sessionId = getBytes(envelope.getSessionId());
+        Long passkey = envelope.getPasskey();
+
+        int headerSize = 2 + sizeOf(messageAction) + sizeOf(deviceId) + sizeOf(sessionId)
+                + (passkey != null ? Long.BYTES : 0);
+        ByteBuffer frame = ByteBuffer.allocate(headerSize + payload.remaining());
+
+        byte flags = 0;
+        if (passkey != null) {
+            flags |= PASSKEY_FLAG;
+        }
+        if (isTextPayload) {
+            flags |= TEXT_PAYLOAD_FLAG;
+        }
+
+        frame.put(FORMAT_VERSION);
+        frame.put(flags);
+        putString(frame, messageAction);
+        putString(frame, deviceId);
+        putString(frame, sessionId);
+        if (passkey != null) {
+            frame.putLong(passkey);
+        }
+        frame.put(payload.duplicate());
+        frame.flip();
+
+        return frame;
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getShort() & NULL_STRING_LENGTH;
+        if (length == NULL_STRING_LENGTH) {
+            return null;
+        }
+
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] bytes) {
+        if (bytes == null) {
+            buffer.putShort((short) NULL_STRING_LENGTH);
+        } else {
+            buffer.putShort((short) bytes.length);
+            buffer.put(bytes);
+        }
+    }
+
+    private static byte[] getBytes(String value) {
+        if (value == null) {
+            return null;
+        }
+
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length >= NULL_STRING_LENGTH) {
+            String message = String.format("A header field of %d bytes exceeds the binary frame limit.", bytes.length);
+            throw new IllegalArgumentException(message);
+        }
+
+        return bytes;
+    }
+
+    private static int sizeOf(byte[] bytes) {
+        return Short.BYTES + (bytes != null ? bytes.length : 0);
+    }
+}
@@ -0,0 +1,313 @@
+// This file is part of the ATMOSPHERE mobile testing framework.
+// Copyright (C) 2016 MusalaSoft
+//
+// ATMOSPHERE is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// ATMOSPHERE is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with ATMOSPHERE.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.musala.atmosphere.server.websocket;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import com.musala.atmosphere.commons.cs.clientbuilder.DeviceAllocationInformation;
+import com.musala.atmosphere.commons.cs.exception.InvalidPasskeyException;
+import com.musala.atmosphere.commons.exceptions.DeviceNotFoundException;
+import com.musala.atmosphere.server.pool.PoolManager;
+
+/**
+ * Keeps track of the devices held by every client {@link javax.websocket.Session session} and releases all of them when
+ * the session is closed, so the devices of a crashed client are not kept until their leases expire. The release can be
+ * delayed by a grace period, in which a reconnected client keeps its devices by presenting their passkeys.
+ *
+ * @author dimcho.nedev
+ *
+ */
+class ClientDeviceTracker {
+    private static final Logger LOGGER = Logger.getLogger(ClientDeviceTracker.class.getCanonicalName());
+
+    private static final String RELEASE_THREAD_NAME = "client-device-release";
+
+    /**
+     * Listens for the devices released by the tracker.
+     */
+    interface ReleaseListener {
+        /**
+         * Called after a device of a closed session is released. Not called for the devices, which were no longer
+         * allocated to the session.
+         *
+         * @param deviceId
+         *        - the ID of the released device
+         */
+        void onDeviceReleased(String deviceId);
+    }
+
+    private final Map<String, Map<String, Long>> sessionIdToHeldDevices = new ConcurrentHashMap<>();
+
+    private final Map<String, PendingRelease> deviceIdToPendingRelease = new ConcurrentHashMap<>();
+
+    private final PoolManager poolManager;
+
+    private final long gracePeriod;
+
+    private final ReleaseListener releaseListener;
+
+    private ScheduledThreadPoolExecutor releaseScheduler;
+
+    /**
+     * Creates a tracker releasing the devices of the closed sessions in the given pool.
+     *
+     * @param poolManager
+     *        - the {@link PoolManager pool manager} the devices are released in
+     * @param gracePeriod
+     *        - the time in milliseconds a closed session keeps its devices; the devices are released at once if it is
+     *        not positive
+     * @param releaseListener
+     *        - notified for every released device
+     */
+    ClientDeviceTracker(PoolManager poolManager, long gracePeriod, ReleaseListener releaseListener) {
+        this.poolManager = poolManager;
+        this.gracePeriod = gracePeriod;
+        this.releaseListener = releaseListener;
+    }
+
+    /**
+     * Records a device allocated to a client session.
+     *
+     * @param sessionId
+     *        - the ID of the client session
+     * @param allocationInformation
+     *        - the {@link DeviceAllocationInformation} of the allocated device
+     */
+    void hold(String sessionId, DeviceAllocationInformation allocationInformation) {
+        hold(sessionId, allocationInformation.getDeviceId(), allocationInformation.getProxyPasskey());
+    }
+
+    private void hold(String sessionId, String deviceId, long passkey) {
+        Map<String, Long> heldDevices = sessionIdToHeldDevices.get(sessionId);
+
+        if (heldDevices == null) {
+            Map<String, Long> newHeldDevices = new ConcurrentHashMap<>();
+            heldDevices = sessionIdToHeldDevices.putIfAbsent(sessionId, newHeldDevices);
+            heldDevices = heldDevices == null ? newHeldDevices : heldDevices;
+        }
+
+        heldDevices.put(deviceId, passkey);
+    }
+
+    /**
+     * Stops tracking a device released by the client itself.
+     *
+     * @param sessionId
+     *        - the ID of the client session
+     * @param deviceId
+     *        - the ID of the released device
+     */
+    void release(String sessionId, String deviceId) {
+        Map<String, Long> heldDevices = sessionIdToHeldDevices.get(sessionId);
+
+        if (heldDevices != null) {
+            heldDevices.remove(deviceId);
+        }
+    }
+
+    /**
+     * Stops tracking a device, which is no longer allocated to its client session, e.g. because its lease has expired.
+     * A pending release of the device is cancelled.
+     *
+     * @param deviceId
+     *        - the ID of the device
+     */
+    void forget(String deviceId) {
+        PendingRelease pendingRelease = deviceIdToPendingRelease.remove(deviceId);
+
+        if (pendingRelease != null && pendingRelease.future != null) {
+            pendingRelease.future.cancel(false);
+        }
+
+        for (Map<String, Long> heldDevices : sessionIdToHeldDevices.values()) {
+            heldDevices.remove(deviceId);
+        }
+    }
+
+    /**
+     * Moves a device, which is waiting for its release after its session was closed, to the session of the reconnected
+     * client. Should be called only after the passkey of the device was validated.
+     *
+     * @param sessionId
+     *        - the ID of the new client session
+     * @param deviceId
+     *        - the ID of the device
+     * @return <code>true</code> if the release of the device was cancelled, <code>false</code> otherwise
+     */
+    boolean reclaim(String sessionId, String deviceId) {
+        if (deviceIdToPendingRelease.isEmpty()) {
+            return false;
+        }
+
+        PendingRelease pendingRelease = deviceIdToPendingRelease.remove(deviceId);
+
+        if (pendingRelease == null) {
+            return false;
+        }
+
+        // the scheduled release does nothing once removed, cancelling it only frees the scheduler earlier
+        if (pendingRelease.future != null) {
+            pendingRelease.future.cancel(false);
+        }
+
+        hold(sessionId, deviceId, pendingRelease.passkey);
+        LOGGER.info(String.format("Device with ID %s was reclaimed by a reconnected client.", deviceId));
+
+        return true;
+    }
+
+    /**
+     * Moves a device to the session of a client, which resumed its closed session on a new connection, whether the
+     * release of the device is already pending or the old session is not detected as closed yet.
+     *
+     * @param sessionId
+     *        - the ID of the new client session
+     * @param deviceId
+     *        - the ID of the device
+     */
+    void transfer(String sessionId, String deviceId) {
+        if (reclaim(sessionId, deviceId)) {
+            return;
+        }
+
+        for (Map.Entry<String, Map<String, Long>> sessionHeldDevices : sessionIdToHeldDevices.entrySet()) {
+            if (sessionId.equals(sessionHeldDevices.getKey())) {
+                continue;
+            }
+
+            Long passkey = sessionHeldDevices.getValue().remove(deviceId);
+
+            if (passkey != null) {
+                hold(sessionId, deviceId, passkey);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Releases all devices held by a closed client session, at once or after the grace period.
+     *
+     * @param sessionId
+     *        - the ID of the closed client session
+     */
+    void sessionClosed(String sessionId) {
+        Map<String, Long> heldDevices = sessionIdToHeldDevices.remove(sessionId);
+
+        if (heldDevices == null || heldDevices.isEmpty()) {
+            return;
+        }
+
+        LOGGER.info(String.format("Releasing %d device(s) of closed client session %s.",
+                                  heldDevices.size(),
+                                  sessionId));
+
+        for (Map.Entry<String, Long> heldDevice : heldDevices.entrySet()) {
+            String deviceId = heldDevice.getKey();
+            long passkey = heldDevice.getValue();
+
+            if (gracePeriod > 0) {
+                scheduleRelease(deviceId, passkey);
+            } else {
+                releaseDevice(deviceId, passkey);
+            }
+        }
+    }
+
+    /**
+     * Checks whether a client session holds any devices.
+     *
+     * @param sessionId
+     *        - the ID of the client session
+     * @return <code>true</code> if the session holds at least one device, <code>false</code> otherwise
+     */
+    boolean isHoldingDevices(String sessionId) {
+        Map<String, Long> heldDevices = sessionIdToHeldDevices.get(sessionId);
+
+        return heldDevices != null && !heldDevices.isEmpty();
+    }
+
+    private void scheduleRelease(final String deviceId, long passkey) {
+        final PendingRelease pendingRelease = new PendingRelease(passkey);
+
+        Runnable release = new Runnable() {
+            @Override
+            public void run() {
+                // a reclaimed device is removed from the pending releases before its release is cancelled
+                if (deviceIdToPendingRelease.remove(deviceId, pendingRelease)) {
+                    releaseDevice(deviceId, pendingRelease.passkey);
+                }
+            }
+        };
+
+        deviceIdToPendingRelease.put(deviceId, pendingRelease);
+        pendingRelease.future = getReleaseScheduler().schedule(release, gracePeriod, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized ScheduledThreadPoolExecutor getReleaseScheduler() {
+        if (releaseScheduler == null) {
+            releaseScheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread releaseThread = new Thread(runnable, RELEASE_THREAD_NAME);
+                    releaseThread.setDaemon(true);
+
+                    return releaseThread;
+                }
+            });
+            // the releases of the reclaimed devices are cancelled and should not be kept until they are due
+            releaseScheduler.setRemoveOnCancelPolicy(true);
+        }
+
+        return releaseScheduler;
+    }
+
+    private void releaseDevice(String deviceId, long passkey) {
+        try {
+            poolManager.releaseDevice(new DeviceAllocationInformation(passkey, deviceId));
+            LOGGER.info(String.format("Device with ID %s was released after its client session was closed.",
+                                      deviceId));
+        } catch (InvalidPasskeyException | DeviceNotFoundException e) {
+            // the lease of the device has expired in the meantime or the device is gone with its agent, so the device
+            // may already be allocated to another client, whose routes must be kept
+            LOGGER.info(String.format("Device with ID %s was no longer allocated to the closed client session.",
+                                      deviceId));
+            return;
+        }
+
+        releaseListener.onDeviceReleased(deviceId);
+    }
+
+    /**
+     * A release of a device delayed by the grace period.
+     */
+    private static class PendingRelease {
+        private final long passkey;
+
+        private volatile ScheduledFuture<?> future;
+
+        PendingRelease(long passkey) {
+            this.passkey = passkey;
+        }
+    }
+}
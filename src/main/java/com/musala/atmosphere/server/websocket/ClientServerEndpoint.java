@@ -16,6 +16,10 @@
 
 package com.musala.atmosphere.server.websocket;
 
+import java.nio.ByteBuffer;
+
+import javax.websocket.OnClose;
+import javax.websocket.OnError;
 import javax.websocket.OnMessage;
 import javax.websocket.Session;
 import javax.websocket.server.ServerEndpoint;
@@ -26,7 +30,7 @@ import com.musala.atmosphere.commons.cs.util.ClientServerGsonUtil;
 import com.musala.atmosphere.commons.websocket.message.MessageAction;
 import com.musala.atmosphere.commons.websocket.message.RequestMessage;
 import com.musala.atmosphere.commons.websocket.util.IJsonUtil;
-import com.musala.atmosphere.commons.websocket.util.JsonConst;
+import com.musala.atmosphere.server.util.ServerPropertiesLoader;
 
 /**
  * Represents an endpoint of the client-server communication. Handles all Client requests/responses.
@@ -34,7 +38,9 @@ import com.musala.atmosphere.commons.websocket.util.JsonConst;
  * @author dimcho.nedev
  *
  */
-@ServerEndpoint("/client_server")
+@ServerEndpoint(value = "/client_server",
+                subprotocols = BinaryFrameCodec.SUBPROTOCOL,
+                configurator = ClientServerEndpoint.Configurator.class)
 public class ClientServerEndpoint {
     private static final Logger LOGGER = Logger.getLogger(ClientServerEndpoint.class.getCanonicalName());
 
@@ -42,13 +48,59 @@ public class ClientServerEndpoint {
 
     private static final IJsonUtil jsonUtil = new ClientServerGsonUtil();
 
+    /**
+     * Negotiates the message compression on the endpoint, if enabled in the server config file.
+     */
+    public static class Configurator extends PerMessageDeflateConfigurator {
+        public Configurator() {
+            super(ServerPropertiesLoader.isClientServerDeflateEnabled());
+        }
+    }
+
+    @OnClose
+    public void onClose(Session session) {
+        dispatcher.removeSessionOutbound(session);
+        dispatcher.releaseSessionDevices(session);
+    }
+
+    /**
+     * Handles an error on the client connection. The devices of the client are released if the error has closed the
+     * session, the errors thrown while handling a message leave the session and its devices alone.
+     *
+     * @param session
+     *        - the session of the client
+     * @param error
+     *        - the error
+     */
+    @OnError
+    public void onError(Session session, Throwable error) {
+        LOGGER.error(String.format("Error on client session %s.", session.getId()), error);
+
+        if (!session.isOpen()) {
+            dispatcher.releaseSessionDevices(session);
+        }
+    }
+
     @OnMessage
     public void onJsonMessage(String jsonMessage, Session session) {
-        MessageAction messageAction = jsonUtil.getProperty(jsonMessage, JsonConst.MESSAGE_ACTION, MessageAction.class);
+        // only the envelope is read, the routed messages are forwarded without being deserialized
+        MessageEnvelope envelope = MessageEnvelopeReader.read(jsonMessage);
+
+        if (envelope.isLeaseRenewal()) {
+            dispatcher.renewLease(envelope, session);
+            return;
+        }
+
+        if (envelope.isSessionResumption()) {
+            dispatcher.resumeSession(jsonMessage, envelope, session);
+            return;
+        }
+
+        MessageAction messageAction = envelope.getMessageAction();
 
         switch (messageAction) {
             case ROUTING_ACTION:
-                dispatcher.route(jsonMessage, session);
+                dispatcher.route(jsonMessage, envelope, session);
                 break;
             case DEVICE_ALLOCATION_INFORMATION:
                 RequestMessage getDeviceAllocationInfoRequest = jsonUtil.deserializeRequest(jsonMessage);
@@ -70,4 +122,45 @@ public class ClientServerEndpoint {
         }
     }
 
+    /**
+     * Handles a message received in a binary frame from a peer that negotiated the
+     * {@link BinaryFrameCodec#SUBPROTOCOL binary subprotocol}. The routed messages are forwarded without decoding their
+     * payload, all other messages must carry a JSON payload and are handled as the text messages.
+     *
+     * @param message
+     *        - the content of the binary frame
+     * @param session
+     *        - the session of the peer
+     */
+    @OnMessage
+    public void onBinaryMessage(ByteBuffer message, Session session) {
+        BinaryFrame frame = BinaryFrameCodec.decode(message);
+
+        if (frame.getEnvelope().isLeaseRenewal()) {
+            dispatcher.renewLease(frame.getEnvelope(), session);
+            return;
+        }
+
+        if (frame.getEnvelope().isSessionResumption() && frame.isTextPayload()) {
+            dispatcher.resumeSession(frame.getPayloadText(), frame.getEnvelope(), session);
+            return;
+        }
+
+        MessageAction messageAction = frame.getEnvelope().getMessageAction();
+
+        switch (messageAction) {
+            case ROUTING_ACTION:
+                dispatcher.route(frame, session);
+                break;
+            default:
+                if (frame.isTextPayload()) {
+                    onJsonMessage(frame.getPayloadText(), session);
+                } else {
+                    LOGGER.error(String.format("Unsupported binary message action on the %s: %s",
+                                               this.getClass().getSimpleName(),
+                                               messageAction));
+                }
+                break;
+        }
+    }
 }
@@ -0,0 +1,290 @@
+// This file is part of the ATMOSPHERE mobile testing framework.
+// Copyright (C) 2016 MusalaSoft
+//
+// ATMOSPHERE is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// ATMOSPHERE is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with ATMOSPHERE.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.musala.atmosphere.server.websocket;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.websocket.Session;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Lets a client, whose WebSocket connection was dropped, resume its {@link Session session} on a new connection and
+ * keep its devices. Every client session holding devices gets a resumption token. While the session is closed, the
+ * messages to the client are kept in a small bounded replay buffer. A reconnected client presents the token and all of
+ * its device routes are rebound to the new session at once, after the buffered messages are replayed to it.
+ *
+ * @author dimcho.nedev
+ *
+ */
+class ClientSessionResumption {
+    private static final Logger LOGGER = Logger.getLogger(ClientSessionResumption.class.getCanonicalName());
+
+    /**
+     * A message to a client, which can be replayed to the session the client resumed on.
+     */
+    interface ReplayedMessage {
+        /**
+         * Sends the message to the given client session.
+         *
+         * @param clientSession
+         *        - the current session of the client
+         */
+        void replay(Session clientSession);
+    }
+
+    private final Map<String, ResumableSession> tokenToResumableSession = new ConcurrentHashMap<>();
+
+    private final Map<String, ResumableSession> sessionIdToResumableSession = new ConcurrentHashMap<>();
+
+    private final Map<String, ResumableSession> deviceIdToResumableSession = new ConcurrentHashMap<>();
+
+    private final int replayBufferSize;
+
+    /**
+     * Creates the resumption of the client sessions.
+     *
+     * @param replayBufferSize
+     *        - the maximum number of messages kept for a closed session, the oldest messages are dropped first
+     */
+    ClientSessionResumption(int replayBufferSize) {
+        this.replayBufferSize = replayBufferSize;
+    }
+
+    /**
+     * Binds a device allocated to a client to the resumable session of the client.
+     *
+     * @param clientSession
+     *        - the client's {@link Session session}
+     * @param deviceId
+     *        - the ID of the allocated device
+     * @return the resumption token of the client session
+     */
+    String bind(Session clientSession, String deviceId) {
+        ResumableSession resumableSession;
+
+        synchronized (this) {
+            resumableSession = sessionIdToResumableSession.get(clientSession.getId());
+
+            if (resumableSession == null) {
+                resumableSession = new ResumableSession(UUID.randomUUID().toString(), clientSession);
+                tokenToResumableSession.put(resumableSession.token, resumableSession);
+                sessionIdToResumableSession.put(clientSession.getId(), resumableSession);
+            }
+
+            resumableSession.deviceIds.add(deviceId);
+            deviceIdToResumableSession.put(deviceId, resumableSession);
+        }
+
+        return resumableSession.token;
+    }
+
+    /**
+     * Unbinds a device, which is no longer allocated to the client. The session of the client can not be resumed any
+     * more, if it is closed and holds no other devices.
+     *
+     * @param deviceId
+     *        - the ID of the device
+     */
+    synchronized void unbind(String deviceId) {
+        ResumableSession resumableSession = deviceIdToResumableSession.remove(deviceId);
+
+        if (resumableSession != null) {
+            resumableSession.deviceIds.remove(deviceId);
+            discardIfUnused(resumableSession);
+        }
+    }
+
+    /**
+     * Discards the resumption of a closed client session, if the session holds no devices.
+     *
+     * @param clientSession
+     *        - the closed client {@link Session session}
+     */
+    synchronized void sessionClosed(Session clientSession) {
+        ResumableSession resumableSession = sessionIdToResumableSession.get(clientSession.getId());
+
+        if (resumableSession != null) {
+            discardIfUnused(resumableSession);
+        }
+    }
+
+    private void discardIfUnused(ResumableSession resumableSession) {
+        if (resumableSession.deviceIds.isEmpty() && !resumableSession.isOpen()) {
+            tokenToResumableSession.remove(resumableSession.token);
+            sessionIdToResumableSession.remove(resumableSession.getSessionId());
+        }
+    }
+
+    /**
+     * Sends a message to the current session of the client holding a device, or keeps it for replay if the session is
+     * closed.
+     *
+     * @param deviceId
+     *        - the ID of the device the message comes from
+     * @param message
+     *        - the message
+     * @return <code>true</code> if the message was sent or kept, <code>false</code> if the device is not bound to a
+     *         resumable session
+     */
+    boolean send(String deviceId, ReplayedMessage message) {
+        ResumableSession resumableSession = deviceIdToResumableSession.get(deviceId);
+
+        if (resumableSession == null) {
+            return false;
+        }
+
+        resumableSession.send(message);
+
+        return true;
+    }
+
+    /**
+     * Resumes a client session on a new connection. The buffered messages are replayed to the new session and all
+     * messages sent after that go to the new session as well.
+     *
+     * @param resumeToken
+     *        - the resumption token of the client session
+     * @param newClientSession
+     *        - the {@link Session session} of the reconnected client
+     * @return the IDs of the devices bound to the resumed session or <code>null</code> if the token is unknown
+     */
+    List<String> resume(String resumeToken, Session newClientSession) {
+        ResumableSession resumableSession;
+        List<String> deviceIds;
+
+        synchronized (this) {
+            resumableSession = tokenToResumableSession.get(resumeToken);
+
+            if (resumableSession == null) {
+                return null;
+            }
+
+            sessionIdToResumableSession.remove(resumableSession.getSessionId());
+            sessionIdToResumableSession.put(newClientSession.getId(), resumableSession);
+            deviceIds = new ArrayList<>(resumableSession.deviceIds);
+        }
+
+        resumableSession.rebind(newClientSession);
+
+        return deviceIds;
+    }
+
+    /**
+     * A client session, which can be resumed on a new connection.
+     */
+    private class ResumableSession {
+        private final String token;
+
+        private final Set<String> deviceIds = new HashSet<>();
+
+        private final Deque<ReplayedMessage> replayBuffer = new ArrayDeque<>();
+
+        private Session session;
+
+        private int droppedMessages;
+
+        private boolean isReplaying;
+
+        ResumableSession(String token, Session session) {
+            this.token = token;
+            this.session = session;
+        }
+
+        synchronized String getSessionId() {
+            return session.getId();
+        }
+
+        synchronized boolean isOpen() {
+            return session.isOpen();
+        }
+
+        void send(ReplayedMessage message) {
+            Session currentSession;
+
+            // only the decision is taken under the lock, so a slow send does not hold up the other messages
+            synchronized (this) {
+                if (!session.isOpen() || isReplaying) {
+                    buffer(message);
+                    return;
+                }
+
+                currentSession = session;
+            }
+
+            message.replay(currentSession);
+        }
+
+        void rebind(Session newSession) {
+            synchronized (this) {
+                session = newSession;
+
+                if (droppedMessages > 0) {
+                    LOGGER.warn(String.format("%d message(s) to client session %s were dropped before it was resumed.",
+                                              droppedMessages,
+                                              newSession.getId()));
+                    droppedMessages = 0;
+                }
+
+                // the replay in progress picks up the new session
+                if (isReplaying) {
+                    return;
+                }
+
+                isReplaying = true;
+            }
+
+            // the messages sent during the replay are buffered behind the replayed ones, so they keep their order
+            while (true) {
+                List<ReplayedMessage> replayedMessages;
+                Session currentSession;
+
+                synchronized (this) {
+                    if (replayBuffer.isEmpty()) {
+                        isReplaying = false;
+                        return;
+                    }
+
+                    replayedMessages = new ArrayList<>(replayBuffer);
+                    replayBuffer.clear();
+                    currentSession = session;
+                }
+
+                for (ReplayedMessage replayedMessage : replayedMessages) {
+                    replayedMessage.replay(currentSession);
+                }
+            }
+        }
+
+        private void buffer(ReplayedMessage message) {
+            if (replayBuffer.size() >= replayBufferSize) {
+                replayBuffer.pollFirst();
+                droppedMessages++;
+            }
+
+            replayBuffer.offerLast(message);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+// This file is part of the ATMOSPHERE mobile testing framework.
+// Copyright (C) 2016 MusalaSoft
+//
+// ATMOSPHERE is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// ATMOSPHERE is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with ATMOSPHERE.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.musala.atmosphere.server.websocket;
+
+import com.musala.atmosphere.commons.websocket.message.MessageAction;
+
+/**
+ * Holds the envelope fields of a JSON message, which are needed to route the message without deserializing it.
+ *
+ * @author dimcho.nedev
+ *
+ */
+class MessageEnvelope {
+    /**
+     * The action of the messages renewing the lease of an allocated device. The renewals are handled by the server
+     * alone, so the action is not one of the {@link MessageAction message actions} shared with the clients and agents.
+     */
+    static final String RENEW_LEASE_ACTION = "RENEW_LEASE";
+
+    /**
+     * The action of the messages resuming a client session on a new connection. The resumptions are handled by the
+     * server alone, like the lease renewals.
+     */
+    static final String RESUME_SESSION_ACTION = "RESUME_SESSION";
+
+    private static final int MESSAGE_ACTION_FIELD = 1;
+
+    private static final int DEVICE_ID_FIELD = 1 << 1;
+
+    private static final int PASSKEY_FIELD = 1 << 2;
+
+    private static final int SESSION_ID_FIELD = 1 << 3;
+
+    private static final int ALL_FIELDS = MESSAGE_ACTION_FIELD | DEVICE_ID_FIELD | PASSKEY_FIELD | SESSION_ID_FIELD;
+
+    private String messageAction;
+
+    private String deviceId;
+
+    private Long passkey;
+
+    private String sessionId;
+
+    private int readFields;
+
+    /**
+     * Gets the action of the message.
+     *
+     * @return the {@link MessageAction action} of the message or <code>null</code> if the message has no action
+     */
+    MessageAction getMessageAction() {
+        return messageAction != null ? MessageAction.valueOf(messageAction) : null;
+    }
+
+    /**
+     * Checks whether the message renews the lease of an allocated device.
+     *
+     * @return <code>true</code> if the message is a lease renewal, <code>false</code> otherwise
+     */
+    boolean isLeaseRenewal() {
+        return RENEW_LEASE_ACTION.equals(messageAction);
+    }
+
+    /**
+     * Checks whether the message resumes a client session on a new connection.
+     *
+     * @return <code>true</code> if the message is a session resumption, <code>false</code> otherwise
+     */
+    boolean isSessionResumption() {
+        return RESUME_SESSION_ACTION.equals(messageAction);
+    }
+
+    String getDeviceId() {
+        return deviceId;
+    }
+
+    Long getPasskey() {
+        return passkey;
+    }
+
+    String getSessionId() {
+        return sessionId;
+    }
+
+    void setMessageAction(String messageAction) {
+        this.messageAction = messageAction;
+        readFields |= MESSAGE_ACTION_FIELD;
+    }
+
+    void setDeviceId(String deviceId) {
+        this.deviceId = deviceId;
+        readFields |= DEVICE_ID_FIELD;
+    }
+
+    void setPasskey(Long passkey) {
+        this.passkey = passkey;
+        readFields |= PASSKEY_FIELD;
+    }
+
+    void setSessionId(String sessionId) {
+        this.sessionId = sessionId;
+        readFields |= SESSION_ID_FIELD;
+    }
+
+    /**
+     * Checks whether all envelope fields are already read, so the rest of the message does not have to be scanned.
+     *
+     * @return <code>true</code> if all fields are read, <code>false</code> otherwise
+     */
+    boolean isComplete() {
+        return readFields == ALL_FIELDS;
+    }
+}
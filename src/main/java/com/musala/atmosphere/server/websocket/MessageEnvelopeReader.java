@@ -0,0 +1,95 @@
+// This file is part of the ATMOSPHERE mobile testing framework.
+// Copyright (C) 2016 MusalaSoft
+//
+// ATMOSPHERE is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// ATMOSPHERE is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with ATMOSPHERE.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.musala.atmosphere.server.websocket;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.musala.atmosphere.commons.websocket.util.JsonConst;
+
+/**
+ * Reads the {@link MessageEnvelope envelope} of a JSON message in a single streaming pass. Only the top level fields of
+ * the message are visited, the values of all other fields (like the arguments and the results of the routed actions)
+ * are skipped without being parsed into objects and the reading stops as soon as all envelope fields are found. The
+ * message itself is never modified, so it can be forwarded as it is.
+ *
+ * @author dimcho.nedev
+ *
+ */
+class MessageEnvelopeReader {
+    private MessageEnvelopeReader() {
+    }
+
+    /**
+     * Reads the envelope fields of the given JSON message.
+     *
+     * @param jsonMessage
+     *        - the JSON message
+     * @return the {@link MessageEnvelope envelope} of the message
+     * @throws JsonParseException
+     *         - thrown when the message is not a valid JSON object
+     */
+    static MessageEnvelope read(String jsonMessage) {
+        MessageEnvelope envelope = new MessageEnvelope();
+        JsonReader reader = new JsonReader(new StringReader(jsonMessage));
+
+        try {
+            reader.beginObject();
+
+            while (!envelope.isComplete() && reader.hasNext()) {
+                String name = reader.nextName();
+
+                if (JsonConst.MESSAGE_ACTION.equals(name)) {
+                    envelope.setMessageAction(nextString(reader));
+                } else if (JsonConst.DEVICE_ID.equals(name)) {
+                    envelope.setDeviceId(nextString(reader));
+                } else if (JsonConst.DEVICE_PASSKEY.equals(name)) {
+                    envelope.setPasskey(nextLong(reader));
+                } else if (JsonConst.SESSION_ID.equals(name)) {
+                    envelope.setSessionId(nextString(reader));
+                } else {
+                    reader.skipValue();
+                }
+            }
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            throw new JsonParseException("Failed to read the envelope of the JSON message.", e);
+        }
+
+        return envelope;
+    }
+
+    private static String nextString(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+
+        return reader.nextString();
+    }
+
+    private static Long nextLong(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+
+        return reader.nextLong();
+    }
+}
@@ -0,0 +1,38 @@
+// This file is part of the ATMOSPHERE mobile testing framework.
+// Copyright (C) 2016 MusalaSoft
+//
+// ATMOSPHERE is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// ATMOSPHERE is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with ATMOSPHERE.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.musala.atmosphere.server.websocket;
+
+/**
+ * Enumerates the possible reactions when a message is sent to a WebSocket session whose outbound queue is full.
+ *
+ * @author dimcho.nedev
+ *
+ */
+public enum OutboundOverflowPolicy {
+    /**
+     * The message is discarded and the session stays open.
+     */
+    DROP,
+    /**
+     * The sending thread waits until there is space in the queue or the session is closed.
+     */
+    BLOCK,
+    /**
+     * The session is closed, so the peer has to reconnect and the queued messages are discarded.
+     */
+    DISCONNECT;
+}
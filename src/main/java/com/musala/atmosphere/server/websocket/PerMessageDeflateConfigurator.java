@@ -0,0 +1,103 @@
+// This file is part of the ATMOSPHERE mobile testing framework.
+// Copyright (C) 2016 MusalaSoft
+//
+// ATMOSPHERE is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// ATMOSPHERE is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with ATMOSPHERE.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.musala.atmosphere.server.websocket;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.websocket.Extension;
+import javax.websocket.Extension.Parameter;
+import javax.websocket.server.ServerEndpointConfig;
+
+import com.musala.atmosphere.server.util.ServerPropertiesLoader;
+
+/**
+ * Endpoint configurator, which negotiates the {@link PerMessageDeflateExtension permessage-deflate} extension with the
+ * peers that offer it, if compression is enabled for the endpoint in the server config file.
+ *
+ * @author dimcho.nedev
+ *
+ */
+class PerMessageDeflateConfigurator extends ServerEndpointConfig.Configurator {
+    private final boolean isEnabled;
+
+    private final int threshold;
+
+    private final int compressionLevel;
+
+    /**
+     * Creates a configurator, which uses the compression threshold and level from the server config file.
+     *
+     * @param isEnabled
+     *        - whether the extension should be negotiated on the endpoint
+     */
+    PerMessageDeflateConfigurator(boolean isEnabled) {
+        this.isEnabled = isEnabled;
+        this.threshold = ServerPropertiesLoader.getDeflateThreshold();
+        this.compressionLevel = ServerPropertiesLoader.getDeflateLevel();
+    }
+
+    @Override
+    public List<Extension> getNegotiatedExtensions(List<Extension> installed, List<Extension> requested) {
+        List<Extension> negotiatedExtensions = new ArrayList<>(super.getNegotiatedExtensions(installed, requested));
+
+        if (isEnabled) {
+            // the peer may send several offers with different parameters, the first supported one is accepted
+            for (Extension requestedExtension : requested) {
+                List<Parameter> offerParameters = requestedExtension.getParameters();
+
+                if (PerMessageDeflateExtension.NAME.equals(requestedExtension.getName())
+                        && isSupported(offerParameters)) {
+                    boolean isNoContextTakeover = hasParameter(offerParameters,
+                                                               PerMessageDeflateExtension.SERVER_NO_CONTEXT_TAKEOVER);
+                    negotiatedExtensions.add(new PerMessageDeflateExtension(threshold,
+                                                                            compressionLevel,
+                                                                            isNoContextTakeover));
+                    break;
+                }
+            }
+        }
+
+        return negotiatedExtensions;
+    }
+
+    private static boolean hasParameter(List<Parameter> offerParameters, String name) {
+        for (Parameter parameter : offerParameters) {
+            if (name.equals(parameter.getName())) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static boolean isSupported(List<Parameter> offerParameters) {
+        for (Parameter parameter : offerParameters) {
+            if (PerMessageDeflateExtension.SERVER_MAX_WINDOW_BITS.equals(parameter.getName())) {
+                String windowBits = parameter.getValue();
+
+                // the deflater works only with the maximum window size
+                if (windowBits != null
+                        && !String.valueOf(PerMessageDeflateExtension.MAX_WINDOW_BITS).equals(windowBits.trim())) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+}
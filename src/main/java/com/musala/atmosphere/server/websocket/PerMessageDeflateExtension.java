@@ -0,0 +1,270 @@
+// This file is part of the ATMOSPHERE mobile testing framework.
+// Copyright (C) 2016 MusalaSoft
+//
+// ATMOSPHERE is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// ATMOSPHERE is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with ATMOSPHERE.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.musala.atmosphere.server.websocket;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import javax.websocket.Extension;
+
+import org.glassfish.tyrus.core.extension.ExtendedExtension;
+import org.glassfish.tyrus.core.frame.Frame;
+
+/**
+ * The permessage-deflate WebSocket extension (RFC 7692). Outgoing messages shorter than a configurable threshold are
+ * sent uncompressed, because compressing small messages costs more CPU time than the bandwidth it saves. The
+ * compression context is kept between the messages of a session, unless the peer asks otherwise.
+ *
+ * @author dimcho.nedev
+ *
+ */
+class PerMessageDeflateExtension implements ExtendedExtension {
+    static final String NAME = "permessage-deflate";
+
+    static final String SERVER_NO_CONTEXT_TAKEOVER = "server_no_context_takeover";
+
+    static final String SERVER_MAX_WINDOW_BITS = "server_max_window_bits";
+
+    /**
+     * The only window size supported by {@link Deflater}.
+     */
+    static final int MAX_WINDOW_BITS = 15;
+
+    private static final byte CONTINUATION_OPCODE = 0x00;
+
+    private static final byte TEXT_OPCODE = 0x01;
+
+    private static final byte BINARY_OPCODE = 0x02;
+
+    private static final byte[] DEFLATE_TAIL = new byte[] {0x00, 0x00, (byte) 0xFF, (byte) 0xFF};
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final String DEFLATER_PROPERTY = "deflater";
+
+    private static final String INFLATER_PROPERTY = "inflater";
+
+    private static final String COMPRESSED_MESSAGE_PROPERTY = "compressedMessage";
+
+    private final int threshold;
+
+    private final int compressionLevel;
+
+    private final boolean isNoContextTakeover;
+
+    /**
+     * Creates the extension for a session, whose peer made an offer with the given parameters.
+     *
+     * @param threshold
+     *        - the minimum size in bytes of an outgoing message, which is compressed
+     * @param compressionLevel
+     *        - the {@link Deflater} compression level, from 0 to 9
+     * @param isNoContextTakeover
+     *        - whether the peer asked the compression context to be reset after every message
+     */
+    PerMessageDeflateExtension(int threshold, int compressionLevel, boolean isNoContextTakeover) {
+        this.threshold = threshold;
+        this.compressionLevel = compressionLevel;
+        this.isNoContextTakeover = isNoContextTakeover;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public List<Parameter> getParameters() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public List<Parameter> onExtensionNegotiation(ExtensionContext context, List<Parameter> requestedParameters) {
+        // the container does not pass the requested parameters, the offer is inspected by the endpoint configurator
+        context.getProperties().put(DEFLATER_PROPERTY, new Deflater(compressionLevel, true));
+        context.getProperties().put(INFLATER_PROPERTY, new Inflater(true));
+
+        List<Parameter> responseParameters = new ArrayList<>();
+        if (isNoContextTakeover) {
+            responseParameters.add(new Parameter() {
+                @Override
+                public String getName() {
+                    return SERVER_NO_CONTEXT_TAKEOVER;
+                }
+
+                @Override
+                public String getValue() {
+                    return null;
+                }
+            });
+        }
+
+        return responseParameters;
+    }
+
+    @Override
+    public void onHandshakeResponse(ExtensionContext context, List<Parameter> responseParameters) {
+        // only used on the client side
+    }
+
+    @Override
+    public Frame processIncoming(ExtensionContext context, Frame frame) {
+        if (frame.isControlFrame()) {
+            return frame;
+        }
+
+        // only the first frame of a compressed message has the RSV1 bit set
+        if (frame.getOpcode() != CONTINUATION_OPCODE) {
+            context.getProperties().put(COMPRESSED_MESSAGE_PROPERTY, frame.isRsv1());
+        }
+
+        if (!Boolean.TRUE.equals(context.getProperties().get(COMPRESSED_MESSAGE_PROPERTY))) {
+            return frame;
+        }
+
+        Inflater inflater = (Inflater) context.getProperties().get(INFLATER_PROPERTY);
+        byte[] payload = inflate(inflater, frame.getPayloadData(), frame.isFin());
+
+        return Frame.builder(frame).rsv1(false).payloadData(payload).payloadLength(payload.length).build();
+    }
+
+    @Override
+    public Frame processOutgoing(ExtensionContext context, Frame frame) {
+        byte opcode = frame.getOpcode();
+
+        // fragmented messages are sent uncompressed, as the compression decision is made on the whole message
+        if (!frame.isFin() || (opcode != TEXT_OPCODE && opcode != BINARY_OPCODE)) {
+            return frame;
+        }
+
+        byte[] payload = frame.getPayloadData();
+        if (payload.length < threshold) {
+            return frame;
+        }
+
+        Deflater deflater = (Deflater) context.getProperties().get(DEFLATER_PROPERTY);
+        byte[] compressedPayload = deflate(deflater, payload, isNoContextTakeover);
+
+        return Frame.builder(frame)
+                    .rsv1(true)
+                    .payloadData(compressedPayload)
+                    .payloadLength(compressedPayload.length)
+                    .build();
+    }
+
+    @Override
+    public void destroy(ExtensionContext context) {
+        Deflater deflater = (Deflater) context.getProperties().remove(DEFLATER_PROPERTY);
+        if (deflater != null) {
+            deflater.end();
+        }
+
+        Inflater inflater = (Inflater) context.getProperties().remove(INFLATER_PROPERTY);
+        if (inflater != null) {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Compresses a message payload, as defined by the extension - a raw deflate block flushed with
+     * {@link Deflater#SYNC_FLUSH}, without the trailing empty block.
+     *
+     * @param deflater
+     *        - the deflater of the session
+     * @param payload
+     *        - the payload to compress
+     * @param isNoContextTakeover
+     *        - whether the compression context must be reset after the message
+     * @return the compressed payload
+     */
+    static byte[] deflate(Deflater deflater, byte[] payload, boolean isNoContextTakeover) {
+        synchronized (deflater) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream(payload.length / 2 + DEFLATE_TAIL.length);
+            byte[] buffer = new byte[BUFFER_SIZE];
+
+            deflater.setInput(payload);
+
+            int length;
+            do {
+                length = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                output.write(buffer, 0, length);
+            } while (length == buffer.length);
+
+            if (isNoContextTakeover) {
+                deflater.reset();
+            }
+
+            byte[] compressedPayload = output.toByteArray();
+            int compressedLength = compressedPayload.length - DEFLATE_TAIL.length;
+            byte[] result = new byte[compressedLength];
+            System.arraycopy(compressedPayload, 0, result, 0, compressedLength);
+
+            return result;
+        }
+    }
+
+    /**
+     * Decompresses a frame of a compressed message.
+     *
+     * @param inflater
+     *        - the inflater of the session
+     * @param payload
+     *        - the compressed payload of the frame
+     * @param isFinalFrame
+     *        - whether this is the last frame of the message, so the removed empty block should be added back
+     * @return the decompressed payload
+     */
+    static byte[] inflate(Inflater inflater, byte[] payload, boolean isFinalFrame) {
+        synchronized (inflater) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream(payload.length * 4);
+            byte[] buffer = new byte[BUFFER_SIZE];
+
+            try {
+                inflateInto(inflater, payload, buffer, output);
+
+                if (isFinalFrame) {
+                    inflateInto(inflater, DEFLATE_TAIL, buffer, output);
+                }
+
+                // a peer that ends its messages with a final block starts a new stream with the next message
+                if (inflater.finished()) {
+                    inflater.reset();
+                }
+            } catch (DataFormatException e) {
+                throw new IllegalArgumentException("Failed to decompress a WebSocket message.", e);
+            }
+
+            return output.toByteArray();
+        }
+    }
+
+    private static void inflateInto(Inflater inflater, byte[] input, byte[] buffer, ByteArrayOutputStream output)
+        throws DataFormatException {
+        inflater.setInput(input);
+
+        int length;
+        do {
+            length = inflater.inflate(buffer);
+            output.write(buffer, 0, length);
+        } while (length > 0 || !inflater.needsInput() && !inflater.finished());
+    }
+}
@@ -16,7 +16,11 @@
 
 package com.musala.atmosphere.server.websocket;
 
+import java.nio.ByteBuffer;
+
+import javax.websocket.OnClose;
 import javax.websocket.OnMessage;
+import javax.websocket.PongMessage;
 import javax.websocket.Session;
 import javax.websocket.server.ServerEndpoint;
 
@@ -27,7 +31,7 @@ import com.musala.atmosphere.commons.websocket.message.RequestMessage;
 import com.musala.atmosphere.commons.websocket.message.ResponseMessage;
 import com.musala.atmosphere.commons.websocket.util.GsonUtil;
 import com.musala.atmosphere.commons.websocket.util.IJsonUtil;
-import com.musala.atmosphere.commons.websocket.util.JsonConst;
+import com.musala.atmosphere.server.util.ServerPropertiesLoader;
 
 /**
  * Represents a common endpoint for all incoming messages from the Agent. Handles the JSON message, resolves the type of
@@ -36,7 +40,9 @@ import com.musala.atmosphere.commons.websocket.util.JsonConst;
  *
  * @author dimcho.nedev
  */
-@ServerEndpoint("/server_agent")
+@ServerEndpoint(value = "/server_agent",
+                subprotocols = BinaryFrameCodec.SUBPROTOCOL,
+                configurator = ServerAgentEndpoint.Configurator.class)
 public class ServerAgentEndpoint {
     private static final Logger LOGGER = Logger.getLogger(ServerEndpoint.class.getCanonicalName());
 
@@ -44,9 +50,25 @@ public class ServerAgentEndpoint {
 
     private static final IJsonUtil jsonUtil = new GsonUtil();
 
+    /**
+     * Negotiates the message compression on the endpoint, if enabled in the server config file.
+     */
+    public static class Configurator extends PerMessageDeflateConfigurator {
+        public Configurator() {
+            super(ServerPropertiesLoader.isServerAgentDeflateEnabled());
+        }
+    }
+
+    @OnClose
+    public void onClose(Session session) {
+        dispatcher.removeSessionOutbound(session);
+    }
+
     @OnMessage
     public void onJsonMessage(String jsonMessage, Session session) {
-        MessageAction messageAction = jsonUtil.getProperty(jsonMessage, JsonConst.MESSAGE_ACTION, MessageAction.class);
+        // only the envelope is read, the routed messages are forwarded without being deserialized
+        MessageEnvelope envelope = MessageEnvelopeReader.read(jsonMessage);
+        MessageAction messageAction = envelope.getMessageAction();
 
         switch (messageAction) {
             case REGISTER_AGENT:
@@ -59,7 +81,7 @@ public class ServerAgentEndpoint {
                 break;
             case ROUTING_ACTION:
             case ERROR:
-                dispatcher.sendToClient(jsonMessage);
+                dispatcher.sendToClient(jsonMessage, envelope);
                 break;
             default:
                 LOGGER.error(String.format("Unknown message action on the %s: %s",
@@ -69,4 +91,48 @@ public class ServerAgentEndpoint {
         }
     }
 
+    /**
+     * Handles a pong received from the agent, which answers a ping of the server.
+     *
+     * @param pongMessage
+     *        - the pong with the echoed payload of the ping
+     * @param session
+     *        - the session of the agent
+     */
+    @OnMessage
+    public void onPongMessage(PongMessage pongMessage, Session session) {
+        dispatcher.onAgentPong(session, pongMessage.getApplicationData());
+    }
+
+    /**
+     * Handles a message received in a binary frame from a peer that negotiated the
+     * {@link BinaryFrameCodec#SUBPROTOCOL binary subprotocol}. The routed messages are forwarded without decoding their
+     * payload, all other messages must carry a JSON payload and are handled as the text messages.
+     *
+     * @param message
+     *        - the content of the binary frame
+     * @param session
+     *        - the session of the peer
+     */
+    @OnMessage
+    public void onBinaryMessage(ByteBuffer message, Session session) {
+        BinaryFrame frame = BinaryFrameCodec.decode(message);
+        MessageAction messageAction = frame.getEnvelope().getMessageAction();
+
+        switch (messageAction) {
+            case ROUTING_ACTION:
+            case ERROR:
+                dispatcher.sendToClient(frame);
+                break;
+            default:
+                if (frame.isTextPayload()) {
+                    onJsonMessage(frame.getPayloadText(), session);
+                } else {
+                    LOGGER.error(String.format("Unsupported binary message action on the %s: %s",
+                                               this.getClass().getSimpleName(),
+                                               messageAction));
+                }
+                break;
+        }
+    }
 }
@@ -16,39 +16,55 @@
 
 package com.musala.atmosphere.server.websocket;
 
-import static com.musala.atmosphere.commons.websocket.util.JsonConst.DEVICE_ID;
-import static com.musala.atmosphere.commons.websocket.util.JsonConst.DEVICE_PASSKEY;
-import static com.musala.atmosphere.commons.websocket.util.JsonConst.SESSION_ID;
-
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 
+import javax.websocket.CloseReason;
 import javax.websocket.DeploymentException;
 import javax.websocket.Session;
 
 import org.apache.log4j.Logger;
 
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
 import com.musala.atmosphere.commons.DeviceInformation;
 import com.musala.atmosphere.commons.cs.clientbuilder.DeviceAllocationInformation;
 import com.musala.atmosphere.commons.cs.deviceselection.DeviceSelector;
 import com.musala.atmosphere.commons.cs.exception.InvalidPasskeyException;
-import com.musala.atmosphere.commons.cs.exception.NoDeviceMatchingTheGivenSelectorException;
 import com.musala.atmosphere.commons.exceptions.CommandFailedException;
 import com.musala.atmosphere.commons.exceptions.DeviceNotFoundException;
-import com.musala.atmosphere.commons.exceptions.NoAvailableDeviceFoundException;
 import com.musala.atmosphere.commons.util.Pair;
 import com.musala.atmosphere.commons.websocket.message.MessageAction;
 import com.musala.atmosphere.commons.websocket.message.RequestMessage;
 import com.musala.atmosphere.commons.websocket.message.ResponseMessage;
 import com.musala.atmosphere.commons.websocket.util.GsonUtil;
 import com.musala.atmosphere.commons.websocket.util.IJsonUtil;
+import com.musala.atmosphere.commons.websocket.util.JsonConst;
 import com.musala.atmosphere.server.DeviceAllocationManager;
 import com.musala.atmosphere.server.PasskeyAuthority;
 import com.musala.atmosphere.server.ServerManager;
+import com.musala.atmosphere.server.allocation.AllocationPriority;
+import com.musala.atmosphere.server.monitor.AgentMonitor;
 import com.musala.atmosphere.server.pool.ClientRequestMonitor;
 import com.musala.atmosphere.server.pool.PoolManager;
+import com.musala.atmosphere.server.util.ServerPropertiesLoader;
 
 /**
  * Dispatches the {@link RequestMessage request} and {@link ResponseMessage response} messages. The ServerDispatcher is
@@ -65,24 +81,62 @@ public class ServerDispatcher {
      */
     private static final int WAIT_FOR_DEVICE_TIMEOUT = 300_000; // milliseconds(5 minutes)
 
+    private static final String LEASE_DURATION_FIELD = "leaseDuration";
+
+    private static final String RESUME_TOKEN_FIELD = "resumeToken";
+
+    private static final String DEVICE_IDS_FIELD = "deviceIds";
+
+    private static final String ALLOCATION_RESPONSE_THREAD_NAME = "allocation-response";
+
+    private static final String AGENT_ID_SESSION_PROPERTY = "agentId";
+
     private ServerManager serverManager;
 
+    private AgentMonitor agentMonitor;
+
     private Map<String, Session> agentIdToAgentSessionCache = new ConcurrentHashMap<>();
 
     private Map<String, Session> deviceIdToClientSessionCache = new ConcurrentHashMap<>();
 
     private Map<String, Session> deviceIdToAgentSessionCache = new ConcurrentHashMap<>();
 
+    private Map<String, SessionOutbound> sessionIdToOutboundCache = new ConcurrentHashMap<>();
+
+    private final int outboundQueueSize = ServerPropertiesLoader.getOutboundQueueSize();
+
+    private final OutboundOverflowPolicy outboundOverflowPolicy = ServerPropertiesLoader.getOutboundOverflowPolicy();
+
     private final IJsonUtil jsonUtil = new GsonUtil();
 
     private PoolManager poolManager = PoolManager.getInstance();
 
     private org.glassfish.tyrus.server.Server server;
 
-    private ClientRequestMonitor timeoutMonitor = new ClientRequestMonitor();
+    private ClientRequestMonitor timeoutMonitor = ClientRequestMonitor.getInstance();
 
     private DeviceAllocationManager allocationManager;
 
+    private final ClientDeviceTracker deviceTracker;
+
+    private final ClientSessionResumption sessionResumption;
+
+    // bounded, so the completions of many allocations at once are sent by the completing threads instead of piling up
+    private final ExecutorService allocationResponseExecutor = createAllocationResponseExecutor();
+
+    private ServerDispatcher() {
+        long clientReconnectGracePeriod = ServerPropertiesLoader.getClientReconnectGracePeriod();
+        deviceTracker = new ClientDeviceTracker(poolManager,
+                                                clientReconnectGracePeriod,
+                                                new ClientDeviceTracker.ReleaseListener() {
+                                                    @Override
+                                                    public void onDeviceReleased(String deviceId) {
+                                                        removeCachedSessionByDeviceId(deviceId);
+                                                    }
+                                                });
+        sessionResumption = new ClientSessionResumption(ServerPropertiesLoader.getClientReplayBufferSize());
+    }
+
     private static class DispatcherLoader {
         private static final ServerDispatcher INSTANCE = new ServerDispatcher();
     }
@@ -137,6 +191,7 @@ public class ServerDispatcher {
         String agentId = (String) params[0];
         DeviceInformation[] devicesInformation = (DeviceInformation[]) params[1];
 
+        agentSession.getUserProperties().put(AGENT_ID_SESSION_PROPERTY, agentId);
         agentIdToAgentSessionCache.put(agentId, agentSession);
         serverManager.registerAgent(agentId);
 
@@ -175,10 +230,69 @@ public class ServerDispatcher {
      *        - client {@link Session session}
      */
     public void route(String jsonRequest, Session clientSession) {
-        String deviceId = jsonUtil.getProperty(jsonRequest, DEVICE_ID, String.class);
+        route(jsonRequest, MessageEnvelopeReader.read(jsonRequest), clientSession);
+    }
+
+    /**
+     * Routes the JSON request message to the Agent using the already read envelope of the message. The message is
+     * forwarded as it is, without being parsed again.
+     *
+     * @param jsonRequest
+     *        - JSON request message
+     * @param envelope
+     *        - the {@link MessageEnvelope envelope} of the request message
+     * @param clientSession
+     *        - client {@link Session session}
+     */
+    void route(String jsonRequest, MessageEnvelope envelope, Session clientSession) {
+        Session agentSession = getRouteTarget(envelope, clientSession);
+
+        if (agentSession != null) {
+            sendText(jsonRequest, agentSession);
+        }
+    }
+
+    /**
+     * Routes a request received in a binary frame to the Agent. The frame is forwarded as it is, without decoding its
+     * payload, unless the Agent works in text mode and the payload has to be sent as a JSON message.
+     *
+     * @param request
+     *        - the {@link BinaryFrame binary frame} with the request
+     * @param clientSession
+     *        - client {@link Session session}
+     */
+    void route(BinaryFrame request, Session clientSession) {
+        Session agentSession = getRouteTarget(request.getEnvelope(), clientSession);
+
+        if (agentSession != null) {
+            forward(request, agentSession, clientSession);
+        }
+    }
+
+    /**
+     * Validates the device passkey of a routed request and gets the session of the Agent that the request should be
+     * sent to. Caches the client {@link Session session} for the responses of the Agent. If an error occurs removes the
+     * client session cache and sends an error response back to the client.
+     *
+     * @param envelope
+     *        - the {@link MessageEnvelope envelope} of the request message
+     * @param clientSession
+     *        - client {@link Session session}
+     * @return the {@link Session session} of the Agent or <code>null</code> if the request can not be routed
+     */
+    private Session getRouteTarget(MessageEnvelope envelope, Session clientSession) {
+        String deviceId = envelope.getDeviceId();
+        Long passkey = envelope.getPasskey();
 
         try {
-            PasskeyAuthority.validatePasskey(jsonUtil.getProperty(jsonRequest, DEVICE_PASSKEY, Long.class), deviceId);
+            if (passkey == null) {
+                throw new InvalidPasskeyException("The request has no passkey for the specified device.");
+            }
+
+            PasskeyAuthority.validatePasskey(passkey, deviceId);
+            // a client reconnected in the grace period keeps the devices of its closed session
+            deviceTracker.reclaim(clientSession.getId(), deviceId);
+
             if (!deviceIdToAgentSessionCache.containsKey(deviceId)) {
                 String agentId = poolManager.getDeviceById(deviceId).getAgentId();
                 Session agentSession = agentIdToAgentSessionCache.get(agentId);
@@ -192,14 +306,16 @@ public class ServerDispatcher {
 
             deviceIdToClientSessionCache.put(deviceId, clientSession);
             Session agentSession = deviceIdToAgentSessionCache.get(deviceId);
-            timeoutMonitor.restartTimerForDevice(deviceId);
+            // the routed requests renew the lease as well, for the clients which do not renew it explicitly
+            timeoutMonitor.renewLease(deviceId);
 
-            sendText(jsonRequest, agentSession);
+            return agentSession;
         } catch (InvalidPasskeyException | DeviceNotFoundException | CommandFailedException ex) {
-            String sessionId = jsonUtil.getProperty(jsonRequest, SESSION_ID, String.class);
-            sendErrorResponseMessage(ex, clientSession, sessionId);
+            sendErrorResponseMessage(ex, clientSession, envelope.getSessionId());
             deviceIdToClientSessionCache.remove(deviceId);
             LOGGER.error(ex);
+
+            return null;
         }
     }
 
@@ -210,14 +326,70 @@ public class ServerDispatcher {
      *        - JSON message
      */
     void sendToClient(String json) {
-        String deviceId = jsonUtil.getProperty(json, DEVICE_ID, String.class);
+        sendToClient(json, MessageEnvelopeReader.read(json));
+    }
+
+    /**
+     * Sends a JSON message to a client using the already read envelope of the message.
+     *
+     * @param json
+     *        - JSON message
+     * @param envelope
+     *        - the {@link MessageEnvelope envelope} of the message
+     */
+    void sendToClient(final String json, MessageEnvelope envelope) {
+        String deviceId = envelope.getDeviceId();
         Session clientSession = deviceIdToClientSessionCache.get(deviceId);
 
+        if (clientSession != null && !clientSession.isOpen()) {
+            // the client may resume its session, so the message is kept for it instead of being lost
+            boolean isResumable = sessionResumption.send(deviceId, new ClientSessionResumption.ReplayedMessage() {
+                @Override
+                public void replay(Session resumedSession) {
+                    sendText(json, resumedSession);
+                }
+            });
+
+            if (isResumable) {
+                return;
+            }
+        }
+
         sendText(json, clientSession);
     }
 
     /**
-     * Allocates a device and send back a message with the {@link DeviceAllocationInformation} to the Client.
+     * Sends a message received in a binary frame to a client. The frame is forwarded as it is, without decoding its
+     * payload, unless the client works in text mode and the payload has to be sent as a JSON message.
+     *
+     * @param message
+     *        - the {@link BinaryFrame binary frame} with the message
+     */
+    void sendToClient(final BinaryFrame message) {
+        String deviceId = message.getEnvelope().getDeviceId();
+        Session clientSession = deviceIdToClientSessionCache.get(deviceId);
+
+        if (clientSession != null && !clientSession.isOpen()) {
+            // the client may resume its session, so the message is kept for it instead of being lost
+            boolean isResumable = sessionResumption.send(deviceId, new ClientSessionResumption.ReplayedMessage() {
+                @Override
+                public void replay(Session resumedSession) {
+                    forward(message, resumedSession, resumedSession);
+                }
+            });
+
+            if (isResumable) {
+                return;
+            }
+        }
+
+        forward(message, clientSession, clientSession);
+    }
+
+    /**
+     * Allocates a device and send back a message with the {@link DeviceAllocationInformation} to the Client. The
+     * allocation is completed asynchronously, so the calling container thread is never parked while the client waits
+     * for an available device. A request with several selectors allocates a gang of devices.
      *
      * @param getDeviceAllocationInformationRequest
      *        - {@link RequestMessage request message}
@@ -225,24 +397,271 @@ public class ServerDispatcher {
      *        - the client's {@link Session session}
      */
     void sendGetDeviceAllocationInfoRequest(RequestMessage getDeviceAllocationInformationRequest,
-                                            Session clientSession) {
+                                            final Session clientSession) {
+        Object[] arguments = getDeviceAllocationInformationRequest.getArguments();
+
+        if (arguments.length > 1) {
+            sendGetGangAllocationInfoRequest(getDeviceAllocationInformationRequest, clientSession);
+            return;
+        }
+
+        DeviceSelector deviceSelector = (DeviceSelector) arguments[0];
+        final String requestSessionId = getDeviceAllocationInformationRequest.getSessionId();
+        String clientId = clientSession.getId();
+
+        CompletableFuture<DeviceAllocationInformation> allocation;
+        allocation = allocationManager.allocateDeviceAsync(deviceSelector,
+                                                           clientId,
+                                                           WAIT_FOR_DEVICE_TIMEOUT,
+                                                           AllocationPriority.NORMAL);
+
+        allocation.whenCompleteAsync(new BiConsumer<DeviceAllocationInformation, Throwable>() {
+            @Override
+            public void accept(DeviceAllocationInformation deviceAllocationInformation, Throwable failure) {
+                sendAllocationResponse(deviceAllocationInformation, failure, clientSession, requestSessionId);
+            }
+        }, allocationResponseExecutor);
+    }
+
+    /**
+     * Sends the outcome of a completed device allocation to the client. An allocation which timed out is completed
+     * with <code>null</code>, which is sent to the client as it is.
+     *
+     * @param deviceAllocationInformation
+     *        - the {@link DeviceAllocationInformation} of the allocated device or <code>null</code> if no device was
+     *        available within the timeout
+     * @param failure
+     *        - the reason the allocation failed or <code>null</code> if it did not fail
+     * @param clientSession
+     *        - the client's {@link Session session}
+     * @param requestSessionId
+     *        - the session ID of the allocation request
+     */
+    void sendAllocationResponse(DeviceAllocationInformation deviceAllocationInformation,
+                                Throwable failure,
+                                Session clientSession,
+                                String requestSessionId) {
+        if (failure != null) {
+            sendAllocationFailure(failure, clientSession, requestSessionId);
+            return;
+        }
+
+        List<DeviceAllocationInformation> allocatedDevices = null;
+
+        if (deviceAllocationInformation != null) {
+            allocatedDevices = Collections.singletonList(deviceAllocationInformation);
+        }
+
+        sendAllocatedDevices(deviceAllocationInformation, allocatedDevices, clientSession, requestSessionId);
+    }
+
+    /**
+     * Allocates a device for each of the selectors in the request, all together or none of them, and sends back a
+     * message with an array of {@link DeviceAllocationInformation}, in the order of the selectors. The gang waits
+     * without holding any device until all of its devices are free.
+     *
+     * @param gangAllocationRequest
+     *        - {@link RequestMessage request message} with a {@link DeviceSelector selector} for every device
+     * @param clientSession
+     *        - the client's {@link Session session}
+     */
+    private void sendGetGangAllocationInfoRequest(RequestMessage gangAllocationRequest, final Session clientSession) {
+        List<DeviceSelector> deviceSelectors = new ArrayList<>();
+
+        for (Object argument : gangAllocationRequest.getArguments()) {
+            deviceSelectors.add((DeviceSelector) argument);
+        }
+
+        final String requestSessionId = gangAllocationRequest.getSessionId();
+        String clientId = clientSession.getId();
+
+        CompletableFuture<List<DeviceAllocationInformation>> allocation;
+        allocation = allocationManager.allocateDevicesAsync(deviceSelectors,
+                                                            clientId,
+                                                            WAIT_FOR_DEVICE_TIMEOUT,
+                                                            AllocationPriority.NORMAL);
+
+        allocation.whenCompleteAsync(new BiConsumer<List<DeviceAllocationInformation>, Throwable>() {
+            @Override
+            public void accept(List<DeviceAllocationInformation> devicesAllocationInformation, Throwable failure) {
+                if (failure != null) {
+                    sendAllocationFailure(failure, clientSession, requestSessionId);
+                    return;
+                }
+
+                DeviceAllocationInformation[] responseData = devicesAllocationInformation == null ? null
+                        : devicesAllocationInformation.toArray(new DeviceAllocationInformation[0]);
+
+                sendAllocatedDevices(responseData, devicesAllocationInformation, clientSession, requestSessionId);
+            }
+        }, allocationResponseExecutor);
+    }
+
+    /**
+     * Sends the devices of a completed allocation to the client and holds them for its session.
+     *
+     * @param responseData
+     *        - the data of the response, as it is sent to the client
+     * @param devicesAllocationInformation
+     *        - the {@link DeviceAllocationInformation} of the allocated devices or <code>null</code> if no devices were
+     *        available within the timeout
+     * @param clientSession
+     *        - the client's {@link Session session}
+     * @param requestSessionId
+     *        - the session ID of the allocation request
+     */
+    private void sendAllocatedDevices(Object responseData,
+                                      List<DeviceAllocationInformation> devicesAllocationInformation,
+                                      Session clientSession,
+                                      String requestSessionId) {
+        ResponseMessage response = new ResponseMessage(MessageAction.DEVICE_ALLOCATION_INFORMATION, responseData);
+        response.setSessionId(requestSessionId);
+
+        String resumeToken = null;
 
-        DeviceSelector deviceSelector = (DeviceSelector) getDeviceAllocationInformationRequest.getArguments()[0];
+        if (devicesAllocationInformation != null) {
+            resumeToken = holdDevices(devicesAllocationInformation, clientSession);
+        }
+
+        sendText(withLease(jsonUtil.serialize(response), resumeToken), clientSession);
+    }
+
+    /**
+     * Sends the reason a device allocation failed to the client.
+     *
+     * @param failure
+     *        - the reason the allocation failed, possibly wrapped in a {@link CompletionException}
+     * @param clientSession
+     *        - the client's {@link Session session}
+     * @param requestSessionId
+     *        - the session ID of the allocation request
+     */
+    private void sendAllocationFailure(Throwable failure, Session clientSession, String requestSessionId) {
+        Throwable cause = failure instanceof CompletionException ? failure.getCause() : failure;
+        Exception ex = cause instanceof Exception ? (Exception) cause : new Exception(cause);
+
+        sendErrorResponseMessage(ex, clientSession, requestSessionId);
+        LOGGER.error(ex);
+    }
+
+    /**
+     * Records the devices allocated to a client session, so they are released when the session is closed, unless the
+     * client resumes it.
+     *
+     * @param devicesAllocationInformation
+     *        - the {@link DeviceAllocationInformation} of the allocated devices
+     * @param clientSession
+     *        - the client's {@link Session session}
+     * @return the resumption token of the client session
+     */
+    private String holdDevices(List<DeviceAllocationInformation> devicesAllocationInformation, Session clientSession) {
+        String resumeToken = null;
+
+        for (DeviceAllocationInformation deviceAllocationInformation : devicesAllocationInformation) {
+            deviceTracker.hold(clientSession.getId(), deviceAllocationInformation);
+            resumeToken = sessionResumption.bind(clientSession, deviceAllocationInformation.getDeviceId());
+        }
+
+        // the session may have been closed while the client was waiting for the devices
+        if (!clientSession.isOpen()) {
+            releaseSessionDevices(clientSession);
+        }
+
+        return resumeToken;
+    }
+
+    /**
+     * Renews the lease of a device allocated to the client. The renewal is handled from its envelope alone - it is
+     * neither deserialized nor routed to the agent - and only a failed renewal is answered, with an error message.
+     *
+     * @param envelope
+     *        - the {@link MessageEnvelope envelope} of the renewal, with the ID and the passkey of the device
+     * @param clientSession
+     *        - the client's {@link Session session}
+     */
+    void renewLease(MessageEnvelope envelope, Session clientSession) {
+        String deviceId = envelope.getDeviceId();
+        Long passkey = envelope.getPasskey();
 
         try {
-            DeviceAllocationInformation deviceAllocationInformation = allocationManager.allocateDevice(deviceSelector,
-                                                                                                       clientSession.getId(),
-                                                                                                       WAIT_FOR_DEVICE_TIMEOUT);
-            ResponseMessage response = new ResponseMessage(MessageAction.DEVICE_ALLOCATION_INFORMATION,
-                                                           deviceAllocationInformation);
-            response.setSessionId(getDeviceAllocationInformationRequest.getSessionId());
-
-            sendText(jsonUtil.serialize(response), clientSession);
-        } catch (NoDeviceMatchingTheGivenSelectorException | NoAvailableDeviceFoundException ex) {
-            sendErrorResponseMessage(ex, clientSession, getDeviceAllocationInformationRequest.getSessionId());
+            if (passkey == null) {
+                throw new InvalidPasskeyException("The lease renewal has no passkey for the specified device.");
+            }
+
+            PasskeyAuthority.validatePasskey(passkey, deviceId);
+            deviceTracker.reclaim(clientSession.getId(), deviceId);
+
+            if (!timeoutMonitor.renewLease(deviceId)) {
+                String errorMessage = String.format("The lease of device with ID %s has already expired.", deviceId);
+                throw new InvalidPasskeyException(errorMessage);
+            }
+        } catch (InvalidPasskeyException | DeviceNotFoundException ex) {
+            sendErrorResponseMessage(ex, clientSession, envelope.getSessionId());
             LOGGER.error(ex);
         }
+    }
+
+    /**
+     * Resumes the session of a reconnected client. All device routes of the client are rebound to the new session, the
+     * messages kept while the client was disconnected are replayed to it and the leases of the devices are renewed.
+     * The client gets a message with the IDs of its devices back.
+     *
+     * @param jsonMessage
+     *        - the resumption message with the resumption token, which the client got with its devices
+     * @param envelope
+     *        - the {@link MessageEnvelope envelope} of the message
+     * @param clientSession
+     *        - the new {@link Session session} of the client
+     */
+    void resumeSession(String jsonMessage, MessageEnvelope envelope, Session clientSession) {
+        JsonElement resumeToken = new JsonParser().parse(jsonMessage).getAsJsonObject().get(RESUME_TOKEN_FIELD);
+        List<String> deviceIds = null;
+
+        if (resumeToken != null && resumeToken.isJsonPrimitive()) {
+            deviceIds = sessionResumption.resume(resumeToken.getAsString(), clientSession);
+        }
+
+        if (deviceIds == null) {
+            String errorMessage = "The session resumption token is unknown or its devices were released.";
+            sendErrorResponseMessage(new InvalidPasskeyException(errorMessage), clientSession, envelope.getSessionId());
+            LOGGER.error(errorMessage);
+            return;
+        }
 
+        String clientSessionId = clientSession.getId();
+        JsonArray resumedDeviceIds = new JsonArray();
+
+        for (String deviceId : deviceIds) {
+            deviceTracker.transfer(clientSessionId, deviceId);
+            deviceIdToClientSessionCache.put(deviceId, clientSession);
+            timeoutMonitor.renewLease(deviceId);
+            resumedDeviceIds.add(new JsonPrimitive(deviceId));
+        }
+
+        JsonObject response = new JsonObject();
+        response.addProperty(JsonConst.MESSAGE_ACTION, MessageEnvelope.RESUME_SESSION_ACTION);
+        response.addProperty(JsonConst.SESSION_ID, envelope.getSessionId());
+        response.add(DEVICE_IDS_FIELD, resumedDeviceIds);
+
+        sendText(response.toString(), clientSession);
+        LOGGER.info(String.format("Client session %s was resumed with %d device(s).",
+                                  clientSessionId,
+                                  deviceIds.size()));
+    }
+
+    /**
+     * Adds the duration of the lease of the allocated devices and the resumption token of the client session to a
+     * serialized allocation response, so the client knows how often to renew the lease and how to resume its session.
+     */
+    private String withLease(String jsonResponse, String resumeToken) {
+        JsonObject response = new JsonParser().parse(jsonResponse).getAsJsonObject();
+        response.addProperty(LEASE_DURATION_FIELD, timeoutMonitor.getLeaseDuration());
+
+        if (resumeToken != null) {
+            response.addProperty(RESUME_TOKEN_FIELD, resumeToken);
+        }
+
+        return response.toString();
     }
 
     /**
@@ -272,6 +691,8 @@ public class ServerDispatcher {
 
         try {
             poolManager.releaseDevice(deviceDescriptor);
+            deviceTracker.release(session.getId(), deviceId);
+
             ResponseMessage releseResponse = new ResponseMessage(MessageAction.RELEASE_DEVICE, null, null);
             releseResponse.setSessionId(requestMessage.getSessionId());
 
@@ -283,19 +704,77 @@ public class ServerDispatcher {
     }
 
     /**
-     * Sends a ping request to a specific agent. The ping has not default message handler on the Server's endpoint and
-     * will be received implicitly.
+     * Sends a ping request to a specific agent. The agent answers with a pong echoing the given payload, which is
+     * handled by {@link #onAgentPong(Session, ByteBuffer)}.
      *
      * @param agentId
      *        - the identifier of agent
+     * @param payload
+     *        - the application data of the ping, up to 125 bytes
      * @throws IllegalStateException
      *         - if the connection has been closed from the Agent
      * @throws IOException
      *         - thrown when an I/O exception of some sort has occurred during sending the request
      */
-    public void sendPing(String agentId) throws IllegalStateException, IOException {
+    public void sendPing(String agentId, ByteBuffer payload) throws IllegalStateException, IOException {
+        Session agentSession = agentIdToAgentSessionCache.get(agentId);
+
+        if (agentSession == null) {
+            throw new IllegalStateException(String.format("Agent with ID %s has no open session.", agentId));
+        }
+
+        agentSession.getBasicRemote().sendPing(payload);
+    }
+
+    /**
+     * Closes the session of an agent, which is still open although the agent is considered dead, so the agent has to
+     * reconnect and register again.
+     *
+     * @param agentId
+     *        - the identifier of agent
+     * @param closeReason
+     *        - the {@link CloseReason reason} sent to the agent
+     */
+    public void closeAgentSession(String agentId, CloseReason closeReason) {
         Session agentSession = agentIdToAgentSessionCache.get(agentId);
-        agentSession.getBasicRemote().sendPing(null);
+
+        if (agentSession == null || !agentSession.isOpen()) {
+            return;
+        }
+
+        try {
+            agentSession.close(closeReason);
+        } catch (IOException e) {
+            LOGGER.error(String.format("Failed to close the session of agent with ID %s.", agentId), e);
+        }
+    }
+
+    /**
+     * Checks whether the agent with the given identifier is connected through a session to the server.
+     *
+     * @param agentId
+     *        - the identifier of agent
+     * @return <code>true</code> if the agent has a session, <code>false</code> otherwise
+     */
+    public boolean hasAgentSession(String agentId) {
+        return agentIdToAgentSessionCache.containsKey(agentId);
+    }
+
+    /**
+     * Passes a pong received from an agent to the {@link AgentMonitor agent monitor}. Pongs on sessions of agents,
+     * which are not registered yet, are ignored.
+     *
+     * @param agentSession
+     *        - the session of the agent
+     * @param payload
+     *        - the application data of the pong
+     */
+    void onAgentPong(Session agentSession, ByteBuffer payload) {
+        String agentId = (String) agentSession.getUserProperties().get(AGENT_ID_SESSION_PROPERTY);
+
+        if (agentId != null && agentMonitor != null) {
+            agentMonitor.onPong(agentId, payload);
+        }
     }
 
     /**
@@ -347,6 +826,76 @@ public class ServerDispatcher {
     public void removeCachedSessionByDeviceId(String deviceId) {
         deviceIdToAgentSessionCache.remove(deviceId);
         deviceIdToClientSessionCache.remove(deviceId);
+        sessionResumption.unbind(deviceId);
+    }
+
+    /**
+     * Drops the cached {@link Session sessions} and the client session records of a device, whose lease has expired,
+     * so a later close or resumption of the client session does not act on a device the client no longer holds.
+     *
+     * @param deviceId
+     *        - the identifier of the device
+     */
+    public void removeExpiredLease(String deviceId) {
+        deviceTracker.forget(deviceId);
+        removeCachedSessionByDeviceId(deviceId);
+    }
+
+    /**
+     * Removes all cached {@link Session sessions} associated with any of the given device identifiers at once. Used
+     * when all devices of an agent are unpublished.
+     *
+     * @param deviceIds
+     *        - the identifiers of the devices
+     */
+    public void removeCachedSessionsByDeviceIds(Collection<String> deviceIds) {
+        for (String deviceId : deviceIds) {
+            deviceIdToAgentSessionCache.remove(deviceId);
+            deviceIdToClientSessionCache.remove(deviceId);
+            sessionResumption.unbind(deviceId);
+        }
+    }
+
+    /**
+     * Discards the messages, which are not sent yet to a closed {@link Session session}, and removes its outbound
+     * queue.
+     *
+     * @param session
+     *        - the closed session
+     */
+    public void removeSessionOutbound(Session session) {
+        SessionOutbound outbound = sessionIdToOutboundCache.remove(session.getId());
+
+        if (outbound != null) {
+            outbound.close();
+        }
+    }
+
+    /**
+     * Releases all devices held by a closed client {@link Session session}, after the client reconnect grace period if
+     * one is configured. The client can resume the session and keep its devices during the grace period.
+     *
+     * @param clientSession
+     *        - the closed client session
+     */
+    public void releaseSessionDevices(Session clientSession) {
+        deviceTracker.sessionClosed(clientSession.getId());
+        sessionResumption.sessionClosed(clientSession);
+    }
+
+    /**
+     * Gets the outbound queue metrics of all open sessions.
+     *
+     * @return a list with the {@link SessionOutboundMetrics metrics} of every session
+     */
+    public List<SessionOutboundMetrics> getOutboundMetrics() {
+        List<SessionOutboundMetrics> metrics = new ArrayList<>();
+
+        for (SessionOutbound outbound : sessionIdToOutboundCache.values()) {
+            metrics.add(outbound.getMetrics());
+        }
+
+        return metrics;
     }
 
     /**
@@ -363,6 +912,16 @@ public class ServerDispatcher {
         this.allocationManager = allocationManager;
     }
 
+    /**
+     * Sets the {@link AgentMonitor agent monitor}, which receives the pongs of the agents.
+     *
+     * @param agentMonitor
+     *        - {@link AgentMonitor agent monitor} instance
+     */
+    public void setAgentMonitor(AgentMonitor agentMonitor) {
+        this.agentMonitor = agentMonitor;
+    }
+
     private void sendErrorResponseMessage(Exception ex, Session session, String requestSessionId) {
         ResponseMessage errorResponse = new ResponseMessage(MessageAction.ERROR, null, null);
         errorResponse.setSessionId(requestSessionId);
@@ -371,12 +930,98 @@ public class ServerDispatcher {
         sendText(jsonUtil.serialize(errorResponse), session);
     }
 
+    /**
+     * Forwards a binary frame to the given session. Peers that did not negotiate the binary subprotocol receive the
+     * payload in a text frame, if it is a JSON message. Otherwise the message can not be delivered and an error
+     * response is sent to the client instead. The received frame is sent asynchronously without being copied, which
+     * is safe, because the container delivers every binary message in a new buffer.
+     */
+    private void forward(BinaryFrame frame, Session targetSession, Session clientSession) {
+        if (isBinarySession(targetSession)) {
+            sendBinary(frame.getFrame(), targetSession);
+        } else if (frame.isTextPayload()) {
+            sendText(frame.getPayloadText(), targetSession);
+        } else {
+            String message = "The message can not be delivered, because the receiving side works in text mode.";
+            CommandFailedException ex = new CommandFailedException(message);
+            sendErrorResponseMessage(ex, clientSession, frame.getEnvelope().getSessionId());
+            LOGGER.error(ex);
+        }
+    }
+
+    private static ExecutorService createAllocationResponseExecutor() {
+        int responseThreads = ServerPropertiesLoader.getAllocationResponseThreads();
+        int responseQueueSize = ServerPropertiesLoader.getAllocationResponseQueueSize();
+
+        ThreadFactory responseThreadFactory = new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread responseThread = new Thread(runnable, ALLOCATION_RESPONSE_THREAD_NAME);
+                responseThread.setDaemon(true);
+
+                return responseThread;
+            }
+        };
+
+        return new ThreadPoolExecutor(responseThreads,
+                                      responseThreads,
+                                      0L,
+                                      TimeUnit.MILLISECONDS,
+                                      new LinkedBlockingQueue<Runnable>(responseQueueSize),
+                                      responseThreadFactory,
+                                      new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    private static boolean isBinarySession(Session session) {
+        return BinaryFrameCodec.SUBPROTOCOL.equals(session.getNegotiatedSubprotocol());
+    }
+
+    private void sendBinary(ByteBuffer message, Session session) {
+        SessionOutbound outbound = getSessionOutbound(session);
+
+        if (outbound != null) {
+            outbound.sendBinary(message);
+        }
+    }
+
     private void sendText(String message, Session session) {
-        try {
-            session.getBasicRemote().sendText(message);
-        } catch (IOException e) {
-            LOGGER.error("Failed to send a JSON message.", e);
+        SessionOutbound outbound = getSessionOutbound(session);
+
+        if (outbound != null) {
+            outbound.sendText(message);
         }
     }
 
+    /**
+     * Gets the outbound queue of a session, creating it on the first message to the session. No queue is created for a
+     * closed session, as it would never be removed - the messages to such a session are dropped.
+     *
+     * @return the {@link SessionOutbound outbound queue} of the session or <code>null</code> if the session is closed
+     */
+    private SessionOutbound getSessionOutbound(Session session) {
+        String sessionId = session.getId();
+        SessionOutbound outbound = sessionIdToOutboundCache.get(sessionId);
+
+        if (outbound == null) {
+            if (!session.isOpen()) {
+                LOGGER.warn(String.format("A message to closed session %s was dropped.", sessionId));
+                return null;
+            }
+
+            SessionOutbound newOutbound = new SessionOutbound(session, outboundQueueSize, outboundOverflowPolicy);
+            outbound = sessionIdToOutboundCache.putIfAbsent(sessionId, newOutbound);
+
+            if (outbound == null) {
+                outbound = newOutbound;
+
+                // the session may have been closed and its outbound removed before the new outbound was cached
+                if (!session.isOpen()) {
+                    removeSessionOutbound(session);
+                }
+            }
+        }
+
+        return outbound;
+    }
+
 }
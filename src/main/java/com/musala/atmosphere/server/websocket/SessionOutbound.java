@@ -0,0 +1,271 @@
+// This file is part of the ATMOSPHERE mobile testing framework.
+// Copyright (C) 2016 MusalaSoft
+//
+// ATMOSPHERE is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// ATMOSPHERE is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with ATMOSPHERE.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.musala.atmosphere.server.websocket;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.websocket.CloseReason;
+import javax.websocket.CloseReason.CloseCodes;
+import javax.websocket.RemoteEndpoint;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Sends the outbound messages of a single WebSocket session asynchronously. Messages are queued in a bounded queue and
+ * sent one at a time with the {@link RemoteEndpoint.Async asynchronous remote} of the session, so a slow peer never
+ * blocks the thread that relays a message to it, unless the queue is full and the {@link OutboundOverflowPolicy
+ * overflow policy} says so.
+ *
+ * @author dimcho.nedev
+ *
+ */
+class SessionOutbound {
+    private static final Logger LOGGER = Logger.getLogger(SessionOutbound.class.getCanonicalName());
+
+    /**
+     * How often a thread blocked on a full queue checks whether the session is still open.
+     */
+    private static final long BLOCKED_SEND_CHECK_INTERVAL = 100; // milliseconds
+
+    private static final String QUEUE_FULL_CLOSE_REASON = "The outbound message queue is full.";
+
+    private final Session session;
+
+    private final OutboundOverflowPolicy overflowPolicy;
+
+    private final BlockingQueue<OutboundMessage> queue;
+
+    private final AtomicBoolean isSending = new AtomicBoolean();
+
+    private final AtomicLong sentMessages = new AtomicLong();
+
+    private final AtomicLong failedMessages = new AtomicLong();
+
+    private final AtomicLong droppedMessages = new AtomicLong();
+
+    private final AtomicLong totalSendLatency = new AtomicLong();
+
+    private final AtomicLong maxSendLatency = new AtomicLong();
+
+    private volatile int maxQueueDepth;
+
+    /**
+     * Abstraction of a text or binary message waiting in the queue.
+     */
+    private static abstract class OutboundMessage {
+        private final long enqueueTime = System.nanoTime();
+
+        abstract void send(RemoteEndpoint.Async remote, SendHandler handler);
+    }
+
+    /**
+     * Creates the outbound queue of the given session.
+     *
+     * @param session
+     *        - the session whose messages will be sent
+     * @param capacity
+     *        - the maximum number of messages waiting to be sent
+     * @param overflowPolicy
+     *        - what to do when a message is sent while the queue is full
+     */
+    SessionOutbound(Session session, int capacity, OutboundOverflowPolicy overflowPolicy) {
+        this.session = session;
+        this.overflowPolicy = overflowPolicy;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * Queues a text message to be sent to the session.
+     *
+     * @param message
+     *        - the text message
+     */
+    void sendText(final String message) {
+        enqueue(new OutboundMessage() {
+            @Override
+            void send(RemoteEndpoint.Async remote, SendHandler handler) {
+                remote.sendText(message, handler);
+            }
+        });
+    }
+
+    /**
+     * Queues a binary message to be sent to the session. The buffer is sent after this method returns, so its content
+     * must not be modified by the caller.
+     *
+     * @param message
+     *        - the binary message
+     */
+    void sendBinary(final ByteBuffer message) {
+        enqueue(new OutboundMessage() {
+            @Override
+            void send(RemoteEndpoint.Async remote, SendHandler handler) {
+                remote.sendBinary(message, handler);
+            }
+        });
+    }
+
+    /**
+     * Discards all messages that are not sent yet. Called when the session is closed.
+     */
+    void close() {
+        int discardedMessages = queue.size();
+        queue.clear();
+        droppedMessages.addAndGet(discardedMessages);
+    }
+
+    /**
+     * Gets a snapshot of the outbound queue metrics of the session.
+     *
+     * @return the {@link SessionOutboundMetrics metrics} of the session
+     */
+    SessionOutboundMetrics getMetrics() {
+        int queueDepth = queue.size() + (isSending.get() ? 1 : 0);
+
+        return new SessionOutboundMetrics(session.getId(),
+                                          queueDepth,
+                                          maxQueueDepth,
+                                          sentMessages.get(),
+                                          failedMessages.get(),
+                                          droppedMessages.get(),
+                                          TimeUnit.NANOSECONDS.toMillis(totalSendLatency.get()),
+                                          TimeUnit.NANOSECONDS.toMillis(maxSendLatency.get()));
+    }
+
+    private void enqueue(OutboundMessage message) {
+        if (!queue.offer(message) && !handleOverflow(message)) {
+            return;
+        }
+
+        int queueDepth = queue.size();
+        if (queueDepth > maxQueueDepth) {
+            maxQueueDepth = queueDepth;
+        }
+
+        sendNext();
+    }
+
+    /**
+     * Applies the overflow policy to a message that did not fit in the queue.
+     *
+     * @return <code>true</code> if the message was queued, <code>false</code> otherwise
+     */
+    private boolean handleOverflow(OutboundMessage message) {
+        switch (overflowPolicy) {
+            case BLOCK:
+                try {
+                    while (session.isOpen()) {
+                        if (queue.offer(message, BLOCKED_SEND_CHECK_INTERVAL, TimeUnit.MILLISECONDS)) {
+                            return true;
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+
+                drop("the session was closed while waiting for space in the queue");
+                return false;
+            case DISCONNECT:
+                drop("the queue is full, the session is closed");
+                disconnect();
+                return false;
+            case DROP:
+            default:
+                drop("the queue is full");
+                return false;
+        }
+    }
+
+    private void drop(String reason) {
+        droppedMessages.incrementAndGet();
+        LOGGER.warn(String.format("A message to session %s was dropped, because %s.", session.getId(), reason));
+    }
+
+    private void disconnect() {
+        try {
+            session.close(new CloseReason(CloseCodes.TRY_AGAIN_LATER, QUEUE_FULL_CLOSE_REASON));
+        } catch (IOException e) {
+            LOGGER.error(String.format("Failed to close session %s.", session.getId()), e);
+        }
+
+        close();
+    }
+
+    /**
+     * Starts sending the next message from the queue, unless another message is being sent at the moment. Only one
+     * message is sent at a time, because the asynchronous remote does not allow concurrent sends.
+     */
+    private void sendNext() {
+        while (isSending.compareAndSet(false, true)) {
+            final OutboundMessage message = queue.poll();
+
+            if (message == null) {
+                isSending.set(false);
+
+                // a message may have been queued after the poll, but before the flag was cleared
+                if (queue.isEmpty()) {
+                    return;
+                }
+
+                continue;
+            }
+
+            try {
+                message.send(session.getAsyncRemote(), new SendHandler() {
+                    @Override
+                    public void onResult(SendResult result) {
+                        onSent(message, result.getException());
+                    }
+                });
+            } catch (RuntimeException e) {
+                // thrown synchronously when the session is already closed
+                onSent(message, e);
+            }
+
+            return;
+        }
+    }
+
+    private void onSent(OutboundMessage message, Throwable failure) {
+        if (failure != null) {
+            failedMessages.incrementAndGet();
+            LOGGER.error(String.format("Failed to send a message to session %s.", session.getId()), failure);
+        } else {
+            long sendLatency = System.nanoTime() - message.enqueueTime;
+
+            sentMessages.incrementAndGet();
+            totalSendLatency.addAndGet(sendLatency);
+
+            long currentMax = maxSendLatency.get();
+            while (sendLatency > currentMax && !maxSendLatency.compareAndSet(currentMax, sendLatency)) {
+                currentMax = maxSendLatency.get();
+            }
+        }
+
+        isSending.set(false);
+        sendNext();
+    }
+}
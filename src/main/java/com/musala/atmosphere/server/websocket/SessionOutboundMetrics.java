@@ -0,0 +1,115 @@
+// This file is part of the ATMOSPHERE mobile testing framework.
+// Copyright (C) 2016 MusalaSoft
+//
+// ATMOSPHERE is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// ATMOSPHERE is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with ATMOSPHERE.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.musala.atmosphere.server.websocket;
+
+/**
+ * A snapshot of the outbound queue metrics of a single WebSocket session.
+ *
+ * @author dimcho.nedev
+ *
+ */
+public class SessionOutboundMetrics {
+    private final String sessionId;
+
+    private final int queueDepth;
+
+    private final int maxQueueDepth;
+
+    private final long sentMessages;
+
+    private final long failedMessages;
+
+    private final long droppedMessages;
+
+    private final long totalSendLatency;
+
+    private final long maxSendLatency;
+
+    SessionOutboundMetrics(String sessionId,
+                           int queueDepth,
+                           int maxQueueDepth,
+                           long sentMessages,
+                           long failedMessages,
+                           long droppedMessages,
+                           long totalSendLatency,
+                           long maxSendLatency) {
+        this.sessionId = sessionId;
+        this.queueDepth = queueDepth;
+        this.maxQueueDepth = maxQueueDepth;
+        this.sentMessages = sentMessages;
+        this.failedMessages = failedMessages;
+        this.droppedMessages = droppedMessages;
+        this.totalSendLatency = totalSendLatency;
+        this.maxSendLatency = maxSendLatency;
+    }
+
+    /**
+     * @return the ID of the session
+     */
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    /**
+     * @return the number of messages waiting to be sent, including the one being sent
+     */
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    /**
+     * @return the highest number of messages that were waiting to be sent at the same time
+     */
+    public int getMaxQueueDepth() {
+        return maxQueueDepth;
+    }
+
+    /**
+     * @return the number of messages sent successfully
+     */
+    public long getSentMessages() {
+        return sentMessages;
+    }
+
+    /**
+     * @return the number of messages whose sending failed, e.g. because the session was closed meanwhile
+     */
+    public long getFailedMessages() {
+        return failedMessages;
+    }
+
+    /**
+     * @return the number of messages discarded, because the queue was full or the session was closed
+     */
+    public long getDroppedMessages() {
+        return droppedMessages;
+    }
+
+    /**
+     * @return the average time in milliseconds from enqueuing a message until it is sent successfully
+     */
+    public double getAverageSendLatency() {
+        return sentMessages > 0 ? (double) totalSendLatency / sentMessages : 0;
+    }
+
+    /**
+     * @return the longest time in milliseconds from enqueuing a message until it was sent successfully
+     */
+    public long getMaxSendLatency() {
+        return maxSendLatency;
+    }
+}
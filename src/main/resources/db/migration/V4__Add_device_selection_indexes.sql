@@ -0,0 +1,7 @@
+CREATE INDEX allocated_api_level_idx ON devices (is_allocated, api_level, is_emulator);
+
+CREATE INDEX allocated_emulator_idx ON devices (is_allocated, is_emulator);
+
+CREATE INDEX allocated_model_idx ON devices (is_allocated, model);
+
+CREATE INDEX allocated_os_idx ON devices (is_allocated, os)
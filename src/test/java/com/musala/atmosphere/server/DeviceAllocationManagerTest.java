@@ -20,8 +20,11 @@ import static org.awaitility.Awaitility.await;
 
 import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
 import org.junit.AfterClass;
@@ -35,8 +38,10 @@ import com.musala.atmosphere.commons.cs.clientbuilder.DeviceAllocationInformatio
 import com.musala.atmosphere.commons.cs.deviceselection.DeviceSelector;
 import com.musala.atmosphere.commons.cs.deviceselection.DeviceSelectorBuilder;
 import com.musala.atmosphere.commons.cs.deviceselection.DeviceType;
+import com.musala.atmosphere.commons.cs.exception.NoDeviceMatchingTheGivenSelectorException;
 import com.musala.atmosphere.commons.exceptions.CommandFailedException;
-import com.musala.atmosphere.commons.util.Pair;
+import com.musala.atmosphere.server.allocation.AllocationPriority;
+import com.musala.atmosphere.server.allocation.AllocationQueue;
 import com.musala.atmosphere.server.dao.exception.DevicePoolDaoException;
 import com.musala.atmosphere.server.pool.PoolManager;
 
@@ -69,11 +74,10 @@ public class DeviceAllocationManagerTest {
 
     private List<String> unservedClientsList = Collections.synchronizedList((new ArrayList<>()));
 
-    private static List<Pair<DeviceSelector, String>> waitingClients;
+    private static AllocationQueue allocationQueue;
 
     private static Server server;
 
-    @SuppressWarnings("unchecked")
     @BeforeClass
     public static void setUp() throws InterruptedException {
         try {
@@ -87,7 +91,7 @@ public class DeviceAllocationManagerTest {
             serverManager.registerAgent(AGENT_ID);
 
             poolManager = getFieldObject(serverManager, "poolManager");
-            waitingClients = (List<Pair<DeviceSelector, String>>) getFieldObject(dAllocManager, "waitingClients");
+            allocationQueue = getFieldObject(dAllocManager, "allocationQueue");
         } catch (NoSuchFieldException | SecurityException | IllegalArgumentException | IllegalAccessException e) {
             e.printStackTrace();
         }
@@ -122,9 +126,9 @@ public class DeviceAllocationManagerTest {
         generateConcurrentClients(deviceSelector, expectedServedClientsCount, 500);
 
         await().atMost(WAIT_FOR_OTHER_CLIENTS_TIMEOUT, TimeUnit.MILLISECONDS)
-               .until(() -> waitingClients.size() == 0 && servedClientsList.size() == expectedServedClientsCount);
+               .until(() -> allocationQueue.size() == 0 && servedClientsList.size() == expectedServedClientsCount);
 
-        Assert.assertEquals(0, waitingClients.size());
+        Assert.assertEquals(0, allocationQueue.size());
         Assert.assertEquals(expectedServedClientsCount, servedClientsList.size());
     }
 
@@ -141,10 +145,10 @@ public class DeviceAllocationManagerTest {
         generateConcurrentClients(deviceSelector, clientsCount, 250);
 
         await().atMost(WAIT_FOR_OTHER_CLIENTS_TIMEOUT, TimeUnit.MILLISECONDS)
-               .until(() -> waitingClients.size() == 0 && servedClientsList.size() == expectedServedClientsCount
+               .until(() -> allocationQueue.size() == 0 && servedClientsList.size() == expectedServedClientsCount
                        && unservedClientsList.size() == expectedUnservedClientsCount);
 
-        Assert.assertEquals(0, waitingClients.size());
+        Assert.assertEquals(0, allocationQueue.size());
         Assert.assertEquals(UNEXPECTED_SERVED_NUMBER_MESSAGE, expectedServedClientsCount, servedClientsList.size());
         Assert.assertEquals(UNEXPECTED_UNSERVED_NUMBER_MESSAGE, expectedUnservedClientsCount, unservedClientsList.size());
     }
@@ -167,11 +171,11 @@ public class DeviceAllocationManagerTest {
         generateConcurrentClients(deviceSelector, clientsCount, 5_000);
 
         await().atMost(WAIT_FOR_OTHER_CLIENTS_TIMEOUT, TimeUnit.MILLISECONDS)
-               .until(() -> waitingClients.size() == expectedWaitingClients
+               .until(() -> allocationQueue.size() == expectedWaitingClients
                        && servedClientsList.size() == expectedServedClients);
 
         Assert.assertEquals(expectedServedClients, servedClientsList.size());
-        Assert.assertEquals(expectedWaitingClients, waitingClients.size());
+        Assert.assertEquals(expectedWaitingClients, allocationQueue.size());
 
         // should get a device immediately
         deviceSelector = new DeviceSelectorBuilder().minApi(19).deviceType(DeviceType.DEVICE_PREFERRED).build();
@@ -182,7 +186,7 @@ public class DeviceAllocationManagerTest {
 
         Assert.assertEquals("The waiting clients count should not be changed.",
                             expectedWaitingClients,
-                            waitingClients.size());
+                            allocationQueue.size());
 
         // generate events
         poolManager.releaseDevice(AGENT_ID + "_d1"); // device released
@@ -192,11 +196,177 @@ public class DeviceAllocationManagerTest {
         await().atMost(WAIT_FOR_OTHER_CLIENTS_TIMEOUT, TimeUnit.MILLISECONDS)
                .until(() -> servedClientsList.size() == 5 && unservedClientsList.size() == 5);
 
-        Assert.assertEquals(0, waitingClients.size());
+        Assert.assertEquals(0, allocationQueue.size());
         Assert.assertEquals(UNEXPECTED_SERVED_NUMBER_MESSAGE, 5, servedClientsList.size());
         Assert.assertEquals(UNEXPECTED_UNSERVED_NUMBER_MESSAGE, 5, unservedClientsList.size());
     }
 
+    @Test
+    public void asyncAllocationCompletesWhenDeviceIsReleasedTest() throws Exception {
+        poolManager.addDevice(generateDeviceInformation("d1", DEVICE_MODELS[0], 25), AGENT_ID);
+        DeviceSelector deviceSelector = new DeviceSelectorBuilder().targetApi(25).build();
+
+        CompletableFuture<DeviceAllocationInformation> firstAllocation = allocateAsync(deviceSelector,
+                                                                                       "client_0",
+                                                                                       1_000);
+        Assert.assertNotNull("The free device was not allocated immediately.", firstAllocation.getNow(null));
+
+        CompletableFuture<DeviceAllocationInformation> secondAllocation = allocateAsync(deviceSelector,
+                                                                                        "client_1",
+                                                                                        WAIT_FOR_OTHER_CLIENTS_TIMEOUT);
+        Assert.assertFalse("The allocation completed while all devices are busy.", secondAllocation.isDone());
+
+        poolManager.releaseDevice(AGENT_ID + "_d1");
+
+        DeviceAllocationInformation allocationInformation = secondAllocation.get(WAIT_FOR_OTHER_CLIENTS_TIMEOUT,
+                                                                                 TimeUnit.MILLISECONDS);
+        Assert.assertNotNull("The released device was not handed off.", allocationInformation);
+        Assert.assertEquals(0, allocationQueue.size());
+    }
+
+    @Test
+    public void releasedDeviceIsHandedOffToWaitingModelSelectorTest() throws Exception {
+        poolManager.addDevice(generateDeviceInformation("d1", DEVICE_MODELS[0], 25), AGENT_ID);
+        poolManager.addDevice(generateDeviceInformation("d2", DEVICE_MODELS[1], 25), AGENT_ID);
+        DeviceSelector modelSelector = new DeviceSelectorBuilder().deviceModel(DEVICE_MODELS[0]).build();
+
+        DeviceAllocationInformation heldDevice = dAllocManager.allocateDevice(modelSelector, "client_0", 1_000);
+        Assert.assertNotNull("The free device was not allocated immediately.", heldDevice);
+
+        CompletableFuture<DeviceAllocationInformation> allocation = allocateAsync(modelSelector,
+                                                                                  "client_1",
+                                                                                  WAIT_FOR_OTHER_CLIENTS_TIMEOUT);
+        Assert.assertFalse("A device of another model was allocated.", allocation.isDone());
+
+        poolManager.releaseDevice(heldDevice.getDeviceId());
+
+        DeviceAllocationInformation allocationInformation = allocation.get(WAIT_FOR_OTHER_CLIENTS_TIMEOUT,
+                                                                           TimeUnit.MILLISECONDS);
+        Assert.assertNotNull("The released device was not handed off to the waiting selector.", allocationInformation);
+        Assert.assertEquals(heldDevice.getDeviceId(), allocationInformation.getDeviceId());
+        Assert.assertEquals(0, allocationQueue.size());
+    }
+
+    @Test
+    public void asyncAllocationTimesOutTest() throws Exception {
+        poolManager.addDevice(generateDeviceInformation("d1", DEVICE_MODELS[0], 25), AGENT_ID);
+        DeviceSelector deviceSelector = new DeviceSelectorBuilder().targetApi(25).build();
+        dAllocManager.allocateDevice(deviceSelector, "client_0", 1_000);
+
+        CompletableFuture<DeviceAllocationInformation> allocation = allocateAsync(deviceSelector, "client_1", 250);
+
+        Assert.assertNull("A device was allocated while all devices are busy.",
+                          allocation.get(WAIT_FOR_OTHER_CLIENTS_TIMEOUT, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(0, allocationQueue.size());
+    }
+
+    @Test
+    public void gangAllocationWaitsWithoutHoldingDevicesTest() throws Exception {
+        poolManager.addDevice(generateDeviceInformation("d1", DEVICE_MODELS[0], 25), AGENT_ID);
+        poolManager.addDevice(generateDeviceInformation("d2", DEVICE_MODELS[1], 25), AGENT_ID);
+        DeviceSelector deviceSelector = new DeviceSelectorBuilder().targetApi(25).build();
+
+        DeviceAllocationInformation heldDevice = dAllocManager.allocateDevice(deviceSelector, "client_0", 1_000);
+        Assert.assertNotNull("The free device was not allocated immediately.", heldDevice);
+
+        CompletableFuture<List<DeviceAllocationInformation>> gangAllocation;
+        gangAllocation = dAllocManager.allocateDevicesAsync(Arrays.asList(deviceSelector, deviceSelector),
+                                                            "client_1",
+                                                            WAIT_FOR_OTHER_CLIENTS_TIMEOUT,
+                                                            AllocationPriority.NORMAL);
+        Assert.assertFalse("The gang was allocated while one of its devices is busy.", gangAllocation.isDone());
+
+        DeviceAllocationInformation otherDevice = dAllocManager.allocateDevice(deviceSelector, "client_2", 1_000);
+        Assert.assertNotNull("The waiting gang holds the free device.", otherDevice);
+
+        poolManager.releaseDevice(heldDevice.getDeviceId());
+        Assert.assertFalse("The gang was allocated while one of its devices is busy.", gangAllocation.isDone());
+
+        poolManager.releaseDevice(otherDevice.getDeviceId());
+
+        List<DeviceAllocationInformation> gangDevices = gangAllocation.get(WAIT_FOR_OTHER_CLIENTS_TIMEOUT,
+                                                                           TimeUnit.MILLISECONDS);
+        Assert.assertNotNull("The gang was not allocated when all of its devices were released.", gangDevices);
+        Assert.assertEquals(2, gangDevices.size());
+        Assert.assertNotEquals("A device was allocated twice in the gang.",
+                               gangDevices.get(0).getDeviceId(),
+                               gangDevices.get(1).getDeviceId());
+        Assert.assertEquals(0, allocationQueue.size());
+    }
+
+    @Test(expected = NoDeviceMatchingTheGivenSelectorException.class)
+    public void gangAllocationFailsWhenThePoolIsTooSmallTest() throws Throwable {
+        poolManager.addDevice(generateDeviceInformation("d1", DEVICE_MODELS[0], 25), AGENT_ID);
+        DeviceSelector deviceSelector = new DeviceSelectorBuilder().targetApi(25).build();
+
+        CompletableFuture<List<DeviceAllocationInformation>> gangAllocation;
+        gangAllocation = dAllocManager.allocateDevicesAsync(Arrays.asList(deviceSelector, deviceSelector),
+                                                            "client_0",
+                                                            WAIT_FOR_OTHER_CLIENTS_TIMEOUT,
+                                                            AllocationPriority.NORMAL);
+
+        try {
+            gangAllocation.get(WAIT_FOR_OTHER_CLIENTS_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw e.getCause();
+        } finally {
+            Assert.assertEquals(0, allocationQueue.size());
+            Assert.assertNotNull("The device was held by the failed gang.",
+                                 dAllocManager.allocateDevice(deviceSelector, "client_1", 1_000));
+        }
+    }
+
+    @Test(expected = NoDeviceMatchingTheGivenSelectorException.class)
+    public void gangAllocationFailsWhenSelectorsShareTheOnlyMatchingDeviceTest() throws Throwable {
+        poolManager.addDevice(generateDeviceInformation("d1", DEVICE_MODELS[0], 25), AGENT_ID);
+        poolManager.addDevice(generateDeviceInformation("d2", DEVICE_MODELS[1], 25), AGENT_ID);
+        poolManager.addDevice(generateDeviceInformation("d3", DEVICE_MODELS[2], 25), AGENT_ID);
+        DeviceSelector modelSelector = new DeviceSelectorBuilder().deviceModel(DEVICE_MODELS[0]).build();
+        DeviceSelector apiLevelSelector = new DeviceSelectorBuilder().targetApi(25).build();
+
+        // the selectors match as many devices as the gang needs, but two of them match only the same device
+        List<DeviceSelector> deviceSelectors = Arrays.asList(modelSelector, modelSelector, apiLevelSelector);
+        CompletableFuture<List<DeviceAllocationInformation>> gangAllocation;
+        gangAllocation = dAllocManager.allocateDevicesAsync(deviceSelectors,
+                                                            "client_0",
+                                                            WAIT_FOR_OTHER_CLIENTS_TIMEOUT,
+                                                            AllocationPriority.NORMAL);
+
+        try {
+            gangAllocation.get(WAIT_FOR_OTHER_CLIENTS_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw e.getCause();
+        } finally {
+            Assert.assertEquals(0, allocationQueue.size());
+        }
+    }
+
+    @Test
+    public void gangAllocationAssignsDevicesAcrossOverlappingSelectorsTest() throws Exception {
+        poolManager.addDevice(generateDeviceInformation("d1", DEVICE_MODELS[0], 25), AGENT_ID);
+        poolManager.addDevice(generateDeviceInformation("d2", DEVICE_MODELS[1], 25), AGENT_ID);
+        DeviceSelector modelSelector = new DeviceSelectorBuilder().deviceModel(DEVICE_MODELS[0]).build();
+        DeviceSelector apiLevelSelector = new DeviceSelectorBuilder().targetApi(25).build();
+
+        CompletableFuture<List<DeviceAllocationInformation>> gangAllocation;
+        gangAllocation = dAllocManager.allocateDevicesAsync(Arrays.asList(apiLevelSelector, modelSelector),
+                                                            "client_0",
+                                                            WAIT_FOR_OTHER_CLIENTS_TIMEOUT,
+                                                            AllocationPriority.NORMAL);
+
+        List<DeviceAllocationInformation> gangDevices = gangAllocation.get(WAIT_FOR_OTHER_CLIENTS_TIMEOUT,
+                                                                           TimeUnit.MILLISECONDS);
+        Assert.assertEquals(2, gangDevices.size());
+        Assert.assertTrue("The model selector did not get the only device of its model.",
+                          gangDevices.get(1).getDeviceId().endsWith("d1"));
+    }
+
+    private CompletableFuture<DeviceAllocationInformation> allocateAsync(DeviceSelector deviceSelector,
+                                                                         String clientId,
+                                                                         int timeout) {
+        return dAllocManager.allocateDeviceAsync(deviceSelector, clientId, timeout, AllocationPriority.NORMAL);
+    }
+
     private void generateConcurrentClients(DeviceSelector deviceSelector,
                                            final int numberOfClients,
                                            final int clientTimout) {
@@ -0,0 +1,123 @@
+// This file is part of the ATMOSPHERE mobile testing framework.
+// Copyright (C) 2016 MusalaSoft
+//
+// ATMOSPHERE is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// ATMOSPHERE is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with ATMOSPHERE.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.musala.atmosphere.server;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.musala.atmosphere.commons.cs.exception.InvalidPasskeyException;
+import com.musala.atmosphere.commons.exceptions.DeviceNotFoundException;
+
+/**
+ *
+ * @author yavor.stankov
+ *
+ */
+public class PasskeyAuthorityTest {
+    private static final String DEVICE_ID = "mockagent_mockdevice";
+
+    private static final String OTHER_DEVICE_ID = "mockagent_otherdevice";
+
+    @After
+    public void tearDown() {
+        PasskeyAuthority.revokePasskey(DEVICE_ID);
+        PasskeyAuthority.revokePasskey(OTHER_DEVICE_ID);
+    }
+
+    @Test
+    public void testValidateRegisteredPasskey() throws Exception {
+        long passkey = PasskeyAuthority.generatePasskey();
+        PasskeyAuthority.registerPasskey(DEVICE_ID, passkey);
+
+        PasskeyAuthority.validatePasskey(passkey, DEVICE_ID);
+    }
+
+    @Test(expected = InvalidPasskeyException.class)
+    public void testValidateWrongPasskey() throws Exception {
+        long passkey = PasskeyAuthority.generatePasskey();
+        PasskeyAuthority.registerPasskey(DEVICE_ID, passkey);
+
+        PasskeyAuthority.validatePasskey(PasskeyAuthority.generatePasskey(passkey), DEVICE_ID);
+    }
+
+    @Test(expected = InvalidPasskeyException.class)
+    public void testValidatePasskeyOfAnotherDevice() throws Exception {
+        long passkey = PasskeyAuthority.generatePasskey();
+        long otherPasskey = PasskeyAuthority.generatePasskey(passkey);
+        PasskeyAuthority.registerPasskey(DEVICE_ID, passkey);
+        PasskeyAuthority.registerPasskey(OTHER_DEVICE_ID, otherPasskey);
+
+        PasskeyAuthority.validatePasskey(otherPasskey, DEVICE_ID);
+    }
+
+    @Test
+    public void testRotatedPasskeyIsValidImmediately() throws Exception {
+        long oldPasskey = PasskeyAuthority.generatePasskey();
+        PasskeyAuthority.registerPasskey(DEVICE_ID, oldPasskey);
+
+        long newPasskey = PasskeyAuthority.generatePasskey(oldPasskey);
+        PasskeyAuthority.registerPasskey(DEVICE_ID, newPasskey);
+
+        PasskeyAuthority.validatePasskey(newPasskey, DEVICE_ID);
+    }
+
+    @Test(expected = InvalidPasskeyException.class)
+    public void testRotatedPasskeyInvalidatesOldPasskeyImmediately() throws Exception {
+        long oldPasskey = PasskeyAuthority.generatePasskey();
+        PasskeyAuthority.registerPasskey(DEVICE_ID, oldPasskey);
+        PasskeyAuthority.validatePasskey(oldPasskey, DEVICE_ID);
+
+        long newPasskey = PasskeyAuthority.generatePasskey(oldPasskey);
+        assertNotEquals("The rotated passkey must differ from the old one.", oldPasskey, newPasskey);
+        PasskeyAuthority.registerPasskey(DEVICE_ID, newPasskey);
+
+        PasskeyAuthority.validatePasskey(oldPasskey, DEVICE_ID);
+    }
+
+    @Test(expected = DeviceNotFoundException.class)
+    public void testValidatePasskeyOfUnknownDevice() throws Exception {
+        PasskeyAuthority.validatePasskey(PasskeyAuthority.generatePasskey(), DEVICE_ID);
+    }
+
+    @Test(expected = DeviceNotFoundException.class)
+    public void testValidateRevokedPasskey() throws Exception {
+        long passkey = PasskeyAuthority.generatePasskey();
+        PasskeyAuthority.registerPasskey(DEVICE_ID, passkey);
+        PasskeyAuthority.revokePasskey(DEVICE_ID);
+
+        PasskeyAuthority.validatePasskey(passkey, DEVICE_ID);
+    }
+
+    @Test
+    public void testReplacePasskeyOnlyOnce() throws Exception {
+        long passkey = PasskeyAuthority.generatePasskey();
+        long firstPasskey = PasskeyAuthority.generatePasskey(passkey);
+        long secondPasskey = PasskeyAuthority.generatePasskey(passkey);
+        PasskeyAuthority.registerPasskey(DEVICE_ID, passkey);
+
+        assertTrue("Replacing the current passkey failed.",
+                   PasskeyAuthority.replacePasskey(DEVICE_ID, passkey, firstPasskey));
+        assertFalse("A replaced passkey was replaced again.",
+                    PasskeyAuthority.replacePasskey(DEVICE_ID, passkey, secondPasskey));
+
+        PasskeyAuthority.validatePasskey(firstPasskey, DEVICE_ID);
+    }
+}
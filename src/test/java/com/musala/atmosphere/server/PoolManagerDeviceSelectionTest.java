@@ -173,6 +173,8 @@ public class PoolManagerDeviceSelectionTest {
             deviceModel.setAgent(mockedAgent);
             registerMockedDevice(device);
         }
+
+        when(devicePoolDao.tryAllocate(any(IDevice.class))).thenReturn(true);
     }
 
     public static void registerMockedDevice(IDevice device) throws Exception {
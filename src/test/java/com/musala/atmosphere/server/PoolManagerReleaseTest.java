@@ -0,0 +1,183 @@
+// This file is part of the ATMOSPHERE mobile testing framework.
+// Copyright (C) 2016 MusalaSoft
+//
+// ATMOSPHERE is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// ATMOSPHERE is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with ATMOSPHERE.  If not, see <http://www.gnu.org/licenses/>.
+
+
+package com.musala.atmosphere.server;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.musala.atmosphere.commons.DeviceInformation;
+import com.musala.atmosphere.commons.cs.clientbuilder.DeviceAllocationInformation;
+import com.musala.atmosphere.commons.cs.exception.InvalidPasskeyException;
+import com.musala.atmosphere.server.dao.IAgentDao;
+import com.musala.atmosphere.server.data.memory.InMemoryDevicePoolDao;
+import com.musala.atmosphere.server.data.model.IDevice;
+import com.musala.atmosphere.server.eventservice.ServerEventService;
+import com.musala.atmosphere.server.eventservice.event.device.allocate.DeviceReleasedEvent;
+import com.musala.atmosphere.server.pool.PoolManager;
+
+/**
+ * Tests releasing the same device lease from several threads at once, e.g. when the lease expires while the client
+ * releases the device.
+ *
+ * @author yavor.stankov
+ *
+ */
+public class PoolManagerReleaseTest {
+    private static final String AGENT_ID = "mockagent";
+
+    private static final String DEVICE_ID = "mockagent_mockdevice";
+
+    private static final long PASSKEY = 42;
+
+    private static final int RELEASES_COUNT = 8;
+
+    private static final String DEVICE_POOL_DAO_FIELD_NAME = "devicePoolDao";
+
+    private static final String EVENT_SERVICE_FIELD_NAME = "eventService";
+
+    private PoolManager poolManager = PoolManager.getInstance();
+
+    private InMemoryDevicePoolDao devicePoolDao;
+
+    private ServerEventService mockedEventService;
+
+    private Object originalDevicePoolDao;
+
+    private Object originalEventService;
+
+    @Before
+    public void setUp() throws Exception {
+        IAgentDao mockedAgentDao = mock(IAgentDao.class);
+        when(mockedAgentDao.hasAgent(anyString())).thenReturn(true);
+
+        devicePoolDao = new InMemoryDevicePoolDao(mockedAgentDao);
+        devicePoolDao.addDevice(new DeviceInformation(), DEVICE_ID, AGENT_ID, PASSKEY);
+        devicePoolDao.tryAllocate(devicePoolDao.getDevice(DEVICE_ID));
+        PasskeyAuthority.registerPasskey(DEVICE_ID, PASSKEY);
+
+        mockedEventService = mock(ServerEventService.class);
+
+        originalDevicePoolDao = replaceField(DEVICE_POOL_DAO_FIELD_NAME, devicePoolDao);
+        originalEventService = replaceField(EVENT_SERVICE_FIELD_NAME, mockedEventService);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        replaceField(DEVICE_POOL_DAO_FIELD_NAME, originalDevicePoolDao);
+        replaceField(EVENT_SERVICE_FIELD_NAME, originalEventService);
+        PasskeyAuthority.revokePasskey(DEVICE_ID);
+    }
+
+    @Test
+    public void testConcurrentReleasesOfTheSameLease() throws Exception {
+        final CountDownLatch startLatch = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(RELEASES_COUNT);
+        List<Future<Boolean>> results = new ArrayList<>();
+
+        for (int index = 0; index < RELEASES_COUNT; index++) {
+            // half of the releases come from the client and half of them from the expiry of the lease
+            final boolean isClientRelease = index % 2 == 0;
+
+            results.add(executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    startLatch.await();
+
+                    if (!isClientRelease) {
+                        poolManager.releaseDevice(DEVICE_ID);
+                        return false;
+                    }
+
+                    try {
+                        poolManager.releaseDevice(new DeviceAllocationInformation(PASSKEY, DEVICE_ID));
+                        return true;
+                    } catch (InvalidPasskeyException e) {
+                        return false;
+                    }
+                }
+            }));
+        }
+
+        startLatch.countDown();
+
+        int clientReleasesCount = 0;
+
+        for (Future<Boolean> result : results) {
+            if (result.get()) {
+                clientReleasesCount++;
+            }
+        }
+
+        executor.shutdown();
+
+        IDevice releasedDevice = devicePoolDao.getDevice(DEVICE_ID);
+
+        assertFalse("The device was not released.", releasedDevice.isAllocated());
+        assertNotEquals("The passkey of the released device was not changed.", PASSKEY, releasedDevice.getPasskey());
+        assertTrue("More than one client release succeeded.", clientReleasesCount <= 1);
+        verify(mockedEventService, times(1)).publish(any(DeviceReleasedEvent.class));
+
+        PasskeyAuthority.validatePasskey(releasedDevice.getPasskey(), DEVICE_ID);
+    }
+
+    @Test
+    public void testSecondReleaseOfTheSameLeaseFails() throws Exception {
+        poolManager.releaseDevice(new DeviceAllocationInformation(PASSKEY, DEVICE_ID));
+
+        try {
+            poolManager.releaseDevice(new DeviceAllocationInformation(PASSKEY, DEVICE_ID));
+            fail("A released lease was released again.");
+        } catch (InvalidPasskeyException e) {
+            // expected
+        }
+
+        verify(mockedEventService, times(1)).publish(any(DeviceReleasedEvent.class));
+    }
+
+    private Object replaceField(String fieldName, Object value) throws Exception {
+        Field field = PoolManager.class.getDeclaredField(fieldName);
+        field.setAccessible(true);
+
+        Object originalValue = field.get(poolManager);
+        field.set(poolManager, value);
+
+        return originalValue;
+    }
+}
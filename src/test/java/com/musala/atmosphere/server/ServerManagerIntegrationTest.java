@@ -20,7 +20,6 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
-import java.util.Collection;
 import java.util.List;
 
 import org.junit.After;
@@ -28,13 +27,12 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 
 import com.musala.atmosphere.commons.DeviceInformation;
+import com.musala.atmosphere.server.dao.IDevicePoolDao;
 import com.musala.atmosphere.server.data.db.flyway.DataSourceCallback;
 import com.musala.atmosphere.server.data.db.flyway.DataSourceManager;
 import com.musala.atmosphere.server.data.db.ormlite.AgentDao;
-import com.musala.atmosphere.server.data.db.ormlite.DevicePoolDao;
 import com.musala.atmosphere.server.data.model.IAgent;
-import com.musala.atmosphere.server.data.model.ormilite.Agent;
-import com.musala.atmosphere.server.data.model.ormilite.Device;
+import com.musala.atmosphere.server.data.model.IDevice;
 import com.musala.atmosphere.server.data.provider.ormlite.DataSourceProvider;
 import com.musala.atmosphere.server.eventservice.ServerEventService;
 import com.musala.atmosphere.server.eventservice.event.agent.AgentDisconnectedEvent;
@@ -82,7 +80,7 @@ public class ServerManagerIntegrationTest {
 
     private static AgentDao agentDao;
 
-    private static DevicePoolDao devicePoolDao;
+    private static IDevicePoolDao devicePoolDao;
 
     @BeforeClass
     public static void setUp() throws Exception {
@@ -171,13 +169,12 @@ public class ServerManagerIntegrationTest {
         testServerManager.registerAgent(AGENT_IDS[0]);
         assertTrue(EXISTING_AGENT_MISMATCH_ERROR, agentDao.hasAgent(AGENT_IDS[0]));
 
-        Agent agent = (Agent) agentDao.selectByAgentId(AGENT_IDS[0]);
-        Collection<Device> devicesOnAgent = agent.getDevices();
+        List<IDevice> devicesOnAgent = devicePoolDao.getAgentDevices(AGENT_IDS[0]);
 
         assertTrue(EMPTY_RESULTS_MISMATCH_ERROR, devicesOnAgent.isEmpty());
 
         testServerManager.onAgentDeviceListChanged(AGENT_IDS[0], DEVICE_SERIAL_NUMBERS[0], deviceInformations[0], true);
-        devicesOnAgent = agent.getDevices();
+        devicesOnAgent = devicePoolDao.getAgentDevices(AGENT_IDS[0]);
 
         String deviceIdentifier = getDeviceIdentifier(AGENT_IDS[0], DEVICE_SERIAL_NUMBERS[0]);
         int expectedAttachedDeviceCount = 1;
@@ -202,8 +199,7 @@ public class ServerManagerIntegrationTest {
 
         assertTrue(EXISTING_AGENT_MISMATCH_ERROR, agentDao.hasAgent(AGENT_IDS[0]));
 
-        Agent agent = (Agent) agentDao.selectByAgentId(AGENT_IDS[0]);
-        Collection<Device> devicesOnAgent = agent.getDevices();
+        List<IDevice> devicesOnAgent = devicePoolDao.getAgentDevices(AGENT_IDS[0]);
         int expectedAttachedDeviceCount = 2;
 
         assertTrue(EMPTY_RESULTS_MISMATCH_ERROR, devicesOnAgent.isEmpty());
@@ -213,13 +209,50 @@ public class ServerManagerIntegrationTest {
 
         String firstDeviceIdentifier = getDeviceIdentifier(AGENT_IDS[0], DEVICE_SERIAL_NUMBERS[0]);
         String secondDeviceIdentifier = getDeviceIdentifier(AGENT_IDS[0], DEVICE_SERIAL_NUMBERS[2]);
-        devicesOnAgent = agent.getDevices();
+        devicesOnAgent = devicePoolDao.getAgentDevices(AGENT_IDS[0]);
 
         assertEquals(DEVICES_COUNT_MISMATCH_ERROR, expectedAttachedDeviceCount, devicesOnAgent.size());
         assertTrue(EXISTING_DEVICE_MISMATCH_ERROR, devicePoolDao.hasDevice(firstDeviceIdentifier));
         assertTrue(EXISTING_DEVICE_MISMATCH_ERROR, devicePoolDao.hasDevice(secondDeviceIdentifier));
     }
 
+    @Test
+    public void testPublishAllDevicesForAgent() throws Exception {
+        testServerManager.registerAgent(AGENT_IDS[0]);
+
+        testServerManager.publishAllDevicesForAgent(deviceInformations, AGENT_IDS[0]);
+        List<IDevice> devicesOnAgent = devicePoolDao.getAgentDevices(AGENT_IDS[0]);
+
+        assertEquals(DEVICES_COUNT_MISMATCH_ERROR, DEVICE_SERIAL_NUMBERS.length, devicesOnAgent.size());
+
+        for (String deviceSerialNumber : DEVICE_SERIAL_NUMBERS) {
+            String deviceIdentifier = getDeviceIdentifier(AGENT_IDS[0], deviceSerialNumber);
+            assertTrue(EXISTING_DEVICE_MISMATCH_ERROR, devicePoolDao.hasDevice(deviceIdentifier));
+        }
+    }
+
+    @Test
+    public void testPublishAllDevicesForAgentReconcilesThePooledDevices() throws Exception {
+        testServerManager.registerAgent(AGENT_IDS[0]);
+        testServerManager.publishAllDevicesForAgent(new DeviceInformation[] {deviceInformations[0],
+                deviceInformations[1]}, AGENT_IDS[0]);
+
+        String keptDeviceIdentifier = getDeviceIdentifier(AGENT_IDS[0], DEVICE_SERIAL_NUMBERS[1]);
+        long keptDevicePasskey = devicePoolDao.getDevice(keptDeviceIdentifier).getPasskey();
+
+        testServerManager.publishAllDevicesForAgent(new DeviceInformation[] {deviceInformations[1],
+                deviceInformations[2]}, AGENT_IDS[0]);
+
+        assertEquals(DEVICES_COUNT_MISMATCH_ERROR, 2, devicePoolDao.getAgentDevices(AGENT_IDS[0]).size());
+        assertFalse(NON_EXISTING_DEVICE_MISMATCH_ERROR,
+                    devicePoolDao.hasDevice(getDeviceIdentifier(AGENT_IDS[0], DEVICE_SERIAL_NUMBERS[0])));
+        assertTrue(EXISTING_DEVICE_MISMATCH_ERROR,
+                   devicePoolDao.hasDevice(getDeviceIdentifier(AGENT_IDS[0], DEVICE_SERIAL_NUMBERS[2])));
+        assertEquals("The passkey of a device, which is still attached, was changed.",
+                     keptDevicePasskey,
+                     devicePoolDao.getDevice(keptDeviceIdentifier).getPasskey());
+    }
+
     @Test
     public void testDisconnectAgentWhenNoDeviceIsAttached() throws Exception {
         testServerManager.registerAgent(AGENT_IDS[0]);
@@ -0,0 +1,426 @@
+// This file is part of the ATMOSPHERE mobile testing framework.
+// Copyright (C) 2016 MusalaSoft
+//
+// ATMOSPHERE is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// ATMOSPHERE is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with ATMOSPHERE.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.musala.atmosphere.server.allocation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.musala.atmosphere.commons.DeviceInformation;
+import com.musala.atmosphere.commons.cs.clientbuilder.DeviceAllocationInformation;
+import com.musala.atmosphere.commons.cs.deviceselection.DeviceSelector;
+import com.musala.atmosphere.commons.cs.deviceselection.DeviceSelectorBuilder;
+import com.musala.atmosphere.commons.cs.exception.NoDeviceMatchingTheGivenSelectorException;
+
+/**
+ * Tests the {@link AllocationQueue allocation queue}.
+ *
+ * @author dimcho.nedev
+ *
+ */
+public class AllocationQueueTest {
+    private static final String[] CLIENT_IDS = {"client_0", "client_1", "client_2"};
+
+    private static final String DEVICE_ID = "agent_id_device";
+
+    private static final String DEVICE_MODEL = "Nexus 5";
+
+    private static final String OTHER_DEVICE_MODEL = "Nexus 4";
+
+    private static final int API_LEVEL = 23;
+
+    private static final long PASSKEY = 42;
+
+    private static final int ENQUEUE_TIMEOUT = 5_000;
+
+    private IDeviceAllocator mockedDeviceAllocator;
+
+    private AllocationQueue allocationQueue;
+
+    private DeviceSelector modelSelector;
+
+    private DeviceAllocationInformation allocationInformation;
+
+    @Before
+    public void setUp() {
+        mockedDeviceAllocator = mock(IDeviceAllocator.class);
+        allocationQueue = new AllocationQueue(mockedDeviceAllocator);
+
+        modelSelector = new DeviceSelectorBuilder().deviceModel(DEVICE_MODEL).build();
+        allocationInformation = new DeviceAllocationInformation(PASSKEY, DEVICE_ID);
+    }
+
+    @Test
+    public void testRequestsWithSamePriorityAreServedInOrder() throws Exception {
+        when(mockedDeviceAllocator.allocate(any(DeviceSelector.class))).thenReturn(allocationInformation)
+                                                                        .thenReturn(null);
+
+        AllocationRequest firstRequest = enqueue(CLIENT_IDS[0], AllocationPriority.NORMAL);
+        AllocationRequest secondRequest = enqueue(CLIENT_IDS[1], AllocationPriority.NORMAL);
+
+        allocationQueue.deviceAvailable(createDeviceInformation(DEVICE_MODEL));
+
+        assertTrue("The first request was not served.", firstRequest.getAllocationFuture().isDone());
+        assertEquals("The handed off device is not the allocated one.",
+                     allocationInformation,
+                     firstRequest.getAllocationFuture().get());
+        assertFalse("The second request was served before the first one.",
+                    secondRequest.getAllocationFuture().isDone());
+        assertEquals("The count of the waiting requests is not the expected one.", 1, allocationQueue.size());
+    }
+
+    @Test
+    public void testRequestsWithHigherPriorityAreServedFirst() throws Exception {
+        when(mockedDeviceAllocator.allocate(any(DeviceSelector.class))).thenReturn(allocationInformation)
+                                                                        .thenReturn(null);
+
+        DeviceSelector apiLevelSelector = new DeviceSelectorBuilder().minApi(API_LEVEL).build();
+        AllocationRequest lowRequest = enqueue(CLIENT_IDS[0], AllocationPriority.LOW);
+        AllocationRequest normalRequest = allocationQueue.enqueue(apiLevelSelector,
+                                                                  CLIENT_IDS[1],
+                                                                  AllocationPriority.NORMAL);
+        AllocationRequest highRequest = enqueue(CLIENT_IDS[2], AllocationPriority.HIGH);
+
+        allocationQueue.deviceAvailable(createDeviceInformation(DEVICE_MODEL));
+
+        assertTrue("The request with the highest priority was not served.", highRequest.getAllocationFuture().isDone());
+        assertFalse("A request with lower priority was served.", normalRequest.getAllocationFuture().isDone());
+        assertFalse("A request with lower priority was served.", lowRequest.getAllocationFuture().isDone());
+    }
+
+    @Test
+    public void testDeviceIsNotOfferedToNotApplicableRequests() throws Exception {
+        AllocationRequest request = enqueue(CLIENT_IDS[0], AllocationPriority.NORMAL);
+
+        allocationQueue.deviceAvailable(createDeviceInformation(OTHER_DEVICE_MODEL));
+
+        verify(mockedDeviceAllocator, never()).allocate(any(DeviceSelector.class));
+        assertFalse("A request was served with not applicable device.", request.getAllocationFuture().isDone());
+    }
+
+    @Test
+    public void testRequestKeepsWaitingWhenDeviceIsTakenMeanwhile() throws Exception {
+        when(mockedDeviceAllocator.allocate(any(DeviceSelector.class))).thenReturn(null);
+
+        AllocationRequest request = enqueue(CLIENT_IDS[0], AllocationPriority.NORMAL);
+
+        allocationQueue.deviceAvailable(createDeviceInformation(DEVICE_MODEL));
+
+        assertFalse("A request was served without allocated device.", request.getAllocationFuture().isDone());
+        assertTrue("The request is not waiting for the same selector.",
+                   allocationQueue.hasWaitingRequests(modelSelector, AllocationPriority.NORMAL));
+        assertFalse("A request with higher priority should not wait behind the request.",
+                    allocationQueue.hasWaitingRequests(modelSelector, AllocationPriority.HIGH));
+    }
+
+    @Test
+    public void testServeNewRequest() throws Exception {
+        when(mockedDeviceAllocator.allocate(any(DeviceSelector.class))).thenReturn(allocationInformation);
+
+        AllocationRequest request = enqueue(CLIENT_IDS[0], AllocationPriority.NORMAL);
+        allocationQueue.serve(request);
+
+        assertTrue("The request was not served with the free device.", request.getAllocationFuture().isDone());
+        assertEquals("The served request is still waiting.", 0, allocationQueue.size());
+    }
+
+    @Test
+    public void testRemoveRequest() throws Exception {
+        when(mockedDeviceAllocator.allocate(any(DeviceSelector.class))).thenReturn(allocationInformation);
+
+        AllocationRequest firstRequest = enqueue(CLIENT_IDS[0], AllocationPriority.NORMAL);
+        AllocationRequest secondRequest = enqueue(CLIENT_IDS[1], AllocationPriority.NORMAL);
+
+        assertTrue("Removing a waiting request failed.", allocationQueue.remove(firstRequest));
+
+        allocationQueue.deviceAvailable(createDeviceInformation(DEVICE_MODEL));
+
+        assertFalse("A removed request was served.", firstRequest.getAllocationFuture().isDone());
+        assertTrue("The remaining request was not served.", secondRequest.getAllocationFuture().isDone());
+        assertFalse("A served request was removed.", allocationQueue.remove(secondRequest));
+    }
+
+    @Test(expected = NoDeviceMatchingTheGivenSelectorException.class)
+    public void testRequestFailsWhenMatchingDevicesAreRemoved() throws Throwable {
+        NoDeviceMatchingTheGivenSelectorException exception = new NoDeviceMatchingTheGivenSelectorException();
+        when(mockedDeviceAllocator.allocate(any(DeviceSelector.class))).thenThrow(exception);
+
+        AllocationRequest request = enqueue(CLIENT_IDS[0], AllocationPriority.NORMAL);
+        allocationQueue.deviceAvailable(createDeviceInformation(DEVICE_MODEL));
+
+        assertEquals("A failed request is still waiting.", 0, allocationQueue.size());
+
+        try {
+            request.getAllocationFuture().get();
+        } catch (ExecutionException e) {
+            throw e.getCause();
+        }
+    }
+
+    @Test
+    public void testDevicesAvailableServesRequestsWithAllApplicableDevices() throws Exception {
+        DeviceAllocationInformation otherAllocationInformation = new DeviceAllocationInformation(PASSKEY + 1,
+                                                                                                 DEVICE_ID + 1);
+        when(mockedDeviceAllocator.allocate(any(DeviceSelector.class))).thenReturn(allocationInformation,
+                                                                                   otherAllocationInformation,
+                                                                                   null);
+
+        AllocationRequest firstRequest = enqueue(CLIENT_IDS[0], AllocationPriority.NORMAL);
+        AllocationRequest secondRequest = enqueue(CLIENT_IDS[1], AllocationPriority.NORMAL);
+
+        allocationQueue.devicesAvailable(Arrays.asList(createDeviceInformation(OTHER_DEVICE_MODEL),
+                                                       createDeviceInformation(DEVICE_MODEL),
+                                                       createDeviceInformation(DEVICE_MODEL)));
+
+        assertEquals("The first request was not served with the first allocated device.",
+                     allocationInformation,
+                     firstRequest.getAllocationFuture().get());
+        assertEquals("The second request was not served with the second allocated device.",
+                     otherAllocationInformation,
+                     secondRequest.getAllocationFuture().get());
+        assertEquals("The count of the waiting requests is not the expected one.", 0, allocationQueue.size());
+    }
+
+    @Test
+    public void testDevicesAvailableWhenNoRequestIsWaiting() throws Exception {
+        allocationQueue.devicesAvailable(Arrays.asList(createDeviceInformation(DEVICE_MODEL),
+                                                       createDeviceInformation(OTHER_DEVICE_MODEL)));
+
+        verify(mockedDeviceAllocator, never()).allocate(any(DeviceSelector.class));
+    }
+
+    @Test
+    public void testGangIsAllocatedWhenAllDevicesAreFree() throws Exception {
+        List<DeviceAllocationInformation> gangAllocationInformation = Arrays.asList(allocationInformation,
+                                                                                    allocationInformation);
+        when(mockedDeviceAllocator.allocateAll(anyListOf(DeviceSelector.class))).thenReturn(gangAllocationInformation);
+
+        GangAllocationRequest request = enqueueGang(CLIENT_IDS[0], AllocationPriority.NORMAL);
+        allocationQueue.serve(request);
+
+        assertEquals("The gang was not served with all of its devices.",
+                     gangAllocationInformation,
+                     request.getAllocationFuture().get());
+        assertEquals("The served gang is still waiting.", 0, allocationQueue.size());
+    }
+
+    @Test
+    public void testWaitingGangDoesNotHoldTheDeviceFromLaterRequests() throws Exception {
+        when(mockedDeviceAllocator.allocateAll(anyListOf(DeviceSelector.class))).thenReturn(null);
+        when(mockedDeviceAllocator.allocate(any(DeviceSelector.class))).thenReturn(allocationInformation)
+                                                                        .thenReturn(null);
+
+        GangAllocationRequest gangRequest = enqueueGang(CLIENT_IDS[0], AllocationPriority.NORMAL);
+        AllocationRequest request = enqueue(CLIENT_IDS[1], AllocationPriority.NORMAL);
+
+        allocationQueue.deviceAvailable(createDeviceInformation(DEVICE_MODEL));
+
+        verify(mockedDeviceAllocator).allocateAll(anyListOf(DeviceSelector.class));
+        assertFalse("The gang was served without all of its devices.", gangRequest.getAllocationFuture().isDone());
+        assertTrue("The request after the gang was not served.", request.getAllocationFuture().isDone());
+        assertEquals("The count of the waiting requests is not the expected one.", 1, allocationQueue.size());
+    }
+
+    @Test
+    public void testGangIsServedBeforeLaterRequests() throws Exception {
+        List<DeviceAllocationInformation> gangAllocationInformation = Arrays.asList(allocationInformation,
+                                                                                    allocationInformation);
+        when(mockedDeviceAllocator.allocateAll(anyListOf(DeviceSelector.class))).thenReturn(gangAllocationInformation);
+        when(mockedDeviceAllocator.allocate(any(DeviceSelector.class))).thenReturn(null);
+
+        GangAllocationRequest gangRequest = enqueueGang(CLIENT_IDS[0], AllocationPriority.NORMAL);
+        AllocationRequest request = enqueue(CLIENT_IDS[1], AllocationPriority.NORMAL);
+
+        allocationQueue.deviceAvailable(createDeviceInformation(DEVICE_MODEL));
+
+        assertTrue("The gang waiting first was not served.", gangRequest.getAllocationFuture().isDone());
+        assertFalse("The request was served without allocated device.", request.getAllocationFuture().isDone());
+    }
+
+    @Test
+    public void testNewGangDoesNotOvertakeWaitingGang() throws Exception {
+        when(mockedDeviceAllocator.allocateAll(anyListOf(DeviceSelector.class))).thenReturn(null);
+
+        GangAllocationRequest firstRequest = enqueueGang(CLIENT_IDS[0], AllocationPriority.NORMAL);
+        allocationQueue.serve(firstRequest);
+
+        GangAllocationRequest secondRequest = enqueueGang(CLIENT_IDS[1], AllocationPriority.NORMAL);
+        allocationQueue.serve(secondRequest);
+
+        verify(mockedDeviceAllocator, times(1)).allocateAll(anyListOf(DeviceSelector.class));
+        assertEquals("The count of the waiting requests is not the expected one.", 2, allocationQueue.size());
+        assertTrue("Removing a waiting gang failed.", allocationQueue.remove(firstRequest));
+        assertFalse("A removed gang was removed again.", allocationQueue.remove(firstRequest));
+    }
+
+    @Test
+    public void testQueueIsNotLockedWhileDeviceIsAllocated() throws Exception {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        final List<AllocationRequest> enqueuedRequests = new ArrayList<>();
+
+        Answer<DeviceAllocationInformation> enqueueingAllocation = new Answer<DeviceAllocationInformation>() {
+            @Override
+            public DeviceAllocationInformation answer(InvocationOnMock invocation) throws Throwable {
+                Future<AllocationRequest> enqueue = executor.submit(new Callable<AllocationRequest>() {
+                    @Override
+                    public AllocationRequest call() {
+                        return enqueue(CLIENT_IDS[1], AllocationPriority.NORMAL);
+                    }
+                });
+                enqueuedRequests.add(enqueue.get(ENQUEUE_TIMEOUT, TimeUnit.MILLISECONDS));
+
+                return allocationInformation;
+            }
+        };
+        when(mockedDeviceAllocator.allocate(any(DeviceSelector.class))).thenAnswer(enqueueingAllocation)
+                                                                        .thenReturn(null);
+
+        AllocationRequest request = enqueue(CLIENT_IDS[0], AllocationPriority.NORMAL);
+        allocationQueue.deviceAvailable(createDeviceInformation(DEVICE_MODEL));
+        executor.shutdown();
+
+        assertTrue("The request was not served.", request.getAllocationFuture().isDone());
+        assertEquals("The request was not enqueued while the device was allocated.", 1, enqueuedRequests.size());
+        assertFalse("The request enqueued meanwhile was served without allocated device.",
+                    enqueuedRequests.get(0).getAllocationFuture().isDone());
+        assertEquals("The count of the waiting requests is not the expected one.", 1, allocationQueue.size());
+    }
+
+    @Test
+    public void testRequestRemovedWhileHandedOffIsCompletedWithoutDevice() throws Exception {
+        final AllocationRequest request = enqueue(CLIENT_IDS[0], AllocationPriority.NORMAL);
+
+        Answer<DeviceAllocationInformation> removingAllocation = new Answer<DeviceAllocationInformation>() {
+            @Override
+            public DeviceAllocationInformation answer(InvocationOnMock invocation) throws Throwable {
+                assertFalse("A request was removed while it was handed off.", allocationQueue.remove(request));
+
+                return null;
+            }
+        };
+        when(mockedDeviceAllocator.allocate(any(DeviceSelector.class))).thenAnswer(removingAllocation);
+
+        allocationQueue.deviceAvailable(createDeviceInformation(DEVICE_MODEL));
+
+        assertTrue("The removed request was not completed.", request.getAllocationFuture().isDone());
+        assertNull("The removed request got a device.", request.getAllocationFuture().get());
+        assertEquals("The removed request is still waiting.", 0, allocationQueue.size());
+    }
+
+    @Test
+    public void testRequestKeepsItsPlaceAfterFailedHandOff() throws Exception {
+        when(mockedDeviceAllocator.allocate(any(DeviceSelector.class))).thenReturn(null)
+                                                                        .thenReturn(allocationInformation)
+                                                                        .thenReturn(null);
+
+        AllocationRequest firstRequest = enqueue(CLIENT_IDS[0], AllocationPriority.NORMAL);
+        allocationQueue.deviceAvailable(createDeviceInformation(DEVICE_MODEL));
+        AllocationRequest secondRequest = enqueue(CLIENT_IDS[1], AllocationPriority.NORMAL);
+        allocationQueue.deviceAvailable(createDeviceInformation(DEVICE_MODEL));
+
+        assertTrue("The request waiting first was not served.", firstRequest.getAllocationFuture().isDone());
+        assertFalse("A later request was served first.", secondRequest.getAllocationFuture().isDone());
+    }
+
+    @Test
+    public void testAllocatedDeviceIsHandedOffToWaitingRequest() throws Exception {
+        AllocationRequest request = enqueue(CLIENT_IDS[0], AllocationPriority.NORMAL);
+
+        assertTrue("The allocated device was not handed off to the waiting request.",
+                   allocationQueue.handOff(createDeviceInformation(DEVICE_MODEL),
+                                           allocationInformation,
+                                           AllocationPriority.NORMAL));
+        assertEquals("The handed off device is not the allocated one.",
+                     allocationInformation,
+                     request.getAllocationFuture().get());
+        assertEquals("The served request is still waiting.", 0, allocationQueue.size());
+    }
+
+    @Test
+    public void testAllocatedDeviceIsNotHandedOffToRequestWithLowerPriority() throws Exception {
+        AllocationRequest request = enqueue(CLIENT_IDS[0], AllocationPriority.LOW);
+
+        assertFalse("The allocated device was handed off to a request with lower priority.",
+                    allocationQueue.handOff(createDeviceInformation(DEVICE_MODEL),
+                                            allocationInformation,
+                                            AllocationPriority.HIGH));
+        assertFalse("The request with lower priority was served.", request.getAllocationFuture().isDone());
+        assertFalse("The allocated device was handed off to a not applicable request.",
+                    allocationQueue.handOff(createDeviceInformation(OTHER_DEVICE_MODEL),
+                                            allocationInformation,
+                                            AllocationPriority.LOW));
+    }
+
+    @Test
+    public void testWaitingGangsAreCountedInTheDemand() {
+        DeviceInformation deviceInformation = createDeviceInformation(DEVICE_MODEL);
+        enqueue(CLIENT_IDS[0], AllocationPriority.NORMAL);
+        GangAllocationRequest gangRequest = enqueueGang(CLIENT_IDS[1], AllocationPriority.NORMAL);
+
+        assertEquals("The selectors of the waiting gang were not counted in the demand.",
+                     3,
+                     allocationQueue.getDemand(deviceInformation));
+        assertEquals("A not applicable device is in demand.",
+                     0,
+                     allocationQueue.getDemand(createDeviceInformation(OTHER_DEVICE_MODEL)));
+
+        allocationQueue.remove(gangRequest);
+
+        assertEquals("The removed gang is still counted in the demand.",
+                     1,
+                     allocationQueue.getDemand(deviceInformation));
+    }
+
+    private GangAllocationRequest enqueueGang(String clientId, AllocationPriority priority) {
+        return allocationQueue.enqueueGang(Arrays.asList(modelSelector, modelSelector), clientId, priority);
+    }
+
+    private AllocationRequest enqueue(String clientId, AllocationPriority priority) {
+        return allocationQueue.enqueue(modelSelector, clientId, priority);
+    }
+
+    private static DeviceInformation createDeviceInformation(String model) {
+        DeviceInformation deviceInformation = new DeviceInformation();
+        deviceInformation.setModel(model);
+        deviceInformation.setApiLevel(API_LEVEL);
+
+        return deviceInformation;
+    }
+}
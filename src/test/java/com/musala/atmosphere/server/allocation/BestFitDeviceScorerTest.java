@@ -0,0 +1,349 @@
+// This file is part of the ATMOSPHERE mobile testing framework.
+// Copyright (C) 2016 MusalaSoft
+//
+// ATMOSPHERE is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// ATMOSPHERE is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with ATMOSPHERE.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.musala.atmosphere.server.allocation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+
+import org.apache.log4j.Logger;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.musala.atmosphere.commons.DeviceInformation;
+import com.musala.atmosphere.commons.cs.clientbuilder.DeviceAllocationInformation;
+import com.musala.atmosphere.commons.cs.deviceselection.DeviceSelector;
+import com.musala.atmosphere.commons.cs.deviceselection.DeviceSelectorBuilder;
+import com.musala.atmosphere.server.dao.IAgentDao;
+import com.musala.atmosphere.server.dao.exception.DevicePoolDaoException;
+import com.musala.atmosphere.server.data.memory.InMemoryDevicePoolDao;
+import com.musala.atmosphere.server.data.model.IDevice;
+import com.musala.atmosphere.server.pool.DeviceAllocationEngine;
+
+/**
+ * Tests the {@link BestFitDeviceScorer best fit scorer}. Besides the ranking of the devices, a simulation of a mixed
+ * workload - clients satisfied by any device and clients waiting for a rare model - compares the mean time the clients
+ * wait in the {@link AllocationQueue allocation queue} with the best fit and with the first match allocation.
+ *
+ * @author dimcho.nedev
+ *
+ */
+public class BestFitDeviceScorerTest {
+    private static final Logger LOGGER = Logger.getLogger(BestFitDeviceScorerTest.class.getCanonicalName());
+
+    private static final String[] AGENT_IDS = {"agent_0", "agent_1"};
+
+    private static final String DEVICE_ID_FORMAT = "%s_device_%d";
+
+    private static final String CLIENT_ID_FORMAT = "client_%d";
+
+    private static final String RARE_MODEL = "Pixel";
+
+    private static final String COMMON_MODEL = "Nexus 5";
+
+    private static final int API_LEVEL = 23;
+
+    private static final int RARE_DEVICES_COUNT = 2;
+
+    private static final int COMMON_DEVICES_COUNT = 6;
+
+    private static final long WORKLOAD_SEED = 42;
+
+    private static final int WORKLOAD_DURATION = 2_000; // ticks
+
+    private static final int ANY_DEVICE_ARRIVAL_PERCENT = 45;
+
+    private static final int RARE_DEVICE_ARRIVAL_PERCENT = 12;
+
+    private static final int MIN_HOLD_TIME = 8; // ticks
+
+    private static final int MAX_HOLD_TIME = 15; // ticks
+
+    private InMemoryDevicePoolDao devicePoolDao;
+
+    private AllocationQueue allocationQueue;
+
+    private int deviceSequence;
+
+    @Before
+    public void setUp() {
+        devicePoolDao = createDevicePoolDao();
+        allocationQueue = new AllocationQueue(mock(IDeviceAllocator.class));
+        deviceSequence = 0;
+    }
+
+    @Test
+    public void testRankPrefersDevicesLeastInDemand() throws Exception {
+        IDevice rareDevice = addDevice(devicePoolDao, RARE_MODEL, AGENT_IDS[0]);
+        IDevice commonDevice = addDevice(devicePoolDao, COMMON_MODEL, AGENT_IDS[0]);
+
+        allocationQueue.enqueue(createModelSelector(RARE_MODEL),
+                                String.format(CLIENT_ID_FORMAT, 0),
+                                AllocationPriority.NORMAL);
+
+        BestFitDeviceScorer deviceScorer = new BestFitDeviceScorer(devicePoolDao, allocationQueue);
+        List<IDevice> rankedDevices = deviceScorer.rank(Arrays.asList(rareDevice, commonDevice));
+
+        assertEquals("The device waited for by a client should be ranked last.",
+                     Arrays.asList(commonDevice.getDeviceId(), rareDevice.getDeviceId()),
+                     getDeviceIds(rankedDevices));
+    }
+
+    @Test
+    public void testRankPrefersMostAbundantDevices() throws Exception {
+        IDevice rareDevice = addDevice(devicePoolDao, RARE_MODEL, AGENT_IDS[0]);
+        IDevice commonDevice = addDevice(devicePoolDao, COMMON_MODEL, AGENT_IDS[0]);
+        IDevice otherCommonDevice = addDevice(devicePoolDao, COMMON_MODEL, AGENT_IDS[0]);
+
+        List<IDevice> rankedDevices = new BestFitDeviceScorer(devicePoolDao).rank(Arrays.asList(rareDevice,
+                                                                                                commonDevice,
+                                                                                                otherCommonDevice));
+
+        assertEquals("The only free device of its kind should be ranked last.",
+                     Arrays.asList(commonDevice.getDeviceId(),
+                                   otherCommonDevice.getDeviceId(),
+                                   rareDevice.getDeviceId()),
+                     getDeviceIds(rankedDevices));
+    }
+
+    @Test
+    public void testRankBreaksTiesByAgentLoad() throws Exception {
+        IDevice loadedAgentDevice = addDevice(devicePoolDao, COMMON_MODEL, AGENT_IDS[0]);
+        IDevice idleAgentDevice = addDevice(devicePoolDao, COMMON_MODEL, AGENT_IDS[1]);
+        IDevice allocatedDevice = addDevice(devicePoolDao, RARE_MODEL, AGENT_IDS[0]);
+        assertTrue("The device was not allocated.", devicePoolDao.tryAllocate(allocatedDevice));
+
+        List<IDevice> rankedDevices = new BestFitDeviceScorer(devicePoolDao).rank(Arrays.asList(loadedAgentDevice,
+                                                                                                idleAgentDevice));
+
+        assertEquals("The device on the agent with less allocated devices should be ranked first.",
+                     Arrays.asList(idleAgentDevice.getDeviceId(), loadedAgentDevice.getDeviceId()),
+                     getDeviceIds(rankedDevices));
+    }
+
+    @Test
+    public void testBestFitReducesMeanQueueWaitOnMixedWorkload() throws Exception {
+        List<WorkloadRequest> workload = createWorkload();
+
+        double firstMatchMeanWait = new AllocationSimulation(DeviceAllocationStrategy.FIRST_MATCH).run(workload);
+        double bestFitMeanWait = new AllocationSimulation(DeviceAllocationStrategy.BEST_FIT).run(workload);
+
+        LOGGER.info(String.format("Mean queue wait of %d requests: %.2f ticks with first match, %.2f with best fit.",
+                                  workload.size(),
+                                  firstMatchMeanWait,
+                                  bestFitMeanWait));
+
+        assertTrue("The best fit allocation should reduce the mean time the clients wait for a device.",
+                   bestFitMeanWait < firstMatchMeanWait);
+    }
+
+    /**
+     * Creates the same sequence of requests on every call. Most clients accept any device and the rest wait for a
+     * model which is rare in the pool.
+     */
+    private static List<WorkloadRequest> createWorkload() {
+        Random random = new Random(WORKLOAD_SEED);
+        List<WorkloadRequest> workload = new ArrayList<>();
+
+        for (int tick = 0; tick < WORKLOAD_DURATION; tick++) {
+            if (random.nextInt(100) < ANY_DEVICE_ARRIVAL_PERCENT) {
+                DeviceSelector anyDeviceSelector = new DeviceSelectorBuilder().minApi(API_LEVEL).build();
+                workload.add(new WorkloadRequest(tick, anyDeviceSelector, getHoldTime(random)));
+            }
+
+            if (random.nextInt(100) < RARE_DEVICE_ARRIVAL_PERCENT) {
+                workload.add(new WorkloadRequest(tick, createModelSelector(RARE_MODEL), getHoldTime(random)));
+            }
+        }
+
+        return workload;
+    }
+
+    private static int getHoldTime(Random random) {
+        return MIN_HOLD_TIME + random.nextInt(MAX_HOLD_TIME - MIN_HOLD_TIME + 1);
+    }
+
+    private static DeviceSelector createModelSelector(String model) {
+        return new DeviceSelectorBuilder().deviceModel(model).build();
+    }
+
+    private static InMemoryDevicePoolDao createDevicePoolDao() {
+        IAgentDao mockedAgentDao = mock(IAgentDao.class);
+        when(mockedAgentDao.hasAgent(anyString())).thenReturn(true);
+
+        return new InMemoryDevicePoolDao(mockedAgentDao);
+    }
+
+    private IDevice addDevice(InMemoryDevicePoolDao devicePoolDao, String model, String agentId)
+        throws DevicePoolDaoException {
+        DeviceInformation deviceInformation = new DeviceInformation();
+        deviceInformation.setModel(model);
+        deviceInformation.setApiLevel(API_LEVEL);
+
+        int index = deviceSequence++;
+        deviceInformation.setSerialNumber(String.valueOf(index));
+
+        String deviceId = String.format(DEVICE_ID_FORMAT, agentId, index);
+
+        return devicePoolDao.addDevice(deviceInformation, deviceId, agentId, index);
+    }
+
+    private static List<String> getDeviceIds(List<IDevice> devices) {
+        List<String> deviceIds = new ArrayList<>();
+
+        for (IDevice device : devices) {
+            deviceIds.add(device.getDeviceId());
+        }
+
+        return deviceIds;
+    }
+
+    private static class WorkloadRequest {
+        private final int arrivalTick;
+
+        private final DeviceSelector deviceSelector;
+
+        private final int holdTime;
+
+        private WorkloadRequest(int arrivalTick, DeviceSelector deviceSelector, int holdTime) {
+            this.arrivalTick = arrivalTick;
+            this.deviceSelector = deviceSelector;
+            this.holdTime = holdTime;
+        }
+    }
+
+    /**
+     * Replays a workload tick by tick on a new pool, the same way the allocation manager serves the clients - a client
+     * is allocated a device right away or waits in the queue until a matching device is released. The rare devices are
+     * added to the pool first, so they are the first match for any selector.
+     */
+    private class AllocationSimulation {
+        private final DeviceAllocationStrategy allocationStrategy;
+
+        private final InMemoryDevicePoolDao simulatedPoolDao = createDevicePoolDao();
+
+        private final List<List<String>> releasesByTick = new ArrayList<>();
+
+        private AllocationQueue simulatedQueue;
+
+        private int currentTick;
+
+        private long totalWait;
+
+        private int servedRequests;
+
+        private AllocationSimulation(DeviceAllocationStrategy allocationStrategy) {
+            this.allocationStrategy = allocationStrategy;
+        }
+
+        private double run(List<WorkloadRequest> workload) throws Exception {
+            for (int index = 0; index < RARE_DEVICES_COUNT + COMMON_DEVICES_COUNT; index++) {
+                String model = index < RARE_DEVICES_COUNT ? RARE_MODEL : COMMON_MODEL;
+                addDevice(simulatedPoolDao, model, AGENT_IDS[index % AGENT_IDS.length]);
+            }
+
+            simulatedQueue = new AllocationQueue(new IDeviceAllocator() {
+                @Override
+                public DeviceAllocationInformation allocate(DeviceSelector deviceSelector) {
+                    return allocateDevice(deviceSelector);
+                }
+
+                @Override
+                public List<DeviceAllocationInformation> allocateAll(List<DeviceSelector> deviceSelectors) {
+                    throw new UnsupportedOperationException("The simulated workload has no gangs.");
+                }
+            });
+
+            int nextRequest = 0;
+
+            // the ticks continue after the last arrival until all waiting clients are served
+            for (currentTick = 0; nextRequest < workload.size() || servedRequests < workload.size(); currentTick++) {
+                for (String deviceId : getReleases(currentTick)) {
+                    IDevice device = simulatedPoolDao.getDevice(deviceId);
+                    device.release();
+                    simulatedPoolDao.update(device);
+                    simulatedQueue.deviceAvailable(device.getInformation());
+                }
+
+                while (nextRequest < workload.size() && workload.get(nextRequest).arrivalTick == currentTick) {
+                    submit(workload.get(nextRequest), nextRequest);
+                    nextRequest++;
+                }
+            }
+
+            return (double) totalWait / servedRequests;
+        }
+
+        private void submit(final WorkloadRequest workloadRequest, int index) {
+            DeviceSelector deviceSelector = workloadRequest.deviceSelector;
+            CompletableFuture<DeviceAllocationInformation> allocationFuture = null;
+
+            if (!simulatedQueue.hasWaitingRequests(deviceSelector, AllocationPriority.NORMAL)) {
+                DeviceAllocationInformation allocationInformation = allocateDevice(deviceSelector);
+
+                if (allocationInformation != null) {
+                    allocationFuture = CompletableFuture.completedFuture(allocationInformation);
+                }
+            }
+
+            if (allocationFuture == null) {
+                String clientId = String.format(CLIENT_ID_FORMAT, index);
+                AllocationRequest request = simulatedQueue.enqueue(deviceSelector, clientId, AllocationPriority.NORMAL);
+                simulatedQueue.serve(request);
+                allocationFuture = request.getAllocationFuture();
+            }
+
+            allocationFuture.whenComplete(new BiConsumer<DeviceAllocationInformation, Throwable>() {
+                @Override
+                public void accept(DeviceAllocationInformation allocationInformation, Throwable failure) {
+                    totalWait += currentTick - workloadRequest.arrivalTick;
+                    servedRequests++;
+                    getReleases(currentTick + workloadRequest.holdTime).add(allocationInformation.getDeviceId());
+                }
+            });
+        }
+
+        private DeviceAllocationInformation allocateDevice(DeviceSelector deviceSelector) {
+            try {
+                IDeviceScorer deviceScorer = allocationStrategy.createScorer(simulatedPoolDao, simulatedQueue);
+                IDevice device = new DeviceAllocationEngine(simulatedPoolDao, deviceScorer).allocate(deviceSelector);
+
+                return device != null ? new DeviceAllocationInformation(device.getPasskey(), device.getDeviceId())
+                        : null;
+            } catch (DevicePoolDaoException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private List<String> getReleases(int tick) {
+            while (releasesByTick.size() <= tick) {
+                releasesByTick.add(new ArrayList<String>());
+            }
+
+            return releasesByTick.get(tick);
+        }
+    }
+}
@@ -22,10 +22,10 @@ import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import com.musala.atmosphere.server.dao.IDevicePoolDao;
 import com.musala.atmosphere.server.data.db.flyway.DataSourceCallback;
 import com.musala.atmosphere.server.data.db.flyway.DataSourceManager;
 import com.musala.atmosphere.server.data.db.ormlite.AgentDao;
-import com.musala.atmosphere.server.data.db.ormlite.DevicePoolDao;
 import com.musala.atmosphere.server.data.provider.ormlite.DataSourceProvider;
 import com.musala.atmosphere.server.eventservice.ServerEventService;
 import com.musala.atmosphere.server.eventservice.event.datasource.create.DataSourceInitializedEvent;
@@ -47,7 +47,7 @@ public class DataSourceRetrievalIntegrationTest {
 
     private static AgentDao agentDao;
 
-    private static DevicePoolDao devicePoolDao;
+    private static IDevicePoolDao devicePoolDao;
 
     @BeforeClass
     public static void setUp() {
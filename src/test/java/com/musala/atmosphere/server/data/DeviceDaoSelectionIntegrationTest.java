@@ -23,6 +23,9 @@ import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -391,6 +394,88 @@ public class DeviceDaoSelectionIntegrationTest {
         assertEquals(DEVICES_LIST_MISMATCH_ERROR_MESSAGE, expectedDevicesSelected, receivedDevices.size());
     }
 
+    @Test
+    public void testFilterDevicesWithSameParametersAndDifferentTargetApiLevels() throws Exception {
+        int[] targetApiLevels = {TEST_DEVICE_API_LEVELS[0], TEST_DEVICE_API_LEVELS[1], TEST_DEVICE_API_LEVELS[3]};
+        int[] expectedDevicesSelected = {2, 1, 1};
+
+        // the query prepared for the first selector is reused with the target API levels of the next ones
+        for (int i = 0; i < targetApiLevels.length; i++) {
+            DeviceSelector deviceSelector = new DeviceSelectorBuilder().targetApi(targetApiLevels[i]).build();
+            List<IDevice> receivedDevices = deviceDao.filterDevices(deviceSelector, false);
+
+            assertEquals(DEVICES_LIST_MISMATCH_ERROR_MESSAGE, expectedDevicesSelected[i], receivedDevices.size());
+
+            for (IDevice device : receivedDevices) {
+                assertEquals(DEVICE_API_LEVEL_MISMATCH_ERROR_MESSAGE,
+                             targetApiLevels[i],
+                             device.getInformation().getApiLevel());
+            }
+        }
+    }
+
+    @Test
+    public void testFilterDevicesWithSameParametersAndDifferentApiLevelRanges() throws Exception {
+        int[] minimumApiLevels = {18, 17, 19};
+        int[] maximumApiLevels = {21, 17, 19};
+        int[] expectedDevicesSelected = {2, 2, 1};
+
+        for (int i = 0; i < minimumApiLevels.length; i++) {
+            DeviceSelector deviceSelector = new DeviceSelectorBuilder().minApi(minimumApiLevels[i])
+                                                                       .maxApi(maximumApiLevels[i])
+                                                                       .build();
+            List<IDevice> receivedDevices = deviceDao.filterDevices(deviceSelector, false);
+
+            assertEquals(DEVICES_LIST_MISMATCH_ERROR_MESSAGE, expectedDevicesSelected[i], receivedDevices.size());
+        }
+    }
+
+    @Test
+    public void testFilterDevicesWithSameParametersConcurrently() throws Exception {
+        final int threadCount = 4;
+        final int queriesPerThread = 50;
+        final AtomicInteger mismatchedResults = new AtomicInteger();
+        final CountDownLatch startSignal = new CountDownLatch(1);
+        final CountDownLatch doneSignal = new CountDownLatch(threadCount);
+
+        for (int thread = 0; thread < threadCount; thread++) {
+            final int threadIndex = thread;
+
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        startSignal.await();
+
+                        for (int query = 0; query < queriesPerThread; query++) {
+                            // the threads alternate the target API levels, so a reused query is bound to both values
+                            boolean isFirstLevel = (query + threadIndex) % 2 == 0;
+                            int targetApiLevel = isFirstLevel ? TEST_DEVICE_API_LEVELS[0] : TEST_DEVICE_API_LEVELS[1];
+                            int expectedDevicesSelected = isFirstLevel ? 2 : 1;
+
+                            DeviceSelector deviceSelector = new DeviceSelectorBuilder().targetApi(targetApiLevel)
+                                                                                       .build();
+                            List<IDevice> receivedDevices = deviceDao.filterDevices(deviceSelector, false);
+
+                            if (receivedDevices.size() != expectedDevicesSelected) {
+                                mismatchedResults.incrementAndGet();
+                            }
+                        }
+                    } catch (Exception e) {
+                        mismatchedResults.incrementAndGet();
+                    } finally {
+                        doneSignal.countDown();
+                    }
+                }
+            }).start();
+        }
+
+        startSignal.countDown();
+
+        assertTrue("The selecting threads did not finish.", doneSignal.await(30, TimeUnit.SECONDS));
+        assertEquals(DEVICES_LIST_MISMATCH_ERROR_MESSAGE, 0, mismatchedResults.get());
+    }
+
     private static void initializeDevices() throws Exception {
         for (int i = 0; i < TEST_DEVICE_RMI_IDS.length; i++) {
             DeviceInformation deviceInformation = new DeviceInformation();
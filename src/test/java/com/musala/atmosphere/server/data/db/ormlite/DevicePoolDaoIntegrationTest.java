@@ -21,7 +21,9 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.util.Arrays;
 import java.util.List;
 
 import org.junit.After;
@@ -199,6 +201,56 @@ public class DevicePoolDaoIntegrationTest {
         testDevicePoolDao.addDevice(deviceInformation[0], testDeviceIds[0], NON_EXISTING_AGENT_ID, testPasskeys[0]);
     }
 
+    @Test
+    public void testAddDevicesOnOneAgent() throws Exception {
+        List<IDevice> addedDevices = testDevicePoolDao.addDevices(Arrays.asList(deviceInformation),
+                                                                  Arrays.asList(testDeviceIds[0], testDeviceIds[1]),
+                                                                  testAgentIds[0],
+                                                                  Arrays.asList(testPasskeys[0], testPasskeys[1]));
+
+        assertEquals("The count of the added devices is different than expected.", 2, addedDevices.size());
+
+        for (int i = 0; i < 2; i++) {
+            assertTrue("A device from the batch was not added.", testDevicePoolDao.hasDevice(testDeviceIds[i]));
+            assertEquals("A device from the batch was added on another agent.",
+                         testAgentIds[0],
+                         testDevicePoolDao.getDevice(testDeviceIds[i]).getAgentId());
+        }
+    }
+
+    @Test
+    public void testAddDevicesWhenDeviceWithSameIdExistsAddsNone() throws Exception {
+        testDevicePoolDao.addDevice(deviceInformation[1], testDeviceIds[1], testAgentIds[1], testPasskeys[1]);
+        List<DeviceInformation> devicesInformation = Arrays.asList(deviceInformation[0],
+                                                                   deviceInformation[1],
+                                                                   deviceInformation[0]);
+
+        try {
+            testDevicePoolDao.addDevices(devicesInformation,
+                                         Arrays.asList(testDeviceIds[0], testDeviceIds[1], testDeviceIds[2]),
+                                         testAgentIds[0],
+                                         Arrays.asList(testPasskeys[0], testPasskeys[1], testPasskeys[2]));
+            fail("Adding devices with an already existing ID is expected to fail.");
+        } catch (DevicePoolDaoException e) {
+            // expected
+        }
+
+        assertFalse("A device added before the failure was not rolled back.",
+                    testDevicePoolDao.hasDevice(testDeviceIds[0]));
+        assertFalse("A device after the failure was added.", testDevicePoolDao.hasDevice(testDeviceIds[2]));
+        assertEquals("The already existing device was changed.",
+                     testAgentIds[1],
+                     testDevicePoolDao.getDevice(testDeviceIds[1]).getAgentId());
+    }
+
+    @Test(expected = DevicePoolDaoException.class)
+    public void testAddDevicesWithNonExistingAgent() throws Exception {
+        testDevicePoolDao.addDevices(Arrays.asList(deviceInformation[0]),
+                                     Arrays.asList(testDeviceIds[0]),
+                                     NON_EXISTING_AGENT_ID,
+                                     Arrays.asList(testPasskeys[0]));
+    }
+
     @Test(expected = AgentDaoException.class)
     public void testAddDeviceAndThenRemoveItsAgent() throws Exception {
         Device addedDevice = (Device) testDevicePoolDao.addDevice(deviceInformation[0],
@@ -248,6 +300,55 @@ public class DevicePoolDaoIntegrationTest {
         testDevicePoolDao.update(addedDevice);
     }
 
+    @Test
+    public void testTryAllocateDeviceOnlyOnce() throws Exception {
+        testDevicePoolDao.addDevice(deviceInformation[0], testDeviceIds[0], testAgentIds[0], testPasskeys[0]);
+
+        IDevice firstDevice = testDevicePoolDao.getDevice(testDeviceIds[0]);
+        IDevice secondDevice = testDevicePoolDao.getDevice(testDeviceIds[0]);
+
+        assertTrue("Allocating a free device failed.", testDevicePoolDao.tryAllocate(firstDevice));
+        assertFalse("An allocated device was allocated twice.", testDevicePoolDao.tryAllocate(secondDevice));
+
+        Device selectedDevice = (Device) testDeviceDao.selectById(testDeviceIds[0]);
+        assertTrue("The allocated device is not stored as allocated.", selectedDevice.isAllocated());
+        assertEquals("The version of the allocated device is not updated.",
+                     firstDevice.getVersion(),
+                     selectedDevice.getVersion());
+    }
+
+    @Test
+    public void testTryReleaseDeviceOnlyOnce() throws Exception {
+        testDevicePoolDao.addDevice(deviceInformation[0], testDeviceIds[0], testAgentIds[0], testPasskeys[0]);
+        testDevicePoolDao.tryAllocate(testDevicePoolDao.getDevice(testDeviceIds[0]));
+
+        IDevice firstDevice = testDevicePoolDao.getDevice(testDeviceIds[0]);
+        IDevice secondDevice = testDevicePoolDao.getDevice(testDeviceIds[0]);
+
+        assertTrue("Releasing an allocated device failed.", testDevicePoolDao.tryRelease(firstDevice, testPasskeys[1]));
+        assertFalse("A free device was released twice.", testDevicePoolDao.tryRelease(secondDevice, testPasskeys[2]));
+
+        Device selectedDevice = (Device) testDeviceDao.selectById(testDeviceIds[0]);
+        assertFalse("The released device is not stored as free.", selectedDevice.isAllocated());
+        assertEquals("The passkey of the released device is not updated.",
+                     testPasskeys[1],
+                     selectedDevice.getPasskey());
+        assertEquals("The version of the released device is not updated.",
+                     firstDevice.getVersion(),
+                     selectedDevice.getVersion());
+    }
+
+    @Test(expected = DevicePoolDaoException.class)
+    public void testUpdateChangedDeviceFails() throws Exception {
+        testDevicePoolDao.addDevice(deviceInformation[0], testDeviceIds[0], testAgentIds[0], testPasskeys[0]);
+
+        IDevice staleDevice = testDevicePoolDao.getDevice(testDeviceIds[0]);
+        testDevicePoolDao.tryAllocate(testDevicePoolDao.getDevice(testDeviceIds[0]));
+
+        staleDevice.release();
+        testDevicePoolDao.update(staleDevice);
+    }
+
     @Test
     public void testGetDeviceById() throws Exception {
         Device addedDevice = (Device) testDevicePoolDao.addDevice(deviceInformation[0],
@@ -558,13 +659,15 @@ public class DevicePoolDaoIntegrationTest {
 
         testDevicePoolDao.addDevice(deviceInformation, testDeviceIds[2], testAgentIds[1], testPasskeys[2]);
 
-        int numberOfRemovedDevices = testDevicePoolDao.removeDevices(testAgentIds[0]);
+        List<String> removedDeviceIds = testDevicePoolDao.removeDevices(testAgentIds[0]);
         assertTrue("The agent was removed after deleting all devices from it.", testAgentDao.hasAgent(testAgentIds[0]));
         assertNull("The Agent's list of devices is not empty when all devices were removed.",
                    testAgents[0].getDevices());
         assertEquals("The number of the removed devices is different from the expected one.",
-                     numberOfRemovedDevices,
+                     removedDeviceIds.size(),
                      EXPECTED_NUMBER_OF_REMOVED_DEVICES);
+        assertTrue("The IDs of the removed devices are not the expected ones.",
+                   removedDeviceIds.containsAll(Arrays.asList(testDeviceIds[0], testDeviceIds[1])));
 
         assertFalse("Removing of the device failed.", testDevicePoolDao.hasDevice(testDeviceIds[0]));
         assertFalse("Removing of the device failed.", testDevicePoolDao.hasDevice(testDeviceIds[1]));
@@ -576,6 +679,16 @@ public class DevicePoolDaoIntegrationTest {
         testDevicePoolDao.removeDevices(NON_EXISTING_AGENT_ID);
     }
 
+    @Test
+    public void testRemoveDevicesWhenAgentHasNoDevices() throws Exception {
+        testDevicePoolDao.addDevice(deviceInformation[0], testDeviceIds[0], testAgentIds[1], testPasskeys[0]);
+
+        List<String> removedDeviceIds = testDevicePoolDao.removeDevices(testAgentIds[0]);
+
+        assertTrue("Devices were removed from an agent without devices.", removedDeviceIds.isEmpty());
+        assertTrue("A device on another agent was removed.", testDevicePoolDao.hasDevice(testDeviceIds[0]));
+    }
+
     @Test
     public void testSelectingRangeOfDevicesByApiLevel() throws Exception {
         populateDeviceBase();
@@ -750,7 +863,8 @@ public class DevicePoolDaoIntegrationTest {
         }
 
         public void inform(DevicePoolDaoCreatedEvent event) {
-            testDevicePoolDao = dataSourceProvider.getDevicePoolDao();
+            // The data source backed device pool is tested regardless of the configured device pool storage.
+            testDevicePoolDao = new DevicePoolDao(testDeviceDao, testAgentDao);
         }
     }
 }
@@ -24,12 +24,12 @@ import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.List;
 
 import org.junit.Before;
@@ -176,78 +176,47 @@ public class DevicePoolDaoTest {
 
     @Test
     public void testRemoveDevicesOnExisitngAgent() throws Exception {
-        Device attachedDevice = new Device(TEST_DEVICE_SERIAL_NUMBER, TEST_DEVICE_RMI_ID);
-        attachedDevice.setAgent(mockedAgent);
-
-        Collection<Device> devicesOnAgent = new ArrayList<Device>();
-        devicesOnAgent.add(attachedDevice);
-        int expectedRemovedCount = devicesOnAgent.size();
+        List<String> devicesOnAgent = new ArrayList<String>();
+        devicesOnAgent.add(TEST_DEVICE_RMI_ID);
 
-        when(mockedAgent.getDevices()).thenReturn(devicesOnAgent);
         when(mockedAgentDao.selectByAgentId(eq(TEST_AGENT_ID))).thenReturn(mockedAgent);
+        when(mockedDeviceDao.removeByAgent(eq(mockedAgent))).thenReturn(devicesOnAgent);
 
-        int removedCount = testDevicePoolDao.removeDevices(TEST_AGENT_ID);
+        List<String> removedDeviceIds = testDevicePoolDao.removeDevices(TEST_AGENT_ID);
 
-        verify(mockedDeviceDao, times(expectedRemovedCount)).remove(eq(TEST_DEVICE_RMI_ID));
+        verify(mockedDeviceDao, times(1)).removeByAgent(eq(mockedAgent));
+        verify(mockedDeviceDao, never()).remove(any(String.class));
 
-        assertEquals("The actual removed count is different from the expected one.", expectedRemovedCount, removedCount);
+        assertEquals("The removed devices are different from the expected ones.", devicesOnAgent, removedDeviceIds);
     }
 
     @Test(expected = DevicePoolDaoRuntimeException.class)
     public void testRemoveDevicesWhenAgentIsMissing() throws Exception {
-        Device attachedDevice = new Device(TEST_DEVICE_SERIAL_NUMBER, TEST_DEVICE_RMI_ID);
         Agent missingAgent = null;
-        attachedDevice.setAgent(missingAgent);
-
-        Collection<Device> devicesOnAgent = new ArrayList<Device>();
-        devicesOnAgent.add(attachedDevice);
 
-        when(mockedAgent.getDevices()).thenReturn(devicesOnAgent);
         when(mockedAgentDao.selectByAgentId(eq(TEST_AGENT_ID))).thenReturn(missingAgent);
 
         testDevicePoolDao.removeDevices(TEST_AGENT_ID);
 
-        verify(mockedDeviceDao, times(0)).remove(eq(TEST_DEVICE_RMI_ID));
+        verify(mockedDeviceDao, times(0)).removeByAgent(any(Agent.class));
     }
 
     @Test(expected = DevicePoolDaoException.class)
     public void testRemoveDevicesWhenSelectingAgentFails() throws Exception {
-        Device attachedDevice = new Device(TEST_DEVICE_SERIAL_NUMBER, TEST_DEVICE_RMI_ID);
-        attachedDevice.setAgent(mockedAgent);
-
-        Collection<Device> devicesOnAgent = new ArrayList<Device>();
-        devicesOnAgent.add(attachedDevice);
-
-        when(mockedAgent.getDevices()).thenReturn(devicesOnAgent);
         when(mockedAgentDao.selectByAgentId(eq(TEST_AGENT_ID))).thenThrow(new AgentDaoException("Agent was not found."));
 
         testDevicePoolDao.removeDevices(TEST_AGENT_ID);
 
-        verify(mockedDeviceDao, times(0)).remove(eq(TEST_DEVICE_RMI_ID));
+        verify(mockedDeviceDao, times(0)).removeByAgent(any(Agent.class));
     }
 
-    @Test
-    public void testRemoveDevicesWhenRemovingCertainDeviceFails() throws Exception {
-        Device attachedDevice = new Device(TEST_DEVICE_SERIAL_NUMBER, TEST_DEVICE_RMI_ID);
-        Device failedAttachedDevice = new Device(EXISTING_DEVICE_SERIAL_NUMBER, EXISTING_DEVICE_RMI_ID);
-        attachedDevice.setAgent(mockedAgent);
-        failedAttachedDevice.setAgent(mockedAgent);
-
-        Collection<Device> devicesOnAgent = new ArrayList<Device>();
-        devicesOnAgent.add(attachedDevice);
-        devicesOnAgent.add(failedAttachedDevice);
-        int expectedRemovedCount = devicesOnAgent.size();
-
-        when(mockedAgent.getDevices()).thenReturn(devicesOnAgent);
+    @Test(expected = DevicePoolDaoException.class)
+    public void testRemoveDevicesWhenRemovingFails() throws Exception {
         when(mockedAgentDao.selectByAgentId(eq(TEST_AGENT_ID))).thenReturn(mockedAgent);
-        doThrow(new DeviceDaoException("Device was not removed!")).when(mockedDeviceDao).remove(eq(TEST_DEVICE_RMI_ID));
+        doThrow(new DeviceDaoException("Devices were not removed!")).when(mockedDeviceDao)
+                                                                   .removeByAgent(eq(mockedAgent));
 
-        int removedCount = testDevicePoolDao.removeDevices(TEST_AGENT_ID);
-
-        verify(mockedDeviceDao, times(expectedRemovedCount)).remove(any(String.class));
-        assertEquals("The actual removed count is different from the expected one.",
-                     expectedRemovedCount - 1,
-                     removedCount);
+        testDevicePoolDao.removeDevices(TEST_AGENT_ID);
     }
 
     @Test
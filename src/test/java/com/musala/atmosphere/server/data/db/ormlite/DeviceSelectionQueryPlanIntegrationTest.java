@@ -0,0 +1,298 @@
+// This file is part of the ATMOSPHERE mobile testing framework.
+// Copyright (C) 2016 MusalaSoft
+//
+// ATMOSPHERE is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// ATMOSPHERE is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with ATMOSPHERE.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.musala.atmosphere.server.data.db.ormlite;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.flywaydb.core.Flyway;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.dao.DaoManager;
+import com.j256.ormlite.jdbc.JdbcConnectionSource;
+import com.musala.atmosphere.commons.cs.deviceselection.DeviceOs;
+import com.musala.atmosphere.commons.cs.deviceselection.DeviceSelector;
+import com.musala.atmosphere.commons.cs.deviceselection.DeviceSelectorBuilder;
+import com.musala.atmosphere.commons.cs.deviceselection.DeviceType;
+import com.musala.atmosphere.server.data.db.constant.Property;
+import com.musala.atmosphere.server.data.db.ormlite.querybuilder.DeviceQueryBuilder;
+import com.musala.atmosphere.server.data.db.ormlite.querybuilder.DeviceRangeQueryBuilder;
+import com.musala.atmosphere.server.data.model.ormilite.Agent;
+import com.musala.atmosphere.server.data.model.ormilite.Device;
+
+/**
+ * Checks that the device selection queries are executed with the indexes created by the migrations. The devices are
+ * stored in a separate in-memory database, loaded with synthetic devices, so the shared device pool database used by
+ * the other tests is not affected. The plans show exactly which index a query uses, while the time for filtering the
+ * devices with the common selectors is only logged for comparison, as a wall-clock budget would fail on a loaded
+ * machine.
+ *
+ * @author filareta.yordanova
+ *
+ */
+public class DeviceSelectionQueryPlanIntegrationTest {
+    private static final Logger LOGGER =
+            Logger.getLogger(DeviceSelectionQueryPlanIntegrationTest.class.getCanonicalName());
+
+    private static final String DATABASE_URL = String.format(Property.DATABASE_URL_FORMAT, "device_selection_plan", -1);
+
+    private static final String MIGRATIONS_LOCATION = "classpath:db/migration";
+
+    private static final int DEVICE_COUNT = 10000;
+
+    private static final int MINIMUM_API_LEVEL = 14;
+
+    private static final int API_LEVEL_COUNT = 12;
+
+    private static final int MODEL_COUNT = 100;
+
+    private static final String MODEL_NAME_FORMAT = "model_%d";
+
+    private static final String TEST_AGENT_ID = "query_plan_agent";
+
+    private static final int FREE_DEVICE_RATIO = 100;
+
+    private static final int WARMUP_QUERY_COUNT = 50;
+
+    private static final int TIMED_QUERY_COUNT = 200;
+
+    private static final String[] SELECTOR_MIX_NAMES = {"target API level", "API level range",
+            "device type and target API level", "model", "OS and device type"};
+
+    private static final String INDEX_MISMATCH_ERROR_MESSAGE = "The query %s is expected to use index %s, but its plan is %s";
+
+    private static final String TABLE_SCAN_PLAN = "tableScan";
+
+    private static Flyway flyway;
+
+    private static JdbcConnectionSource connectionSource;
+
+    private static Connection planConnection;
+
+    private static Dao<Device, String> ormliteDeviceDao;
+
+    private static DeviceDao deviceDao;
+
+    @BeforeClass
+    public static void setUpTest() throws Exception {
+        flyway = new Flyway();
+        flyway.setDataSource(DATABASE_URL, null, null);
+        flyway.setLocations(MIGRATIONS_LOCATION);
+        flyway.clean();
+        flyway.migrate();
+
+        connectionSource = new JdbcConnectionSource(DATABASE_URL);
+        ormliteDeviceDao = DaoManager.createDao(connectionSource, Device.class);
+        Dao<Agent, String> ormliteAgentDao = DaoManager.createDao(connectionSource, Agent.class);
+        deviceDao = new DeviceDao(ormliteDeviceDao);
+
+        final Agent agent = new Agent(TEST_AGENT_ID);
+        ormliteAgentDao.create(agent);
+
+        ormliteDeviceDao.callBatchTasks(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                // the synthetic devices are the same on every run
+                Random random = new Random(DEVICE_COUNT);
+
+                for (int index = 0; index < DEVICE_COUNT; index++) {
+                    ormliteDeviceDao.create(createDevice(index, agent, random));
+                }
+
+                return null;
+            }
+        });
+
+        planConnection = DriverManager.getConnection(DATABASE_URL);
+
+        // the statistics of the selectivity of the columns are used by the planner to choose between the indexes
+        Statement analyzeStatement = planConnection.createStatement();
+        analyzeStatement.execute("ANALYZE");
+        analyzeStatement.close();
+    }
+
+    @AfterClass
+    public static void tearDownTest() throws Exception {
+        planConnection.close();
+        connectionSource.close();
+        flyway.clean();
+    }
+
+    @Test
+    public void testTargetApiLevelQueryUsesApiLevelIndex() throws Exception {
+        DeviceSelector deviceSelector = new DeviceSelectorBuilder().targetApi(MINIMUM_API_LEVEL).build();
+
+        assertPlanUsesIndex(new DeviceQueryBuilder(ormliteDeviceDao, deviceSelector),
+                            "ALLOCATED_API_LEVEL_IDX",
+                            MINIMUM_API_LEVEL,
+                            false);
+    }
+
+    @Test
+    public void testApiLevelRangeQueryUsesAllocationIndex() throws Exception {
+        DeviceSelector deviceSelector = new DeviceSelectorBuilder().minApi(MINIMUM_API_LEVEL + 2)
+                                                                   .maxApi(MINIMUM_API_LEVEL + 4)
+                                                                   .build();
+
+        // the planner estimates a range over an index column as a scan of a third of the table, so only the allocation
+        // criterion is looked up in an index and the API level range is checked on the found rows
+        assertPlanUsesIndex(new DeviceRangeQueryBuilder(ormliteDeviceDao, deviceSelector),
+                            "IS_ALLOCATED = ?3",
+                            MINIMUM_API_LEVEL + 2,
+                            MINIMUM_API_LEVEL + 4,
+                            false);
+    }
+
+    @Test
+    public void testDeviceTypeAndApiLevelRangeQueryUsesDeviceTypeIndex() throws Exception {
+        DeviceSelector deviceSelector = new DeviceSelectorBuilder().deviceType(DeviceType.EMULATOR_ONLY)
+                                                                   .minApi(MINIMUM_API_LEVEL + 2)
+                                                                   .build();
+
+        assertPlanUsesIndex(new DeviceRangeQueryBuilder(ormliteDeviceDao, deviceSelector),
+                            "ALLOCATED_EMULATOR_IDX",
+                            true,
+                            MINIMUM_API_LEVEL + 2,
+                            false);
+    }
+
+    @Test
+    public void testModelQueryUsesModelIndex() throws Exception {
+        DeviceSelector deviceSelector = new DeviceSelectorBuilder().deviceModel(String.format(MODEL_NAME_FORMAT, 7))
+                                                                   .build();
+
+        assertPlanUsesIndex(new DeviceRangeQueryBuilder(ormliteDeviceDao, deviceSelector),
+                            "ALLOCATED_MODEL_IDX",
+                            String.format(MODEL_NAME_FORMAT, 7),
+                            false);
+    }
+
+    @Test
+    public void testOsQueryUsesOsIndex() throws Exception {
+        DeviceSelector deviceSelector = new DeviceSelectorBuilder().deviceOs(DeviceOs.KITKAT_4_4).build();
+
+        assertPlanUsesIndex(new DeviceRangeQueryBuilder(ormliteDeviceDao, deviceSelector),
+                            "ALLOCATED_OS_IDX",
+                            DeviceOs.KITKAT_4_4.toString(),
+                            false);
+    }
+
+    @Test
+    public void testFilterDevicesWithCommonSelectors() throws Exception {
+        long[] elapsedNanos = new long[SELECTOR_MIX_NAMES.length];
+
+        // the values change on every query, so the database can not return the result of the previous execution
+        for (int query = -WARMUP_QUERY_COUNT; query < TIMED_QUERY_COUNT; query++) {
+            DeviceSelector[] deviceSelectors = createSelectorMix(Math.abs(query));
+
+            for (int mix = 0; mix < deviceSelectors.length; mix++) {
+                long startTime = System.nanoTime();
+                deviceDao.filterDevices(deviceSelectors[mix], false);
+
+                if (query >= 0) {
+                    elapsedNanos[mix] += System.nanoTime() - startTime;
+                }
+            }
+        }
+
+        for (int mix = 0; mix < SELECTOR_MIX_NAMES.length; mix++) {
+            long averageMicros = TimeUnit.NANOSECONDS.toMicros(elapsedNanos[mix]) / TIMED_QUERY_COUNT;
+            String message = String.format("Filtering %d devices by %s took %d us on average.",
+                                           DEVICE_COUNT,
+                                           SELECTOR_MIX_NAMES[mix],
+                                           averageMicros);
+            LOGGER.info(message);
+        }
+    }
+
+    private static DeviceSelector[] createSelectorMix(int query) {
+        int apiLevel = MINIMUM_API_LEVEL + query % API_LEVEL_COUNT;
+        DeviceOs[] deviceOsValues = DeviceOs.values();
+        DeviceType deviceType = query % 2 == 0 ? DeviceType.DEVICE_ONLY : DeviceType.EMULATOR_ONLY;
+
+        return new DeviceSelector[] {new DeviceSelectorBuilder().targetApi(apiLevel).build(),
+                new DeviceSelectorBuilder().minApi(apiLevel).maxApi(apiLevel + 1).build(),
+                new DeviceSelectorBuilder().deviceType(deviceType).targetApi(apiLevel).build(),
+                new DeviceSelectorBuilder().deviceModel(String.format(MODEL_NAME_FORMAT, query % MODEL_COUNT)).build(),
+                new DeviceSelectorBuilder().deviceOs(deviceOsValues[query % deviceOsValues.length])
+                                           .deviceType(deviceType)
+                                           .build()};
+    }
+
+    private static Device createDevice(int index, Agent agent, Random random) {
+        DeviceOs[] deviceOsValues = DeviceOs.values();
+
+        Device device = new Device(String.format("serial_%d", index), String.format("device_%d", index));
+        device.setAgent(agent);
+        device.setApiLevel(MINIMUM_API_LEVEL + random.nextInt(API_LEVEL_COUNT));
+        device.setEmulator(random.nextInt(3) == 0);
+        device.setModel(String.format(MODEL_NAME_FORMAT, random.nextInt(MODEL_COUNT)));
+        device.setOs(deviceOsValues[random.nextInt(deviceOsValues.length)].toString());
+        device.setRam(512 * (1 + random.nextInt(4)));
+        device.setCamera(random.nextBoolean());
+        // most of the devices in a busy pool are allocated, so the free ones are a small part of the table
+        device.setAllocated(random.nextInt(FREE_DEVICE_RATIO) != 0);
+
+        return device;
+    }
+
+    /**
+     * Asserts that the query of the given builder is executed with the given index, instead of scanning the table.
+     *
+     * @param deviceQueryBuilder
+     *        - builder of the checked device selection query
+     * @param indexName
+     *        - the name of the expected index or the expected index condition, as shown in the query plan
+     * @param arguments
+     *        - the values of the criteria of the query, in the order they appear in it
+     */
+    private void assertPlanUsesIndex(DeviceQueryBuilder deviceQueryBuilder, String indexName, Object... arguments)
+        throws Exception {
+        String query = deviceQueryBuilder.prepare(false).getStatement();
+
+        PreparedStatement explainStatement = planConnection.prepareStatement("EXPLAIN " + query);
+        try {
+            for (int index = 0; index < arguments.length; index++) {
+                explainStatement.setObject(index + 1, arguments[index]);
+            }
+
+            ResultSet plan = explainStatement.executeQuery();
+            assertTrue("The query plan is empty.", plan.next());
+
+            String planText = plan.getString(1);
+            assertTrue(String.format(INDEX_MISMATCH_ERROR_MESSAGE, query, indexName, planText),
+                       planText.contains(indexName));
+            assertFalse(String.format(INDEX_MISMATCH_ERROR_MESSAGE, query, indexName, planText),
+                        planText.contains(TABLE_SCAN_PLAN));
+        } finally {
+            explainStatement.close();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+// This file is part of the ATMOSPHERE mobile testing framework.
+// Copyright (C) 2016 MusalaSoft
+//
+// ATMOSPHERE is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// ATMOSPHERE is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with ATMOSPHERE.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.musala.atmosphere.server.data.memory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Field;
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the {@link AttributeIndex attribute index} of the in-memory device pool.
+ *
+ * @author filareta.yordanova
+ *
+ */
+public class AttributeIndexTest {
+    private static final String SERIAL_NUMBER = "serial_number";
+
+    private static final String FIRST_DEVICE_ID = "agent_id_first";
+
+    private static final String SECOND_DEVICE_ID = "agent_id_second";
+
+    private AttributeIndex<String> index;
+
+    @Before
+    public void setUp() {
+        index = new AttributeIndex<>();
+    }
+
+    @Test
+    public void testValueIsDroppedWithItsLastDevice() throws Exception {
+        index.add(SERIAL_NUMBER, FIRST_DEVICE_ID);
+        index.add(SERIAL_NUMBER, SECOND_DEVICE_ID);
+
+        index.remove(SERIAL_NUMBER, FIRST_DEVICE_ID);
+        assertEquals("The remaining device is not indexed.",
+                     Collections.singleton(SECOND_DEVICE_ID),
+                     index.get(SERIAL_NUMBER));
+
+        index.remove(SERIAL_NUMBER, SECOND_DEVICE_ID);
+        assertTrue("No device should be indexed.", index.get(SERIAL_NUMBER).isEmpty());
+        assertTrue("The value without devices was kept in the index.", getIndexedValues().isEmpty());
+    }
+
+    @Test
+    public void testValueIsIndexedAgainAfterItWasDropped() {
+        index.add(SERIAL_NUMBER, FIRST_DEVICE_ID);
+        index.remove(SERIAL_NUMBER, FIRST_DEVICE_ID);
+
+        index.add(SERIAL_NUMBER, SECOND_DEVICE_ID);
+
+        assertEquals("The device is not indexed.", Collections.singleton(SECOND_DEVICE_ID), index.get(SERIAL_NUMBER));
+    }
+
+    @Test
+    public void testReplaceDropsTheOldValue() throws Exception {
+        index.add(SERIAL_NUMBER, FIRST_DEVICE_ID);
+
+        index.replace(SERIAL_NUMBER, "new_serial_number", FIRST_DEVICE_ID);
+
+        assertEquals("Only the new value should be indexed.",
+                     Collections.singleton("new_serial_number"),
+                     getIndexedValues().keySet());
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, ?> getIndexedValues() throws Exception {
+        Field deviceIdsByValueField = AttributeIndex.class.getDeclaredField("deviceIdsByValue");
+        deviceIdsByValueField.setAccessible(true);
+
+        return (Map<String, ?>) deviceIdsByValueField.get(index);
+    }
+}
@@ -0,0 +1,499 @@
+// This file is part of the ATMOSPHERE mobile testing framework.
+// Copyright (C) 2016 MusalaSoft
+//
+// ATMOSPHERE is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// ATMOSPHERE is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with ATMOSPHERE.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.musala.atmosphere.server.data.memory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.argThat;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentMatcher;
+import org.mockito.InOrder;
+
+import com.musala.atmosphere.commons.DeviceInformation;
+import com.musala.atmosphere.commons.cs.deviceselection.DeviceSelector;
+import com.musala.atmosphere.commons.cs.deviceselection.DeviceSelectorBuilder;
+import com.musala.atmosphere.commons.cs.deviceselection.DeviceType;
+import com.musala.atmosphere.server.dao.IAgentDao;
+import com.musala.atmosphere.server.dao.IDevicePoolDao;
+import com.musala.atmosphere.server.dao.exception.DevicePoolDaoException;
+import com.musala.atmosphere.server.dao.exception.DevicePoolDaoRuntimeException;
+import com.musala.atmosphere.server.data.model.IDevice;
+import com.musala.atmosphere.server.data.model.ormilite.Agent;
+import com.musala.atmosphere.server.data.model.ormilite.Device;
+
+/**
+ *
+ * @author filareta.yordanova
+ *
+ */
+public class InMemoryDevicePoolDaoTest {
+    private static final String TEST_AGENT_ID = "agent_id";
+
+    private static final String SECOND_TEST_AGENT_ID = "second_agent_id";
+
+    private static final String MISSING_AGENT_ID = "missing_agent_id";
+
+    private static final String[] TEST_DEVICE_IDS = {"device_id_0", "device_id_1", "device_id_2"};
+
+    private static final long TEST_PASSKEY = 123456;
+
+    private static final int TEST_API_LEVEL = 19;
+
+    private static final int OTHER_API_LEVEL = 23;
+
+    private static final int TEST_RAM = 512;
+
+    private static final String DEVICES_COUNT_MISMATCH_ERROR = "The count of the selected devices is different than expected.";
+
+    private IAgentDao mockedAgentDao;
+
+    private InMemoryDevicePoolDao testDevicePoolDao;
+
+    @Before
+    public void setUp() {
+        mockedAgentDao = mock(IAgentDao.class);
+        when(mockedAgentDao.hasAgent(anyString())).thenReturn(true);
+        when(mockedAgentDao.hasAgent(MISSING_AGENT_ID)).thenReturn(false);
+
+        testDevicePoolDao = new InMemoryDevicePoolDao(mockedAgentDao);
+    }
+
+    @Test
+    public void testAddAndGetDevice() throws Exception {
+        DeviceInformation deviceInformation = createDeviceInformation(TEST_API_LEVEL, false);
+
+        IDevice addedDevice = testDevicePoolDao.addDevice(deviceInformation,
+                                                          TEST_DEVICE_IDS[0],
+                                                          TEST_AGENT_ID,
+                                                          TEST_PASSKEY);
+        IDevice receivedDevice = testDevicePoolDao.getDevice(TEST_DEVICE_IDS[0]);
+
+        assertEquals("The added device is different from the received one.", addedDevice, receivedDevice);
+        assertEquals("The agent of the received device is not the expected one.",
+                     TEST_AGENT_ID,
+                     receivedDevice.getAgentId());
+        assertEquals("The passkey of the received device is not the expected one.",
+                     TEST_PASSKEY,
+                     receivedDevice.getPasskey());
+        assertTrue("The added device was not found by its ID.", testDevicePoolDao.hasDevice(TEST_DEVICE_IDS[0]));
+    }
+
+    @Test
+    public void testGetDeviceByNonExistentId() throws Exception {
+        assertNull("A device was fetched using nonexistent ID.", testDevicePoolDao.getDevice(TEST_DEVICE_IDS[0]));
+        assertFalse("A device was found using nonexistent ID.", testDevicePoolDao.hasDevice(TEST_DEVICE_IDS[0]));
+    }
+
+    @Test(expected = DevicePoolDaoException.class)
+    public void testAddDeviceWhenDeviceWithSameIdExists() throws Exception {
+        DeviceInformation deviceInformation = createDeviceInformation(TEST_API_LEVEL, false);
+
+        testDevicePoolDao.addDevice(deviceInformation, TEST_DEVICE_IDS[0], TEST_AGENT_ID, TEST_PASSKEY);
+        testDevicePoolDao.addDevice(deviceInformation, TEST_DEVICE_IDS[0], SECOND_TEST_AGENT_ID, TEST_PASSKEY);
+    }
+
+    @Test(expected = DevicePoolDaoException.class)
+    public void testAddDeviceWithNonExistingAgent() throws Exception {
+        DeviceInformation deviceInformation = createDeviceInformation(TEST_API_LEVEL, false);
+
+        testDevicePoolDao.addDevice(deviceInformation, TEST_DEVICE_IDS[0], MISSING_AGENT_ID, TEST_PASSKEY);
+    }
+
+    @Test
+    public void testAddDevices() throws Exception {
+        List<DeviceInformation> devicesInformation = Arrays.asList(createDeviceInformation(TEST_API_LEVEL, false),
+                                                                   createDeviceInformation(OTHER_API_LEVEL, true));
+        List<String> deviceIds = Arrays.asList(TEST_DEVICE_IDS[0], TEST_DEVICE_IDS[1]);
+
+        List<IDevice> addedDevices = testDevicePoolDao.addDevices(devicesInformation,
+                                                                  deviceIds,
+                                                                  TEST_AGENT_ID,
+                                                                  Arrays.asList(TEST_PASSKEY, TEST_PASSKEY + 1));
+
+        assertEquals(DEVICES_COUNT_MISMATCH_ERROR, deviceIds.size(), addedDevices.size());
+        assertEquals(DEVICES_COUNT_MISMATCH_ERROR,
+                     deviceIds.size(),
+                     testDevicePoolDao.getAgentDevices(TEST_AGENT_ID).size());
+        assertEquals("The passkey of the received device is not the expected one.",
+                     TEST_PASSKEY + 1,
+                     testDevicePoolDao.getDevice(TEST_DEVICE_IDS[1]).getPasskey());
+    }
+
+    @Test
+    public void testAddDevicesWhenDeviceWithSameIdExistsAddsNone() throws Exception {
+        DeviceInformation deviceInformation = createDeviceInformation(TEST_API_LEVEL, false);
+        testDevicePoolDao.addDevice(deviceInformation, TEST_DEVICE_IDS[1], SECOND_TEST_AGENT_ID, TEST_PASSKEY);
+
+        List<String> deviceIds = Arrays.asList(TEST_DEVICE_IDS[0], TEST_DEVICE_IDS[1], TEST_DEVICE_IDS[2]);
+
+        try {
+            testDevicePoolDao.addDevices(Arrays.asList(deviceInformation, deviceInformation, deviceInformation),
+                                         deviceIds,
+                                         TEST_AGENT_ID,
+                                         Arrays.asList(TEST_PASSKEY, TEST_PASSKEY, TEST_PASSKEY));
+            fail("Adding devices with an already existing ID is expected to fail.");
+        } catch (DevicePoolDaoException e) {
+            // expected
+        }
+
+        assertFalse("A device added before the failure was not removed.",
+                    testDevicePoolDao.hasDevice(TEST_DEVICE_IDS[0]));
+        assertFalse("A device after the failure was added.", testDevicePoolDao.hasDevice(TEST_DEVICE_IDS[2]));
+        assertTrue("The agent should have no devices.", testDevicePoolDao.getAgentDevices(TEST_AGENT_ID).isEmpty());
+        assertEquals("The already existing device was changed.",
+                     SECOND_TEST_AGENT_ID,
+                     testDevicePoolDao.getDevice(TEST_DEVICE_IDS[1]).getAgentId());
+    }
+
+    @Test
+    public void testReceivedDeviceChangesAreNotVisibleBeforeUpdate() throws Exception {
+        DeviceInformation deviceInformation = createDeviceInformation(TEST_API_LEVEL, false);
+        DeviceSelector deviceSelector = new DeviceSelectorBuilder().targetApi(TEST_API_LEVEL).build();
+
+        testDevicePoolDao.addDevice(deviceInformation, TEST_DEVICE_IDS[0], TEST_AGENT_ID, TEST_PASSKEY);
+
+        IDevice device = testDevicePoolDao.getDevice(TEST_DEVICE_IDS[0]);
+        device.allocate();
+
+        assertTrue("The device was allocated without being updated in the pool.",
+                   testDevicePoolDao.hasDevice(deviceSelector, false));
+
+        testDevicePoolDao.update(device);
+
+        assertFalse("The device is still free after the update.", testDevicePoolDao.hasDevice(deviceSelector, false));
+        assertTrue("The device is not allocated after the update.", testDevicePoolDao.hasDevice(deviceSelector, true));
+        assertTrue("The received device is not allocated after the update.",
+                   testDevicePoolDao.getDevice(TEST_DEVICE_IDS[0]).isAllocated());
+    }
+
+    @Test
+    public void testGetDevicesByTargetApiLevel() throws Exception {
+        testDevicePoolDao.addDevice(createDeviceInformation(TEST_API_LEVEL, false),
+                                    TEST_DEVICE_IDS[0],
+                                    TEST_AGENT_ID,
+                                    TEST_PASSKEY);
+        testDevicePoolDao.addDevice(createDeviceInformation(OTHER_API_LEVEL, false),
+                                    TEST_DEVICE_IDS[1],
+                                    TEST_AGENT_ID,
+                                    TEST_PASSKEY);
+
+        DeviceSelector deviceSelector = new DeviceSelectorBuilder().targetApi(OTHER_API_LEVEL)
+                                                                   .ramCapacity(TEST_RAM)
+                                                                   .build();
+        List<IDevice> devices = testDevicePoolDao.getDevices(deviceSelector, false);
+
+        assertEquals(DEVICES_COUNT_MISMATCH_ERROR, 1, devices.size());
+        assertEquals("The selected device is not the expected one.",
+                     TEST_DEVICE_IDS[1],
+                     devices.get(0).getDeviceId());
+    }
+
+    @Test
+    public void testGetDevicesFallsBackToApiLevelRangeWhenTargetIsNotMatched() throws Exception {
+        testDevicePoolDao.addDevice(createDeviceInformation(TEST_API_LEVEL, false),
+                                    TEST_DEVICE_IDS[0],
+                                    TEST_AGENT_ID,
+                                    TEST_PASSKEY);
+        testDevicePoolDao.addDevice(createDeviceInformation(OTHER_API_LEVEL, false),
+                                    TEST_DEVICE_IDS[1],
+                                    TEST_AGENT_ID,
+                                    TEST_PASSKEY);
+
+        DeviceSelector deviceSelector = new DeviceSelectorBuilder().minApi(TEST_API_LEVEL)
+                                                                   .maxApi(TEST_API_LEVEL + 1)
+                                                                   .targetApi(TEST_API_LEVEL + 1)
+                                                                   .build();
+        List<IDevice> devices = testDevicePoolDao.getDevices(deviceSelector, false);
+
+        assertEquals(DEVICES_COUNT_MISMATCH_ERROR, 1, devices.size());
+        assertEquals("The selected device is not the expected one.",
+                     TEST_DEVICE_IDS[0],
+                     devices.get(0).getDeviceId());
+    }
+
+    @Test
+    public void testGetDevicesOrdersRealDevicesFirstByDefault() throws Exception {
+        testDevicePoolDao.addDevice(createDeviceInformation(TEST_API_LEVEL, true),
+                                    TEST_DEVICE_IDS[0],
+                                    TEST_AGENT_ID,
+                                    TEST_PASSKEY);
+        testDevicePoolDao.addDevice(createDeviceInformation(TEST_API_LEVEL, false),
+                                    TEST_DEVICE_IDS[1],
+                                    TEST_AGENT_ID,
+                                    TEST_PASSKEY);
+        testDevicePoolDao.addDevice(createDeviceInformation(TEST_API_LEVEL, false),
+                                    TEST_DEVICE_IDS[2],
+                                    TEST_AGENT_ID,
+                                    TEST_PASSKEY);
+
+        DeviceSelector deviceSelector = new DeviceSelectorBuilder().minApi(TEST_API_LEVEL).build();
+        List<IDevice> devices = testDevicePoolDao.getDevices(deviceSelector, false);
+
+        assertEquals(DEVICES_COUNT_MISMATCH_ERROR, 3, devices.size());
+        assertEquals("Real devices are expected before the emulators.",
+                     TEST_DEVICE_IDS[1],
+                     devices.get(0).getDeviceId());
+        assertEquals("Real devices are expected before the emulators.",
+                     TEST_DEVICE_IDS[2],
+                     devices.get(1).getDeviceId());
+        assertEquals("Real devices are expected before the emulators.",
+                     TEST_DEVICE_IDS[0],
+                     devices.get(2).getDeviceId());
+    }
+
+    @Test
+    public void testGetDevicesByDeviceType() throws Exception {
+        testDevicePoolDao.addDevice(createDeviceInformation(TEST_API_LEVEL, false),
+                                    TEST_DEVICE_IDS[0],
+                                    TEST_AGENT_ID,
+                                    TEST_PASSKEY);
+        testDevicePoolDao.addDevice(createDeviceInformation(TEST_API_LEVEL, true),
+                                    TEST_DEVICE_IDS[1],
+                                    TEST_AGENT_ID,
+                                    TEST_PASSKEY);
+
+        DeviceSelector emulatorOnlySelector = new DeviceSelectorBuilder().deviceType(DeviceType.EMULATOR_ONLY).build();
+        List<IDevice> emulators = testDevicePoolDao.getDevices(emulatorOnlySelector, false);
+
+        assertEquals(DEVICES_COUNT_MISMATCH_ERROR, 1, emulators.size());
+        assertEquals("The selected device is not an emulator.", TEST_DEVICE_IDS[1], emulators.get(0).getDeviceId());
+
+        DeviceSelector emulatorPreferredSelector = new DeviceSelectorBuilder().deviceType(DeviceType.EMULATOR_PREFERRED)
+                                                                              .build();
+        List<IDevice> devices = testDevicePoolDao.getDevices(emulatorPreferredSelector, false);
+
+        assertEquals(DEVICES_COUNT_MISMATCH_ERROR, 2, devices.size());
+        assertEquals("Emulators are expected before the real devices.",
+                     TEST_DEVICE_IDS[1],
+                     devices.get(0).getDeviceId());
+    }
+
+    @Test
+    public void testRemoveDevices() throws Exception {
+        DeviceInformation deviceInformation = createDeviceInformation(TEST_API_LEVEL, false);
+
+        testDevicePoolDao.addDevice(deviceInformation, TEST_DEVICE_IDS[0], TEST_AGENT_ID, TEST_PASSKEY);
+        testDevicePoolDao.addDevice(deviceInformation, TEST_DEVICE_IDS[1], TEST_AGENT_ID, TEST_PASSKEY);
+        testDevicePoolDao.addDevice(deviceInformation, TEST_DEVICE_IDS[2], SECOND_TEST_AGENT_ID, TEST_PASSKEY);
+
+        assertEquals(DEVICES_COUNT_MISMATCH_ERROR, 2, testDevicePoolDao.getAgentDevices(TEST_AGENT_ID).size());
+
+        List<String> removedDeviceIds = testDevicePoolDao.removeDevices(TEST_AGENT_ID);
+
+        assertEquals("The IDs of the removed devices are not the expected ones.",
+                     new HashSet<String>(Arrays.asList(TEST_DEVICE_IDS[0], TEST_DEVICE_IDS[1])),
+                     new HashSet<String>(removedDeviceIds));
+        assertTrue("Devices on the agent are still present.",
+                   testDevicePoolDao.getAgentDevices(TEST_AGENT_ID).isEmpty());
+        assertFalse("A removed device is still present.", testDevicePoolDao.hasDevice(TEST_DEVICE_IDS[0]));
+        assertTrue("A device on another agent was removed.", testDevicePoolDao.hasDevice(TEST_DEVICE_IDS[2]));
+
+        DeviceSelector deviceSelector = new DeviceSelectorBuilder().targetApi(TEST_API_LEVEL).build();
+        List<IDevice> devices = testDevicePoolDao.getDevices(deviceSelector, false);
+
+        assertEquals(DEVICES_COUNT_MISMATCH_ERROR, 1, devices.size());
+    }
+
+    @Test(expected = DevicePoolDaoRuntimeException.class)
+    public void testRemoveDevicesOnMissingAgent() throws Exception {
+        testDevicePoolDao.removeDevices(MISSING_AGENT_ID);
+    }
+
+    @Test
+    public void testRemoveDevice() throws Exception {
+        DeviceInformation deviceInformation = createDeviceInformation(TEST_API_LEVEL, false);
+        DeviceSelector deviceSelector = new DeviceSelectorBuilder().targetApi(TEST_API_LEVEL).build();
+
+        testDevicePoolDao.addDevice(deviceInformation, TEST_DEVICE_IDS[0], TEST_AGENT_ID, TEST_PASSKEY);
+        testDevicePoolDao.remove(TEST_DEVICE_IDS[0]);
+
+        assertFalse("The removed device is still present.", testDevicePoolDao.hasDevice(TEST_DEVICE_IDS[0]));
+        assertFalse("The removed device is still selected.", testDevicePoolDao.hasDevice(deviceSelector, false));
+    }
+
+    @Test
+    public void testTryAllocateFreeDevice() throws Exception {
+        DeviceInformation deviceInformation = createDeviceInformation(TEST_API_LEVEL, false);
+        testDevicePoolDao.addDevice(deviceInformation, TEST_DEVICE_IDS[0], TEST_AGENT_ID, TEST_PASSKEY);
+
+        IDevice firstCopy = testDevicePoolDao.getDevice(TEST_DEVICE_IDS[0]);
+        IDevice secondCopy = testDevicePoolDao.getDevice(TEST_DEVICE_IDS[0]);
+
+        assertTrue("Allocating a free device failed.", testDevicePoolDao.tryAllocate(firstCopy));
+        assertTrue("The allocated device was not marked as allocated.", firstCopy.isAllocated());
+        assertFalse("An allocated device was allocated twice.", testDevicePoolDao.tryAllocate(secondCopy));
+        assertTrue("The stored device is not allocated.", testDevicePoolDao.getDevice(TEST_DEVICE_IDS[0]).isAllocated());
+    }
+
+    @Test
+    public void testTryAllocateChangedDevice() throws Exception {
+        DeviceInformation deviceInformation = createDeviceInformation(TEST_API_LEVEL, false);
+        testDevicePoolDao.addDevice(deviceInformation, TEST_DEVICE_IDS[0], TEST_AGENT_ID, TEST_PASSKEY);
+
+        IDevice staleDevice = testDevicePoolDao.getDevice(TEST_DEVICE_IDS[0]);
+        Device changedDevice = (Device) testDevicePoolDao.getDevice(TEST_DEVICE_IDS[0]);
+        changedDevice.setPasskey(TEST_PASSKEY + 1);
+        testDevicePoolDao.update(changedDevice);
+
+        assertFalse("A device changed after it was fetched was allocated.", testDevicePoolDao.tryAllocate(staleDevice));
+        assertTrue("Allocating the up to date device failed.",
+                   testDevicePoolDao.tryAllocate(testDevicePoolDao.getDevice(TEST_DEVICE_IDS[0])));
+    }
+
+    @Test
+    public void testTryReleaseAllocatedDevice() throws Exception {
+        DeviceInformation deviceInformation = createDeviceInformation(TEST_API_LEVEL, false);
+        testDevicePoolDao.addDevice(deviceInformation, TEST_DEVICE_IDS[0], TEST_AGENT_ID, TEST_PASSKEY);
+        testDevicePoolDao.tryAllocate(testDevicePoolDao.getDevice(TEST_DEVICE_IDS[0]));
+
+        IDevice firstCopy = testDevicePoolDao.getDevice(TEST_DEVICE_IDS[0]);
+        IDevice secondCopy = testDevicePoolDao.getDevice(TEST_DEVICE_IDS[0]);
+
+        assertTrue("Releasing an allocated device failed.", testDevicePoolDao.tryRelease(firstCopy, TEST_PASSKEY + 1));
+        assertFalse("The released device was not marked as free.", firstCopy.isAllocated());
+        assertFalse("A free device was released twice.", testDevicePoolDao.tryRelease(secondCopy, TEST_PASSKEY + 2));
+
+        IDevice storedDevice = testDevicePoolDao.getDevice(TEST_DEVICE_IDS[0]);
+        assertFalse("The stored device is not free.", storedDevice.isAllocated());
+        assertEquals("The passkey of the released device is not updated.", TEST_PASSKEY + 1, storedDevice.getPasskey());
+    }
+
+    @Test
+    public void testUpdateChangedDeviceFails() throws Exception {
+        DeviceInformation deviceInformation = createDeviceInformation(TEST_API_LEVEL, false);
+        testDevicePoolDao.addDevice(deviceInformation, TEST_DEVICE_IDS[0], TEST_AGENT_ID, TEST_PASSKEY);
+        testDevicePoolDao.tryAllocate(testDevicePoolDao.getDevice(TEST_DEVICE_IDS[0]));
+
+        IDevice staleDevice = testDevicePoolDao.getDevice(TEST_DEVICE_IDS[0]);
+        testDevicePoolDao.tryRelease(testDevicePoolDao.getDevice(TEST_DEVICE_IDS[0]), TEST_PASSKEY + 1);
+
+        try {
+            testDevicePoolDao.update(staleDevice);
+            fail("A device changed after it was fetched was updated.");
+        } catch (DevicePoolDaoException e) {
+            // expected
+        }
+
+        assertFalse("The stale device overwrote the release.",
+                    testDevicePoolDao.getDevice(TEST_DEVICE_IDS[0]).isAllocated());
+    }
+
+    @Test
+    public void testChangesAreWrittenToTheMirror() throws Exception {
+        IDevicePoolDao mockedMirroredDevicePoolDao = mock(IDevicePoolDao.class);
+        DevicePoolMirror mirror = new DevicePoolMirror(mockedMirroredDevicePoolDao);
+        InMemoryDevicePoolDao mirroredDevicePoolDao = new InMemoryDevicePoolDao(mockedAgentDao, mirror);
+        DeviceInformation deviceInformation = createDeviceInformation(TEST_API_LEVEL, false);
+
+        IDevice addedDevice = mirroredDevicePoolDao.addDevice(deviceInformation,
+                                                              TEST_DEVICE_IDS[0],
+                                                              TEST_AGENT_ID,
+                                                              TEST_PASSKEY);
+        // the mirrored data access object must not be invoked by the mirror thread while it is stubbed
+        mirroredDevicePoolDao.flushMirror();
+        when(mockedMirroredDevicePoolDao.getDevice(TEST_DEVICE_IDS[0])).thenReturn(new Device((Device) addedDevice));
+
+        addedDevice.allocate();
+        mirroredDevicePoolDao.update(addedDevice);
+        mirroredDevicePoolDao.remove(TEST_DEVICE_IDS[0]);
+        mirroredDevicePoolDao.flushMirror();
+
+        InOrder inOrder = inOrder(mockedMirroredDevicePoolDao);
+        inOrder.verify(mockedMirroredDevicePoolDao).addDevice(deviceInformation,
+                                                              TEST_DEVICE_IDS[0],
+                                                              TEST_AGENT_ID,
+                                                              TEST_PASSKEY);
+        inOrder.verify(mockedMirroredDevicePoolDao).update(argThat(new ArgumentMatcher<IDevice>() {
+            @Override
+            public boolean matches(Object argument) {
+                return ((IDevice) argument).isAllocated();
+            }
+        }));
+        inOrder.verify(mockedMirroredDevicePoolDao).remove(TEST_DEVICE_IDS[0]);
+    }
+
+    @Test
+    public void testRestoredDevicesKeepTheirStateAndAreNotWrittenToTheMirror() throws Exception {
+        IDevicePoolDao mockedMirroredDevicePoolDao = mock(IDevicePoolDao.class);
+        DevicePoolMirror mirror = new DevicePoolMirror(mockedMirroredDevicePoolDao);
+        InMemoryDevicePoolDao restoredDevicePoolDao = new InMemoryDevicePoolDao(mockedAgentDao, mirror);
+
+        Device allocatedDevice = new Device(createDeviceInformation(TEST_API_LEVEL, false),
+                                            TEST_DEVICE_IDS[0],
+                                            TEST_PASSKEY);
+        allocatedDevice.setAgent(new Agent(TEST_AGENT_ID));
+        allocatedDevice.allocate();
+        Device freeDevice = new Device(createDeviceInformation(TEST_API_LEVEL, false),
+                                       TEST_DEVICE_IDS[1],
+                                       TEST_PASSKEY);
+        freeDevice.setAgent(new Agent(TEST_AGENT_ID));
+
+        restoredDevicePoolDao.restoreDevices(Arrays.<IDevice> asList(allocatedDevice, freeDevice));
+        restoredDevicePoolDao.flushMirror();
+
+        IDevice restoredDevice = restoredDevicePoolDao.getDevice(TEST_DEVICE_IDS[0]);
+        assertTrue("The allocation of the restored device was not kept.", restoredDevice.isAllocated());
+        assertEquals("The passkey of the restored device was not kept.", TEST_PASSKEY, restoredDevice.getPasskey());
+        assertEquals("The agent of the restored device was not kept.", TEST_AGENT_ID, restoredDevice.getAgentId());
+
+        DeviceSelector deviceSelector = new DeviceSelectorBuilder().targetApi(TEST_API_LEVEL).build();
+        assertEquals(DEVICES_COUNT_MISMATCH_ERROR, 1, restoredDevicePoolDao.getDevices(deviceSelector, true).size());
+        assertEquals(DEVICES_COUNT_MISMATCH_ERROR, 1, restoredDevicePoolDao.getDevices(deviceSelector, false).size());
+
+        verifyZeroInteractions(mockedMirroredDevicePoolDao);
+    }
+
+    @Test
+    public void testRestoreDevicesOfOtherImplementation() throws Exception {
+        IDevice storedDevice = mock(IDevice.class);
+        when(storedDevice.getInformation()).thenReturn(createDeviceInformation(TEST_API_LEVEL, false));
+        when(storedDevice.getDeviceId()).thenReturn(TEST_DEVICE_IDS[0]);
+        when(storedDevice.getPasskey()).thenReturn(TEST_PASSKEY);
+        when(storedDevice.getAgentId()).thenReturn(TEST_AGENT_ID);
+        when(storedDevice.isAllocated()).thenReturn(true);
+
+        testDevicePoolDao.restoreDevices(Arrays.asList(storedDevice));
+
+        IDevice restoredDevice = testDevicePoolDao.getDevice(TEST_DEVICE_IDS[0]);
+        assertTrue("The allocation of the restored device was not kept.", restoredDevice.isAllocated());
+        assertEquals("The passkey of the restored device was not kept.", TEST_PASSKEY, restoredDevice.getPasskey());
+        assertEquals("The agent of the restored device was not kept.", TEST_AGENT_ID, restoredDevice.getAgentId());
+    }
+
+    private static DeviceInformation createDeviceInformation(int apiLevel, boolean isEmulator) {
+        DeviceInformation deviceInformation = new DeviceInformation();
+        deviceInformation.setApiLevel(apiLevel);
+        deviceInformation.setRam(TEST_RAM);
+        deviceInformation.setEmulator(isEmulator);
+
+        return deviceInformation;
+    }
+}
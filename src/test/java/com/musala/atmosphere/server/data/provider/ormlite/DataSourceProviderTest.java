@@ -27,9 +27,9 @@ import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
+import com.musala.atmosphere.server.dao.IDevicePoolDao;
 import com.musala.atmosphere.server.data.db.ormlite.AgentDao;
 import com.musala.atmosphere.server.data.db.ormlite.DeviceDao;
-import com.musala.atmosphere.server.data.db.ormlite.DevicePoolDao;
 import com.musala.atmosphere.server.eventservice.ServerEventService;
 import com.musala.atmosphere.server.eventservice.event.datasource.create.DataSourceInitializedEvent;
 import com.musala.atmosphere.server.eventservice.event.datasource.create.dao.AgentDaoCreatedEvent;
@@ -68,7 +68,7 @@ public class DataSourceProviderTest {
     public void testNotCreatedDaosWhenDataSourceInitializedEventIsMissing() {
         AgentDao agentDao = dataSourceProvider.getAgentDao();
         DeviceDao deviceDao = dataSourceProvider.getDeviceDao();
-        DevicePoolDao devicePoolDao = dataSourceProvider.getDevicePoolDao();
+        IDevicePoolDao devicePoolDao = dataSourceProvider.getDevicePoolDao();
 
         assertNull("Agent data access object was created.", agentDao);
         assertNull("Device data access object was created.", deviceDao);
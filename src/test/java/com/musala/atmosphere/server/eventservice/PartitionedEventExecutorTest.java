@@ -0,0 +1,136 @@
+// This file is part of the ATMOSPHERE mobile testing framework.
+// Copyright (C) 2016 MusalaSoft
+//
+// ATMOSPHERE is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// ATMOSPHERE is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with ATMOSPHERE.  If not, see <http://www.gnu.org/licenses/>.
+package com.musala.atmosphere.server.eventservice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Tests the {@link PartitionedEventExecutor partitioned executor} of the asynchronously delivered events.
+ *
+ * @author filareta.yordanova
+ *
+ */
+public class PartitionedEventExecutorTest {
+    private static final long AWAIT_TIMEOUT = 5;
+
+    @Test
+    public void testTasksOfPartitionAreExecutedInOrder() throws Exception {
+        final int partitionCount = 8;
+        final int taskCount = 1000;
+        PartitionedEventExecutor executor = new PartitionedEventExecutor(4);
+        final CountDownLatch completedTasks = new CountDownLatch(partitionCount * taskCount);
+        final List<List<Integer>> executedTasks = new ArrayList<>();
+
+        for (int partition = 0; partition < partitionCount; partition++) {
+            executedTasks.add(Collections.synchronizedList(new ArrayList<Integer>()));
+        }
+
+        for (int task = 0; task < taskCount; task++) {
+            for (int partition = 0; partition < partitionCount; partition++) {
+                final List<Integer> partitionTasks = executedTasks.get(partition);
+                final int taskIndex = task;
+
+                executor.execute(String.valueOf(partition), new Runnable() {
+                    @Override
+                    public void run() {
+                        partitionTasks.add(taskIndex);
+                        completedTasks.countDown();
+                    }
+                });
+            }
+        }
+
+        assertTrue("The tasks were not completed.", completedTasks.await(AWAIT_TIMEOUT, TimeUnit.SECONDS));
+
+        for (List<Integer> partitionTasks : executedTasks) {
+            for (int task = 0; task < taskCount; task++) {
+                assertEquals("The tasks of a partition should be executed in the order of submitting.",
+                             Integer.valueOf(task),
+                             partitionTasks.get(task));
+            }
+        }
+    }
+
+    @Test
+    public void testBlockedPartitionDoesNotDelayOtherPartitions() throws Exception {
+        PartitionedEventExecutor executor = new PartitionedEventExecutor(2);
+        final CountDownLatch blockedPartitionRelease = new CountDownLatch(1);
+        final CountDownLatch otherPartitionTask = new CountDownLatch(1);
+        final CountDownLatch blockedPartitionTask = new CountDownLatch(1);
+
+        executor.execute("blocked", new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    blockedPartitionRelease.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        executor.execute("blocked", new Runnable() {
+            @Override
+            public void run() {
+                blockedPartitionTask.countDown();
+            }
+        });
+        executor.execute("other", new Runnable() {
+            @Override
+            public void run() {
+                otherPartitionTask.countDown();
+            }
+        });
+
+        assertTrue("The task of the other partition should not wait for the blocked partition.",
+                   otherPartitionTask.await(AWAIT_TIMEOUT, TimeUnit.SECONDS));
+        assertEquals("The next task of the blocked partition should wait.", 1, blockedPartitionTask.getCount());
+
+        blockedPartitionRelease.countDown();
+        assertTrue("The next task of the blocked partition should run after the blocking one.",
+                   blockedPartitionTask.await(AWAIT_TIMEOUT, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testFailingTaskDoesNotStopThePartition() throws Exception {
+        PartitionedEventExecutor executor = new PartitionedEventExecutor(1);
+        final CountDownLatch nextTask = new CountDownLatch(1);
+
+        executor.execute("partition", new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("The subscriber failed.");
+            }
+        });
+        executor.execute("partition", new Runnable() {
+            @Override
+            public void run() {
+                nextTask.countDown();
+            }
+        });
+
+        assertTrue("The tasks after a failing one should be executed.",
+                   nextTask.await(AWAIT_TIMEOUT, TimeUnit.SECONDS));
+    }
+}
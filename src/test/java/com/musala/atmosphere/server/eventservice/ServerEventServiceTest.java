@@ -16,12 +16,17 @@
 
 package com.musala.atmosphere.server.eventservice;
 
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -72,6 +77,45 @@ public class ServerEventServiceTest {
         testEventservice.publish(mockedEvent);
     }
 
+    @Test
+    public void testSubscriberForSupertypeReceivesEvent() {
+        testEventservice.subscribe(Event.class, fakeSubscriber);
+        testEventservice.publish(mockedEvent);
+        testEventservice.unsubscribe(Event.class, null, fakeSubscriber);
+
+        verify(fakeSubscriber, times(1)).inform(eq(mockedEvent));
+    }
+
+    @Test(expected = SubscriberMethodInvocationException.class)
+    public void testFailureOfReceiverMethodIsWrapped() {
+        FailingSubscriber failingSubscriber = new FailingSubscriber();
+        testEventservice.subscribe(FakeEvent.class, failingSubscriber);
+
+        try {
+            testEventservice.publish(mockedEvent);
+        } finally {
+            testEventservice.unsubscribe(FakeEvent.class, null, failingSubscriber);
+        }
+    }
+
+    @Test
+    public void testAsynchronousSubscriberIsInformedOnAnotherThread() throws Exception {
+        AsynchronousSubscriber asynchronousSubscriber = new AsynchronousSubscriber();
+        testEventservice.subscribe(FakeEvent.class, null, asynchronousSubscriber, DeliveryMode.ASYNCHRONOUS);
+
+        try {
+            testEventservice.publish(mockedEvent);
+
+            assertTrue("The asynchronous subscriber was not informed.",
+                       asynchronousSubscriber.informed.await(5, TimeUnit.SECONDS));
+            assertNotSame("The asynchronous subscriber should not be informed on the publishing thread.",
+                          Thread.currentThread(),
+                          asynchronousSubscriber.informingThread);
+        } finally {
+            testEventservice.unsubscribe(FakeEvent.class, null, asynchronousSubscriber);
+        }
+    }
+
     public class FakeEvent implements Event {
     }
 
@@ -79,4 +123,21 @@ public class ServerEventServiceTest {
         public void inform(FakeEvent event) {
         }
     }
+
+    public static class FailingSubscriber implements Subscriber {
+        public void inform(FakeEvent event) throws Exception {
+            throw new Exception("The subscriber failed.");
+        }
+    }
+
+    public static class AsynchronousSubscriber implements Subscriber {
+        private final CountDownLatch informed = new CountDownLatch(1);
+
+        private volatile Thread informingThread;
+
+        public void inform(FakeEvent event) {
+            informingThread = Thread.currentThread();
+            informed.countDown();
+        }
+    }
 }
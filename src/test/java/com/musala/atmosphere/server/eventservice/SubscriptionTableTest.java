@@ -0,0 +1,120 @@
+// This file is part of the ATMOSPHERE mobile testing framework.
+// Copyright (C) 2016 MusalaSoft
+//
+// ATMOSPHERE is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// ATMOSPHERE is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with ATMOSPHERE.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.musala.atmosphere.server.eventservice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.musala.atmosphere.server.eventservice.SubscriptionTable.Registration;
+import com.musala.atmosphere.server.eventservice.event.Event;
+import com.musala.atmosphere.server.eventservice.subscriber.Subscriber;
+
+/**
+ * Tests the {@link SubscriptionTable subscription table} of the event service.
+ *
+ * @author filareta.yordanova
+ *
+ */
+public class SubscriptionTableTest {
+    private final FakeSubscriber subscriber = new FakeSubscriber();
+
+    @Test
+    public void testRegistrationsForSupertypeMatchSubtypeEvents() {
+        Registration baseRegistration = createRegistration(BaseEvent.class);
+        Registration concreteRegistration = createRegistration(ConcreteEvent.class);
+        Registration otherRegistration = createRegistration(OtherEvent.class);
+
+        SubscriptionTable table = SubscriptionTable.EMPTY.with(baseRegistration)
+                                                         .with(concreteRegistration)
+                                                         .with(otherRegistration);
+
+        Registration[] concreteRegistrations = table.getRegistrations(ConcreteEvent.class);
+        assertEquals("The number of matching registrations is not the expected one.", 2, concreteRegistrations.length);
+        assertSame("The registrations should be in the order of subscribing.",
+                   baseRegistration,
+                   concreteRegistrations[0]);
+        assertSame("The registrations should be in the order of subscribing.",
+                   concreteRegistration,
+                   concreteRegistrations[1]);
+
+        Registration[] baseRegistrations = table.getRegistrations(BaseEvent.class);
+        assertEquals("Only the subscription for the supertype should match.", 1, baseRegistrations.length);
+    }
+
+    @Test
+    public void testRegistrationsAreComputedOncePerTable() {
+        SubscriptionTable table = SubscriptionTable.EMPTY.with(createRegistration(BaseEvent.class));
+
+        assertSame("The matching registrations should be reused.",
+                   table.getRegistrations(ConcreteEvent.class),
+                   table.getRegistrations(ConcreteEvent.class));
+    }
+
+    @Test
+    public void testChangedTableKeepsTheOriginalUnchanged() {
+        Registration baseRegistration = createRegistration(BaseEvent.class);
+        Registration concreteRegistration = createRegistration(ConcreteEvent.class);
+        SubscriptionTable table = SubscriptionTable.EMPTY.with(baseRegistration);
+        table.getRegistrations(ConcreteEvent.class);
+
+        SubscriptionTable extendedTable = table.with(concreteRegistration);
+        SubscriptionTable reducedTable = extendedTable.without(baseRegistration.getSubscription());
+
+        assertEquals("The original table should not be changed.",
+                     1,
+                     table.getRegistrations(ConcreteEvent.class).length);
+        assertEquals("The added subscription should match the published events.",
+                     2,
+                     extendedTable.getRegistrations(ConcreteEvent.class).length);
+        assertSame("The removed subscription should not match the published events.",
+                   concreteRegistration,
+                   reducedTable.getRegistrations(ConcreteEvent.class)[0]);
+        assertTrue("The table should contain the added subscription.",
+                   extendedTable.contains(concreteRegistration.getSubscription()));
+        assertFalse("The table should not contain the removed subscription.",
+                    reducedTable.contains(baseRegistration.getSubscription()));
+        assertSame("Removing a missing subscription should not create a new table.",
+                   reducedTable,
+                   reducedTable.without(baseRegistration.getSubscription()));
+    }
+
+    private Registration createRegistration(Class<?> eventType) {
+        Subscription subscription = new Subscription(eventType, null, subscriber);
+
+        return new Registration(subscription,
+                                SubscriberInvoker.compile(subscriber, eventType),
+                                DeliveryMode.SYNCHRONOUS);
+    }
+
+    public static class BaseEvent implements Event {
+    }
+
+    public static class ConcreteEvent extends BaseEvent {
+    }
+
+    public static class OtherEvent implements Event {
+    }
+
+    public static class FakeSubscriber implements Subscriber {
+        public void inform(ConcreteEvent event) {
+        }
+    }
+}
@@ -0,0 +1,91 @@
+// This file is part of the ATMOSPHERE mobile testing framework.
+// Copyright (C) 2016 MusalaSoft
+//
+// ATMOSPHERE is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// ATMOSPHERE is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with ATMOSPHERE.  If not, see <http://www.gnu.org/licenses/>.
+package com.musala.atmosphere.server.monitor;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the {@link AgentHealth health} of an agent, which is pinged every second.
+ *
+ * @author filareta.yordanova
+ *
+ */
+public class AgentHealthTest {
+    private static final String AGENT_ID = "agent_id";
+
+    private static final long INTERVAL = 1000;
+
+    private long now;
+
+    private AgentHealth agentHealth;
+
+    @Before
+    public void setUp() {
+        now = 0;
+        PhiAccrualFailureDetector failureDetector = new PhiAccrualFailureDetector(10, INTERVAL, 0, 100, now);
+        agentHealth = new AgentHealth(AGENT_ID, failureDetector, 3, 8);
+    }
+
+    @Test
+    public void testPongGivesTheRoundTripTime() {
+        ByteBuffer pingPayload = agentHealth.createPingPayload(now);
+        advance(TimeUnit.MILLISECONDS.toNanos(25));
+        agentHealth.onPong(pingPayload, now);
+
+        // a pong without the payload of a ping is only a heartbeat
+        agentHealth.onPong(ByteBuffer.allocate(0), now);
+
+        AgentHealthMetrics metrics = agentHealth.getMetrics();
+        assertEquals("Unexpected number of sent pings.", 1, metrics.getSentPings());
+        assertEquals("Unexpected number of received pongs.", 2, metrics.getReceivedPongs());
+        assertEquals("Unexpected round-trip time.", 25000, metrics.getMaxRoundTripTime());
+    }
+
+    @Test
+    public void testAgentIsSuspectedAndThenDead() {
+        pongEverySecond(10);
+        assertEquals("An agent answering in time should be alive.", AgentState.ALIVE, agentHealth.evaluate(now));
+
+        advance(TimeUnit.MILLISECONDS.toNanos(INTERVAL + 400));
+        assertEquals("A late agent should be suspected.", AgentState.SUSPECT, agentHealth.evaluate(now));
+
+        agentHealth.onPong(null, now);
+        assertEquals("A suspected agent should be alive after a pong.", AgentState.ALIVE, agentHealth.evaluate(now));
+
+        advance(TimeUnit.MILLISECONDS.toNanos(INTERVAL * 3));
+        assertEquals("An agent that stopped answering should be dead.", AgentState.DEAD, agentHealth.evaluate(now));
+
+        agentHealth.onPong(null, now);
+        assertEquals("A dead agent should stay dead.", AgentState.DEAD, agentHealth.evaluate(now));
+    }
+
+    private void pongEverySecond(int pongs) {
+        for (int pong = 0; pong < pongs; pong++) {
+            advance(TimeUnit.MILLISECONDS.toNanos(INTERVAL));
+            agentHealth.onPong(null, now);
+        }
+    }
+
+    private void advance(long nanos) {
+        now += nanos;
+    }
+}
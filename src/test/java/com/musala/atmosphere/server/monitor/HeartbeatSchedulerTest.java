@@ -0,0 +1,135 @@
+// This file is part of the ATMOSPHERE mobile testing framework.
+// Copyright (C) 2016 MusalaSoft
+//
+// ATMOSPHERE is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// ATMOSPHERE is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with ATMOSPHERE.  If not, see <http://www.gnu.org/licenses/>.
+package com.musala.atmosphere.server.monitor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.musala.atmosphere.server.monitor.HeartbeatScheduler.Heartbeat;
+
+/**
+ * Tests the {@link HeartbeatScheduler heartbeat scheduler}.
+ *
+ * @author filareta.yordanova
+ *
+ */
+public class HeartbeatSchedulerTest {
+    private static final long INTERVAL = 20;
+
+    private static final long JITTER = 5;
+
+    private HeartbeatScheduler heartbeatScheduler = new HeartbeatScheduler(INTERVAL, JITTER, 1);
+
+    @After
+    public void tearDown() {
+        heartbeatScheduler.shutdown();
+    }
+
+    @Test
+    public void testDelaysStayWithinTheJitter() {
+        Random random = new Random(42);
+        long minNextDelay = Long.MAX_VALUE;
+        long maxNextDelay = Long.MIN_VALUE;
+
+        for (int sample = 0; sample < 10000; sample++) {
+            long initialDelay = heartbeatScheduler.getInitialDelay(random);
+            assertTrue("The first beat should be within the first interval.",
+                       initialDelay >= 0 && initialDelay < INTERVAL);
+
+            long nextDelay = heartbeatScheduler.getNextDelay(random);
+            minNextDelay = Math.min(minNextDelay, nextDelay);
+            maxNextDelay = Math.max(maxNextDelay, nextDelay);
+        }
+
+        assertEquals("The beats should be shifted earlier with up to the jitter.", INTERVAL - JITTER, minNextDelay);
+        assertEquals("The beats should be shifted later with up to the jitter.", INTERVAL + JITTER, maxNextDelay);
+    }
+
+    @Test
+    public void testManyHeartbeatsShareTheSchedulerThread() throws Exception {
+        final int heartbeatCount = 500;
+        final Set<Thread> beatingThreads = Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+        final CountDownLatch secondBeats = new CountDownLatch(heartbeatCount);
+
+        for (int index = 0; index < heartbeatCount; index++) {
+            final AtomicInteger beats = new AtomicInteger();
+
+            heartbeatScheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    beatingThreads.add(Thread.currentThread());
+
+                    if (beats.incrementAndGet() == 2) {
+                        secondBeats.countDown();
+                    }
+                }
+            });
+        }
+
+        assertTrue("Every heartbeat should beat repeatedly.", secondBeats.await(5, TimeUnit.SECONDS));
+        assertEquals("All heartbeats should be sent from the single scheduler thread.", 1, beatingThreads.size());
+    }
+
+    @Test
+    public void testCancelledHeartbeatStopsBeating() throws Exception {
+        final AtomicInteger beats = new AtomicInteger();
+        final CountDownLatch firstBeat = new CountDownLatch(1);
+
+        Heartbeat heartbeat = heartbeatScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                beats.incrementAndGet();
+                firstBeat.countDown();
+            }
+        });
+
+        assertTrue("The heartbeat should beat.", firstBeat.await(5, TimeUnit.SECONDS));
+        heartbeat.cancel();
+
+        // a beat, which was running while the heartbeat was cancelled, may still complete
+        Thread.sleep(INTERVAL);
+        int beatsAfterCancel = beats.get();
+        Thread.sleep(INTERVAL * 10);
+
+        assertEquals("A cancelled heartbeat should not beat anymore.", beatsAfterCancel, beats.get());
+    }
+
+    @Test
+    public void testFailingBeatDoesNotStopTheHeartbeat() throws Exception {
+        final CountDownLatch beats = new CountDownLatch(3);
+
+        heartbeatScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                beats.countDown();
+                throw new IllegalStateException("The agent is not reachable.");
+            }
+        });
+
+        assertTrue("The heartbeat should keep beating after a failed beat.", beats.await(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,104 @@
+// This file is part of the ATMOSPHERE mobile testing framework.
+// Copyright (C) 2016 MusalaSoft
+//
+// ATMOSPHERE is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// ATMOSPHERE is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with ATMOSPHERE.  If not, see <http://www.gnu.org/licenses/>.
+package com.musala.atmosphere.server.monitor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the {@link PhiAccrualFailureDetector phi accrual failure detector} with heartbeats every second.
+ *
+ * @author filareta.yordanova
+ *
+ */
+public class PhiAccrualFailureDetectorTest {
+    private static final long INTERVAL = 1000;
+
+    private static final long ACCEPTABLE_PAUSE = 500;
+
+    private static final long MIN_STD_DEVIATION = 100;
+
+    private long now;
+
+    private PhiAccrualFailureDetector failureDetector;
+
+    @Before
+    public void setUp() {
+        now = 0;
+        failureDetector = new PhiAccrualFailureDetector(10, INTERVAL, ACCEPTABLE_PAUSE, MIN_STD_DEVIATION, now);
+
+        for (int heartbeat = 0; heartbeat < 20; heartbeat++) {
+            // the intervals alternate between 900 and 1100 milliseconds
+            advance(heartbeat % 2 == 0 ? INTERVAL - 100 : INTERVAL + 100);
+            failureDetector.heartbeat(now);
+        }
+    }
+
+    @Test
+    public void testPhiIsLowWhileHeartbeatsArriveInTime() {
+        assertEquals("The suspicion should be negligible right after a heartbeat.", 0, failureDetector.phi(now), 0.01);
+
+        advance(INTERVAL);
+        assertTrue("The suspicion should stay low when the next heartbeat is due.", failureDetector.phi(now) < 0.5);
+    }
+
+    @Test
+    public void testPhiGrowsWithTheMissedHeartbeats() {
+        double previousPhi = failureDetector.phi(now);
+
+        for (int step = 0; step < 10; step++) {
+            advance(INTERVAL / 5);
+            double phi = failureDetector.phi(now);
+
+            assertTrue("The suspicion should not decrease while no heartbeat arrives.", phi >= previousPhi);
+            previousPhi = phi;
+        }
+
+        advance(INTERVAL);
+        assertTrue("The suspicion should be high after two missed heartbeats.", failureDetector.phi(now) > 8);
+    }
+
+    @Test
+    public void testHeartbeatResetsThePhi() {
+        advance(INTERVAL * 2);
+        assertTrue("The suspicion should be raised by the late heartbeat.", failureDetector.phi(now) > 3);
+
+        failureDetector.heartbeat(now);
+        assertEquals("The suspicion should drop after a heartbeat.", 0, failureDetector.phi(now), 0.01);
+    }
+
+    @Test
+    public void testPhiOfTheNormalDistribution() {
+        // a delay of one standard deviation above the mean is exceeded with a chance of about 16%
+        assertEquals("Unexpected suspicion one deviation above the mean.",
+                     -Math.log10(0.1587),
+                     PhiAccrualFailureDetector.phi(1100, 1000, 100),
+                     0.01);
+        assertEquals("Unexpected suspicion at the mean.",
+                     -Math.log10(0.5),
+                     PhiAccrualFailureDetector.phi(1000, 1000, 100),
+                     0.01);
+    }
+
+    private void advance(long millis) {
+        now += TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+}
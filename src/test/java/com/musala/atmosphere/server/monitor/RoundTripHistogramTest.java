@@ -0,0 +1,80 @@
+// This file is part of the ATMOSPHERE mobile testing framework.
+// Copyright (C) 2016 MusalaSoft
+//
+// ATMOSPHERE is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// ATMOSPHERE is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with ATMOSPHERE.  If not, see <http://www.gnu.org/licenses/>.
+package com.musala.atmosphere.server.monitor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests the {@link RoundTripHistogram round-trip histogram}.
+ *
+ * @author filareta.yordanova
+ *
+ */
+public class RoundTripHistogramTest {
+    @Test
+    public void testBucketsCoverAllValues() {
+        long previousUpperBound = -1;
+
+        for (int index = 0; index <= RoundTripHistogram.bucketIndex(Long.MAX_VALUE); index++) {
+            long upperBound = RoundTripHistogram.bucketUpperBound(index);
+
+            assertTrue("The buckets should be in increasing order.", upperBound > previousUpperBound);
+            assertEquals("The lowest value of a bucket should fall in it.",
+                         index,
+                         RoundTripHistogram.bucketIndex(previousUpperBound + 1));
+            assertEquals("The highest value of a bucket should fall in it.",
+                         index,
+                         RoundTripHistogram.bucketIndex(upperBound));
+
+            previousUpperBound = upperBound;
+        }
+
+        assertEquals("The last bucket should end at the largest value.", Long.MAX_VALUE, previousUpperBound);
+    }
+
+    @Test
+    public void testPercentilesAreWithinAQuarterOfTheValue() {
+        RoundTripHistogram histogram = new RoundTripHistogram();
+
+        for (long roundTripTime = 1; roundTripTime <= 1000; roundTripTime++) {
+            histogram.record(roundTripTime * 100);
+        }
+
+        assertEquals("Unexpected number of recorded times.", 1000, histogram.getCount());
+        assertEquals("Unexpected mean time.", 50050, histogram.getMean(), 0.001);
+        assertEquals("Unexpected max time.", 100000, histogram.getMax());
+
+        long median = histogram.getPercentile(0.5);
+        assertTrue("The median should not be below the real one.", median >= 50000);
+        assertTrue("The median should be off by at most a quarter.", median <= 50000 * 1.25);
+
+        long p99 = histogram.getPercentile(0.99);
+        assertTrue("The 99th percentile should not be below the real one.", p99 >= 99000);
+        assertTrue("The 99th percentile should not exceed the max time.", p99 <= 100000);
+    }
+
+    @Test
+    public void testEmptyHistogram() {
+        RoundTripHistogram histogram = new RoundTripHistogram();
+        histogram.record(-1);
+
+        assertEquals("Negative times should be ignored.", 0, histogram.getCount());
+        assertEquals("An empty histogram should have no percentiles.", 0, histogram.getPercentile(0.99));
+    }
+}
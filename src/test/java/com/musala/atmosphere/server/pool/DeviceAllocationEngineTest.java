@@ -0,0 +1,199 @@
+// This file is part of the ATMOSPHERE mobile testing framework.
+// Copyright (C) 2016 MusalaSoft
+//
+// ATMOSPHERE is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// ATMOSPHERE is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with ATMOSPHERE.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.musala.atmosphere.server.pool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.musala.atmosphere.commons.DeviceInformation;
+import com.musala.atmosphere.commons.cs.deviceselection.DeviceSelector;
+import com.musala.atmosphere.commons.cs.deviceselection.DeviceSelectorBuilder;
+import com.musala.atmosphere.server.dao.IAgentDao;
+import com.musala.atmosphere.server.data.memory.InMemoryDevicePoolDao;
+import com.musala.atmosphere.server.data.model.IDevice;
+
+/**
+ * Tests the {@link DeviceAllocationEngine allocation engine} under concurrent allocations and releases.
+ *
+ * @author yavor.stankov
+ *
+ */
+public class DeviceAllocationEngineTest {
+    private static final Logger LOGGER = Logger.getLogger(DeviceAllocationEngineTest.class.getCanonicalName());
+
+    private static final String AGENT_ID = "agent_id";
+
+    private static final String DEVICE_ID_FORMAT = "device_id_%d";
+
+    private static final int DEVICES_COUNT = 64;
+
+    private static final int API_LEVEL = 19;
+
+    private static final int OTHER_API_LEVEL = 23;
+
+    private static final int[] THREAD_COUNTS = {1, 2, 4, 8};
+
+    private static final int ALLOCATIONS_PER_THREAD = 2_000;
+
+    private static final int STRESS_TIMEOUT = 60; // seconds
+
+    private InMemoryDevicePoolDao devicePoolDao;
+
+    private DeviceAllocationEngine allocationEngine;
+
+    private DeviceSelector deviceSelector;
+
+    @Before
+    public void setUp() throws Exception {
+        IAgentDao mockedAgentDao = mock(IAgentDao.class);
+        when(mockedAgentDao.hasAgent(anyString())).thenReturn(true);
+
+        devicePoolDao = new InMemoryDevicePoolDao(mockedAgentDao);
+
+        for (int index = 0; index < DEVICES_COUNT; index++) {
+            DeviceInformation deviceInformation = new DeviceInformation();
+            deviceInformation.setApiLevel(API_LEVEL);
+            devicePoolDao.addDevice(deviceInformation, String.format(DEVICE_ID_FORMAT, index), AGENT_ID, index);
+        }
+
+        allocationEngine = new DeviceAllocationEngine(devicePoolDao);
+        deviceSelector = new DeviceSelectorBuilder().targetApi(API_LEVEL).build();
+    }
+
+    @Test
+    public void testAllocateMarksDeviceAsAllocated() throws Exception {
+        IDevice allocatedDevice = allocationEngine.allocate(deviceSelector);
+
+        assertNotNull("No device was allocated.", allocatedDevice);
+        assertTrue("The returned device is not allocated.", allocatedDevice.isAllocated());
+        assertTrue("The stored device is not allocated.",
+                   devicePoolDao.getDevice(allocatedDevice.getDeviceId()).isAllocated());
+    }
+
+    @Test
+    public void testAllocateWhenNoDeviceIsFree() throws Exception {
+        for (int index = 0; index < DEVICES_COUNT; index++) {
+            assertNotNull("A free device was not allocated.", allocationEngine.allocate(deviceSelector));
+        }
+
+        assertNull("A device was allocated although all devices are busy.", allocationEngine.allocate(deviceSelector));
+    }
+
+    @Test
+    public void testAllocateWhenNoDeviceMatches() throws Exception {
+        DeviceSelector otherSelector = new DeviceSelectorBuilder().targetApi(OTHER_API_LEVEL).build();
+
+        assertNull("A device not matching the selector was allocated.", allocationEngine.allocate(otherSelector));
+    }
+
+    @Test
+    public void testConcurrentAllocationsNeverShareDevice() throws Exception {
+        for (int threadCount : THREAD_COUNTS) {
+            long startTime = System.nanoTime();
+            int allocationsCount = runConcurrentAllocations(threadCount);
+            long elapsedTime = System.nanoTime() - startTime;
+
+            assertEquals("Some of the allocation requests were not served.",
+                         threadCount * ALLOCATIONS_PER_THREAD,
+                         allocationsCount);
+            assertTrue("Some of the devices were not released.",
+                       devicePoolDao.getDevices(deviceSelector, true).isEmpty());
+
+            double throughput = allocationsCount / (elapsedTime / (double) TimeUnit.SECONDS.toNanos(1));
+            LOGGER.info(String.format("%d threads: %.0f allocations per second.", threadCount, throughput));
+        }
+    }
+
+    /**
+     * Runs the given number of threads, each of them allocating and releasing devices in a loop, and verifies that no
+     * device is held by two threads at the same time.
+     *
+     * @return the count of the successful allocations
+     */
+    private int runConcurrentAllocations(int threadCount) throws Exception {
+        final Set<String> heldDeviceIds = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        final CountDownLatch startLatch = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        List<Future<Integer>> results = new ArrayList<>();
+
+        for (int thread = 0; thread < threadCount; thread++) {
+            results.add(executor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    startLatch.await();
+
+                    int allocationsCount = 0;
+
+                    for (int iteration = 0; iteration < ALLOCATIONS_PER_THREAD; iteration++) {
+                        IDevice device = allocationEngine.allocate(deviceSelector);
+
+                        if (device == null) {
+                            continue;
+                        }
+
+                        String deviceId = device.getDeviceId();
+                        assertTrue("A device was allocated twice at the same time.", heldDeviceIds.add(deviceId));
+                        allocationsCount++;
+
+                        heldDeviceIds.remove(deviceId);
+                        device.release();
+                        devicePoolDao.update(device);
+                    }
+
+                    return allocationsCount;
+                }
+            }));
+        }
+
+        startLatch.countDown();
+        executor.shutdown();
+        assertTrue("The allocations did not complete in time.",
+                   executor.awaitTermination(STRESS_TIMEOUT, TimeUnit.SECONDS));
+
+        int allocationsCount = 0;
+
+        for (Future<Integer> result : results) {
+            allocationsCount += result.get();
+        }
+
+        assertTrue("Some of the devices are still held.", heldDeviceIds.isEmpty());
+
+        return allocationsCount;
+    }
+}
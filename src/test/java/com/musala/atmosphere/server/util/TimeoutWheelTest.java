@@ -0,0 +1,216 @@
+// This file is part of the ATMOSPHERE mobile testing framework.
+// Copyright (C) 2016 MusalaSoft
+//
+// ATMOSPHERE is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// ATMOSPHERE is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with ATMOSPHERE.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.musala.atmosphere.server.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.musala.atmosphere.server.util.TimeoutWheel.ExpirationListener;
+
+/**
+ * Tests the {@link TimeoutWheel timeout wheel}. The wheel is advanced manually, except when the wheel thread is tested.
+ *
+ * @author yavor.stankov
+ *
+ */
+public class TimeoutWheelTest {
+    private static final long TICK_DURATION = 10;
+
+    private static final long TIMEOUT_TICKS = 5;
+
+    private static final String KEY = "agent_id_device_id";
+
+    private List<String> expiredKeys;
+
+    private TimeoutWheel<String> timeoutWheel;
+
+    @Before
+    public void setUp() {
+        expiredKeys = new ArrayList<>();
+        timeoutWheel = new TimeoutWheel<>(TICK_DURATION, TIMEOUT_TICKS, new ExpirationListener<String>() {
+            @Override
+            public void onExpired(String key) {
+                expiredKeys.add(key);
+            }
+        });
+    }
+
+    @Test
+    public void testKeyExpiresOnTheTickOfItsDeadline() {
+        assertFalse("A new timeout should be scheduled.", timeoutWheel.restart(KEY));
+
+        tick(TIMEOUT_TICKS - 1);
+        assertTrue("The key should not expire before its deadline.", expiredKeys.isEmpty());
+        assertTrue("The key should still be scheduled.", timeoutWheel.isScheduled(KEY));
+
+        tick(1);
+        assertEquals("The key should expire on the tick of its deadline.", 1, expiredKeys.size());
+        assertFalse("An expired key should not be scheduled.", timeoutWheel.isScheduled(KEY));
+
+        tick(TIMEOUT_TICKS * 2);
+        assertEquals("The key should expire only once.", 1, expiredKeys.size());
+    }
+
+    @Test
+    public void testRestartMovesTheDeadline() {
+        timeoutWheel.restart(KEY);
+        tick(TIMEOUT_TICKS - 1);
+
+        assertTrue("The scheduled timeout should be moved.", timeoutWheel.restart(KEY));
+
+        tick(TIMEOUT_TICKS - 1);
+        assertTrue("The restarted key should not expire before its new deadline.", expiredKeys.isEmpty());
+
+        tick(1);
+        assertEquals("The restarted key should expire on the tick of its new deadline.", 1, expiredKeys.size());
+    }
+
+    @Test
+    public void testCancelledKeyDoesNotExpire() {
+        timeoutWheel.restart(KEY);
+
+        assertTrue("The scheduled timeout should be cancelled.", timeoutWheel.cancel(KEY));
+        assertFalse("A cancelled timeout should not be cancelled again.", timeoutWheel.cancel(KEY));
+
+        tick(TIMEOUT_TICKS * 2);
+        assertTrue("A cancelled key should not expire.", expiredKeys.isEmpty());
+    }
+
+    @Test
+    public void testTimeoutLongerThanTheWheel() {
+        final long longTimeoutTicks = 1500;
+        TimeoutWheel<String> longTimeoutWheel = new TimeoutWheel<>(TICK_DURATION,
+                                                                   longTimeoutTicks,
+                                                                   new ExpirationListener<String>() {
+                                                                       @Override
+                                                                       public void onExpired(String key) {
+                                                                           expiredKeys.add(key);
+                                                                       }
+                                                                   });
+        longTimeoutWheel.restart(KEY);
+
+        for (int tick = 1; tick < longTimeoutTicks; tick++) {
+            longTimeoutWheel.tick();
+        }
+        assertTrue("The key should not expire in the earlier rounds of the wheel.", expiredKeys.isEmpty());
+
+        longTimeoutWheel.tick();
+        assertEquals("The key should expire on the tick of its deadline.", 1, expiredKeys.size());
+    }
+
+    @Test
+    public void testConcurrentRestartAndExpiry() throws Exception {
+        final int keyCount = 64;
+        final ConcurrentMap<String, AtomicInteger> keyToExpirations = new ConcurrentHashMap<>();
+        final ConcurrentMap<String, AtomicInteger> keyToScheduledTimeouts = new ConcurrentHashMap<>();
+        final TimeoutWheel<String> racingWheel = new TimeoutWheel<>(TICK_DURATION,
+                                                                    1,
+                                                                    new ExpirationListener<String>() {
+                                                                        @Override
+                                                                        public void onExpired(String key) {
+                                                                            keyToExpirations.get(key).incrementAndGet();
+                                                                        }
+                                                                    });
+
+        for (int index = 0; index < keyCount; index++) {
+            keyToExpirations.put(String.valueOf(index), new AtomicInteger());
+            keyToScheduledTimeouts.put(String.valueOf(index), new AtomicInteger());
+        }
+
+        final AtomicBoolean isRacing = new AtomicBoolean(true);
+        final CountDownLatch restartersDone = new CountDownLatch(2);
+        Runnable restarter = new Runnable() {
+            @Override
+            public void run() {
+                int index = 0;
+
+                while (isRacing.get()) {
+                    String key = String.valueOf(index++ % keyCount);
+
+                    if (!racingWheel.restart(key)) {
+                        keyToScheduledTimeouts.get(key).incrementAndGet();
+                    }
+                }
+
+                restartersDone.countDown();
+            }
+        };
+
+        new Thread(restarter).start();
+        new Thread(restarter).start();
+
+        // with a timeout of one tick most restarts race with the expiry of the same timeout
+        for (int tick = 0; tick < 20000; tick++) {
+            racingWheel.tick();
+        }
+
+        isRacing.set(false);
+        assertTrue("The restarting threads did not finish.", restartersDone.await(5, TimeUnit.SECONDS));
+
+        racingWheel.tick();
+        racingWheel.tick();
+
+        // every scheduled timeout expires exactly once, no matter how the restarts were interleaved with the ticks
+        for (String key : keyToExpirations.keySet()) {
+            assertEquals(String.format("The number of expirations of key %s is not the expected one.", key),
+                         keyToScheduledTimeouts.get(key).get(),
+                         keyToExpirations.get(key).get());
+        }
+    }
+
+    @Test
+    public void testWheelThreadExpiresKeys() throws Exception {
+        final CountDownLatch expiration = new CountDownLatch(1);
+        TimeoutWheel<String> runningWheel = new TimeoutWheel<>(TICK_DURATION,
+                                                               TIMEOUT_TICKS,
+                                                               new ExpirationListener<String>() {
+                                                                   @Override
+                                                                   public void onExpired(String key) {
+                                                                       expiration.countDown();
+                                                                   }
+                                                               });
+
+        runningWheel.start("timeout-wheel-test");
+        try {
+            runningWheel.restart(KEY);
+
+            assertTrue("The key should expire while the wheel thread is running.",
+                       expiration.await(5, TimeUnit.SECONDS));
+        } finally {
+            runningWheel.stop();
+        }
+    }
+
+    private void tick(long ticks) {
+        for (int tick = 0; tick < ticks; tick++) {
+            timeoutWheel.tick();
+        }
+    }
+}
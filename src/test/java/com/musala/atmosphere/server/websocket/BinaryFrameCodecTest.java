@@ -0,0 +1,136 @@
+// This file is part of the ATMOSPHERE mobile testing framework.
+// Copyright (C) 2016 MusalaSoft
+//
+// ATMOSPHERE is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// ATMOSPHERE is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with ATMOSPHERE.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.musala.atmosphere.server.websocket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import com.musala.atmosphere.commons.websocket.message.MessageAction;
+
+/**
+ * Tests the {@link BinaryFrameCodec binary frame codec}.
+ *
+ * @author dimcho.nedev
+ *
+ */
+public class BinaryFrameCodecTest {
+    private static final String DEVICE_ID = "agent_id_device_id";
+
+    private static final long PASSKEY = -1234567890123L;
+
+    private static final String SESSION_ID = "session_id";
+
+    private static final byte[] PAYLOAD = new byte[] {0, -1, 34, 92, 10, 127, -128};
+
+    @Test
+    public void testDecodeEncodedFrame() {
+        ByteBuffer frame = BinaryFrameCodec.encode(createEnvelope(PASSKEY), ByteBuffer.wrap(PAYLOAD), false);
+
+        BinaryFrame decodedFrame = BinaryFrameCodec.decode(frame);
+        MessageEnvelope envelope = decodedFrame.getEnvelope();
+
+        assertEquals("The message action is not the expected one.",
+                     MessageAction.ROUTING_ACTION,
+                     envelope.getMessageAction());
+        assertEquals("The device ID is not the expected one.", DEVICE_ID, envelope.getDeviceId());
+        assertEquals("The passkey is not the expected one.", Long.valueOf(PASSKEY), envelope.getPasskey());
+        assertEquals("The session ID is not the expected one.", SESSION_ID, envelope.getSessionId());
+        assertFalse("The payload should not be marked as a JSON message.", decodedFrame.isTextPayload());
+        assertEquals("The payload is not the expected one.", ByteBuffer.wrap(PAYLOAD), decodedFrame.getPayload());
+        assertEquals("The forwarded frame should be the received one.", frame, decodedFrame.getFrame());
+    }
+
+    @Test
+    public void testDecodeFrameWithoutOptionalFields() {
+        MessageEnvelope envelope = new MessageEnvelope();
+        envelope.setMessageAction(MessageAction.ERROR.name());
+
+        ByteBuffer frame = BinaryFrameCodec.encode(envelope, ByteBuffer.allocate(0), false);
+
+        MessageEnvelope decodedEnvelope = BinaryFrameCodec.decode(frame).getEnvelope();
+
+        assertEquals("The message action is not the expected one.",
+                     MessageAction.ERROR,
+                     decodedEnvelope.getMessageAction());
+        assertNull("The device ID should not be set.", decodedEnvelope.getDeviceId());
+        assertNull("The passkey should not be set.", decodedEnvelope.getPasskey());
+        assertNull("The session ID should not be set.", decodedEnvelope.getSessionId());
+    }
+
+    @Test
+    public void testDecodeTextPayload() {
+        String jsonMessage = "{\"messageAction\":\"ROUTING_ACTION\",\"data\":\"\\u0436\"}";
+        ByteBuffer payload = StandardCharsets.UTF_8.encode(jsonMessage);
+
+        BinaryFrame frame = BinaryFrameCodec.decode(BinaryFrameCodec.encode(createEnvelope(PASSKEY), payload, true));
+
+        assertTrue("The payload should be marked as a JSON message.", frame.isTextPayload());
+        assertEquals("The JSON message is not the expected one.", jsonMessage, frame.getPayloadText());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testDecodeBinaryPayloadAsText() {
+        ByteBuffer frame = BinaryFrameCodec.encode(createEnvelope(PASSKEY), ByteBuffer.wrap(PAYLOAD), false);
+
+        BinaryFrameCodec.decode(frame).getPayloadText();
+    }
+
+    @Test
+    public void testDecodeDoesNotConsumeTheReceivedBuffer() {
+        ByteBuffer frame = BinaryFrameCodec.encode(createEnvelope(PASSKEY), ByteBuffer.wrap(PAYLOAD), false);
+        int frameSize = frame.remaining();
+
+        BinaryFrame decodedFrame = BinaryFrameCodec.decode(frame);
+        decodedFrame.getPayload().get();
+
+        assertEquals("Decoding should not change the position of the received buffer.", frameSize, frame.remaining());
+        assertEquals("Reading the payload should not change the frame.", frameSize, decodedFrame.getFrame().remaining());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDecodeIncompleteHeader() {
+        ByteBuffer frame = BinaryFrameCodec.encode(createEnvelope(PASSKEY), ByteBuffer.allocate(0), false);
+        frame.limit(frame.limit() - 1);
+
+        BinaryFrameCodec.decode(frame);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDecodeUnsupportedVersion() {
+        ByteBuffer frame = BinaryFrameCodec.encode(createEnvelope(PASSKEY), ByteBuffer.wrap(PAYLOAD), false);
+        frame.put(0, (byte) (BinaryFrameCodec.FORMAT_VERSION + 1));
+
+        BinaryFrameCodec.decode(frame);
+    }
+
+    private static MessageEnvelope createEnvelope(Long passkey) {
+        MessageEnvelope envelope = new MessageEnvelope();
+        envelope.setMessageAction(MessageAction.ROUTING_ACTION.name());
+        envelope.setDeviceId(DEVICE_ID);
+        envelope.setPasskey(passkey);
+        envelope.setSessionId(SESSION_ID);
+
+        return envelope;
+    }
+}
@@ -0,0 +1,193 @@
+// This file is part of the ATMOSPHERE mobile testing framework.
+// Copyright (C) 2016 MusalaSoft
+//
+// ATMOSPHERE is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// ATMOSPHERE is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with ATMOSPHERE.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.musala.atmosphere.server.websocket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import com.musala.atmosphere.commons.cs.clientbuilder.DeviceAllocationInformation;
+import com.musala.atmosphere.commons.cs.exception.InvalidPasskeyException;
+import com.musala.atmosphere.server.pool.PoolManager;
+
+/**
+ * Tests the release of the devices held by the closed client sessions.
+ *
+ * @author dimcho.nedev
+ *
+ */
+public class ClientDeviceTrackerTest {
+    private static final String SESSION_ID = "client_session";
+
+    private static final String RECONNECTED_SESSION_ID = "reconnected_client_session";
+
+    private static final String FIRST_DEVICE_ID = "mockagent_firstdevice";
+
+    private static final String SECOND_DEVICE_ID = "mockagent_seconddevice";
+
+    private static final long GRACE_PERIOD = 200;
+
+    private static final long RELEASE_TIMEOUT = 2000;
+
+    private PoolManager poolManager;
+
+    private List<String> releasedDeviceIds;
+
+    private CountDownLatch releaseLatch;
+
+    private ClientDeviceTracker.ReleaseListener releaseListener;
+
+    @Before
+    public void setUp() {
+        poolManager = mock(PoolManager.class);
+        releasedDeviceIds = Collections.synchronizedList(new ArrayList<String>());
+        releaseLatch = new CountDownLatch(1);
+        releaseListener = new ClientDeviceTracker.ReleaseListener() {
+            @Override
+            public void onDeviceReleased(String deviceId) {
+                releasedDeviceIds.add(deviceId);
+                releaseLatch.countDown();
+            }
+        };
+    }
+
+    @Test
+    public void testClosedSessionReleasesAllHeldDevices() throws Exception {
+        ClientDeviceTracker tracker = new ClientDeviceTracker(poolManager, 0, releaseListener);
+        tracker.hold(SESSION_ID, new DeviceAllocationInformation(1, FIRST_DEVICE_ID));
+        tracker.hold(SESSION_ID, new DeviceAllocationInformation(2, SECOND_DEVICE_ID));
+
+        tracker.sessionClosed(SESSION_ID);
+
+        ArgumentCaptor<DeviceAllocationInformation> releasedDevices;
+        releasedDevices = ArgumentCaptor.forClass(DeviceAllocationInformation.class);
+        verify(poolManager, times(2)).releaseDevice(releasedDevices.capture());
+
+        for (DeviceAllocationInformation releasedDevice : releasedDevices.getAllValues()) {
+            long expectedPasskey = FIRST_DEVICE_ID.equals(releasedDevice.getDeviceId()) ? 1 : 2;
+            assertEquals("The device was released with a wrong passkey.",
+                         expectedPasskey,
+                         releasedDevice.getProxyPasskey());
+        }
+
+        assertEquals("The released devices were not reported.", 2, releasedDeviceIds.size());
+        assertFalse("The closed session still holds devices.", tracker.isHoldingDevices(SESSION_ID));
+    }
+
+    @Test
+    public void testDeviceReleasedByTheClientIsNotReleasedAgain() throws Exception {
+        ClientDeviceTracker tracker = new ClientDeviceTracker(poolManager, 0, releaseListener);
+        tracker.hold(SESSION_ID, new DeviceAllocationInformation(1, FIRST_DEVICE_ID));
+
+        tracker.release(SESSION_ID, FIRST_DEVICE_ID);
+        tracker.sessionClosed(SESSION_ID);
+
+        verify(poolManager, never()).releaseDevice(any(DeviceAllocationInformation.class));
+        assertTrue("A device released by the client was reported.", releasedDeviceIds.isEmpty());
+    }
+
+    @Test
+    public void testDeviceNoLongerAllocatedIsIgnored() throws Exception {
+        InvalidPasskeyException expiredLease = new InvalidPasskeyException("The lease has expired.");
+        doThrow(expiredLease).when(poolManager).releaseDevice(any(DeviceAllocationInformation.class));
+        ClientDeviceTracker tracker = new ClientDeviceTracker(poolManager, 0, releaseListener);
+        tracker.hold(SESSION_ID, new DeviceAllocationInformation(1, FIRST_DEVICE_ID));
+
+        tracker.sessionClosed(SESSION_ID);
+
+        assertTrue("A device allocated to another client may have lost its cached sessions.",
+                   releasedDeviceIds.isEmpty());
+    }
+
+    @Test
+    public void testGracePeriodDelaysTheRelease() throws Exception {
+        ClientDeviceTracker tracker = new ClientDeviceTracker(poolManager, GRACE_PERIOD, releaseListener);
+        tracker.hold(SESSION_ID, new DeviceAllocationInformation(1, FIRST_DEVICE_ID));
+
+        tracker.sessionClosed(SESSION_ID);
+
+        verify(poolManager, never()).releaseDevice(any(DeviceAllocationInformation.class));
+        assertTrue("The device was not released after the grace period.",
+                   releaseLatch.await(RELEASE_TIMEOUT, TimeUnit.MILLISECONDS));
+        verify(poolManager).releaseDevice(any(DeviceAllocationInformation.class));
+    }
+
+    @Test
+    public void testReconnectedClientReclaimsItsDevice() throws Exception {
+        ClientDeviceTracker tracker = new ClientDeviceTracker(poolManager, GRACE_PERIOD, releaseListener);
+        tracker.hold(SESSION_ID, new DeviceAllocationInformation(1, FIRST_DEVICE_ID));
+        tracker.sessionClosed(SESSION_ID);
+
+        assertTrue("The device was not reclaimed.", tracker.reclaim(RECONNECTED_SESSION_ID, FIRST_DEVICE_ID));
+        assertFalse("The device was reclaimed twice.", tracker.reclaim(RECONNECTED_SESSION_ID, FIRST_DEVICE_ID));
+        assertTrue("The reconnected session does not hold the device.",
+                   tracker.isHoldingDevices(RECONNECTED_SESSION_ID));
+
+        assertFalse("A reclaimed device was released.", releaseLatch.await(GRACE_PERIOD * 2, TimeUnit.MILLISECONDS));
+        verify(poolManager, never()).releaseDevice(any(DeviceAllocationInformation.class));
+
+        tracker.sessionClosed(RECONNECTED_SESSION_ID);
+
+        assertTrue("The device was not released after the reconnected session was closed.",
+                   releaseLatch.await(RELEASE_TIMEOUT, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testResumedSessionTakesOverTheDevices() throws Exception {
+        ClientDeviceTracker tracker = new ClientDeviceTracker(poolManager, 0, releaseListener);
+        tracker.hold(SESSION_ID, new DeviceAllocationInformation(1, FIRST_DEVICE_ID));
+
+        tracker.transfer(RECONNECTED_SESSION_ID, FIRST_DEVICE_ID);
+        tracker.sessionClosed(SESSION_ID);
+
+        verify(poolManager, never()).releaseDevice(any(DeviceAllocationInformation.class));
+        assertTrue("The resumed session does not hold the device.", tracker.isHoldingDevices(RECONNECTED_SESSION_ID));
+    }
+
+    @Test
+    public void testDeviceWithExpiredLeaseIsNotReleasedWithTheSession() throws Exception {
+        ClientDeviceTracker tracker = new ClientDeviceTracker(poolManager, GRACE_PERIOD, releaseListener);
+        tracker.hold(SESSION_ID, new DeviceAllocationInformation(1, FIRST_DEVICE_ID));
+        tracker.hold(SESSION_ID, new DeviceAllocationInformation(2, SECOND_DEVICE_ID));
+        tracker.sessionClosed(SESSION_ID);
+
+        tracker.forget(FIRST_DEVICE_ID);
+
+        assertFalse("A forgotten device was reclaimed.", tracker.reclaim(RECONNECTED_SESSION_ID, FIRST_DEVICE_ID));
+        assertTrue("The device was not released after the grace period.",
+                   releaseLatch.await(RELEASE_TIMEOUT, TimeUnit.MILLISECONDS));
+        assertEquals("A device with an expired lease was released.",
+                     Collections.singletonList(SECOND_DEVICE_ID),
+                     releasedDeviceIds);
+    }
+}
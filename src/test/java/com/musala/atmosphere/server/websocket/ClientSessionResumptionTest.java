@@ -0,0 +1,207 @@
+// This file is part of the ATMOSPHERE mobile testing framework.
+// Copyright (C) 2016 MusalaSoft
+//
+// ATMOSPHERE is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// ATMOSPHERE is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with ATMOSPHERE.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.musala.atmosphere.server.websocket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.websocket.Session;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the resumption of the client sessions on a new connection.
+ *
+ * @author dimcho.nedev
+ *
+ */
+public class ClientSessionResumptionTest {
+    private static final String FIRST_DEVICE_ID = "mockagent_firstdevice";
+
+    private static final String SECOND_DEVICE_ID = "mockagent_seconddevice";
+
+    private static final int REPLAY_BUFFER_SIZE = 2;
+
+    private ClientSessionResumption sessionResumption;
+
+    private Session clientSession;
+
+    private Session newClientSession;
+
+    private List<String> sentMessages;
+
+    @Before
+    public void setUp() {
+        sessionResumption = new ClientSessionResumption(REPLAY_BUFFER_SIZE);
+        clientSession = mockSession("client_session", true);
+        newClientSession = mockSession("new_client_session", true);
+        sentMessages = Collections.synchronizedList(new ArrayList<String>());
+    }
+
+    @Test
+    public void testOneTokenIsIssuedPerSession() {
+        String firstToken = sessionResumption.bind(clientSession, FIRST_DEVICE_ID);
+        String secondToken = sessionResumption.bind(clientSession, SECOND_DEVICE_ID);
+        String otherToken = sessionResumption.bind(newClientSession, "mockagent_otherdevice");
+
+        assertEquals("The devices of a session got different tokens.", firstToken, secondToken);
+        assertNotEquals("Different sessions got the same token.", firstToken, otherToken);
+    }
+
+    @Test
+    public void testMessagesToOpenSessionAreSentAtOnce() {
+        sessionResumption.bind(clientSession, FIRST_DEVICE_ID);
+
+        assertTrue("The message was not sent.", sessionResumption.send(FIRST_DEVICE_ID, message("response")));
+        assertFalse("A message from an unbound device was sent.",
+                    sessionResumption.send(SECOND_DEVICE_ID, message("lost")));
+        assertEquals("The message was not sent at once.", Collections.singletonList("response"), sentMessages);
+    }
+
+    @Test
+    public void testResumedSessionGetsTheBufferedMessages() {
+        String resumeToken = sessionResumption.bind(clientSession, FIRST_DEVICE_ID);
+        sessionResumption.bind(clientSession, SECOND_DEVICE_ID);
+        when(clientSession.isOpen()).thenReturn(false);
+
+        sessionResumption.send(FIRST_DEVICE_ID, message("first"));
+        sessionResumption.send(SECOND_DEVICE_ID, message("second"));
+        assertTrue("Messages were sent to the closed session.", sentMessages.isEmpty());
+
+        List<String> deviceIds = sessionResumption.resume(resumeToken, newClientSession);
+
+        assertEquals("The devices of the session were not resumed.",
+                     new HashSet<>(Arrays.asList(FIRST_DEVICE_ID, SECOND_DEVICE_ID)),
+                     new HashSet<>(deviceIds));
+        assertEquals("The buffered messages were not replayed in order.",
+                     Arrays.asList("first", "second"),
+                     sentMessages);
+
+        sessionResumption.send(FIRST_DEVICE_ID, message("third"));
+        assertEquals("The message was not sent to the resumed session.", "third", sentMessages.get(2));
+    }
+
+    @Test
+    public void testMessagesSentDuringTheReplayAreNotBlockedAndFollowTheReplayedMessages() throws Exception {
+        final String resumeToken = sessionResumption.bind(clientSession, FIRST_DEVICE_ID);
+        when(clientSession.isOpen()).thenReturn(false);
+
+        final CountDownLatch replayStarted = new CountDownLatch(1);
+        final CountDownLatch replayUnblocked = new CountDownLatch(1);
+        sessionResumption.send(FIRST_DEVICE_ID, new ClientSessionResumption.ReplayedMessage() {
+            @Override
+            public void replay(Session session) {
+                replayStarted.countDown();
+                awaitQuietly(replayUnblocked);
+                sentMessages.add("first");
+            }
+        });
+
+        Thread resumingThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                sessionResumption.resume(resumeToken, newClientSession);
+            }
+        });
+        resumingThread.start();
+        assertTrue("The buffered message was not replayed.", replayStarted.await(1, TimeUnit.SECONDS));
+
+        // returns while the replayed message is still being sent
+        sessionResumption.send(FIRST_DEVICE_ID, message("second"));
+        assertTrue("A message was sent before the replayed one.", sentMessages.isEmpty());
+
+        replayUnblocked.countDown();
+        resumingThread.join(1000);
+
+        assertEquals("The message was not sent after the replayed one.",
+                     Arrays.asList("first", "second"),
+                     sentMessages);
+    }
+
+    @Test
+    public void testReplayBufferDropsTheOldestMessages() {
+        String resumeToken = sessionResumption.bind(clientSession, FIRST_DEVICE_ID);
+        when(clientSession.isOpen()).thenReturn(false);
+
+        sessionResumption.send(FIRST_DEVICE_ID, message("first"));
+        sessionResumption.send(FIRST_DEVICE_ID, message("second"));
+        sessionResumption.send(FIRST_DEVICE_ID, message("third"));
+        sessionResumption.resume(resumeToken, newClientSession);
+
+        assertEquals("The oldest message was not dropped.", Arrays.asList("second", "third"), sentMessages);
+    }
+
+    @Test
+    public void testUnknownTokenIsRejected() {
+        sessionResumption.bind(clientSession, FIRST_DEVICE_ID);
+
+        assertNull("A session was resumed with an unknown token.",
+                   sessionResumption.resume("unknown_token", newClientSession));
+    }
+
+    @Test
+    public void testTokenExpiresWhenTheDevicesOfTheClosedSessionAreReleased() {
+        String resumeToken = sessionResumption.bind(clientSession, FIRST_DEVICE_ID);
+        when(clientSession.isOpen()).thenReturn(false);
+        sessionResumption.sessionClosed(clientSession);
+
+        sessionResumption.unbind(FIRST_DEVICE_ID);
+
+        assertNull("A session without devices was resumed.", sessionResumption.resume(resumeToken, newClientSession));
+    }
+
+    private ClientSessionResumption.ReplayedMessage message(final String text) {
+        return new ClientSessionResumption.ReplayedMessage() {
+            @Override
+            public void replay(Session session) {
+                if (session.isOpen()) {
+                    sentMessages.add(text);
+                }
+            }
+        };
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static Session mockSession(String sessionId, boolean isOpen) {
+        Session session = mock(Session.class);
+        when(session.getId()).thenReturn(sessionId);
+        when(session.isOpen()).thenReturn(isOpen);
+
+        return session;
+    }
+}
@@ -0,0 +1,114 @@
+// This file is part of the ATMOSPHERE mobile testing framework.
+// Copyright (C) 2016 MusalaSoft
+//
+// ATMOSPHERE is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// ATMOSPHERE is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with ATMOSPHERE.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.musala.atmosphere.server.websocket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import com.google.gson.JsonParseException;
+import com.musala.atmosphere.commons.websocket.message.MessageAction;
+import com.musala.atmosphere.commons.websocket.util.GsonUtil;
+import com.musala.atmosphere.commons.websocket.util.IJsonUtil;
+import com.musala.atmosphere.commons.websocket.util.JsonConst;
+
+/**
+ * Tests the {@link MessageEnvelopeReader message envelope reader}.
+ *
+ * @author dimcho.nedev
+ *
+ */
+public class MessageEnvelopeReaderTest {
+    private static final String DEVICE_ID = "agent_id_device_id";
+
+    private static final long PASSKEY = 1234567890123L;
+
+    private static final String SESSION_ID = "session_id";
+
+    private static final String ROUTED_MESSAGE_FORMAT = "{\"arguments\":[%s],\"messageAction\":\"ROUTING_ACTION\","
+            + "\"deviceId\":\"" + DEVICE_ID + "\",\"passkey\":" + PASSKEY + ",\"sessionId\":\"" + SESSION_ID + "\"}";
+
+    // a payload which contains the envelope field names and JSON special characters in nested values
+    private static final String NESTED_PAYLOAD = "{\"deviceId\":\"fake\",\"data\":\"{\\\"passkey\\\": 1}\","
+            + "\"values\":[1,2.5,true,null,{\"sessionId\":\"fake\"}]}";
+
+    private static final IJsonUtil jsonUtil = new GsonUtil();
+
+    @Test
+    public void testReadEnvelopeAfterNestedPayload() {
+        String jsonMessage = String.format(ROUTED_MESSAGE_FORMAT, NESTED_PAYLOAD);
+
+        MessageEnvelope envelope = MessageEnvelopeReader.read(jsonMessage);
+
+        assertEquals("The message action is not the expected one.",
+                     MessageAction.ROUTING_ACTION,
+                     envelope.getMessageAction());
+        assertEquals("The device ID is not the expected one.", DEVICE_ID, envelope.getDeviceId());
+        assertEquals("The passkey is not the expected one.", Long.valueOf(PASSKEY), envelope.getPasskey());
+        assertEquals("The session ID is not the expected one.", SESSION_ID, envelope.getSessionId());
+    }
+
+    @Test
+    public void testReadEnvelopeMatchesPropertyParsing() {
+        String jsonMessage = String.format(ROUTED_MESSAGE_FORMAT, createLargePayload(1_000));
+
+        MessageEnvelope envelope = MessageEnvelopeReader.read(jsonMessage);
+
+        assertEquals("The message action is different from the parsed one.",
+                     jsonUtil.getProperty(jsonMessage, JsonConst.MESSAGE_ACTION, MessageAction.class),
+                     envelope.getMessageAction());
+        assertEquals("The device ID is different from the parsed one.",
+                     jsonUtil.getProperty(jsonMessage, JsonConst.DEVICE_ID, String.class),
+                     envelope.getDeviceId());
+        assertEquals("The passkey is different from the parsed one.",
+                     jsonUtil.getProperty(jsonMessage, JsonConst.DEVICE_PASSKEY, Long.class),
+                     envelope.getPasskey());
+        assertEquals("The session ID is different from the parsed one.",
+                     jsonUtil.getProperty(jsonMessage, JsonConst.SESSION_ID, String.class),
+                     envelope.getSessionId());
+    }
+
+    @Test
+    public void testReadEnvelopeWithMissingFields() {
+        MessageEnvelope envelope = MessageEnvelopeReader.read("{\"messageAction\":\"ERROR\",\"deviceId\":null}");
+
+        assertEquals("The message action is not the expected one.", MessageAction.ERROR, envelope.getMessageAction());
+        assertNull("A missing device ID was read.", envelope.getDeviceId());
+        assertNull("A missing passkey was read.", envelope.getPasskey());
+        assertNull("A missing session ID was read.", envelope.getSessionId());
+    }
+
+    @Test(expected = JsonParseException.class)
+    public void testReadEnvelopeOfMalformedMessage() {
+        MessageEnvelopeReader.read("[\"messageAction\"]");
+    }
+
+    private static String createLargePayload(int elementsCount) {
+        StringBuilder payload = new StringBuilder();
+
+        for (int index = 0; index < elementsCount; index++) {
+            if (index > 0) {
+                payload.append(',');
+            }
+
+            payload.append(NESTED_PAYLOAD);
+        }
+
+        return payload.toString();
+    }
+}
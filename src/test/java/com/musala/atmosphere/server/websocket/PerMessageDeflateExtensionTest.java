@@ -0,0 +1,275 @@
+// This file is part of the ATMOSPHERE mobile testing framework.
+// Copyright (C) 2016 MusalaSoft
+//
+// ATMOSPHERE is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// ATMOSPHERE is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with ATMOSPHERE.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.musala.atmosphere.server.websocket;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+import javax.websocket.Extension;
+import javax.websocket.Extension.Parameter;
+
+import org.glassfish.tyrus.core.extension.ExtendedExtension.ExtensionContext;
+import org.glassfish.tyrus.core.frame.Frame;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the {@link PerMessageDeflateExtension permessage-deflate extension} and its negotiation.
+ *
+ * @author dimcho.nedev
+ *
+ */
+public class PerMessageDeflateExtensionTest {
+    private static final int THRESHOLD = 64;
+
+    private static final byte TEXT_OPCODE = 0x01;
+
+    private static final byte CONTINUATION_OPCODE = 0x00;
+
+    private static final String LARGE_MESSAGE = createMessage(200);
+
+    private PerMessageDeflateExtension serverExtension;
+
+    private PerMessageDeflateExtension clientExtension;
+
+    private ExtensionContext serverContext;
+
+    private ExtensionContext clientContext;
+
+    @Before
+    public void setUp() {
+        serverExtension = new PerMessageDeflateExtension(THRESHOLD, Deflater.BEST_SPEED, false);
+        clientExtension = new PerMessageDeflateExtension(THRESHOLD, Deflater.BEST_SPEED, false);
+        serverContext = createContext();
+        clientContext = createContext();
+
+        serverExtension.onExtensionNegotiation(serverContext, null);
+        clientExtension.onExtensionNegotiation(clientContext, null);
+    }
+
+    @After
+    public void tearDown() {
+        serverExtension.destroy(serverContext);
+        clientExtension.destroy(clientContext);
+    }
+
+    @Test
+    public void testLargeMessageIsCompressed() {
+        byte[] payload = LARGE_MESSAGE.getBytes(StandardCharsets.UTF_8);
+
+        Frame compressedFrame = serverExtension.processOutgoing(serverContext, createFrame(TEXT_OPCODE, payload, true));
+
+        assertTrue("The compressed frame should have the RSV1 bit set.", compressedFrame.isRsv1());
+        assertTrue("The payload should be compressed.", compressedFrame.getPayloadLength() < payload.length);
+
+        Frame receivedFrame = clientExtension.processIncoming(clientContext, compressedFrame);
+
+        assertFalse("The RSV1 bit should be cleared after decompression.", receivedFrame.isRsv1());
+        assertArrayEquals("The decompressed payload is not the expected one.",
+                          payload,
+                          receivedFrame.getPayloadData());
+    }
+
+    @Test
+    public void testSmallMessageIsNotCompressed() {
+        Frame frame = createFrame(TEXT_OPCODE, new byte[THRESHOLD - 1], true);
+
+        Frame sentFrame = serverExtension.processOutgoing(serverContext, frame);
+
+        assertSame("A message below the threshold should be sent as it is.", frame, sentFrame);
+        assertSame("An uncompressed message should be received as it is.",
+                   sentFrame,
+                   clientExtension.processIncoming(clientContext, sentFrame));
+    }
+
+    @Test
+    public void testCompressionContextIsKeptBetweenMessages() {
+        byte[] payload = LARGE_MESSAGE.getBytes(StandardCharsets.UTF_8);
+
+        Frame firstFrame = serverExtension.processOutgoing(serverContext, createFrame(TEXT_OPCODE, payload, true));
+        Frame secondFrame = serverExtension.processOutgoing(serverContext, createFrame(TEXT_OPCODE, payload, true));
+
+        assertTrue("A repeated message should be compressed better with the kept context.",
+                   secondFrame.getPayloadLength() < firstFrame.getPayloadLength());
+        assertArrayEquals("The first decompressed payload is not the expected one.",
+                          payload,
+                          clientExtension.processIncoming(clientContext, firstFrame).getPayloadData());
+        assertArrayEquals("The second decompressed payload is not the expected one.",
+                          payload,
+                          clientExtension.processIncoming(clientContext, secondFrame).getPayloadData());
+    }
+
+    @Test
+    public void testCompressionContextIsResetWithoutContextTakeover() {
+        PerMessageDeflateExtension extension = new PerMessageDeflateExtension(THRESHOLD, Deflater.BEST_SPEED, true);
+        ExtensionContext context = createContext();
+        List<Parameter> responseParameters = extension.onExtensionNegotiation(context, null);
+        byte[] payload = LARGE_MESSAGE.getBytes(StandardCharsets.UTF_8);
+
+        Frame firstFrame = extension.processOutgoing(context, createFrame(TEXT_OPCODE, payload, true));
+        Frame secondFrame = extension.processOutgoing(context, createFrame(TEXT_OPCODE, payload, true));
+        extension.destroy(context);
+
+        assertEquals("The server_no_context_takeover parameter should be confirmed.",
+                     PerMessageDeflateExtension.SERVER_NO_CONTEXT_TAKEOVER,
+                     responseParameters.get(0).getName());
+        assertArrayEquals("Every message should be compressed independently.",
+                          firstFrame.getPayloadData(),
+                          secondFrame.getPayloadData());
+    }
+
+    @Test
+    public void testFragmentedCompressedMessageIsDecompressed() {
+        byte[] payload = LARGE_MESSAGE.getBytes(StandardCharsets.UTF_8);
+        byte[] compressedPayload = serverExtension.processOutgoing(serverContext,
+                                                                   createFrame(TEXT_OPCODE, payload, true))
+                                                  .getPayloadData();
+        int splitIndex = compressedPayload.length / 2;
+
+        Frame firstFrame = Frame.builder()
+                                .opcode(TEXT_OPCODE)
+                                .fin(false)
+                                .rsv1(true)
+                                .payloadData(Arrays.copyOfRange(compressedPayload, 0, splitIndex))
+                                .build();
+        Frame lastFrame = createFrame(CONTINUATION_OPCODE,
+                                      Arrays.copyOfRange(compressedPayload, splitIndex, compressedPayload.length),
+                                      true);
+
+        byte[] firstPart = clientExtension.processIncoming(clientContext, firstFrame).getPayloadData();
+        byte[] lastPart = clientExtension.processIncoming(clientContext, lastFrame).getPayloadData();
+
+        String receivedMessage = new String(firstPart, StandardCharsets.UTF_8)
+                + new String(lastPart, StandardCharsets.UTF_8);
+        assertEquals("The decompressed message is not the expected one.", LARGE_MESSAGE, receivedMessage);
+    }
+
+    @Test
+    public void testOutgoingFragmentIsNotCompressed() {
+        Frame frame = createFrame(TEXT_OPCODE, LARGE_MESSAGE.getBytes(StandardCharsets.UTF_8), false);
+
+        assertSame("Fragments should be sent uncompressed.",
+                   frame,
+                   serverExtension.processOutgoing(serverContext, frame));
+    }
+
+    @Test
+    public void testNegotiationWithEnabledConfigurator() {
+        PerMessageDeflateConfigurator configurator = new PerMessageDeflateConfigurator(true);
+        List<Extension> requested = Arrays.asList(createExtension(PerMessageDeflateExtension.SERVER_MAX_WINDOW_BITS,
+                                                                  "10"),
+                                                  createExtension(PerMessageDeflateExtension.SERVER_MAX_WINDOW_BITS,
+                                                                  "15"));
+
+        List<Extension> negotiated = configurator.getNegotiatedExtensions(new ArrayList<Extension>(), requested);
+
+        assertEquals("Only the offer with a supported window size should be accepted.", 1, negotiated.size());
+        assertEquals("The negotiated extension is not the expected one.",
+                     PerMessageDeflateExtension.NAME,
+                     negotiated.get(0).getName());
+    }
+
+    @Test
+    public void testNegotiationWithUnsupportedWindowSize() {
+        PerMessageDeflateConfigurator configurator = new PerMessageDeflateConfigurator(true);
+        List<Extension> requested = Arrays.asList(createExtension(PerMessageDeflateExtension.SERVER_MAX_WINDOW_BITS,
+                                                                  "10"));
+
+        List<Extension> negotiated = configurator.getNegotiatedExtensions(new ArrayList<Extension>(), requested);
+
+        assertTrue("An offer with an unsupported window size should be declined.", negotiated.isEmpty());
+    }
+
+    @Test
+    public void testNegotiationWithDisabledConfigurator() {
+        PerMessageDeflateConfigurator configurator = new PerMessageDeflateConfigurator(false);
+        List<Extension> requested = Arrays.asList(createExtension(null, null));
+
+        List<Extension> negotiated = configurator.getNegotiatedExtensions(new ArrayList<Extension>(), requested);
+
+        assertTrue("The extension should not be negotiated when compression is disabled.", negotiated.isEmpty());
+    }
+
+    private static ExtensionContext createContext() {
+        Map<String, Object> properties = new HashMap<>();
+        ExtensionContext context = mock(ExtensionContext.class);
+        when(context.getProperties()).thenReturn(properties);
+
+        return context;
+    }
+
+    private static Frame createFrame(byte opcode, byte[] payload, boolean isFin) {
+        return Frame.builder().opcode(opcode).fin(isFin).payloadData(payload).build();
+    }
+
+    private static Extension createExtension(final String parameterName, final String parameterValue) {
+        final List<Parameter> parameters = new ArrayList<>();
+
+        if (parameterName != null) {
+            parameters.add(new Parameter() {
+                @Override
+                public String getName() {
+                    return parameterName;
+                }
+
+                @Override
+                public String getValue() {
+                    return parameterValue;
+                }
+            });
+        }
+
+        return new Extension() {
+            @Override
+            public String getName() {
+                return PerMessageDeflateExtension.NAME;
+            }
+
+            @Override
+            public List<Parameter> getParameters() {
+                return Collections.unmodifiableList(parameters);
+            }
+        };
+    }
+
+    private static String createMessage(int nodeCount) {
+        StringBuilder message = new StringBuilder("{\"arguments\":[\"<hierarchy>");
+
+        for (int index = 0; index < nodeCount; index++) {
+            message.append(String.format("<node index='%d' class='android.widget.TextView' text='item %d' />",
+                                         index,
+                                         index));
+        }
+
+        return message.append("</hierarchy>\"]}").toString();
+    }
+}
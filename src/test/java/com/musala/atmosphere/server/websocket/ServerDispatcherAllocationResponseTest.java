@@ -0,0 +1,81 @@
+// This file is part of the ATMOSPHERE mobile testing framework.
+// Copyright (C) 2016 MusalaSoft
+//
+// ATMOSPHERE is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// ATMOSPHERE is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with ATMOSPHERE.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.musala.atmosphere.server.websocket;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.contains;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import javax.websocket.RemoteEndpoint;
+import javax.websocket.SendHandler;
+import javax.websocket.Session;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.musala.atmosphere.commons.websocket.message.MessageAction;
+
+/**
+ * Tests the responses the {@link ServerDispatcher dispatcher} sends to the clients for their completed allocations.
+ *
+ * @author dimcho.nedev
+ *
+ */
+public class ServerDispatcherAllocationResponseTest {
+    private static final String REQUEST_SESSION_ID = "request_session_id";
+
+    private final ServerDispatcher dispatcher = ServerDispatcher.getInstance();
+
+    private Session clientSession;
+
+    private RemoteEndpoint.Async clientRemote;
+
+    @Before
+    public void setUp() {
+        clientRemote = mock(RemoteEndpoint.Async.class);
+        clientSession = mock(Session.class);
+        when(clientSession.getId()).thenReturn("allocating_client_session");
+        when(clientSession.isOpen()).thenReturn(true);
+        when(clientSession.getAsyncRemote()).thenReturn(clientRemote);
+        when(clientSession.getNegotiatedSubprotocol()).thenReturn("");
+    }
+
+    @After
+    public void tearDown() {
+        dispatcher.removeSessionOutbound(clientSession);
+    }
+
+    @Test
+    public void testTimedOutAllocationIsSentToTheClient() {
+        dispatcher.sendAllocationResponse(null, null, clientSession, REQUEST_SESSION_ID);
+
+        verify(clientRemote).sendText(contains(MessageAction.DEVICE_ALLOCATION_INFORMATION.name()),
+                                      any(SendHandler.class));
+        verify(clientRemote, never()).sendText(contains("resumeToken"), any(SendHandler.class));
+    }
+
+    @Test
+    public void testFailedAllocationIsSentAsError() {
+        dispatcher.sendAllocationResponse(null, new IllegalStateException("failed"), clientSession, REQUEST_SESSION_ID);
+
+        verify(clientRemote).sendText(contains(MessageAction.ERROR.name()), any(SendHandler.class));
+    }
+}
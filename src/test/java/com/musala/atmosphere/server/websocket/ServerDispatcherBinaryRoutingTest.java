@@ -0,0 +1,220 @@
+// This file is part of the ATMOSPHERE mobile testing framework.
+// Copyright (C) 2016 MusalaSoft
+//
+// ATMOSPHERE is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// ATMOSPHERE is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with ATMOSPHERE.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.musala.atmosphere.server.websocket;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.contains;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import javax.websocket.RemoteEndpoint;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.musala.atmosphere.commons.websocket.message.MessageAction;
+import com.musala.atmosphere.server.PasskeyAuthority;
+
+/**
+ * Tests the routing of binary frames by the {@link ServerDispatcher dispatcher} between peers working in binary and
+ * text mode.
+ *
+ * @author dimcho.nedev
+ *
+ */
+public class ServerDispatcherBinaryRoutingTest {
+    private static final String DEVICE_ID = "mockagent_mockdevice";
+
+    private static final long PASSKEY = 42;
+
+    private static final String SESSION_ID = "session_id";
+
+    private static final String JSON_MESSAGE = "{\"messageAction\":\"ROUTING_ACTION\"}";
+
+    private static final byte[] BINARY_PAYLOAD = new byte[] {1, 2, 3, -1};
+
+    private final ServerDispatcher dispatcher = ServerDispatcher.getInstance();
+
+    private Session clientSession;
+
+    private RemoteEndpoint.Async clientRemote;
+
+    private Session agentSession;
+
+    private RemoteEndpoint.Async agentRemote;
+
+    @Before
+    public void setUp() throws Exception {
+        clientRemote = mockRemote();
+        clientSession = mockSession("client_session", clientRemote);
+
+        agentRemote = mockRemote();
+        agentSession = mockSession("agent_session", agentRemote);
+
+        getSessionCache("deviceIdToAgentSessionCache").put(DEVICE_ID, agentSession);
+        PasskeyAuthority.registerPasskey(DEVICE_ID, PASSKEY);
+    }
+
+    @After
+    public void tearDown() {
+        dispatcher.removeCachedSessionByDeviceId(DEVICE_ID);
+        dispatcher.removeSessionOutbound(clientSession);
+        dispatcher.removeSessionOutbound(agentSession);
+        PasskeyAuthority.revokePasskey(DEVICE_ID);
+    }
+
+    @Test
+    public void testRouteFrameToBinaryAgent() throws Exception {
+        negotiateBinary(agentSession);
+        ByteBuffer frame = encode(PASSKEY, ByteBuffer.wrap(BINARY_PAYLOAD), false);
+
+        dispatcher.route(BinaryFrameCodec.decode(frame), clientSession);
+
+        verify(agentRemote).sendBinary(eq(frame), any(SendHandler.class));
+        verify(agentRemote, never()).sendText(anyString(), any(SendHandler.class));
+    }
+
+    @Test
+    public void testRouteJsonFrameToTextAgent() throws Exception {
+        ByteBuffer frame = encode(PASSKEY, StandardCharsets.UTF_8.encode(JSON_MESSAGE), true);
+
+        dispatcher.route(BinaryFrameCodec.decode(frame), clientSession);
+
+        verify(agentRemote).sendText(eq(JSON_MESSAGE), any(SendHandler.class));
+        verify(agentRemote, never()).sendBinary(any(ByteBuffer.class), any(SendHandler.class));
+    }
+
+    @Test
+    public void testRouteBinaryFrameToTextAgent() throws Exception {
+        ByteBuffer frame = encode(PASSKEY, ByteBuffer.wrap(BINARY_PAYLOAD), false);
+
+        dispatcher.route(BinaryFrameCodec.decode(frame), clientSession);
+
+        verify(agentRemote, never()).sendBinary(any(ByteBuffer.class), any(SendHandler.class));
+        verify(agentRemote, never()).sendText(anyString(), any(SendHandler.class));
+        verify(clientRemote).sendText(contains(MessageAction.ERROR.name()), any(SendHandler.class));
+    }
+
+    @Test
+    public void testRouteFrameWithInvalidPasskey() throws Exception {
+        negotiateBinary(agentSession);
+        ByteBuffer frame = encode(PASSKEY + 1, ByteBuffer.wrap(BINARY_PAYLOAD), false);
+
+        dispatcher.route(BinaryFrameCodec.decode(frame), clientSession);
+
+        verify(agentRemote, never()).sendBinary(any(ByteBuffer.class), any(SendHandler.class));
+        verify(clientRemote).sendText(contains(MessageAction.ERROR.name()), any(SendHandler.class));
+    }
+
+    @Test
+    public void testRouteFrameWithoutPasskey() throws Exception {
+        negotiateBinary(agentSession);
+        ByteBuffer frame = encode(null, ByteBuffer.wrap(BINARY_PAYLOAD), false);
+
+        dispatcher.route(BinaryFrameCodec.decode(frame), clientSession);
+
+        verify(agentRemote, never()).sendBinary(any(ByteBuffer.class), any(SendHandler.class));
+        verify(clientRemote).sendText(contains(MessageAction.ERROR.name()), any(SendHandler.class));
+    }
+
+    @Test
+    public void testSendFrameToBinaryClient() throws Exception {
+        negotiateBinary(clientSession);
+        getSessionCache("deviceIdToClientSessionCache").put(DEVICE_ID, clientSession);
+        ByteBuffer frame = encode(null, ByteBuffer.wrap(BINARY_PAYLOAD), false);
+
+        dispatcher.sendToClient(BinaryFrameCodec.decode(frame));
+
+        verify(clientRemote).sendBinary(eq(frame), any(SendHandler.class));
+    }
+
+    @Test
+    public void testSendJsonFrameToTextClient() throws Exception {
+        getSessionCache("deviceIdToClientSessionCache").put(DEVICE_ID, clientSession);
+        ByteBuffer frame = encode(null, StandardCharsets.UTF_8.encode(JSON_MESSAGE), true);
+
+        dispatcher.sendToClient(BinaryFrameCodec.decode(frame));
+
+        verify(clientRemote).sendText(eq(JSON_MESSAGE), any(SendHandler.class));
+    }
+
+    private static RemoteEndpoint.Async mockRemote() {
+        RemoteEndpoint.Async remote = mock(RemoteEndpoint.Async.class);
+        Answer<Void> completeSend = new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                SendHandler handler = (SendHandler) invocation.getArguments()[1];
+                handler.onResult(new SendResult());
+
+                return null;
+            }
+        };
+
+        doAnswer(completeSend).when(remote).sendText(anyString(), any(SendHandler.class));
+        doAnswer(completeSend).when(remote).sendBinary(any(ByteBuffer.class), any(SendHandler.class));
+
+        return remote;
+    }
+
+    private static Session mockSession(String sessionId, RemoteEndpoint.Async remote) {
+        Session session = mock(Session.class);
+        when(session.getId()).thenReturn(sessionId);
+        when(session.isOpen()).thenReturn(true);
+        when(session.getAsyncRemote()).thenReturn(remote);
+        when(session.getNegotiatedSubprotocol()).thenReturn("");
+
+        return session;
+    }
+
+    private static void negotiateBinary(Session session) {
+        when(session.getNegotiatedSubprotocol()).thenReturn(BinaryFrameCodec.SUBPROTOCOL);
+    }
+
+    private static ByteBuffer encode(Long passkey, ByteBuffer payload, boolean isTextPayload) {
+        MessageEnvelope envelope = new MessageEnvelope();
+        envelope.setMessageAction(MessageAction.ROUTING_ACTION.name());
+        envelope.setDeviceId(DEVICE_ID);
+        envelope.setPasskey(passkey);
+        envelope.setSessionId(SESSION_ID);
+
+        return BinaryFrameCodec.encode(envelope, payload, isTextPayload);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Session> getSessionCache(String fieldName) throws Exception {
+        Field sessionCacheField = ServerDispatcher.class.getDeclaredField(fieldName);
+        sessionCacheField.setAccessible(true);
+
+        return (Map<String, Session>) sessionCacheField.get(dispatcher);
+    }
+}
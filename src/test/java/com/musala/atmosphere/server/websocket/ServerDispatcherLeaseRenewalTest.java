@@ -0,0 +1,171 @@
+// This file is part of the ATMOSPHERE mobile testing framework.
+// Copyright (C) 2016 MusalaSoft
+//
+// ATMOSPHERE is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// ATMOSPHERE is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with ATMOSPHERE.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.musala.atmosphere.server.websocket;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.contains;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import javax.websocket.RemoteEndpoint;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import com.google.gson.JsonParser;
+import com.musala.atmosphere.commons.cs.clientbuilder.DeviceAllocationInformation;
+import com.musala.atmosphere.commons.websocket.message.MessageAction;
+import com.musala.atmosphere.server.PasskeyAuthority;
+import com.musala.atmosphere.server.pool.ClientRequestMonitor;
+
+/**
+ * Tests the renewal of the device leases by the {@link ServerDispatcher dispatcher}.
+ *
+ * @author dimcho.nedev
+ *
+ */
+public class ServerDispatcherLeaseRenewalTest {
+    private static final String DEVICE_ID = "mockagent_leaseddevice";
+
+    private static final long PASSKEY = 42;
+
+    private static final String RENEWAL_FORMAT = "{\"messageAction\":\"RENEW_LEASE\",\"deviceId\":\"%s\","
+            + "\"passkey\":%d,\"sessionId\":\"session_id\"}";
+
+    private static final String RESUMPTION_FORMAT = "{\"messageAction\":\"RESUME_SESSION\",\"resumeToken\":\"%s\","
+            + "\"sessionId\":\"session_id\"}";
+
+    private final ServerDispatcher dispatcher = ServerDispatcher.getInstance();
+
+    private final ClientRequestMonitor monitor = ClientRequestMonitor.getInstance();
+
+    private Session clientSession;
+
+    private RemoteEndpoint.Async clientRemote;
+
+    @Before
+    public void setUp() {
+        clientRemote = mock(RemoteEndpoint.Async.class);
+        clientSession = mock(Session.class);
+        when(clientSession.getId()).thenReturn("client_session");
+        when(clientSession.isOpen()).thenReturn(true);
+        when(clientSession.getAsyncRemote()).thenReturn(clientRemote);
+        when(clientSession.getNegotiatedSubprotocol()).thenReturn("");
+
+        PasskeyAuthority.registerPasskey(DEVICE_ID, PASSKEY);
+    }
+
+    @After
+    public void tearDown() {
+        monitor.endLease(DEVICE_ID);
+        dispatcher.removeSessionOutbound(clientSession);
+        PasskeyAuthority.revokePasskey(DEVICE_ID);
+    }
+
+    @Test
+    public void testRenewalIsRecognizedFromTheEnvelope() {
+        MessageEnvelope envelope = MessageEnvelopeReader.read(String.format(RENEWAL_FORMAT, DEVICE_ID, PASSKEY));
+
+        assertTrue("The renewal was not recognized.", envelope.isLeaseRenewal());
+        assertFalse("A routed message was recognized as a renewal.",
+                    MessageEnvelopeReader.read("{\"messageAction\":\"ROUTING_ACTION\"}").isLeaseRenewal());
+    }
+
+    @Test
+    public void testRenewLeaseOfAllocatedDevice() {
+        monitor.restartTimerForDevice(DEVICE_ID);
+
+        dispatcher.renewLease(MessageEnvelopeReader.read(String.format(RENEWAL_FORMAT, DEVICE_ID, PASSKEY)),
+                              clientSession);
+
+        verify(clientRemote, never()).sendText(anyString(), any(SendHandler.class));
+        assertTrue("The lease of the device is not active.", monitor.renewLease(DEVICE_ID));
+    }
+
+    @Test
+    public void testRenewLeaseWithInvalidPasskey() {
+        monitor.restartTimerForDevice(DEVICE_ID);
+
+        dispatcher.renewLease(MessageEnvelopeReader.read(String.format(RENEWAL_FORMAT, DEVICE_ID, PASSKEY + 1)),
+                              clientSession);
+
+        verify(clientRemote).sendText(contains(MessageAction.ERROR.name()), any(SendHandler.class));
+    }
+
+    @Test
+    public void testErrorToClosedSessionIsDropped() {
+        when(clientSession.isOpen()).thenReturn(false);
+
+        dispatcher.renewLease(MessageEnvelopeReader.read(String.format(RENEWAL_FORMAT, DEVICE_ID, PASSKEY + 1)),
+                              clientSession);
+
+        verify(clientRemote, never()).sendText(anyString(), any(SendHandler.class));
+
+        for (SessionOutboundMetrics metrics : dispatcher.getOutboundMetrics()) {
+            assertFalse("An outbound queue was created for a closed session.",
+                        clientSession.getId().equals(metrics.getSessionId()));
+        }
+    }
+
+    @Test
+    public void testRenewEndedLease() {
+        monitor.restartTimerForDevice(DEVICE_ID);
+        monitor.endLease(DEVICE_ID);
+
+        dispatcher.renewLease(MessageEnvelopeReader.read(String.format(RENEWAL_FORMAT, DEVICE_ID, PASSKEY)),
+                              clientSession);
+
+        verify(clientRemote).sendText(contains(MessageAction.ERROR.name()), any(SendHandler.class));
+        assertFalse("An ended lease was renewed.", monitor.renewLease(DEVICE_ID));
+    }
+
+    @Test
+    public void testExpiredLeaseIsNotResumed() {
+        dispatcher.sendAllocationResponse(new DeviceAllocationInformation(PASSKEY, DEVICE_ID),
+                                          null,
+                                          clientSession,
+                                          "session_id");
+
+        ArgumentCaptor<String> allocationResponse = ArgumentCaptor.forClass(String.class);
+        ArgumentCaptor<SendHandler> sendHandler = ArgumentCaptor.forClass(SendHandler.class);
+        verify(clientRemote).sendText(allocationResponse.capture(), sendHandler.capture());
+        sendHandler.getValue().onResult(new SendResult());
+
+        String resumeToken = new JsonParser().parse(allocationResponse.getValue())
+                                             .getAsJsonObject()
+                                             .get("resumeToken")
+                                             .getAsString();
+
+        dispatcher.removeExpiredLease(DEVICE_ID);
+
+        String resumption = String.format(RESUMPTION_FORMAT, resumeToken);
+        dispatcher.resumeSession(resumption, MessageEnvelopeReader.read(resumption), clientSession);
+
+        // the session is still open, so it is resumed, but without the device whose lease has expired
+        verify(clientRemote).sendText(contains("\"deviceIds\":[]"), any(SendHandler.class));
+    }
+}
@@ -0,0 +1,253 @@
+// This file is part of the ATMOSPHERE mobile testing framework.
+// Copyright (C) 2016 MusalaSoft
+//
+// ATMOSPHERE is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// ATMOSPHERE is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with ATMOSPHERE.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.musala.atmosphere.server.websocket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.websocket.CloseReason;
+import javax.websocket.RemoteEndpoint;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/**
+ * Tests the {@link SessionOutbound outbound queue} of a WebSocket session against a peer that completes the sends only
+ * when the test says so.
+ *
+ * @author dimcho.nedev
+ *
+ */
+public class SessionOutboundTest {
+    private static final String SESSION_ID = "session_id";
+
+    private static final int QUEUE_CAPACITY = 1;
+
+    private static final long BLOCKED_SEND_WAIT_TIMEOUT = 300; // milliseconds
+
+    private static final long SEND_COMPLETION_TIMEOUT = 2000; // milliseconds
+
+    private final List<SendHandler> pendingSends = new CopyOnWriteArrayList<>();
+
+    private Session session;
+
+    private RemoteEndpoint.Async remote;
+
+    @Before
+    public void setUp() {
+        remote = mock(RemoteEndpoint.Async.class);
+        Answer<Void> holdSend = new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                pendingSends.add((SendHandler) invocation.getArguments()[1]);
+                return null;
+            }
+        };
+        doAnswer(holdSend).when(remote).sendText(anyString(), any(SendHandler.class));
+        doAnswer(holdSend).when(remote).sendBinary(any(ByteBuffer.class), any(SendHandler.class));
+
+        session = mock(Session.class);
+        when(session.getId()).thenReturn(SESSION_ID);
+        when(session.isOpen()).thenReturn(true);
+        when(session.getAsyncRemote()).thenReturn(remote);
+    }
+
+    @Test
+    public void testMessagesAreSentOneAtATimeInOrder() {
+        SessionOutbound outbound = new SessionOutbound(session, QUEUE_CAPACITY, OutboundOverflowPolicy.DROP);
+        ByteBuffer binaryMessage = ByteBuffer.wrap(new byte[] {1, 2, 3});
+
+        outbound.sendText("first");
+        outbound.sendBinary(binaryMessage);
+
+        verify(remote).sendText(eq("first"), any(SendHandler.class));
+        verify(remote, never()).sendBinary(any(ByteBuffer.class), any(SendHandler.class));
+
+        completeNextSend();
+
+        verify(remote).sendBinary(eq(binaryMessage), any(SendHandler.class));
+    }
+
+    @Test
+    public void testDropPolicyDiscardsMessagesWhenQueueIsFull() throws Exception {
+        SessionOutbound outbound = new SessionOutbound(session, QUEUE_CAPACITY, OutboundOverflowPolicy.DROP);
+
+        outbound.sendText("sending");
+        outbound.sendText("queued");
+        outbound.sendText("dropped");
+
+        assertEquals("The message should be dropped.", 1, outbound.getMetrics().getDroppedMessages());
+
+        completeNextSend();
+        completeNextSend();
+
+        verify(remote).sendText(eq("queued"), any(SendHandler.class));
+        verify(remote, never()).sendText(eq("dropped"), any(SendHandler.class));
+        verify(session, never()).close(any(CloseReason.class));
+    }
+
+    @Test
+    public void testDisconnectPolicyClosesSessionWhenQueueIsFull() throws Exception {
+        SessionOutbound outbound = new SessionOutbound(session, QUEUE_CAPACITY, OutboundOverflowPolicy.DISCONNECT);
+
+        outbound.sendText("sending");
+        outbound.sendText("queued");
+        outbound.sendText("overflow");
+
+        verify(session).close(any(CloseReason.class));
+        assertEquals("The queued and the overflowing messages should be dropped.",
+                     2,
+                     outbound.getMetrics().getDroppedMessages());
+
+        completeNextSend();
+
+        verify(remote, times(1)).sendText(anyString(), any(SendHandler.class));
+    }
+
+    @Test
+    public void testBlockPolicyWaitsForSpaceInTheQueue() throws Exception {
+        final SessionOutbound outbound = new SessionOutbound(session, QUEUE_CAPACITY, OutboundOverflowPolicy.BLOCK);
+        final AtomicBoolean isSendReturned = new AtomicBoolean();
+
+        outbound.sendText("sending");
+        outbound.sendText("queued");
+
+        Thread blockedSender = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                outbound.sendText("blocked");
+                isSendReturned.set(true);
+            }
+        });
+        blockedSender.start();
+
+        blockedSender.join(BLOCKED_SEND_WAIT_TIMEOUT);
+        assertFalse("The sender should wait while the queue is full.", isSendReturned.get());
+
+        completeNextSend();
+
+        blockedSender.join(SEND_COMPLETION_TIMEOUT);
+        assertTrue("The sender should continue when there is space in the queue.", isSendReturned.get());
+        completeNextSend();
+
+        verify(remote).sendText(eq("blocked"), any(SendHandler.class));
+        assertEquals("No message should be dropped.", 0, outbound.getMetrics().getDroppedMessages());
+    }
+
+    @Test
+    public void testBlockPolicyDropsMessageWhenSessionIsClosed() {
+        SessionOutbound outbound = new SessionOutbound(session, QUEUE_CAPACITY, OutboundOverflowPolicy.BLOCK);
+
+        outbound.sendText("sending");
+        outbound.sendText("queued");
+
+        when(session.isOpen()).thenReturn(false);
+        outbound.sendText("blocked");
+
+        assertEquals("The message should be dropped.", 1, outbound.getMetrics().getDroppedMessages());
+    }
+
+    @Test
+    public void testFailedSendDoesNotStopTheQueue() {
+        SessionOutbound outbound = new SessionOutbound(session, QUEUE_CAPACITY, OutboundOverflowPolicy.DROP);
+        doThrow(new IllegalStateException("closed")).when(remote).sendText(eq("failing"), any(SendHandler.class));
+
+        outbound.sendText("failing");
+        outbound.sendText("next");
+
+        verify(remote).sendText(eq("next"), any(SendHandler.class));
+    }
+
+    @Test
+    public void testMetrics() {
+        SessionOutbound outbound = new SessionOutbound(session, 2, OutboundOverflowPolicy.DROP);
+
+        outbound.sendText("first");
+        outbound.sendText("second");
+        outbound.sendText("third");
+
+        SessionOutboundMetrics metrics = outbound.getMetrics();
+        assertEquals("The session ID is not the expected one.", SESSION_ID, metrics.getSessionId());
+        assertEquals("The queue depth should include the message being sent.", 3, metrics.getQueueDepth());
+        assertEquals("The maximum queue depth is not the expected one.", 2, metrics.getMaxQueueDepth());
+        assertEquals("No message should be sent yet.", 0, metrics.getSentMessages());
+
+        completeNextSend();
+        completeNextSend();
+
+        metrics = outbound.getMetrics();
+        assertEquals("The queue depth is not the expected one.", 1, metrics.getQueueDepth());
+        assertEquals("The number of sent messages is not the expected one.", 2, metrics.getSentMessages());
+        assertTrue("The send latency should be measured.", metrics.getAverageSendLatency() >= 0);
+        assertTrue("The maximum send latency should not be lower than the average one.",
+                   metrics.getMaxSendLatency() >= (long) metrics.getAverageSendLatency());
+    }
+
+    @Test
+    public void testFailedSendsAreNotCountedAsSent() {
+        SessionOutbound outbound = new SessionOutbound(session, QUEUE_CAPACITY, OutboundOverflowPolicy.DROP);
+        doThrow(new IllegalStateException("closed")).when(remote).sendText(eq("failing"), any(SendHandler.class));
+
+        outbound.sendText("failing");
+        outbound.sendText("next");
+        completeNextSend();
+
+        SessionOutboundMetrics metrics = outbound.getMetrics();
+        assertEquals("The failed message should not be counted as sent.", 1, metrics.getSentMessages());
+        assertEquals("The failed message should be counted.", 1, metrics.getFailedMessages());
+    }
+
+    @Test
+    public void testCloseDiscardsQueuedMessages() {
+        SessionOutbound outbound = new SessionOutbound(session, QUEUE_CAPACITY, OutboundOverflowPolicy.DROP);
+
+        outbound.sendText("sending");
+        outbound.sendText("queued");
+        outbound.close();
+
+        completeNextSend();
+
+        assertEquals("The queued message should be dropped.", 1, outbound.getMetrics().getDroppedMessages());
+        assertFalse("Only the message being sent should be completed.", pendingSends.size() > 0);
+    }
+
+    private void completeNextSend() {
+        SendHandler handler = pendingSends.remove(0);
+        handler.onResult(new SendResult());
+    }
+}